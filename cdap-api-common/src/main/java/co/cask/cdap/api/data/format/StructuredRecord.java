@@ -24,30 +24,38 @@ import java.io.Serializable;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
 import java.util.TimeZone;
 import javax.annotation.Nullable;
 
 /**
- * Instance of a record structured by a {@link Schema}. Fields are accessible by name.
+ * Instance of a record structured by a {@link Schema}. Fields are accessible by name or by their position in
+ * {@link Schema#getFields()}.
+ * <p>
+ * Field values are stored in an array laid out by the field positions of the schema. Values of non-nullable
+ * boolean, int, long, float and double fields are kept in primitive slots, which can be accessed through the
+ * typed position-based accessors without boxing.
+ * </p>
  */
 @Beta
 public class StructuredRecord implements Serializable {
   private static final SimpleDateFormat DEFAULT_FORMAT = new SimpleDateFormat("YYYY-MM-DD'T'HH:mm:ss z");
   private final Schema schema;
-  private final Map<String, Object> fields;
+  // Field values by position. For fields stored in a primitive slot, the entry is null.
+  private final Object[] values;
+  // Raw bits of the values stored in primitive slots, by position. It is null if there is no primitive slot in use.
+  private final long[] primitives;
 
-  private static final long serialVersionUID = -4648752378975451591L;
+  private static final long serialVersionUID = 3817245139084537269L;
 
   {
     DEFAULT_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
   }
 
-  private StructuredRecord(Schema schema, Map<String, Object> fields) {
+  private StructuredRecord(Schema schema, Object[] values, @Nullable long[] primitives) {
     this.schema = schema;
-    this.fields = fields;
+    this.values = values;
+    this.primitives = primitives;
   }
 
   /**
@@ -64,11 +72,104 @@ public class StructuredRecord implements Serializable {
    *
    * @param fieldName field to get.
    * @param <T> type of object of the field value.
+   * @return value of the field, or {@code null} if the field is not in the schema.
+   */
+  public <T> T get(String fieldName) {
+    int position = schema.getFieldIndex(fieldName);
+    return position < 0 ? null : this.<T>get(position);
+  }
+
+  /**
+   * Get the value of a field in the record by the field position.
+   *
+   * @param position position of the field in the {@link Schema#getFields() schema fields}.
+   * @param <T> type of object of the field value.
    * @return value of the field.
+   * @throws IndexOutOfBoundsException if the position is not valid for the schema.
    */
   @SuppressWarnings("unchecked")
-  public <T> T get(String fieldName) {
-    return (T) fields.get(fieldName);
+  public <T> T get(int position) {
+    Object value = values[position];
+    if (value != null) {
+      return (T) value;
+    }
+    Schema.Type type = getPrimitiveType(schema, position);
+    return type == null ? null : (T) box(type, primitives[position]);
+  }
+
+  /**
+   * Get the value of a boolean field in the record by the field position.
+   *
+   * @param position position of the field in the {@link Schema#getFields() schema fields}.
+   * @return value of the field.
+   * @throws NullPointerException if the field value is null.
+   * @throws ClassCastException if the field value is not a boolean.
+   */
+  public boolean getBoolean(int position) {
+    if (values[position] == null && getPrimitiveType(schema, position) == Schema.Type.BOOLEAN) {
+      return primitives[position] != 0L;
+    }
+    return (Boolean) get(position);
+  }
+
+  /**
+   * Get the value of a numeric field in the record as an int by the field position.
+   *
+   * @param position position of the field in the {@link Schema#getFields() schema fields}.
+   * @return value of the field.
+   * @throws NullPointerException if the field value is null.
+   * @throws ClassCastException if the field value is not a number.
+   */
+  public int getInt(int position) {
+    if (values[position] == null && getPrimitiveType(schema, position) == Schema.Type.INT) {
+      return (int) primitives[position];
+    }
+    return ((Number) get(position)).intValue();
+  }
+
+  /**
+   * Get the value of a numeric field in the record as a long by the field position.
+   *
+   * @param position position of the field in the {@link Schema#getFields() schema fields}.
+   * @return value of the field.
+   * @throws NullPointerException if the field value is null.
+   * @throws ClassCastException if the field value is not a number.
+   */
+  public long getLong(int position) {
+    if (values[position] == null && getPrimitiveType(schema, position) == Schema.Type.LONG) {
+      return primitives[position];
+    }
+    return ((Number) get(position)).longValue();
+  }
+
+  /**
+   * Get the value of a numeric field in the record as a float by the field position.
+   *
+   * @param position position of the field in the {@link Schema#getFields() schema fields}.
+   * @return value of the field.
+   * @throws NullPointerException if the field value is null.
+   * @throws ClassCastException if the field value is not a number.
+   */
+  public float getFloat(int position) {
+    if (values[position] == null && getPrimitiveType(schema, position) == Schema.Type.FLOAT) {
+      return Float.intBitsToFloat((int) primitives[position]);
+    }
+    return ((Number) get(position)).floatValue();
+  }
+
+  /**
+   * Get the value of a numeric field in the record as a double by the field position.
+   *
+   * @param position position of the field in the {@link Schema#getFields() schema fields}.
+   * @return value of the field.
+   * @throws NullPointerException if the field value is null.
+   * @throws ClassCastException if the field value is not a number.
+   */
+  public double getDouble(int position) {
+    if (values[position] == null && getPrimitiveType(schema, position) == Schema.Type.DOUBLE) {
+      return Double.longBitsToDouble(primitives[position]);
+    }
+    return ((Number) get(position)).doubleValue();
   }
 
   /**
@@ -85,17 +186,60 @@ public class StructuredRecord implements Serializable {
     return new Builder(schema);
   }
 
+  /**
+   * Returns the type of the field at the given position if its value is kept in a primitive slot,
+   * or {@code null} otherwise. Only non-nullable boolean, int, long, float and double fields use primitive slots.
+   */
+  @Nullable
+  private static Schema.Type getPrimitiveType(Schema schema, int position) {
+    Schema.Type type = schema.getFields().get(position).getSchema().getType();
+    switch (type) {
+      case BOOLEAN:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+        return type;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns the boxed value of the given primitive slot bits.
+   */
+  private static Object box(Schema.Type type, long bits) {
+    switch (type) {
+      case BOOLEAN:
+        return bits != 0L;
+      case INT:
+        return (int) bits;
+      case LONG:
+        return bits;
+      case FLOAT:
+        return Float.intBitsToFloat((int) bits);
+      case DOUBLE:
+        return Double.longBitsToDouble(bits);
+      default:
+        // shouldn't ever get here
+        throw new IllegalArgumentException("Type " + type + " does not have a primitive slot");
+    }
+  }
+
   /**
    * Builder for creating a {@link StructuredRecord}.
    * TODO: enforce schema correctness?
    */
   public static class Builder {
     private final Schema schema;
-    private Map<String, Object> fields;
+    private final Object[] values;
+    private final boolean[] isSet;
+    private long[] primitives;
 
     private Builder(Schema schema) {
       this.schema = schema;
-      this.fields = new HashMap<>();
+      this.values = new Object[schema.getFields().size()];
+      this.isSet = new boolean[values.length];
     }
 
     /**
@@ -108,8 +252,130 @@ public class StructuredRecord implements Serializable {
      *                                   value is given
      */
     public Builder set(String fieldName, @Nullable Object value) {
-      validateAndGetField(fieldName, value);
-      fields.put(fieldName, value);
+      return set(getPosition(fieldName), value);
+    }
+
+    /**
+     * Set the field at the given position to the given value.
+     *
+     * @param position Position of the field in the {@link Schema#getFields() schema fields}
+     * @param value Value for the field
+     * @return This builder
+     * @throws UnexpectedFormatException if the position is not valid for the schema, or the field is not nullable
+     *                                   but a null value is given
+     */
+    public Builder set(int position, @Nullable Object value) {
+      validateField(position, value);
+      Schema.Type type = getPrimitiveType(schema, position);
+      if (type == null) {
+        setValue(position, value);
+        return this;
+      }
+      // Only keep the value in the primitive slot if it is of the exact type of the field,
+      // so that the same value is returned by the get method.
+      if (type == Schema.Type.BOOLEAN && value instanceof Boolean) {
+        setPrimitive(position, (Boolean) value ? 1L : 0L);
+      } else if (type == Schema.Type.INT && value instanceof Integer) {
+        setPrimitive(position, (Integer) value);
+      } else if (type == Schema.Type.LONG && value instanceof Long) {
+        setPrimitive(position, (Long) value);
+      } else if (type == Schema.Type.FLOAT && value instanceof Float) {
+        setPrimitive(position, Float.floatToRawIntBits((Float) value));
+      } else if (type == Schema.Type.DOUBLE && value instanceof Double) {
+        setPrimitive(position, Double.doubleToRawLongBits((Double) value));
+      } else {
+        setValue(position, value);
+      }
+      return this;
+    }
+
+    /**
+     * Set the boolean field at the given position to the given value.
+     *
+     * @param position Position of the field in the {@link Schema#getFields() schema fields}
+     * @param value Value for the field
+     * @return This builder
+     * @throws UnexpectedFormatException if the position is not valid for the schema
+     */
+    public Builder setBoolean(int position, boolean value) {
+      checkPosition(position);
+      if (getPrimitiveType(schema, position) == Schema.Type.BOOLEAN) {
+        setPrimitive(position, value ? 1L : 0L);
+      } else {
+        setValue(position, value);
+      }
+      return this;
+    }
+
+    /**
+     * Set the int field at the given position to the given value.
+     *
+     * @param position Position of the field in the {@link Schema#getFields() schema fields}
+     * @param value Value for the field
+     * @return This builder
+     * @throws UnexpectedFormatException if the position is not valid for the schema
+     */
+    public Builder setInt(int position, int value) {
+      checkPosition(position);
+      if (getPrimitiveType(schema, position) == Schema.Type.INT) {
+        setPrimitive(position, value);
+      } else {
+        setValue(position, value);
+      }
+      return this;
+    }
+
+    /**
+     * Set the long field at the given position to the given value.
+     *
+     * @param position Position of the field in the {@link Schema#getFields() schema fields}
+     * @param value Value for the field
+     * @return This builder
+     * @throws UnexpectedFormatException if the position is not valid for the schema
+     */
+    public Builder setLong(int position, long value) {
+      checkPosition(position);
+      if (getPrimitiveType(schema, position) == Schema.Type.LONG) {
+        setPrimitive(position, value);
+      } else {
+        setValue(position, value);
+      }
+      return this;
+    }
+
+    /**
+     * Set the float field at the given position to the given value.
+     *
+     * @param position Position of the field in the {@link Schema#getFields() schema fields}
+     * @param value Value for the field
+     * @return This builder
+     * @throws UnexpectedFormatException if the position is not valid for the schema
+     */
+    public Builder setFloat(int position, float value) {
+      checkPosition(position);
+      if (getPrimitiveType(schema, position) == Schema.Type.FLOAT) {
+        setPrimitive(position, Float.floatToRawIntBits(value));
+      } else {
+        setValue(position, value);
+      }
+      return this;
+    }
+
+    /**
+     * Set the double field at the given position to the given value.
+     *
+     * @param position Position of the field in the {@link Schema#getFields() schema fields}
+     * @param value Value for the field
+     * @return This builder
+     * @throws UnexpectedFormatException if the position is not valid for the schema
+     */
+    public Builder setDouble(int position, double value) {
+      checkPosition(position);
+      if (getPrimitiveType(schema, position) == Schema.Type.DOUBLE) {
+        setPrimitive(position, Double.doubleToRawLongBits(value));
+      } else {
+        setValue(position, value);
+      }
       return this;
     }
 
@@ -141,19 +407,20 @@ public class StructuredRecord implements Serializable {
      */
     public Builder convertAndSet(String fieldName, @Nullable Date date,
                                  @Nullable DateFormat dateFormat) throws UnexpectedFormatException {
-      Schema.Field field = validateAndGetField(fieldName, date);
+      int position = getPosition(fieldName);
+      Schema.Field field = validateField(position, date);
       boolean isNullable = field.getSchema().isNullable();
       if (isNullable && date == null) {
-        fields.put(fieldName, null);
+        setValue(position, null);
         return this;
       }
 
       Schema.Type fieldType = isNullable ? field.getSchema().getNonNullable().getType() : field.getSchema().getType();
       if (fieldType == Schema.Type.LONG) {
-        fields.put(fieldName, date.getTime());
+        setLong(position, date.getTime());
       } else if (fieldType == Schema.Type.STRING) {
         DateFormat format = dateFormat == null ? DEFAULT_FORMAT : dateFormat;
-        fields.put(fieldName, format.format(date));
+        setValue(position, format.format(date));
       } else {
         throw new UnexpectedFormatException("Date must be either a long or a string, not a " + fieldType);
       }
@@ -171,9 +438,9 @@ public class StructuredRecord implements Serializable {
      *                                   value is given, or the string cannot be converted to the type for the field
      */
     public Builder convertAndSet(String fieldName, @Nullable String strVal) throws UnexpectedFormatException {
-      Schema.Field field = validateAndGetField(fieldName, strVal);
-      fields.put(fieldName, convertString(field.getSchema(), strVal));
-      return this;
+      int position = getPosition(fieldName);
+      Schema.Field field = validateField(position, strVal);
+      return set(position, convertString(field.getSchema(), strVal));
     }
 
     /**
@@ -183,20 +450,40 @@ public class StructuredRecord implements Serializable {
      * @throws UnexpectedFormatException if there is at least one non-nullable field without a value
      */
     public StructuredRecord build() throws UnexpectedFormatException {
-      // check that all non-nullable fields have a value.
-      for (Schema.Field field : schema.getFields()) {
-        String fieldName = field.getName();
-        if (!fields.containsKey(fieldName)) {
+      // check that all non-nullable fields have a value. Nullable fields without a value are null.
+      for (int i = 0; i < isSet.length; i++) {
+        if (!isSet[i]) {
+          Schema.Field field = schema.getFields().get(i);
           // if the field is not nullable and there is no value set for the field, this is invalid.
           if (!field.getSchema().isNullable()) {
-            throw new UnexpectedFormatException("Field " + fieldName + " must contain a value.");
-          } else {
-            // otherwise, set the value for the field to null
-            fields.put(fieldName, null);
+            throw new UnexpectedFormatException("Field " + field.getName() + " must contain a value.");
           }
         }
       }
-      return new StructuredRecord(schema, fields);
+      // copying the arrays, so that the record is not affected if the builder is used again
+      return new StructuredRecord(schema, values.clone(), primitives == null ? null : primitives.clone());
+    }
+
+    private void setValue(int position, @Nullable Object value) {
+      values[position] = value;
+      isSet[position] = true;
+    }
+
+    private void setPrimitive(int position, long bits) {
+      if (primitives == null) {
+        primitives = new long[values.length];
+      }
+      primitives[position] = bits;
+      values[position] = null;
+      isSet[position] = true;
+    }
+
+    private int getPosition(String fieldName) {
+      int position = schema.getFieldIndex(fieldName);
+      if (position < 0) {
+        throw new UnexpectedFormatException("field " + fieldName + " is not in the schema.");
+      }
+      return position;
     }
 
     private Object convertString(Schema schema, String strVal) throws UnexpectedFormatException {
@@ -238,11 +525,16 @@ public class StructuredRecord implements Serializable {
       }
     }
 
-    private Schema.Field validateAndGetField(String fieldName, Object val) {
-      Schema.Field field = schema.getField(fieldName);
-      if (field == null) {
-        throw new UnexpectedFormatException("field " + fieldName + " is not in the schema.");
+    private void checkPosition(int position) {
+      if (position < 0 || position >= values.length) {
+        throw new UnexpectedFormatException("field position " + position + " is not in the schema.");
       }
+    }
+
+    private Schema.Field validateField(int position, @Nullable Object val) {
+      checkPosition(position);
+      Schema.Field field = schema.getFields().get(position);
+      String fieldName = field.getName();
       Schema fieldSchema = field.getSchema();
       if (val == null) {
         if (fieldSchema.getType() == Schema.Type.NULL) {
@@ -272,13 +564,23 @@ public class StructuredRecord implements Serializable {
     }
 
     StructuredRecord that = (StructuredRecord) o;
-
-    return Objects.equals(schema, that.schema) && Objects.equals(fields, that.fields);
-
+    if (!Objects.equals(schema, that.schema)) {
+      return false;
+    }
+    for (int i = 0; i < values.length; i++) {
+      if (!Objects.equals(get(i), that.get(i))) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(schema, fields);
+    int result = Objects.hashCode(schema);
+    for (int i = 0; i < values.length; i++) {
+      result = 31 * result + Objects.hashCode(get(i));
+    }
+    return result;
   }
 }
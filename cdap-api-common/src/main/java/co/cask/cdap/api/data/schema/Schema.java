@@ -387,6 +387,9 @@ public final class Schema implements Serializable {
   // This is a on demand cache for case insensitive field lookup. No need to serialize.
   private transient Map<String, Field> ignoreCaseFieldMap;
 
+  // This is a on demand cache for field name to field position lookup. No need to serialize.
+  private transient Map<String, Integer> fieldIndexes;
+
   private Schema(Type type, Set<String> enumValues, Schema componentSchema, Schema keySchema, Schema valueSchema,
                  String recordName, Map<String, Field> fieldMap, List<Schema> unionSchemas) {
     this.type = type;
@@ -517,6 +520,32 @@ public final class Schema implements Serializable {
     return ignoreCaseFieldMap.get(name.toLowerCase());
   }
 
+  /**
+   * Returns the position of the record {@link Field} of the given name.
+   *
+   * @param name Name of the field
+   * @return The 0-base position of the field in {@link #getFields()} or {@code -1} if there is no such field in
+   *         this record or this is not a {@link Type#RECORD RECORD} schema.
+   */
+  public int getFieldIndex(String name) {
+    if (fields == null) {
+      return -1;
+    }
+
+    // Build the index map on demand.
+    Map<String, Integer> indexes = fieldIndexes;
+    if (indexes == null) {
+      indexes = new HashMap<>();
+      int idx = 0;
+      for (Field field : fields) {
+        indexes.put(field.getName(), idx++);
+      }
+      fieldIndexes = indexes;
+    }
+    Integer idx = indexes.get(name);
+    return idx == null ? -1 : idx;
+  }
+
   /**
    * @return An immutable {@link List} of schemas inside this union
    *         or {@code null} if this is not a {@link Type#UNION UNION} schema.
@@ -18,20 +18,34 @@ package co.cask.cdap.api.dataset.lib;
 
 import co.cask.cdap.api.common.Bytes;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.TreeSet;
 
 /**
  * Contains the state necessary to keep track of which partitions are processed and which partitions would need to be
  * processed as they are created.
+ *
+ * A compact state is a cursor that consists of a low-watermark, the start version, and the sorted set of versions
+ * below it that are excluded from the scanned range because they were still in progress. It is serialized with
+ * the versions delta encoded as variable length longs, which keeps its size small even with many long-running
+ * transactions in progress.
  */
 public class PartitionConsumerState {
   // useful on initial query of partitions
   public static final PartitionConsumerState FROM_BEGINNING =
     new PartitionConsumerState(0, Collections.<Long>emptyList());
 
+  // useful on initial query of partitions, for a consumer that keeps a compact state
+  public static final PartitionConsumerState COMPACT_FROM_BEGINNING =
+    new PartitionConsumerState(0, Collections.<Long>emptyList(), true);
+
+  private static final byte FORMAT_LIST = 0;
+  private static final byte FORMAT_COMPACT = 1;
+
   // Write pointer of a transaction, to be used as the start of the next scan for partitions.
   private final long startVersion;
 
@@ -42,12 +56,21 @@ public class PartitionConsumerState {
   // fall before the startVersion.
   private final List<Long> versionsToCheck;
 
+  // Whether this state is a compact cursor. If so, the versions to check are sorted and unique.
+  private final boolean compact;
+
   public PartitionConsumerState(long startVersion, List<Long> versionsToCheck) {
+    this(startVersion, versionsToCheck, false);
+  }
+
+  public PartitionConsumerState(long startVersion, List<Long> versionsToCheck, boolean compact) {
     if (versionsToCheck == null) {
       throw new IllegalArgumentException("List of versions cannot be null");
     }
     this.startVersion = startVersion;
-    this.versionsToCheck = Collections.unmodifiableList(new ArrayList<>(versionsToCheck));
+    this.versionsToCheck = Collections.unmodifiableList(compact ? new ArrayList<>(new TreeSet<>(versionsToCheck))
+                                                                : new ArrayList<>(versionsToCheck));
+    this.compact = compact;
   }
 
   public long getStartVersion() {
@@ -58,16 +81,35 @@ public class PartitionConsumerState {
     return versionsToCheck;
   }
 
+  /**
+   * @return whether this state is a compact cursor, which is preserved by the states that follow it
+   */
+  public boolean isCompact() {
+    return compact;
+  }
+
+  /**
+   * @return a state with the same start version and versions to check, that is compact if specified
+   */
+  public PartitionConsumerState withCompact(boolean compact) {
+    return compact == this.compact ? this : new PartitionConsumerState(startVersion, versionsToCheck, compact);
+  }
+
   public static PartitionConsumerState fromBytes(byte[] bytes) {
-    if (((bytes.length - 1) % Bytes.SIZEOF_LONG) != 0) {
-      throw new IllegalArgumentException("bytes does not have length divisible by " + Bytes.SIZEOF_LONG);
+    if (bytes.length == 0) {
+      throw new IllegalArgumentException("bytes is empty");
     }
-
     ByteBuffer bb = ByteBuffer.wrap(bytes);
     byte serializationFormatVersion = bb.get();
-    if (serializationFormatVersion != 0) {
+    if (serializationFormatVersion == FORMAT_COMPACT) {
+      return compactFromBytes(bb);
+    }
+    if (serializationFormatVersion != FORMAT_LIST) {
       throw new IllegalArgumentException("Unsupported serialization format: " + serializationFormatVersion);
     }
+    if (((bytes.length - 1) % Bytes.SIZEOF_LONG) != 0) {
+      throw new IllegalArgumentException("bytes does not have length divisible by " + Bytes.SIZEOF_LONG);
+    }
     long startVersion = bb.getLong();
     List<Long> versionsToCheck = new ArrayList<>();
     while (bb.hasRemaining()) {
@@ -77,11 +119,13 @@ public class PartitionConsumerState {
   }
 
   public byte[] toBytes() {
+    if (compact) {
+      return toCompactBytes();
+    }
     int numLongs = 1 + versionsToCheck.size();
     // first byte for serialization format version
     ByteBuffer bb = ByteBuffer.allocate(1 + Bytes.SIZEOF_LONG * numLongs);
-    // currently, serialization format is 0
-    bb.put((byte) 0);
+    bb.put(FORMAT_LIST);
     bb.putLong(startVersion);
     for (long l : versionsToCheck) {
       bb.putLong(l);
@@ -89,6 +133,66 @@ public class PartitionConsumerState {
     return bb.array();
   }
 
+  // The compact format is the start version, the number of versions to check, and the differences between each
+  // version to check and its predecessor, with the start version preceding the first. All of these are written as
+  // variable length longs, the differences in zig-zag encoding because the first one is negative.
+  private byte[] toCompactBytes() {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(16 + 2 * versionsToCheck.size());
+    os.write(FORMAT_COMPACT);
+    writeVarLong(os, startVersion);
+    writeVarLong(os, versionsToCheck.size());
+    long previous = startVersion;
+    for (long version : versionsToCheck) {
+      long delta = version - previous;
+      writeVarLong(os, (delta << 1) ^ (delta >> 63));
+      previous = version;
+    }
+    return os.toByteArray();
+  }
+
+  private static PartitionConsumerState compactFromBytes(ByteBuffer bb) {
+    long startVersion = readVarLong(bb);
+    long size = readVarLong(bb);
+    // each version takes at least one byte
+    if (size < 0 || size > bb.remaining()) {
+      throw new IllegalArgumentException("Invalid number of versions: " + size);
+    }
+    List<Long> versionsToCheck = new ArrayList<>((int) size);
+    long previous = startVersion;
+    for (int i = 0; i < size; i++) {
+      long encoded = readVarLong(bb);
+      previous += (encoded >>> 1) ^ -(encoded & 1);
+      versionsToCheck.add(previous);
+    }
+    if (bb.hasRemaining()) {
+      throw new IllegalArgumentException("Unexpected " + bb.remaining() + " trailing bytes");
+    }
+    return new PartitionConsumerState(startVersion, versionsToCheck, true);
+  }
+
+  private static void writeVarLong(ByteArrayOutputStream os, long value) {
+    while ((value & ~0x7FL) != 0) {
+      os.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    os.write((int) value);
+  }
+
+  private static long readVarLong(ByteBuffer bb) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (!bb.hasRemaining()) {
+        throw new IllegalArgumentException("Unexpected end of bytes");
+      }
+      byte b = bb.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed variable length long");
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -100,7 +204,7 @@ public class PartitionConsumerState {
 
     PartitionConsumerState that = (PartitionConsumerState) o;
 
-    if (startVersion != that.startVersion) {
+    if (startVersion != that.startVersion || compact != that.compact) {
       return false;
     }
     return versionsToCheck.equals(that.versionsToCheck);
@@ -110,6 +214,7 @@ public class PartitionConsumerState {
   public int hashCode() {
     int result = (int) (startVersion ^ (startVersion >>> 32));
     result = 31 * result + versionsToCheck.hashCode();
+    result = 31 * result + (compact ? 1 : 0);
     return result;
   }
 }
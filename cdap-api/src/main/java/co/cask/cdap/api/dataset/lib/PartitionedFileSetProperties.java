@@ -19,7 +19,9 @@ package co.cask.cdap.api.dataset.lib;
 import co.cask.cdap.api.annotation.Beta;
 import co.cask.cdap.api.dataset.table.TableProperties;
 
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 /**
@@ -38,6 +40,11 @@ public class PartitionedFileSetProperties extends FileSetProperties {
    */
   public static final String PARTITIONING_FIELD_PREFIX = "partitioning.field.";
 
+  /**
+   * The property name for the list of partitioning field names that have a secondary index.
+   */
+  public static final String INDEXED_FIELDS = "partitioning.indexed.fields";
+
   /**
    * Read the partitioning for a PartitionedFileSet from its properties.
    *
@@ -71,6 +78,29 @@ public class PartitionedFileSetProperties extends FileSetProperties {
     return builder.build();
   }
 
+  /**
+   * Read the names of the partitioning fields that have a secondary index from the properties of a
+   * PartitionedFileSet.
+   *
+   * @param properties the dataset properties
+   * @return the names of the indexed fields, in the order they were declared. The set is empty if the properties
+   *         declare no indexed fields.
+   */
+  public static Set<String> getIndexedFields(Map<String, String> properties) {
+    String fieldList = properties.get(INDEXED_FIELDS);
+    Set<String> fieldNames = new LinkedHashSet<>();
+    if (null == fieldList) {
+      return fieldNames;
+    }
+    for (String fieldName : fieldList.split(",")) {
+      fieldName = fieldName.trim();
+      if (!fieldName.isEmpty()) {
+        fieldNames.add(fieldName);
+      }
+    }
+    return fieldNames;
+  }
+
   /**
    * @return a properties builder
    */
@@ -105,6 +135,23 @@ public class PartitionedFileSetProperties extends FileSetProperties {
       return this;
     }
 
+    /**
+     * Sets the partitioning fields that have a secondary index. Partition queries with a filter on an indexed
+     * field read the matching partitions through the index, instead of scanning all partitions. This
+     * is useful for fields other than the first partitioning field, because the partitions are ordered by
+     * the first field. Each indexed field adds one index entry per partition.
+     */
+    public Builder setIndexedFields(String... fieldNames) {
+      StringBuilder builder = new StringBuilder();
+      String sep = "";
+      for (String fieldName : fieldNames) {
+        builder.append(sep).append(fieldName);
+        sep = ",";
+      }
+      add(INDEXED_FIELDS, builder.toString());
+      return this;
+    }
+
     /**
      * Set the table permissions as a map from user name to a permission string.
      */
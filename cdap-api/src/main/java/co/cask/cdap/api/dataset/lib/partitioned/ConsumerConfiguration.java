@@ -35,13 +35,15 @@ public class ConsumerConfiguration {
   private final int maxWorkingSetSize;
   private final long timeout;
   private final int maxRetries;
+  private final boolean compactState;
 
   private ConsumerConfiguration(Predicate<PartitionDetail> partitionPredicate,
-                                int maxWorkingSetSize, long timeout, int maxRetries) {
+                                int maxWorkingSetSize, long timeout, int maxRetries, boolean compactState) {
     this.partitionPredicate = partitionPredicate;
     this.maxWorkingSetSize = maxWorkingSetSize;
     this.timeout = timeout;
     this.maxRetries = maxRetries;
+    this.compactState = compactState;
   }
 
   /**
@@ -78,6 +80,14 @@ public class ConsumerConfiguration {
     return maxRetries;
   }
 
+  /**
+   * @return Whether the consumer keeps track of the partitions it has scanned for with a compact cursor, rather than
+   *         a list of transactions. See {@link co.cask.cdap.api.dataset.lib.PartitionConsumerState#isCompact()}.
+   */
+  public boolean isCompactState() {
+    return compactState;
+  }
+
   /**
    * @return a {@link Builder} instance to build an instance of a ConsumerConfiguration.
    */
@@ -102,6 +112,7 @@ public class ConsumerConfiguration {
     // 12 hour timeout
     private long timeout = TimeUnit.HOURS.toSeconds(12);
     private int maxRetries = 1;
+    private boolean compactState = false;
 
     private Builder() {
     }
@@ -138,12 +149,20 @@ public class ConsumerConfiguration {
       return this;
     }
 
+    /**
+     * Sets whether the consumer keeps a compact state. See {@link #isCompactState()}.
+     */
+    public Builder setCompactState(boolean compactState) {
+      this.compactState = compactState;
+      return this;
+    }
+
     /**
      * Create a ConsumerConfiguration from this builder, using the private ConsumerConfiguration
      * constructor.
      */
     public ConsumerConfiguration build() {
-      return new ConsumerConfiguration(partitionPredicate, maxWorkingSetSize, timeout, maxRetries);
+      return new ConsumerConfiguration(partitionPredicate, maxWorkingSetSize, timeout, maxRetries, compactState);
     }
   }
 }
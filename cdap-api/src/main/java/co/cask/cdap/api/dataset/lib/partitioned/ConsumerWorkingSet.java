@@ -62,6 +62,13 @@ public class ConsumerWorkingSet {
     return partitions;
   }
 
+  /**
+   * @return the state that determines which partitions are added to this working set when it is next populated
+   */
+  public PartitionConsumerState getPartitionConsumerState() {
+    return partitionConsumerState;
+  }
+
   /**
    * Adds a new partition to the working set.
    */
@@ -103,8 +110,10 @@ public class ConsumerWorkingSet {
   public void populate(PartitionedFileSet partitionedFileSet, ConsumerConfiguration configuration) {
     int numToPopulate = configuration.getMaxWorkingSetSize() - partitions.size();
     Predicate<PartitionDetail> predicate = configuration.getPartitionPredicate();
+    // the state is converted if the consumer is reconfigured to use a compact state, or to stop using it
+    PartitionConsumerState state = partitionConsumerState.withCompact(configuration.isCompactState());
     co.cask.cdap.api.dataset.lib.PartitionConsumerResult result =
-      partitionedFileSet.consumePartitions(partitionConsumerState, numToPopulate, predicate);
+      partitionedFileSet.consumePartitions(state, numToPopulate, predicate);
     List<PartitionDetail> partitions = result.getPartitions();
     for (PartitionDetail partition : partitions) {
       addPartition(partition.getPartitionKey());
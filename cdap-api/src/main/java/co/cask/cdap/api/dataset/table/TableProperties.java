@@ -47,6 +47,24 @@ public class TableProperties {
   @Beta
   public static final String PROPERTY_TABLE_PERMISSIONS = "dataset.table.permissions.grants";
 
+  /**
+   * Property set to make the table buffer the changes of a transaction in a compact binary encoding, rather than
+   * in a map with an object per column. This reduces the memory and time that programs spend buffering
+   * transactions with many writes, such as MapReduce and Spark tasks.
+   */
+  @Beta
+  public static final String PROPERTY_COMPACT_WRITE_BUFFER = "dataset.table.write.buffer.compact";
+
+  /**
+   * Property set to persist the buffered changes of a transaction whenever they exceed the given size in bytes,
+   * rather than keeping them in memory until the transaction commits. This bounds the memory used by bulk loads,
+   * such as MapReduce and Spark tasks, to the row and column keys of the persisted changes, which are kept to undo
+   * them if the transaction is rolled back. It only applies to tables with conflict detection level
+   * {@link ConflictDetection#NONE} and without read-less increments.
+   */
+  @Beta
+  public static final String PROPERTY_WRITE_BUFFER_FLUSH_SIZE = "dataset.table.write.buffer.flush.size";
+
   /**
    * Set a conflict detection level in dataset properties.
    */
@@ -105,6 +123,65 @@ public class TableProperties {
     return "true".equalsIgnoreCase(props.get(Table.PROPERTY_READLESS_INCREMENT));
   }
 
+  /**
+   * Configure whether the table buffers the changes of a transaction in a compact binary encoding.
+   */
+  @Beta
+  public static void setCompactWriteBuffer(DatasetProperties.Builder builder, boolean enabled) {
+    builder.add(PROPERTY_COMPACT_WRITE_BUFFER, String.valueOf(enabled));
+  }
+
+  /**
+   * @return whether the dataset properties enable the compact write buffer. Defaults to false.
+   */
+  @Beta
+  public static boolean getCompactWriteBuffer(DatasetProperties props) {
+    return getCompactWriteBuffer(props.getProperties());
+  }
+
+  /**
+   * @return whether the dataset properties enable the compact write buffer. Defaults to false.
+   */
+  @Beta
+  public static boolean getCompactWriteBuffer(Map<String, String> props) {
+    return "true".equalsIgnoreCase(props.get(PROPERTY_COMPACT_WRITE_BUFFER));
+  }
+
+  /**
+   * Set the size in bytes at which the buffered changes are persisted before the transaction commits.
+   * A zero or negative value means that changes are only persisted when the transaction commits.
+   */
+  @Beta
+  public static void setWriteBufferFlushSize(DatasetProperties.Builder builder, long bytes) {
+    builder.add(PROPERTY_WRITE_BUFFER_FLUSH_SIZE, bytes);
+  }
+
+  /**
+   * @return the size in bytes at which buffered changes are persisted before the transaction commits,
+   *         or 0 if they are only persisted when the transaction commits.
+   *
+   * @throws NumberFormatException if the value is not a valid long.
+   */
+  @Beta
+  public static long getWriteBufferFlushSize(DatasetProperties props) {
+    return getWriteBufferFlushSize(props.getProperties());
+  }
+
+  /**
+   * @return the size in bytes at which buffered changes are persisted before the transaction commits,
+   *         or 0 if they are only persisted when the transaction commits.
+   *
+   * @throws NumberFormatException if the value is not a valid long.
+   */
+  @Beta
+  public static long getWriteBufferFlushSize(Map<String, String> props) {
+    String stringValue = props.get(PROPERTY_WRITE_BUFFER_FLUSH_SIZE);
+    if (stringValue == null) {
+      return 0L;
+    }
+    return Math.max(0L, Long.parseLong(stringValue));
+  }
+
   /**
    * Set the table TTL, in seconds, in dataset properties. A zero or negative value means no TTL.
    */
@@ -320,6 +397,26 @@ public class TableProperties {
       return (B) this;
     }
 
+    /**
+     * Configure whether changes are buffered in a compact binary encoding.
+     */
+    @SuppressWarnings("unchecked")
+    @Beta
+    public B setCompactWriteBuffer(boolean enabled) {
+      TableProperties.setCompactWriteBuffer(this, enabled);
+      return (B) this;
+    }
+
+    /**
+     * Set the size in bytes at which buffered changes are persisted before the transaction commits.
+     */
+    @SuppressWarnings("unchecked")
+    @Beta
+    public B setWriteBufferFlushSize(long bytes) {
+      TableProperties.setWriteBufferFlushSize(this, bytes);
+      return (B) this;
+    }
+
     /**
      * Set the schema of a table.
      */
@@ -28,11 +28,11 @@ import java.nio.charset.StandardCharsets;
 /**
  * A {@link CloseableIterator} that converts each {@link RawMessage} to {@link Message}.
  */
-final class MessageIterator extends AbstractCloseableIterator<Message> {
+public final class MessageIterator extends AbstractCloseableIterator<Message> {
 
   private final CloseableIterator<RawMessage> rawIterator;
 
-  MessageIterator(CloseableIterator<RawMessage> rawIterator) {
+  public MessageIterator(CloseableIterator<RawMessage> rawIterator) {
     this.rawIterator = rawIterator;
   }
 
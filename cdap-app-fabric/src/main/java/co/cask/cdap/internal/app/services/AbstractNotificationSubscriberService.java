@@ -23,7 +23,6 @@ import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.data.DatasetContext;
 import co.cask.cdap.api.dataset.lib.CloseableIterator;
 import co.cask.cdap.api.messaging.Message;
-import co.cask.cdap.api.messaging.MessageFetcher;
 import co.cask.cdap.api.messaging.MessagingContext;
 import co.cask.cdap.api.messaging.TopicNotFoundException;
 import co.cask.cdap.api.metrics.MetricsCollectionService;
@@ -42,6 +41,7 @@ import co.cask.cdap.data2.dataset2.DatasetFramework;
 import co.cask.cdap.data2.dataset2.MultiThreadDatasetCache;
 import co.cask.cdap.data2.transaction.TransactionSystemClientAdapter;
 import co.cask.cdap.data2.transaction.Transactions;
+import co.cask.cdap.internal.app.runtime.messaging.MessageIterator;
 import co.cask.cdap.internal.app.runtime.messaging.MultiThreadMessagingContext;
 import co.cask.cdap.messaging.MessagingService;
 import co.cask.cdap.messaging.data.MessageId;
@@ -78,6 +78,7 @@ public abstract class AbstractNotificationSubscriberService extends AbstractIdle
   private static final Gson GSON = new Gson();
 
   private final CConfiguration cConf;
+  private final MessagingService messagingService;
   private final Transactional transactional;
   private final MultiThreadMessagingContext messagingContext;
   private final MetricsCollectionService metricsCollectionService;
@@ -88,6 +89,7 @@ public abstract class AbstractNotificationSubscriberService extends AbstractIdle
                                                   DatasetFramework datasetFramework, TransactionSystemClient txClient,
                                                   MetricsCollectionService metricsCollectionService) {
     this.cConf = cConf;
+    this.messagingService = messagingService;
     this.messagingContext = new MultiThreadMessagingContext(messagingService);
     this.metricsCollectionService = metricsCollectionService;
     this.transactional = Transactions.createTransactionalWithRetry(
@@ -223,12 +225,14 @@ public abstract class AbstractNotificationSubscriberService extends AbstractIdle
         // non-overlapping transactions, as long as the processing transaction starts after the fetching one.
         Stopwatch stopwatch = new Stopwatch().start();
         final List<Message> messages = fetchMessages(messageId);
-        metricsContext.gauge("tms.fetch.time.ms", stopwatch.elapsedTime(TimeUnit.MILLISECONDS));
+        long fetchTime = stopwatch.elapsedTime(TimeUnit.MILLISECONDS);
+        metricsContext.gauge("tms.fetch.time.ms", fetchTime);
         metricsContext.increment("tms.fetch.messages", messages.size());
 
-        // Return if stopping or request to sleep for configured number of milliseconds if there are no notifications
+        // Return if stopping or request to sleep for configured number of milliseconds if there are no notifications.
+        // The time spent in waiting for new messages in the fetch call is deducted from the sleep time.
         if (stopping || messages.isEmpty()) {
-          return emptyFetchDelayMillis;
+          return Math.max(0L, emptyFetchDelayMillis - fetchTime);
         }
 
         stopwatch.reset().start();
@@ -283,23 +287,39 @@ public abstract class AbstractNotificationSubscriberService extends AbstractIdle
       return Transactionals.execute(transactional, new TxCallable<List<Message>>() {
         @Override
         public List<Message> call(DatasetContext context) throws Exception {
-          return doFetchMessages(messageId);
+          return drain(messagingContext.getMessageFetcher().fetch(NamespaceId.SYSTEM.getNamespace(),
+                                                                  topic, fetchSize, messageId));
         }
       }, TopicNotFoundException.class, IOException.class);
     }
 
     /**
-     * Actually fetching messages from TMS.
+     * Actually fetching messages from TMS without transaction. The fetch waits for up to the empty fetch delay
+     * for new messages to be published if there is no message available.
      */
     private List<Message> doFetchMessages(@Nullable String messageId) throws TopicNotFoundException, IOException {
+      LOG.trace("Fetching system topic '{}' with messageId '{}'", topic, messageId);
+      co.cask.cdap.messaging.MessageFetcher fetcher = messagingService
+        .prepareFetch(NamespaceId.SYSTEM.topic(topic))
+        .setLimit(fetchSize)
+        .setPollTimeout(emptyFetchDelayMillis, TimeUnit.MILLISECONDS);
+      if (messageId != null) {
+        fetcher.setStartMessage(Bytes.fromHexString(messageId), false);
+      }
+      return drain(new MessageIterator(fetcher.fetch()));
+    }
+
+    /**
+     * Reads all messages from the given iterator into a list and closes the iterator.
+     */
+    private List<Message> drain(CloseableIterator<Message> iterator) {
       List<Message> messages = new ArrayList<>();
-      LOG.trace("Fetching system topic '{}' with messageId '{}'", messageId);
-      MessageFetcher messageFetcher = messagingContext.getMessageFetcher();
-      try (CloseableIterator<Message> iterator = messageFetcher.fetch(NamespaceId.SYSTEM.getNamespace(),
-                                                                      topic, fetchSize, messageId)) {
+      try {
         while (iterator.hasNext() && !stopping) {
           messages.add(iterator.next());
         }
+      } finally {
+        iterator.close();
       }
       return messages;
     }
@@ -460,8 +460,10 @@ public final class Constants {
     public static final String TTL = "stream.event.ttl";
     public static final String PARTITION_DURATION = "stream.partition.duration";
     public static final String INDEX_INTERVAL = "stream.index.interval";
+    public static final String COMPRESSION_CODEC = "stream.compression.codec";
     public static final String FILE_PREFIX = "stream.file.prefix";
     public static final String INSTANCE_FILE_PREFIX = "stream.instance.file.prefix";
+    public static final String WRITER_SHARDS = "stream.writer.shards";
     public static final String CONSUMER_TABLE_PRESPLITS = "stream.consumer.table.presplits";
     public static final String FILE_CLEANUP_PERIOD = "stream.file.cleanup.period";
     public static final String BATCH_BUFFER_THRESHOLD = "stream.batch.buffer.threshold";
@@ -588,6 +590,7 @@ public final class Constants {
     public static final String SERVICE_DESCRIPTION = "Service to handle metrics requests.";
     public static final String PROCESSOR_MAX_DELAY_MS = "metrics.processor.max.delay.ms";
     public static final String QUEUE_SIZE = "metrics.processor.queue.size";
+    public static final String PROCESSOR_PERSIST_INTERVAL_MS = "metrics.processor.persist.interval.ms";
 
     public static final String ENTITY_TABLE_NAME = "metrics.data.entity.tableName";
     public static final String METRICS_TABLE_PREFIX = "metrics.data.table.prefix";
@@ -607,6 +610,10 @@ public final class Constants {
     // NOTE: "v3" to avoid conflict with data of older metrics system
     public static final String DEFAULT_METRIC_V3_TABLE_PREFIX = "metrics.v3.table";
     public static final String METRICS_HBASE_MAX_SCAN_THREADS = "metrics.hbase.max.scan.threads";
+    public static final String METRICS_QUERY_PARALLELISM = "metrics.query.parallelism";
+    public static final String QUERY_CACHE_MAX_POINTS = "metrics.query.cache.max.points";
+    public static final String QUERY_CACHE_FINALIZE_DELAY_SECONDS = "metrics.query.cache.finalize.delay.seconds";
+    public static final String QUERY_CACHE_EXPIRE_SECONDS = "metrics.query.cache.expire.seconds";
     public static final String METRICS_HBASE_TABLE_SPLITS = "metrics.table.splits";
     public static final String METRICS_TABLE_HBASE_SPLIT_POLICY = "metrics.table.hbase.split.policy";
 
@@ -721,6 +728,9 @@ public final class Constants {
         public static final String OP_COUNT = "dataset.store.ops";
         public static final String WRITE_COUNT = "dataset.store.writes";
         public static final String WRITE_BYTES = "dataset.store.bytes";
+        public static final String BUFFER_SIZE = "dataset.buffer.size";
+        public static final String BUFFER_FLUSH_COUNT = "dataset.buffer.flushes";
+        public static final String BUFFER_FLUSH_BYTES = "dataset.buffer.flushed.bytes";
       }
 
       /**
@@ -1158,6 +1168,7 @@ public final class Constants {
   public static final String CFG_DATA_LEVELDB_BLOCKSIZE = "data.local.storage.blocksize";
   public static final String CFG_DATA_LEVELDB_CACHESIZE = "data.local.storage.cachesize";
   public static final String CFG_DATA_LEVELDB_FSYNC = "data.local.storage.fsync";
+  public static final String CFG_DATA_LEVELDB_PRUNE_INTERVAL = "data.local.storage.prune.interval.seconds";
 
   /**
    * Defaults for Data Fabric.
@@ -1166,6 +1177,7 @@ public final class Constants {
   public static final int DEFAULT_DATA_LEVELDB_BLOCKSIZE = 1024;
   public static final long DEFAULT_DATA_LEVELDB_CACHESIZE = 1024 * 1024 * 100;
   public static final boolean DEFAULT_DATA_LEVELDB_FSYNC = true;
+  public static final long DEFAULT_DATA_LEVELDB_PRUNE_INTERVAL = 3600;
 
   /**
    * Config for Log Collection.
@@ -1277,6 +1289,8 @@ public final class Constants {
     public static final String LOCAL_DATA_CLEANUP_FREQUENCY = "messaging.local.data.cleanup.frequency.secs";
 
     public static final String CACHE_SIZE_MB = "messaging.cache.size.mb";
+    public static final String CACHE_OFF_HEAP_ENABLED = "messaging.cache.off.heap.enabled";
+    public static final String CACHE_OFF_HEAP_SLAB_SIZE_KB = "messaging.cache.off.heap.slab.size.kb";
 
     public static final String HBASE_MAX_SCAN_THREADS = "messaging.hbase.max.scan.threads";
     public static final String HBASE_SCAN_CACHE_ROWS = "messaging.hbase.scan.cache.rows";
@@ -1296,6 +1310,16 @@ public final class Constants {
     public static final String HTTP_SERVER_EXECUTOR_THREADS = "messaging.http.server.executor.threads";
     public static final String HTTP_SERVER_MAX_REQUEST_SIZE_MB = "messaging.http.server.max.request.size.mb";
     public static final String HTTP_SERVER_CONSUME_CHUNK_SIZE = "messaging.http.server.consume.chunk.size";
+    public static final String HTTP_SERVER_MAX_POLL_TIMEOUT_MS = "messaging.http.server.max.poll.timeout.ms";
+    public static final String POLL_EXECUTOR_THREADS = "messaging.poll.executor.threads";
+    public static final String BATCH_PUBLISH_THREADS = "messaging.batch.publish.threads";
+
+    public static final String CLIENT_BINARY_FETCH_ENABLED = "messaging.client.binary.fetch.enabled";
+
+    public static final String WRITER_GROUP_COMMIT_ENABLED = "messaging.writer.group.commit.enabled";
+    public static final String WRITER_GROUP_COMMIT_MAX_BATCH_SIZE = "messaging.writer.group.commit.max.batch.size";
+    public static final String WRITER_GROUP_COMMIT_MAX_BATCH_BYTES = "messaging.writer.group.commit.max.batch.bytes";
+    public static final String WRITER_GROUP_COMMIT_MAX_LATENCY_MS = "messaging.writer.group.commit.max.latency.ms";
 
     // Distributed mode related configurations
     public static final String HA_FENCING_DELAY_SECONDS = "messaging.ha.fencing.delay.seconds";
@@ -16,7 +16,6 @@
 
 package co.cask.cdap.common.lang;
 
-import co.cask.cdap.internal.lang.Reflections;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -174,13 +173,13 @@ public final class InstantiatorFactory {
   }
 
   private <T> Instantiator<T> getByUnsafe(final TypeToken<T> type) {
+    final Class<? super T> rawType = type.getRawType();
     return new Instantiator<T>() {
       @Override
       public T create() {
         try {
-          Object instance = UNSAFE.allocateInstance(type.getRawType());
-          Reflections.visit(instance, type.getType(), new FieldInitializer());
-          return (T) instance;
+          // Unsafe allocates the instance with all fields set to their default values, hence no need to initialize them
+          return (T) UNSAFE.allocateInstance(rawType);
         } catch (InstantiationException e) {
           throw Throwables.propagate(e);
         }
@@ -18,6 +18,7 @@ package co.cask.cdap.common.metrics;
 
 import co.cask.cdap.api.metrics.MetricsCollectionService;
 import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.api.metrics.MetricsCounter;
 import com.google.common.util.concurrent.AbstractIdleService;
 
 import java.util.Collections;
@@ -51,6 +52,11 @@ public class NoOpMetricsCollectionService extends AbstractIdleService implements
         // no-op
       }
 
+      @Override
+      public void distribution(String metricName, long value) {
+        // no-op
+      }
+
       @Override
       public MetricsContext childContext(Map<String, String> tags) {
         return this;
@@ -65,6 +71,16 @@ public class NoOpMetricsCollectionService extends AbstractIdleService implements
       public Map<String, String> getTags() {
         return Collections.emptyMap();
       }
+
+      @Override
+      public MetricsCounter counter(String metricName) {
+        return new MetricsCounter() {
+          @Override
+          public void increment(long value) {
+            // no-op
+          }
+        };
+      }
     };
   }
 }
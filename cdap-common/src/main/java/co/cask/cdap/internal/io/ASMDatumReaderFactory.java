@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.io;
+
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.common.io.DatumReader;
+import co.cask.cdap.common.io.Decoder;
+import co.cask.cdap.common.lang.InstantiatorFactory;
+import co.cask.cdap.internal.asm.ByteCodeClassLoader;
+import co.cask.cdap.internal.asm.ClassDefinition;
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import javax.inject.Inject;
+
+/**
+ * A factory class for creating {@link DatumReader} instance for different data type and schema.
+ * It serves as an in memory cache for generated {@link DatumReader} {@link Class} using ASM. As the generated
+ * class depends on the schema the data was written with, a class is generated for each source schema that
+ * a {@link DatumReader} created by this factory reads with.
+ */
+public final class ASMDatumReaderFactory implements DatumReaderFactory {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ASMDatumReaderFactory.class);
+
+  private final LoadingCache<CacheKey, Class<DatumReader<?>>> datumReaderClasses;
+  private final FieldAccessorFactory fieldAccessorFactory;
+  private final InstantiatorFactory instantiatorFactory;
+
+  @Inject
+  public ASMDatumReaderFactory(FieldAccessorFactory fieldAccessorFactory) {
+    this.fieldAccessorFactory = fieldAccessorFactory;
+    this.instantiatorFactory = new InstantiatorFactory(true);
+    this.datumReaderClasses = CacheBuilder.newBuilder().build(new ASMCacheLoader());
+  }
+
+  /**
+   * Creates a {@link DatumReader} that is able to decode given data type with the given {@link Schema}, from data
+   * written with any schema that resolves to it.
+   * The instance created is thread safe and reusable.
+   *
+   * @param type Type information of the data type to be decoded.
+   * @param schema Schema of the data type.
+   * @param <T> Type of the data type.
+   * @return A {@link DatumReader} instance.
+   */
+  @Override
+  public <T> DatumReader<T> create(TypeToken<T> type, Schema schema) {
+    return new ASMDatumReader<>(type, schema);
+  }
+
+  /**
+   * Creates a generated {@link DatumReader} for the given type, target schema and source schema. If the class cannot
+   * be generated, a {@link ReflectionDatumReader} is returned instead.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> DatumReader<T> createReader(TypeToken<T> type, Schema targetSchema, Schema sourceSchema) {
+    Class<DatumReader<?>> readerClass;
+    try {
+      readerClass = datumReaderClasses.getUnchecked(new CacheKey(type, targetSchema, sourceSchema));
+    } catch (Exception e) {
+      LOG.debug("Failed to generate DatumReader for type {} with schema {} from schema {}, using reflection instead.",
+                type, targetSchema, sourceSchema, e);
+      return new ReflectionDatumReader<>(targetSchema, type);
+    }
+    try {
+      return (DatumReader<T>) readerClass.getConstructor(FieldAccessorFactory.class, InstantiatorFactory.class)
+                                         .newInstance(fieldAccessorFactory, instantiatorFactory);
+    } catch (Exception e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * The {@link DatumReader} returned by this factory. It delegates to a generated {@link DatumReader} for the source
+   * schema, which is created on the first read with that schema.
+   */
+  private final class ASMDatumReader<T> implements DatumReader<T> {
+
+    private final TypeToken<T> type;
+    private final Schema schema;
+    private final ConcurrentMap<Schema, DatumReader<T>> readers;
+    // The last source schema read with and its reader, to avoid the map lookup for the common case of
+    // always reading with the same schema instance.
+    private volatile Map.Entry<Schema, DatumReader<T>> lastReader;
+
+    private ASMDatumReader(TypeToken<T> type, Schema schema) {
+      this.type = type;
+      this.schema = schema;
+      this.readers = Maps.newConcurrentMap();
+    }
+
+    @Override
+    public T read(Decoder decoder, Schema sourceSchema) throws IOException {
+      Map.Entry<Schema, DatumReader<T>> entry = lastReader;
+      if (entry == null || entry.getKey() != sourceSchema) {
+        DatumReader<T> reader = readers.get(sourceSchema);
+        if (reader == null) {
+          reader = createReader(type, schema, sourceSchema);
+          DatumReader<T> existing = readers.putIfAbsent(sourceSchema, reader);
+          if (existing != null) {
+            reader = existing;
+          }
+        }
+        entry = Maps.immutableEntry(sourceSchema, reader);
+        lastReader = entry;
+      }
+      return entry.getValue().read(decoder, sourceSchema);
+    }
+  }
+
+  /**
+   * A private {@link CacheLoader} for generating different {@link DatumReader} {@link Class}.
+   */
+  private static final class ASMCacheLoader extends CacheLoader<CacheKey, Class<DatumReader<?>>> {
+
+    private final Map<ClassLoader, ByteCodeClassLoader> classloaders = Maps.newIdentityHashMap();
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Class<DatumReader<?>> load(CacheKey key) throws Exception {
+      ClassDefinition classDef = new DatumReaderGenerator().generate(key.getType(), key.getTargetSchema(),
+                                                                     key.getSourceSchema());
+
+      // The generated classes are grouped by the ClassLoader of the classes they decode to, so that classes of
+      // the same name but from different ClassLoaders never share a generated class ClassLoader.
+      ClassLoader typeClassLoader = ASMDatumReaderFactory.class.getClassLoader();
+      for (Class<?> cls : classDef.getPreservedClasses()) {
+        if (cls.getClassLoader() != null && cls.getClassLoader() != typeClassLoader) {
+          typeClassLoader = cls.getClassLoader();
+          break;
+        }
+      }
+
+      ByteCodeClassLoader classloader;
+      synchronized (classloaders) {
+        classloader = classloaders.get(typeClassLoader);
+        if (classloader == null) {
+          // The ClassLoader of the generated DatumReader has CDAP system ClassLoader as parent.
+          // The ClassDefinition contains list of classes that should not be loaded by the generated class ClassLoader
+          classloader = new ByteCodeClassLoader(ASMDatumReaderFactory.class.getClassLoader());
+          classloaders.put(typeClassLoader, classloader);
+        }
+      }
+
+      return (Class<DatumReader<?>>) classloader.addClass(classDef).loadClass(classDef.getClassName());
+    }
+  }
+
+  private static final class CacheKey {
+    private final TypeToken<?> type;
+    private final Schema targetSchema;
+    private final Schema sourceSchema;
+
+    private CacheKey(TypeToken<?> type, Schema targetSchema, Schema sourceSchema) {
+      this.type = type;
+      this.targetSchema = targetSchema;
+      this.sourceSchema = sourceSchema;
+    }
+
+    public TypeToken<?> getType() {
+      return type;
+    }
+
+    public Schema getTargetSchema() {
+      return targetSchema;
+    }
+
+    public Schema getSourceSchema() {
+      return sourceSchema;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      CacheKey cacheKey = (CacheKey) o;
+      return type.equals(cacheKey.type)
+        && targetSchema.equals(cacheKey.targetSchema) && sourceSchema.equals(cacheKey.sourceSchema);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(type, targetSchema, sourceSchema);
+    }
+  }
+}
@@ -0,0 +1,1281 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.io;
+
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.common.io.DatumReader;
+import co.cask.cdap.common.io.Decoder;
+import co.cask.cdap.common.lang.Instantiator;
+import co.cask.cdap.common.lang.InstantiatorFactory;
+import co.cask.cdap.internal.asm.ClassDefinition;
+import co.cask.cdap.internal.asm.Methods;
+import co.cask.cdap.internal.asm.Signatures;
+import co.cask.cdap.internal.lang.Fields;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.primitives.Longs;
+import com.google.common.primitives.Primitives;
+import com.google.common.reflect.TypeParameter;
+import com.google.common.reflect.TypeToken;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+import org.objectweb.asm.commons.TableSwitchGenerator;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Class for generating {@link DatumReader} bytecodes using ASM. Each generated class decodes data written with one
+ * source schema into one target type and schema, with all schema resolution done at generation time. The class
+ * generated will have a skeleton looks like the following:
+ * <pre>
+ * {@code
+ *
+ *  public final class generatedClassName implements DatumReader<TargetType> {
+ *    private final FieldAccessor recordType$fieldName;
+ *    private final Instantiator recordOrCollectionType;
+ *
+ *    public generatedClassName(FieldAccessorFactory accessorFactory, InstantiatorFactory instantiatorFactory) {
+ *      // Creates the FieldAccessor, Instantiator and enum values used by the generated read methods.
+ *    }
+ *
+ *    @Override
+ *    public Object read(Decoder decoder, Schema sourceSchema) throws IOException {
+ *      return generatedReadMethod(decoder);
+ *    }
+ *
+ *    private Object generatedReadMethod(Decoder decoder) throws IOException {
+ *      // Do actual decoding by calling methods on decoder based on the source schema, converting the values
+ *      // to the target type and skipping fields that are not in the target schema.
+ *    }
+ *
+ *    // Could have more generatedReadMethods and generatedSkipMethods...
+ *  }
+ * }
+ * </pre>
+ *
+ * For example, to decode a record of type {@code Record} with an {@code int} field {@code i} from a source schema
+ * that also has a {@code string} field {@code s}, a generated {@link DatumReader} will looks like this after
+ * decompile.
+ * <pre>
+ * {@code
+ *
+ *   public final class RecordDatumReader0A1B...9C8D... implements DatumReader<Record> {
+ *     private final FieldAccessor Record$i;
+ *     private final Instantiator Record;
+ *
+ *     public RecordDatumReader0A1B...9C8D...(FieldAccessorFactory paramFieldAccessorFactory,
+ *                                             InstantiatorFactory paramInstantiatorFactory) {
+ *       this.Record$i = paramFieldAccessorFactory.getFieldAccessor(TypeToken.of(Class.forName("Record")), "i");
+ *       this.Record = paramInstantiatorFactory.get(TypeToken.of(Class.forName("Record")));
+ *     }
+ *
+ *     public Object read(Decoder paramDecoder, Schema paramSchema) throws IOException {
+ *       return readRecord9C8D...0A1B...(paramDecoder);
+ *     }
+ *
+ *     private Object readRecord9C8D...0A1B...(Decoder paramDecoder) throws IOException {
+ *       Object localObject = this.Record.create();
+ *       this.Record$i.setInt(localObject, readint0F1E...0F1E...(paramDecoder));
+ *       skip2D3C...(paramDecoder);
+ *       return localObject;
+ *     }
+ *
+ *     private int readint0F1E...0F1E...(Decoder paramDecoder) throws IOException {
+ *       return paramDecoder.readInt();
+ *     }
+ *
+ *     private void skip2D3C...(Decoder paramDecoder) throws IOException {
+ *       paramDecoder.skipString();
+ *     }
+ *   }
+ * }
+ * </pre>
+ *
+ * The resolution rules are the same as the ones of {@link ReflectionDatumReader}. Schemas that cannot be resolved
+ * generate code that throws {@link IOException} when the unresolvable value is read.
+ */
+@NotThreadSafe
+final class DatumReaderGenerator {
+
+  private static final Type OBJECT_TYPE = Type.getType(Object.class);
+  private static final Type DECODER_TYPE = Type.getType(Decoder.class);
+  private static final Type BYTE_BUFFER_TYPE = Type.getType(ByteBuffer.class);
+
+  private final Map<String, Method> readMethods = Maps.newHashMap();
+  private final Map<String, Method> skipMethods = Maps.newHashMap();
+  private final Multimap<TypeToken<?>, String> fieldAccessorRequests = HashMultimap.create();
+  private final Map<String, Class<?>> instantiatorRequests = Maps.newHashMap();
+  private final Map<String, Class<?>> componentClassRequests = Maps.newHashMap();
+  private final Map<String, EnumValues> enumValuesRequests = Maps.newHashMap();
+  private ClassWriter classWriter;
+  private Type classType;
+  private List<Class<?>> preservedClasses;
+
+  /**
+   * Generates a {@link DatumReader} class for decoding data written with the given source schema into the given
+   * target type and schema.
+   *
+   * @param targetType Type information of the data type to decode to.
+   * @param targetSchema Schema of the data type to decode to.
+   * @param sourceSchema Schema that the data was written with.
+   * @return A {@link co.cask.cdap.internal.asm.ClassDefinition} that contains generated class information.
+   */
+  ClassDefinition generate(TypeToken<?> targetType, Schema targetSchema, Schema sourceSchema) {
+    classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+    preservedClasses = Lists.newArrayList();
+
+    TypeToken<?> interfaceType = getInterfaceType(targetType);
+
+    // Generate the class
+    String className = getClassName(targetType, targetSchema, sourceSchema);
+    classType = Type.getObjectType(className);
+    classWriter.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL,
+                      className, Signatures.getClassSignature(interfaceType),
+                      Type.getInternalName(Object.class),
+                      new String[]{Type.getInternalName(interfaceType.getRawType())});
+
+    // Read method
+    generateRead(targetType, targetSchema, sourceSchema);
+
+    // Constructor
+    generateConstructor();
+
+    ClassDefinition classDefinition = new ClassDefinition(classWriter.toByteArray(), className, preservedClasses);
+    // DEBUG block. Uncomment for debug
+//    co.cask.cdap.internal.asm.Debugs.debugByteCode(classDefinition, new java.io.PrintWriter(System.out));
+    // End DEBUG block
+    return classDefinition;
+  }
+
+  /**
+   * Generates the constructor. The constructor generated has signature
+   * {@code (FieldAccessorFactory, InstantiatorFactory)}.
+   */
+  private void generateConstructor() {
+    Method constructor = getMethod(void.class, "<init>", FieldAccessorFactory.class, InstantiatorFactory.class);
+
+    // Constructor(FieldAccessorFactory accessorFactory, InstantiatorFactory instantiatorFactory)
+    GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, constructor, null, null, classWriter);
+
+    // super(); // Calling Object constructor
+    mg.loadThis();
+    mg.invokeConstructor(OBJECT_TYPE, getMethod(void.class, "<init>"));
+
+    // For each record field that needs an accessor, get the accessor and store it in field.
+    for (Map.Entry<TypeToken<?>, String> entry : fieldAccessorRequests.entries()) {
+      String fieldAccessorName = getFieldAccessorName(entry.getKey(), entry.getValue());
+
+      classWriter.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL,
+                             fieldAccessorName,
+                             Type.getDescriptor(FieldAccessor.class), null, null);
+      // this.fieldAccessorName
+      //  = accessorFactory.getFieldAccessor(TypeToken.of(Class.forName("className")), "fieldName");
+      mg.loadThis();
+      mg.loadArg(0);
+      loadTypeToken(mg, entry.getKey().getRawType());
+      mg.push(entry.getValue());
+      mg.invokeInterface(Type.getType(FieldAccessorFactory.class),
+                         getMethod(FieldAccessor.class, "getFieldAccessor", TypeToken.class, String.class));
+      mg.putField(classType, fieldAccessorName, Type.getType(FieldAccessor.class));
+    }
+
+    // For each record or collection that needs to be created, get the instantiator and store it in field.
+    for (Map.Entry<String, Class<?>> entry : instantiatorRequests.entrySet()) {
+      classWriter.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL, entry.getKey(),
+                             Type.getDescriptor(Instantiator.class), null, null);
+      // this.instantiatorName = instantiatorFactory.get(TypeToken.of(Class.forName("className")));
+      mg.loadThis();
+      mg.loadArg(1);
+      loadTypeToken(mg, entry.getValue());
+      mg.invokeVirtual(Type.getType(InstantiatorFactory.class),
+                       getMethod(Instantiator.class, "get", TypeToken.class));
+      mg.putField(classType, entry.getKey(), Type.getType(Instantiator.class));
+    }
+
+    // For each array of objects, store the array component class in field.
+    for (Map.Entry<String, Class<?>> entry : componentClassRequests.entrySet()) {
+      classWriter.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL, entry.getKey(),
+                             Type.getDescriptor(Class.class), null, null);
+      // this.componentClassName = Class.forName("className");
+      mg.loadThis();
+      loadClass(mg, entry.getValue());
+      mg.putField(classType, entry.getKey(), Type.getType(Class.class));
+    }
+
+    // For each enum, store the target enum values indexed by the source enum index in field.
+    for (Map.Entry<String, EnumValues> entry : enumValuesRequests.entrySet()) {
+      classWriter.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL, entry.getKey(),
+                             Type.getDescriptor(Object[].class), null, null);
+      // Object[] values = new Object[sourceEnumSize];
+      // values[sourceIdx] = Enum.valueOf(Class.forName("className"), "name");
+      // this.enumValuesName = values;
+      List<String> names = entry.getValue().names;
+      mg.push(names.size());
+      mg.newArray(OBJECT_TYPE);
+      for (int i = 0; i < names.size(); i++) {
+        if (names.get(i) == null) {
+          continue;
+        }
+        mg.dup();
+        mg.push(i);
+        loadClass(mg, entry.getValue().enumClass);
+        mg.push(names.get(i));
+        mg.invokeStatic(Type.getType(Enum.class), getMethod(Enum.class, "valueOf", Class.class, String.class));
+        mg.arrayStore(OBJECT_TYPE);
+      }
+      int values = mg.newLocal(Type.getType(Object[].class));
+      mg.storeLocal(values);
+      mg.loadThis();
+      mg.loadLocal(values);
+      mg.putField(classType, entry.getKey(), Type.getType(Object[].class));
+    }
+
+    mg.returnValue();
+    mg.endMethod();
+  }
+
+  /**
+   * Generates the {@link DatumReader#read(Decoder, Schema)} method.
+   *
+   * @param targetType Type information of the data type to decode to.
+   * @param targetSchema Schema of the data type to decode to.
+   * @param sourceSchema Schema that the data was written with.
+   */
+  private void generateRead(TypeToken<?> targetType, Schema targetSchema, Schema sourceSchema) {
+    Method readMethod = getMethod(Object.class, "read", Decoder.class, Schema.class);
+    GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, readMethod, null,
+                                               new Type[] {Type.getType(IOException.class)}, classWriter);
+
+    // Delegate to the actual read method, ignoring the source schema, which was used for the generation.
+    // return readMethod(decoder);
+    invokeRead(mg, targetType, targetSchema, sourceSchema, 0);
+    Type callType = getCallType(targetType);
+    if (callType.getSort() != Type.OBJECT) {
+      mg.valueOf(callType);
+    }
+    mg.returnValue();
+    mg.endMethod();
+  }
+
+  /**
+   * Generates code to call the read method for the given type and schemas. After the call, the value read is on
+   * top of the stack, with the type as returned by {@link #getCallType(TypeToken)}.
+   */
+  private void invokeRead(GeneratorAdapter mg, TypeToken<?> targetType,
+                          Schema targetSchema, Schema sourceSchema, int decoder) {
+    mg.loadThis();
+    mg.loadArg(decoder);
+    mg.invokeVirtual(classType, getReadMethod(targetType, targetSchema, sourceSchema));
+  }
+
+  /**
+   * Returns the read method for the given type and schemas. The same method will be returned if the same type and
+   * schemas has been passed to the method before.
+   *
+   * @param targetType Type information of the data type to decode to.
+   * @param targetSchema Schema of the data type to decode to.
+   * @param sourceSchema Schema that the data was written with.
+   * @return A method for decoding the given target type and schema.
+   */
+  private Method getReadMethod(TypeToken<?> targetType, Schema targetSchema, Schema sourceSchema) {
+    String key = String.format("%s%s%s", normalizeTypeName(targetType),
+                               sourceSchema.getSchemaHash(), targetSchema.getSchemaHash());
+
+    Method method = readMethods.get(key);
+    if (method != null) {
+      return method;
+    }
+
+    // Generate the read method (decoder)
+    String methodName = String.format("read%s", key);
+    Type callType = getCallType(targetType);
+    method = new Method(methodName, callType, new Type[] {DECODER_TYPE});
+
+    // Put the method into map first before generating the body in order to support recursive data type.
+    readMethods.put(key, method);
+
+    GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PRIVATE, method, null,
+                                               new Type[]{Type.getType(IOException.class)}, classWriter);
+
+    if (sourceSchema.getType() != Schema.Type.UNION && targetSchema.getType() == Schema.Type.UNION) {
+      // Pick the first target schema that the source schema resolves to
+      Schema resolvedSchema = null;
+      for (Schema schema : targetSchema.getUnionSchemas()) {
+        if (isResolvable(sourceSchema, schema)) {
+          resolvedSchema = schema;
+          break;
+        }
+      }
+      if (resolvedSchema == null) {
+        mg.throwException(Type.getType(IOException.class),
+                          String.format("No matching schema to resolve %s to %s", sourceSchema, targetSchema));
+        mg.endMethod();
+        return method;
+      }
+      targetSchema = resolvedSchema;
+    }
+
+    generateReadBody(mg, targetType, targetSchema, sourceSchema, 0);
+    mg.returnValue();
+    mg.endMethod();
+
+    return method;
+  }
+
+  /**
+   * Generates the read method body, with the decoder given in the argument. The generated code leaves the value read
+   * on top of the stack.
+   */
+  private void generateReadBody(GeneratorAdapter mg, TypeToken<?> targetType,
+                                Schema targetSchema, Schema sourceSchema, int decoder) {
+    Schema.Type sourceType = sourceSchema.getType();
+    Schema.Type targetSchemaType = targetSchema.getType();
+
+    if (sourceType == Schema.Type.UNION) {
+      readUnion(mg, targetType, targetSchema, sourceSchema, decoder);
+      return;
+    }
+    if (!isResolvable(sourceSchema, targetSchema)) {
+      mg.throwException(Type.getType(IOException.class),
+                        String.format("Fails to resolve %s to %s", sourceSchema, targetSchema));
+      return;
+    }
+
+    switch (sourceType) {
+      case NULL:
+        readNull(mg, targetType, targetSchema, decoder);
+        break;
+      case BYTES:
+        readBytes(mg, targetType, decoder);
+        break;
+      case ENUM:
+        readEnum(mg, targetType, targetSchema, sourceSchema, decoder);
+        break;
+      case ARRAY:
+        if (targetType.isArray()) {
+          readArray(mg, targetType.getComponentType(), targetSchema.getComponentSchema(),
+                    sourceSchema.getComponentSchema(), decoder);
+        } else {
+          Preconditions.checkArgument(Collection.class.isAssignableFrom(targetType.getRawType()),
+                                      "Only array or collection type is support for array value.");
+          readCollection(mg, targetType, getTypeArgument(targetType, 0), targetSchema.getComponentSchema(),
+                         sourceSchema.getComponentSchema(), decoder);
+        }
+        break;
+      case MAP:
+        Preconditions.checkArgument(Map.class.isAssignableFrom(targetType.getRawType()),
+                                    "Only map type is supported for map data.");
+        readMap(mg, targetType, getTypeArgument(targetType, 0), getTypeArgument(targetType, 1),
+                targetSchema.getMapSchema(), sourceSchema.getMapSchema(), decoder);
+        break;
+      case RECORD:
+        readRecord(mg, targetType, targetSchema, sourceSchema, decoder);
+        break;
+      default:
+        readSimple(mg, targetType, targetSchemaType, sourceType, decoder);
+    }
+  }
+
+  /**
+   * Generates code for reading a value of the {@code null} schema.
+   */
+  private void readNull(GeneratorAdapter mg, TypeToken<?> targetType, Schema targetSchema, int decoder) {
+    Preconditions.checkArgument(!targetType.getRawType().isPrimitive(),
+                                "Cannot resolve %s to primitive type %s.", targetSchema, targetType);
+    // decoder.readNull();
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, getMethod(Object.class, "readNull"));
+  }
+
+  /**
+   * Generates code for reading a value of the bytes schema, converting it to {@code byte[]} or {@link UUID} if the
+   * target type is one of those.
+   */
+  private void readBytes(GeneratorAdapter mg, TypeToken<?> targetType, int decoder) {
+    Class<?> rawType = targetType.getRawType();
+
+    // ByteBuffer buffer = decoder.readBytes();
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, getMethod(ByteBuffer.class, "readBytes"));
+
+    if (byte[].class.equals(rawType)) {
+      int buffer = mg.newLocal(BYTE_BUFFER_TYPE);
+      mg.storeLocal(buffer);
+
+      /*
+        if (buffer.hasArray() && buffer.remaining() == buffer.array().length) {
+          return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+       */
+      Label copy = mg.newLabel();
+      Label end = mg.newLabel();
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(BYTE_BUFFER_TYPE, getMethod(boolean.class, "hasArray"));
+      mg.ifZCmp(GeneratorAdapter.EQ, copy);
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(BYTE_BUFFER_TYPE, getMethod(int.class, "remaining"));
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(BYTE_BUFFER_TYPE, getMethod(byte[].class, "array"));
+      mg.arrayLength();
+      mg.ifICmp(GeneratorAdapter.NE, copy);
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(BYTE_BUFFER_TYPE, getMethod(byte[].class, "array"));
+      mg.goTo(end);
+
+      mg.mark(copy);
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(BYTE_BUFFER_TYPE, getMethod(int.class, "remaining"));
+      mg.newArray(Type.BYTE_TYPE);
+      mg.dup();
+      mg.loadLocal(buffer);
+      mg.swap();
+      mg.invokeVirtual(BYTE_BUFFER_TYPE, getMethod(ByteBuffer.class, "get", byte[].class));
+      mg.pop();
+      mg.mark(end);
+
+    } else if (UUID.class.equals(rawType)) {
+      int buffer = mg.newLocal(BYTE_BUFFER_TYPE);
+      mg.storeLocal(buffer);
+
+      /*
+        if (buffer.remaining() == Longs.BYTES * 2) {
+          return new UUID(buffer.getLong(), buffer.getLong());
+        }
+        return buffer;
+       */
+      Label notUUID = mg.newLabel();
+      Label end = mg.newLabel();
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(BYTE_BUFFER_TYPE, getMethod(int.class, "remaining"));
+      mg.push(Longs.BYTES * 2);
+      mg.ifICmp(GeneratorAdapter.NE, notUUID);
+      mg.newInstance(Type.getType(UUID.class));
+      mg.dup();
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(BYTE_BUFFER_TYPE, getMethod(long.class, "getLong"));
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(BYTE_BUFFER_TYPE, getMethod(long.class, "getLong"));
+      mg.invokeConstructor(Type.getType(UUID.class), getMethod(void.class, "<init>", long.class, long.class));
+      mg.checkCast(OBJECT_TYPE);
+      mg.goTo(end);
+
+      mg.mark(notUUID);
+      mg.loadLocal(buffer);
+      mg.checkCast(OBJECT_TYPE);
+      mg.mark(end);
+    }
+  }
+
+  /**
+   * Generates code for reading an enum value. The target enum values are looked up by the source enum index from an
+   * array that is created in the constructor.
+   */
+  private void readEnum(GeneratorAdapter mg, TypeToken<?> targetType,
+                        Schema targetSchema, Schema sourceSchema, int decoder) {
+    Class<?> rawType = targetType.getRawType();
+    Preconditions.checkArgument(rawType.isEnum(), "Type %s is not an enum.", targetType);
+
+    // Enum type might be defined by the user, hence need to preserve class loading of it
+    preservedClasses.add(rawType);
+
+    List<String> names = Lists.newArrayList();
+    for (String name : sourceSchema.getEnumValues()) {
+      names.add(targetSchema.getEnumValues().contains(name) ? name : null);
+    }
+    String fieldName = String.format("enum%s%s%s", normalizeTypeName(targetType),
+                                     sourceSchema.getSchemaHash(), targetSchema.getSchemaHash());
+    enumValuesRequests.put(fieldName, new EnumValues(rawType, names));
+
+    /*
+      Object value = this.enumValuesName[decoder.readInt()];
+      if (value == null) {
+        throw new IOException(...);
+      }
+      return value;
+     */
+    mg.loadThis();
+    mg.getField(classType, fieldName, Type.getType(Object[].class));
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, getMethod(int.class, "readInt"));
+    mg.arrayLoad(OBJECT_TYPE);
+    mg.dup();
+    Label notNull = mg.newLabel();
+    mg.ifNonNull(notNull);
+    mg.throwException(Type.getType(IOException.class),
+                      String.format("Enum value missing in target %s.", targetSchema.getEnumValues()));
+    mg.mark(notNull);
+  }
+
+  /**
+   * Generates code for reading an array value into a Java array. The array is allocated with the size of the first
+   * block and grown for each additional block.
+   */
+  private void readArray(GeneratorAdapter mg, TypeToken<?> componentType,
+                         Schema targetComponentSchema, Schema sourceComponentSchema, int decoder) {
+    Class<?> componentRawType = componentType.getRawType();
+    Type componentCallType = componentRawType.isPrimitive() ? Type.getType(componentRawType) : OBJECT_TYPE;
+    Type arrayType = Type.getType("[" + componentCallType.getDescriptor());
+
+    // int len = decoder.readInt();
+    int len = mg.newLocal(Type.INT_TYPE);
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+
+    // Primitive array: array = new componentType[len];
+    // Object array: array = (Object[]) Array.newInstance(this.componentClassName, len);
+    int array = mg.newLocal(arrayType);
+    if (componentRawType.isPrimitive()) {
+      mg.loadLocal(len);
+      mg.newArray(componentCallType);
+    } else {
+      // Component type might be defined by the user, hence need to preserve class loading of it
+      preservedClasses.add(getElementClass(componentRawType));
+
+      String fieldName = String.format("class%s", normalizeTypeName(componentType));
+      componentClassRequests.put(fieldName, componentRawType);
+      mg.loadThis();
+      mg.getField(classType, fieldName, Type.getType(Class.class));
+      mg.loadLocal(len);
+      mg.invokeStatic(Type.getType(Array.class), getMethod(Object.class, "newInstance", Class.class, int.class));
+      mg.checkCast(arrayType);
+    }
+    mg.storeLocal(array);
+
+    // int size = 0;
+    int size = mg.newLocal(Type.INT_TYPE);
+    mg.push(0);
+    mg.storeLocal(size);
+
+    /*
+      while (len != 0) {
+        int end = size + len;
+        if (array.length < end) {
+          array = Arrays.copyOf(array, end);
+        }
+        while (size < end) {
+          array[size++] = readComponent(decoder);
+        }
+        len = decoder.readInt();
+      }
+     */
+    int end = mg.newLocal(Type.INT_TYPE);
+    Label beginBlock = mg.mark();
+    Label endBlocks = mg.newLabel();
+    mg.loadLocal(len);
+    mg.ifZCmp(GeneratorAdapter.EQ, endBlocks);
+
+    mg.loadLocal(size);
+    mg.loadLocal(len);
+    mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+    mg.storeLocal(end);
+
+    Label noGrow = mg.newLabel();
+    mg.loadLocal(array);
+    mg.arrayLength();
+    mg.loadLocal(end);
+    mg.ifICmp(GeneratorAdapter.GE, noGrow);
+    mg.loadLocal(array);
+    mg.loadLocal(end);
+    mg.invokeStatic(Type.getType(Arrays.class), new Method("copyOf", arrayType, new Type[] {arrayType, Type.INT_TYPE}));
+    mg.storeLocal(array);
+    mg.mark(noGrow);
+
+    Label beginElement = mg.mark();
+    Label endElements = mg.newLabel();
+    mg.loadLocal(size);
+    mg.loadLocal(end);
+    mg.ifICmp(GeneratorAdapter.GE, endElements);
+    mg.loadLocal(array);
+    mg.loadLocal(size);
+    invokeRead(mg, componentType, targetComponentSchema, sourceComponentSchema, decoder);
+    mg.arrayStore(componentCallType);
+    mg.iinc(size, 1);
+    mg.goTo(beginElement);
+    mg.mark(endElements);
+
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+    mg.goTo(beginBlock);
+    mg.mark(endBlocks);
+
+    mg.loadLocal(array);
+  }
+
+  /**
+   * Generates code for reading an array value into a {@link Collection}.
+   */
+  private void readCollection(GeneratorAdapter mg, TypeToken<?> collectionType, TypeToken<?> componentType,
+                              Schema targetComponentSchema, Schema sourceComponentSchema, int decoder) {
+    Type collectionAsmType = Type.getType(Collection.class);
+
+    // Collection collection = (Collection) this.instantiatorName.create();
+    int collection = mg.newLocal(collectionAsmType);
+    create(mg, collectionType);
+    mg.checkCast(collectionAsmType);
+    mg.storeLocal(collection);
+
+    /*
+      int len = decoder.readInt();
+      while (len != 0) {
+        for (int i = 0; i < len; i++) {
+          collection.add(readComponent(decoder));
+        }
+        len = decoder.readInt();
+      }
+     */
+    int len = mg.newLocal(Type.INT_TYPE);
+    int idx = mg.newLocal(Type.INT_TYPE);
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+
+    Label beginBlock = mg.mark();
+    Label endBlocks = mg.newLabel();
+    mg.loadLocal(len);
+    mg.ifZCmp(GeneratorAdapter.EQ, endBlocks);
+
+    mg.push(0);
+    mg.storeLocal(idx);
+    Label beginElement = mg.mark();
+    Label endElements = mg.newLabel();
+    mg.loadLocal(idx);
+    mg.loadLocal(len);
+    mg.ifICmp(GeneratorAdapter.GE, endElements);
+    mg.loadLocal(collection);
+    invokeRead(mg, componentType, targetComponentSchema, sourceComponentSchema, decoder);
+    mg.invokeInterface(collectionAsmType, getMethod(boolean.class, "add", Object.class));
+    mg.pop();
+    mg.iinc(idx, 1);
+    mg.goTo(beginElement);
+    mg.mark(endElements);
+
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+    mg.goTo(beginBlock);
+    mg.mark(endBlocks);
+
+    mg.loadLocal(collection);
+  }
+
+  /**
+   * Generates code for reading a map value.
+   */
+  private void readMap(GeneratorAdapter mg, TypeToken<?> mapType, TypeToken<?> keyType, TypeToken<?> valueType,
+                       Map.Entry<Schema, Schema> targetMapSchema, Map.Entry<Schema, Schema> sourceMapSchema,
+                       int decoder) {
+    Type mapAsmType = Type.getType(Map.class);
+
+    // Map map = (Map) this.instantiatorName.create();
+    int map = mg.newLocal(mapAsmType);
+    create(mg, mapType);
+    mg.checkCast(mapAsmType);
+    mg.storeLocal(map);
+
+    /*
+      int len = decoder.readInt();
+      while (len != 0) {
+        for (int i = 0; i < len; i++) {
+          map.put(readKey(decoder), readValue(decoder));
+        }
+        len = decoder.readInt();
+      }
+     */
+    int len = mg.newLocal(Type.INT_TYPE);
+    int idx = mg.newLocal(Type.INT_TYPE);
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+
+    Label beginBlock = mg.mark();
+    Label endBlocks = mg.newLabel();
+    mg.loadLocal(len);
+    mg.ifZCmp(GeneratorAdapter.EQ, endBlocks);
+
+    mg.push(0);
+    mg.storeLocal(idx);
+    Label beginEntry = mg.mark();
+    Label endEntries = mg.newLabel();
+    mg.loadLocal(idx);
+    mg.loadLocal(len);
+    mg.ifICmp(GeneratorAdapter.GE, endEntries);
+    mg.loadLocal(map);
+    invokeRead(mg, keyType, targetMapSchema.getKey(), sourceMapSchema.getKey(), decoder);
+    invokeRead(mg, valueType, targetMapSchema.getValue(), sourceMapSchema.getValue(), decoder);
+    mg.invokeInterface(mapAsmType, getMethod(Object.class, "put", Object.class, Object.class));
+    mg.pop();
+    mg.iinc(idx, 1);
+    mg.goTo(beginEntry);
+    mg.mark(endEntries);
+
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+    mg.goTo(beginBlock);
+    mg.mark(endBlocks);
+
+    mg.loadLocal(map);
+  }
+
+  /**
+   * Generates code for reading a record. Fields of the source schema that are not in the target schema are skipped,
+   * fields of the target schema that are not in the source schema are left untouched.
+   */
+  private void readRecord(GeneratorAdapter mg, TypeToken<?> targetType,
+                          Schema targetSchema, Schema sourceSchema, int decoder) {
+    try {
+      Class<?> rawType = targetType.getRawType();
+
+      // Record type might be defined by the user, hence need to preserve class loading of it
+      preservedClasses.add(rawType);
+
+      // Object record = this.instantiatorName.create();
+      int record = mg.newLocal(OBJECT_TYPE);
+      create(mg, targetType);
+      mg.storeLocal(record);
+
+      for (Schema.Field sourceField : sourceSchema.getFields()) {
+        Schema.Field targetField = targetSchema.getField(sourceField.getName());
+        if (targetField == null) {
+          // this.skipMethod(decoder);
+          mg.loadThis();
+          mg.loadArg(decoder);
+          mg.invokeVirtual(classType, getSkipMethod(sourceField.getSchema()));
+          continue;
+        }
+
+        // this.fieldAccessorName.set(record, this.readMethod(decoder));
+        TypeToken<?> fieldType = targetType.resolveType(Fields.findField(targetType.getType(),
+                                                                         targetField.getName()).getGenericType());
+        fieldAccessorRequests.put(targetType, targetField.getName());
+        mg.loadThis();
+        mg.getField(classType, getFieldAccessorName(targetType, targetField.getName()),
+                    Type.getType(FieldAccessor.class));
+        mg.loadLocal(record);
+        invokeRead(mg, fieldType, targetField.getSchema(), sourceField.getSchema(), decoder);
+        mg.invokeInterface(Type.getType(FieldAccessor.class), getAccessorMethod(fieldType));
+      }
+
+      mg.loadLocal(record);
+    } catch (Exception e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * Generates code for reading a union. The union index is read from the decoder and each branch of the source union
+   * is resolved against the target schema at generation time.
+   */
+  private void readUnion(final GeneratorAdapter mg, final TypeToken<?> targetType,
+                         final Schema targetSchema, final Schema sourceSchema, final int decoder) {
+    final List<Schema> sourceSchemas = sourceSchema.getUnionSchemas();
+    int[] keys = new int[sourceSchemas.size()];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = i;
+    }
+
+    /*
+      switch (decoder.readInt()) {
+        case 0:
+          return this.readMethod0(decoder);
+        ...
+        default:
+          throw new IOException(...);
+      }
+     */
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, getMethod(int.class, "readInt"));
+    mg.tableSwitch(keys, new TableSwitchGenerator() {
+      @Override
+      public void generateCase(int key, Label end) {
+        Schema sourceValueSchema = sourceSchemas.get(key);
+        Schema targetValueSchema = targetSchema;
+        if (targetSchema.getType() == Schema.Type.UNION) {
+          targetValueSchema = resolveUnion(sourceValueSchema, targetSchema, key);
+          if (targetValueSchema == null) {
+            mg.throwException(Type.getType(IOException.class),
+                              String.format("Fail to resolve %s to %s", sourceSchema, targetSchema));
+            return;
+          }
+        }
+        invokeRead(mg, targetType, targetValueSchema, sourceValueSchema, decoder);
+        mg.returnValue();
+      }
+
+      @Override
+      public void generateDefault() {
+        mg.throwException(Type.getType(IOException.class),
+                          String.format("Invalid union index for schema %s", sourceSchema));
+      }
+    });
+  }
+
+  /**
+   * Generates code for reading a simple value, converting it to the target schema and type.
+   */
+  private void readSimple(GeneratorAdapter mg, TypeToken<?> targetType,
+                          Schema.Type targetSchemaType, Schema.Type sourceSchemaType, int decoder) {
+    Class<?> rawType = targetType.getRawType();
+
+    if (targetSchemaType == Schema.Type.STRING) {
+      if (sourceSchemaType == Schema.Type.STRING) {
+        if (URI.class.equals(rawType)) {
+          // URI.create(decoder.readString());
+          mg.loadArg(decoder);
+          mg.invokeInterface(DECODER_TYPE, getMethod(String.class, "readString"));
+          mg.invokeStatic(Type.getType(URI.class), getMethod(URI.class, "create", String.class));
+        } else if (URL.class.equals(rawType)) {
+          // new URL(decoder.readString());
+          mg.newInstance(Type.getType(URL.class));
+          mg.dup();
+          mg.loadArg(decoder);
+          mg.invokeInterface(DECODER_TYPE, getMethod(String.class, "readString"));
+          mg.invokeConstructor(Type.getType(URL.class), getMethod(void.class, "<init>", String.class));
+        } else {
+          // decoder.readString();
+          mg.loadArg(decoder);
+          mg.invokeInterface(DECODER_TYPE, getMethod(String.class, "readString"));
+        }
+        return;
+      }
+      // String.valueOf(decoder.readXXX());
+      Type sourceType = readPrimitive(mg, sourceSchemaType, decoder);
+      mg.invokeStatic(Type.getType(String.class), new Method("valueOf", Type.getType(String.class),
+                                                             new Type[] {sourceType}));
+      return;
+    }
+
+    // Conversion between primitives, with boxing if the target type is not primitive
+    Type sourceType = readPrimitive(mg, sourceSchemaType, decoder);
+    Type targetPrimitiveType;
+    if (Primitives.unwrap(rawType).isPrimitive()) {
+      targetPrimitiveType = Type.getType(Primitives.unwrap(rawType));
+    } else {
+      targetPrimitiveType = getPrimitiveType(targetSchemaType);
+    }
+    Preconditions.checkArgument((targetPrimitiveType == Type.BOOLEAN_TYPE) == (sourceType == Type.BOOLEAN_TYPE),
+                                "Cannot resolve %s to type %s.", sourceSchemaType, targetType);
+    mg.cast(sourceType, targetPrimitiveType);
+    if (!rawType.isPrimitive()) {
+      mg.valueOf(targetPrimitiveType);
+    }
+  }
+
+  /**
+   * Generates code for reading a primitive value of the given schema type.
+   *
+   * @return the type of the value read
+   */
+  private Type readPrimitive(GeneratorAdapter mg, Schema.Type schemaType, int decoder) {
+    Type type = getPrimitiveType(schemaType);
+    String typeName = type.getClassName();
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, new Method(String.format("read%c%s", Character.toUpperCase(typeName.charAt(0)),
+                                                              typeName.substring(1)).replace("Boolean", "Bool"),
+                                                type, new Type[0]));
+    return type;
+  }
+
+  /**
+   * Returns the skip method for the given schema. The same method will be returned if the same schema has been
+   * passed to the method before.
+   */
+  private Method getSkipMethod(Schema schema) {
+    String key = schema.getSchemaHash().toString();
+
+    Method method = skipMethods.get(key);
+    if (method != null) {
+      return method;
+    }
+
+    method = getMethod(void.class, String.format("skip%s", key), Decoder.class);
+
+    // Put the method into map first before generating the body in order to support recursive data type.
+    skipMethods.put(key, method);
+
+    GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PRIVATE, method, null,
+                                               new Type[]{Type.getType(IOException.class)}, classWriter);
+    generateSkipBody(mg, schema, 0);
+    mg.returnValue();
+    mg.endMethod();
+
+    return method;
+  }
+
+  /**
+   * Generates the skip method body, with the decoder given in the argument.
+   */
+  private void generateSkipBody(final GeneratorAdapter mg, Schema schema, final int decoder) {
+    switch (schema.getType()) {
+      case NULL:
+        break;
+      case BOOLEAN:
+        skip(mg, decoder, getMethod(boolean.class, "readBool"));
+        break;
+      case INT:
+      case ENUM:
+        skip(mg, decoder, getMethod(int.class, "readInt"));
+        break;
+      case LONG:
+        skip(mg, decoder, getMethod(long.class, "readLong"));
+        break;
+      case FLOAT:
+        skip(mg, decoder, getMethod(void.class, "skipFloat"));
+        break;
+      case DOUBLE:
+        skip(mg, decoder, getMethod(void.class, "skipDouble"));
+        break;
+      case BYTES:
+        skip(mg, decoder, getMethod(void.class, "skipBytes"));
+        break;
+      case STRING:
+        skip(mg, decoder, getMethod(void.class, "skipString"));
+        break;
+      case ARRAY:
+        skipBlocks(mg, decoder, schema.getComponentSchema());
+        break;
+      case MAP:
+        skipBlocks(mg, decoder, schema.getMapSchema().getKey(), schema.getMapSchema().getValue());
+        break;
+      case RECORD:
+        for (Schema.Field field : schema.getFields()) {
+          mg.loadThis();
+          mg.loadArg(decoder);
+          mg.invokeVirtual(classType, getSkipMethod(field.getSchema()));
+        }
+        break;
+      case UNION:
+        final List<Schema> schemas = schema.getUnionSchemas();
+        int[] keys = new int[schemas.size()];
+        for (int i = 0; i < keys.length; i++) {
+          keys[i] = i;
+        }
+        mg.loadArg(decoder);
+        mg.invokeInterface(DECODER_TYPE, getMethod(int.class, "readInt"));
+        mg.tableSwitch(keys, new TableSwitchGenerator() {
+          @Override
+          public void generateCase(int key, Label end) {
+            mg.loadThis();
+            mg.loadArg(decoder);
+            mg.invokeVirtual(classType, getSkipMethod(schemas.get(key)));
+            mg.goTo(end);
+          }
+
+          @Override
+          public void generateDefault() {
+            mg.throwException(Type.getType(IOException.class), "Invalid union index.");
+          }
+        });
+        break;
+    }
+  }
+
+  /**
+   * Generates code for calling a read or skip method of the decoder, discarding the value read.
+   */
+  private void skip(GeneratorAdapter mg, int decoder, Method method) {
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, method);
+    if (method.getReturnType().getSize() == 1) {
+      mg.pop();
+    } else if (method.getReturnType().getSize() == 2) {
+      mg.pop2();
+    }
+  }
+
+  /**
+   * Generates code for skipping the blocks of an array or map, with each element having the given schemas.
+   */
+  private void skipBlocks(GeneratorAdapter mg, int decoder, Schema...schemas) {
+    /*
+      int len = decoder.readInt();
+      while (len != 0) {
+        for (int i = 0; i < len; i++) {
+          skipElement(decoder);
+        }
+        len = decoder.readInt();
+      }
+     */
+    int len = mg.newLocal(Type.INT_TYPE);
+    int idx = mg.newLocal(Type.INT_TYPE);
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+
+    Label beginBlock = mg.mark();
+    Label endBlocks = mg.newLabel();
+    mg.loadLocal(len);
+    mg.ifZCmp(GeneratorAdapter.EQ, endBlocks);
+
+    mg.push(0);
+    mg.storeLocal(idx);
+    Label beginElement = mg.mark();
+    Label endElements = mg.newLabel();
+    mg.loadLocal(idx);
+    mg.loadLocal(len);
+    mg.ifICmp(GeneratorAdapter.GE, endElements);
+    for (Schema schema : schemas) {
+      mg.loadThis();
+      mg.loadArg(decoder);
+      mg.invokeVirtual(classType, getSkipMethod(schema));
+    }
+    mg.iinc(idx, 1);
+    mg.goTo(beginElement);
+    mg.mark(endElements);
+
+    mg.loadArg(decoder);
+    mg.invokeInterface(DECODER_TYPE, getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+    mg.goTo(beginBlock);
+    mg.mark(endBlocks);
+  }
+
+  /**
+   * Generates code for creating an instance of the given type with the {@link Instantiator} created in the
+   * constructor.
+   */
+  private void create(GeneratorAdapter mg, TypeToken<?> type) {
+    String fieldName = String.format("instantiator%s", normalizeTypeName(TypeToken.of(type.getRawType())));
+    instantiatorRequests.put(fieldName, type.getRawType());
+    mg.loadThis();
+    mg.getField(classType, fieldName, Type.getType(Instantiator.class));
+    mg.invokeInterface(Type.getType(Instantiator.class), getMethod(Object.class, "create"));
+  }
+
+  /**
+   * Generates code for loading the class of the given name, with the generated class as the caller.
+   */
+  private void loadClass(GeneratorAdapter mg, Class<?> cls) {
+    mg.push(cls.getName());
+    mg.invokeStatic(Type.getType(Class.class), getMethod(Class.class, "forName", String.class));
+  }
+
+  /**
+   * Generates code for creating a {@link TypeToken} of the given class.
+   */
+  private void loadTypeToken(GeneratorAdapter mg, Class<?> cls) {
+    loadClass(mg, cls);
+    mg.invokeStatic(Type.getType(TypeToken.class), getMethod(TypeToken.class, "of", Class.class));
+  }
+
+  /**
+   * Picks the target schema from the target union that a source union branch resolves to. Same as in
+   * {@link ReflectionDatumReader}, the target branch of the same index is tried first.
+   *
+   * @return the target schema or {@code null} if no target schema in the union can be resolved
+   */
+  private Schema resolveUnion(Schema sourceValueSchema, Schema targetSchema, int idx) {
+    Schema targetValueSchema = targetSchema.getUnionSchema(idx);
+    if (targetValueSchema != null && targetValueSchema.getType() == sourceValueSchema.getType()
+      && isResolvable(sourceValueSchema, targetValueSchema)) {
+      return targetValueSchema;
+    }
+    for (Schema schema : targetSchema.getUnionSchemas()) {
+      if (isResolvable(sourceValueSchema, schema)) {
+        return schema;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns whether data of the source schema can be resolved to the target schema. As in
+   * {@link ReflectionDatumReader}, complex types are resolvable to the same complex type, and simple types are
+   * resolvable to a wider simple type or to string.
+   */
+  private boolean isResolvable(Schema sourceSchema, Schema targetSchema) {
+    Schema.Type sourceType = sourceSchema.getType();
+    Schema.Type targetType = targetSchema.getType();
+
+    if (sourceType == Schema.Type.UNION) {
+      return true;
+    }
+    if (targetType == Schema.Type.UNION) {
+      for (Schema schema : targetSchema.getUnionSchemas()) {
+        if (isResolvable(sourceSchema, schema)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    switch (sourceType) {
+      case BOOLEAN:
+        return targetType == Schema.Type.BOOLEAN || targetType == Schema.Type.STRING;
+      case INT:
+        return targetType == Schema.Type.INT || targetType == Schema.Type.LONG || targetType == Schema.Type.FLOAT
+          || targetType == Schema.Type.DOUBLE || targetType == Schema.Type.STRING;
+      case LONG:
+        return targetType == Schema.Type.LONG || targetType == Schema.Type.FLOAT
+          || targetType == Schema.Type.DOUBLE || targetType == Schema.Type.STRING;
+      case FLOAT:
+        return targetType == Schema.Type.FLOAT || targetType == Schema.Type.DOUBLE || targetType == Schema.Type.STRING;
+      case DOUBLE:
+        return targetType == Schema.Type.DOUBLE || targetType == Schema.Type.STRING;
+      default:
+        return sourceType == targetType;
+    }
+  }
+
+  /**
+   * Returns the type used for passing a value of the given type between the generated methods. Primitive values are
+   * passed without boxing, all other values are passed as {@link Object} as the target type might not be accessible
+   * from the generated class.
+   */
+  private Type getCallType(TypeToken<?> type) {
+    Class<?> rawType = type.getRawType();
+    return rawType.isPrimitive() ? Type.getType(rawType) : OBJECT_TYPE;
+  }
+
+  private Type getPrimitiveType(Schema.Type schemaType) {
+    switch (schemaType) {
+      case BOOLEAN:
+        return Type.BOOLEAN_TYPE;
+      case INT:
+        return Type.INT_TYPE;
+      case LONG:
+        return Type.LONG_TYPE;
+      case FLOAT:
+        return Type.FLOAT_TYPE;
+      case DOUBLE:
+        return Type.DOUBLE_TYPE;
+    }
+    throw new IllegalArgumentException("Schema type " + schemaType + " is not a primitive type.");
+  }
+
+  private TypeToken<?> getTypeArgument(TypeToken<?> type, int idx) {
+    Preconditions.checkArgument(type.getType() instanceof ParameterizedType,
+                                "Only parameterized type is supported for %s.", type);
+    return TypeToken.of(((ParameterizedType) type.getType()).getActualTypeArguments()[idx]);
+  }
+
+  private Class<?> getElementClass(Class<?> cls) {
+    while (cls.isArray()) {
+      cls = cls.getComponentType();
+    }
+    return cls;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> TypeToken<DatumReader<T>> getInterfaceType(TypeToken<T> type) {
+    if (type.getRawType().isPrimitive()) {
+      type = (TypeToken<T>) TypeToken.of(Primitives.wrap(type.getRawType()));
+    }
+    return new TypeToken<DatumReader<T>>() {
+    }.where(new TypeParameter<T>() {
+    }, type);
+  }
+
+  private String getClassName(TypeToken<?> targetType, Schema targetSchema, Schema sourceSchema) {
+    return String.format("%s/%s%s%s%s",
+                         DatumReader.class.getPackage().getName().replace('.', '/'),
+                         normalizeTypeName(targetType), DatumReader.class.getSimpleName(),
+                         targetSchema.getSchemaHash(), sourceSchema.getSchemaHash());
+  }
+
+  private String normalizeTypeName(TypeToken<?> type) {
+    String typeName = type.toString();
+    int dimension = 0;
+    while (type.isArray()) {
+      type = type.getComponentType();
+      typeName = type.toString();
+      dimension++;
+    }
+
+    typeName = typeName.replace(".", "")
+                        .replace("<", "Of")
+                        .replace(">", "")
+                        .replace(",", "To")
+                        .replace(" ", "")
+                        .replace("$", "")
+                        .replace("?", "Wildcard");
+    if (dimension > 0) {
+      typeName = "Array" + dimension + typeName;
+    }
+    return typeName;
+  }
+
+  private Method getMethod(Class<?> returnType, String name, Class<?>...args) {
+    return Methods.getMethod(returnType, name, args);
+  }
+
+  /**
+   * Returns the method for calling {@link FieldAccessor} setter based on the data type.
+   * @param type Data type.
+   * @return A {@link Method} for calling {@link FieldAccessor}.
+   */
+  private Method getAccessorMethod(TypeToken<?> type) {
+    Class<?> rawType = type.getRawType();
+    if (rawType.isPrimitive()) {
+      return getMethod(void.class,
+                       String.format("set%c%s",
+                                     Character.toUpperCase(rawType.getName().charAt(0)),
+                                     rawType.getName().substring(1)),
+                       Object.class, rawType);
+    } else {
+      return getMethod(void.class, "set", Object.class, Object.class);
+    }
+  }
+
+  /**
+   * Generates the name of the class field for storing {@link FieldAccessor} for the given record field.
+   * @param recordType Type of the record.
+   * @param fieldName name of the field.
+   * @return name of the class field.
+   */
+  private String getFieldAccessorName(TypeToken<?> recordType, String fieldName) {
+    return String.format("%s$%s", normalizeTypeName(recordType), fieldName);
+  }
+
+  /**
+   * The target enum values of an enum, indexed by the source enum index. Values that are missing in the target enum
+   * are {@code null}.
+   */
+  private static final class EnumValues {
+    private final Class<?> enumClass;
+    private final List<String> names;
+
+    private EnumValues(Class<?> enumClass, List<String> names) {
+      this.enumClass = enumClass;
+      this.names = names;
+    }
+  }
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.io;
+
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.data.schema.UnsupportedTypeException;
+import co.cask.cdap.api.flow.flowlet.StreamEvent;
+import co.cask.cdap.common.io.BinaryDecoder;
+import co.cask.cdap.common.io.BinaryEncoder;
+import co.cask.cdap.common.io.DatumReader;
+import co.cask.cdap.internal.io.ASMDatumReaderFactory;
+import co.cask.cdap.internal.io.ASMFieldAccessorFactory;
+import co.cask.cdap.internal.io.ReflectionDatumReader;
+import co.cask.cdap.internal.io.ReflectionDatumWriter;
+import co.cask.cdap.internal.io.ReflectionSchemaGenerator;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the {@link DatumReader} created by {@link ASMDatumReaderFactory}.
+ */
+public class ASMDatumReaderTest {
+
+  private static final ASMDatumReaderFactory DATUM_READER_FACTORY
+    = new ASMDatumReaderFactory(new ASMFieldAccessorFactory());
+
+  /**
+   *
+   */
+  public enum TestEnum {
+    VALUE1, VALUE2, VALUE3, VALUE4
+  }
+
+  /**
+   *
+   */
+  public enum LessEnum {
+    VALUE4, VALUE2
+  }
+
+  private static Schema getSchema(TypeToken<?> type) throws UnsupportedTypeException {
+    return new ReflectionSchemaGenerator().generate(type.getType());
+  }
+
+  private static <T> byte[] encode(TypeToken<T> type, T value) throws UnsupportedTypeException, IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    new ReflectionDatumWriter<T>(getSchema(type)).encode(value, new BinaryEncoder(os));
+    return os.toByteArray();
+  }
+
+  /**
+   * Decodes a value written with the schema of the source type to the target type, with both the ASM generated
+   * reader and the reflection reader, and verifies that both give the same result.
+   */
+  private static <S, T> T decode(TypeToken<S> sourceType, S value,
+                                 TypeToken<T> targetType) throws UnsupportedTypeException, IOException {
+    byte[] bytes = encode(sourceType, value);
+    Schema sourceSchema = getSchema(sourceType);
+    Schema targetSchema = getSchema(targetType);
+
+    T result = DATUM_READER_FACTORY.create(targetType, targetSchema)
+      .read(new BinaryDecoder(new ByteArrayInputStream(bytes)), sourceSchema);
+    T expected = new ReflectionDatumReader<>(targetSchema, targetType)
+      .read(new BinaryDecoder(new ByteArrayInputStream(bytes)), sourceSchema);
+
+    Assert.assertTrue(Arrays.deepEquals(new Object[] {expected}, new Object[] {result}));
+    return result;
+  }
+
+  private static <T> T decode(TypeToken<T> type, T value) throws UnsupportedTypeException, IOException {
+    return decode(type, value, type);
+  }
+
+  @Test
+  public void testSimpleTypes() throws UnsupportedTypeException, IOException {
+    Assert.assertEquals(Short.valueOf((short) 3000), decode(TypeToken.of(Short.class), (short) 3000));
+    Assert.assertEquals(Integer.valueOf(12234234), decode(TypeToken.of(Integer.class), 12234234));
+    Assert.assertEquals(Long.valueOf(-12234234000L), decode(TypeToken.of(Long.class), -12234234000L));
+    Assert.assertEquals(3.14d, decode(TypeToken.of(Double.class), 3.14d), 0.000001d);
+    Assert.assertEquals(3.14f, decode(TypeToken.of(Float.class), 3.14f), 0.000001f);
+    Assert.assertEquals(Boolean.TRUE, decode(TypeToken.of(Boolean.class), true));
+    Assert.assertEquals("Testing message", decode(TypeToken.of(String.class), "Testing message"));
+    Assert.assertEquals(URI.create("http://www.abc.com"),
+                        decode(TypeToken.of(URI.class), URI.create("http://www.abc.com")));
+    UUID uuid = UUID.randomUUID();
+    Assert.assertEquals(uuid, decode(TypeToken.of(UUID.class), uuid));
+    Assert.assertArrayEquals(new byte[] {1, 2, 3}, decode(TypeToken.of(byte[].class), new byte[] {1, 2, 3}));
+    Assert.assertEquals(ByteBuffer.wrap(new byte[] {1, 2, 3}),
+                        decode(TypeToken.of(ByteBuffer.class), ByteBuffer.wrap(new byte[] {1, 2, 3})));
+  }
+
+  @Test
+  public void testSimpleTypeResolution() throws UnsupportedTypeException, IOException {
+    Assert.assertEquals(Long.valueOf(10L), decode(TypeToken.of(Integer.class), 10, TypeToken.of(Long.class)));
+    Assert.assertEquals(10f, decode(TypeToken.of(Long.class), 10L, TypeToken.of(Float.class)), 0.000001f);
+    Assert.assertEquals(1.5d, decode(TypeToken.of(Float.class), 1.5f, TypeToken.of(Double.class)), 0.000001d);
+    Assert.assertEquals("10", decode(TypeToken.of(Integer.class), 10, TypeToken.of(String.class)));
+    Assert.assertEquals("true", decode(TypeToken.of(Boolean.class), true, TypeToken.of(String.class)));
+    Assert.assertEquals(new URL("http://www.abc.com"),
+                        decode(TypeToken.of(String.class), "http://www.abc.com", TypeToken.of(URL.class)));
+  }
+
+  @Test
+  public void testEnum() throws UnsupportedTypeException, IOException {
+    TypeToken<TestEnum> type = TypeToken.of(TestEnum.class);
+    Assert.assertEquals(TestEnum.VALUE1, decode(type, TestEnum.VALUE1));
+    Assert.assertEquals(TestEnum.VALUE4, decode(type, TestEnum.VALUE4));
+    Assert.assertEquals(TestEnum.VALUE3, decode(type, TestEnum.VALUE3));
+
+    Assert.assertEquals(LessEnum.VALUE2, decode(type, TestEnum.VALUE2, TypeToken.of(LessEnum.class)));
+    Assert.assertEquals(LessEnum.VALUE4, decode(type, TestEnum.VALUE4, TypeToken.of(LessEnum.class)));
+
+    byte[] bytes = encode(type, TestEnum.VALUE1);
+    try {
+      DATUM_READER_FACTORY.create(TypeToken.of(LessEnum.class), getSchema(TypeToken.of(LessEnum.class)))
+        .read(new BinaryDecoder(new ByteArrayInputStream(bytes)), getSchema(type));
+      Assert.fail("Expected IOException for enum value missing in target");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testArrays() throws UnsupportedTypeException, IOException {
+    int[] ints = {1, 2, 3, 4, -5, -6, -7, -8};
+    Assert.assertArrayEquals(ints, decode(TypeToken.of(int[].class), ints));
+    Assert.assertArrayEquals(new long[] {1L, 2L, 3L, 4L, -5L, -6L, -7L, -8L},
+                             decode(TypeToken.of(int[].class), ints, TypeToken.of(long[].class)));
+    Assert.assertArrayEquals(new short[] {1, -2}, decode(TypeToken.of(short[].class), new short[] {1, -2}));
+    Assert.assertArrayEquals(new int[0], decode(TypeToken.of(int[].class), new int[0]));
+
+    String[] strings = {"1", "2", null, "3"};
+    Assert.assertArrayEquals(strings, decode(TypeToken.of(String[].class), strings));
+
+    Record[][] records = {{new Record(10, "testing", ImmutableList.of("a", "b", "c"), TestEnum.VALUE2)}, {}};
+    Record[][] result = decode(TypeToken.of(Record[][].class), records);
+    Assert.assertEquals(2, result.length);
+    Assert.assertArrayEquals(records[0], result[0]);
+    Assert.assertEquals(0, result[1].length);
+  }
+
+  @Test
+  public void testCollections() throws UnsupportedTypeException, IOException {
+    TypeToken<List<Long>> listType = new TypeToken<List<Long>>() { };
+    List<Long> list = ImmutableList.of(1L, 10L, 100L, 1000L);
+    Assert.assertEquals(list, decode(listType, list));
+
+    TypeToken<List<String>> stringListType = new TypeToken<List<String>>() { };
+    List<String> strings = Lists.newArrayList("1", "2", "3");
+    Assert.assertEquals(ImmutableSet.of("1", "2", "3"), decode(stringListType, strings,
+                                                               new TypeToken<Set<String>>() { }));
+    Assert.assertArrayEquals(new String[] {"1", "2", "3"},
+                             decode(stringListType, strings, TypeToken.of(String[].class)));
+
+    TypeToken<Map<String, List<String>>> mapType = new TypeToken<Map<String, List<String>>>() { };
+    Map<String, List<String>> map = ImmutableMap.<String, List<String>>of("k1", Lists.newArrayList("v1"),
+                                                                          "k2", Lists.newArrayList("v2", null));
+    Assert.assertEquals(map, decode(mapType, map));
+  }
+
+  @Test
+  public void testRecord() throws UnsupportedTypeException, IOException {
+    Record record = new Record(10, "testing", ImmutableList.of("a", "b", "c"), TestEnum.VALUE2);
+    Assert.assertEquals(record, decode(TypeToken.of(Record.class), record));
+
+    TypeToken<List<Record>> listType = new TypeToken<List<Record>>() { };
+    Assert.assertEquals(ImmutableList.of(record), decode(listType, ImmutableList.of(record)));
+
+    Node root = new Node((short) 1,
+                         new Node((short) 2, null, new Node((short) 3, null, null)),
+                         new Node((short) 4, new Node((short) 5, null, null), null));
+    Node node = decode(TypeToken.of(Node.class), root);
+    Assert.assertEquals(root, node);
+    Assert.assertEquals(Short.valueOf((short) 4), node.right.boxedData);
+
+    StreamEvent event = new StreamEvent(ImmutableMap.of("key", "value"),
+                                        ByteBuffer.wrap("Testing message".getBytes(Charsets.UTF_8)));
+    byte[] bytes = encode(TypeToken.of(StreamEvent.class), event);
+    Schema schema = getSchema(TypeToken.of(StreamEvent.class));
+    StreamEvent value = DATUM_READER_FACTORY.create(TypeToken.of(StreamEvent.class), schema)
+      .read(new BinaryDecoder(new ByteArrayInputStream(bytes)), schema);
+    Assert.assertEquals(event.getHeaders(), value.getHeaders());
+    Assert.assertEquals(event.getBody(), value.getBody());
+  }
+
+  @Test
+  public void testTypeProjection() throws UnsupportedTypeException, IOException {
+    Record1 r1 = new Record1(10, Maps.<Integer, Value>newHashMap(), new URL("http://www.yahoo.com"));
+    r1.properties.put(1, new Value(1, "Name1"));
+    r1.properties.put(2, new Value(2, "Name2"));
+    r1.properties.put(3, null);
+
+    byte[] bytes = encode(TypeToken.of(Record1.class), r1);
+    Record2 r2 = DATUM_READER_FACTORY.create(TypeToken.of(Record2.class), getSchema(TypeToken.of(Record2.class)))
+      .read(new BinaryDecoder(new ByteArrayInputStream(bytes)), getSchema(TypeToken.of(Record1.class)));
+
+    Assert.assertEquals(10L, r2.i.longValue());
+    Assert.assertEquals(3, r2.properties.size());
+    Assert.assertEquals(new Value(1, "Name1"), r2.properties.get("1"));
+    Assert.assertEquals(new Value(2, "Name2"), r2.properties.get("2"));
+    Assert.assertTrue(r2.properties.containsKey("3"));
+    Assert.assertNull(r2.properties.get("3"));
+    Assert.assertNull(r2.name);
+    Assert.assertArrayEquals(new long[] {1L, 2L}, r2.numbers);
+    Assert.assertEquals(URI.create("http://www.yahoo.com"), r2.url);
+    Assert.assertEquals(r1.uuid, r2.uuid);
+    Assert.assertNull(r2.nullStr);
+  }
+
+  @Test
+  public void testReduceProjection() throws UnsupportedTypeException, IOException {
+    MoreFields moreFields = new MoreFields(10, 20.2, "30", ImmutableList.of("1", "2"));
+    byte[] bytes = encode(TypeToken.of(MoreFields.class), moreFields);
+
+    // Read twice with the same reader, to verify that the skipped fields are fully consumed
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    os.write(bytes);
+    os.write(bytes);
+    BinaryDecoder decoder = new BinaryDecoder(new ByteArrayInputStream(os.toByteArray()));
+    DatumReader<LessFields> reader = DATUM_READER_FACTORY.create(TypeToken.of(LessFields.class),
+                                                                 getSchema(TypeToken.of(LessFields.class)));
+    Schema sourceSchema = getSchema(TypeToken.of(MoreFields.class));
+    for (int i = 0; i < 2; i++) {
+      LessFields lessFields = reader.read(decoder, sourceSchema);
+      Assert.assertEquals("30", lessFields.k);
+      Assert.assertEquals(moreFields.inner.b, lessFields.inner.b);
+    }
+  }
+
+  @Ignore
+  @Test
+  public void testSpeed() throws UnsupportedTypeException, IOException {
+    TypeToken<Record> type = TypeToken.of(Record.class);
+    Schema schema = getSchema(type);
+    Record record = new Record(10, "testing", ImmutableList.of("a", "b", "c"), TestEnum.VALUE2);
+    byte[] bytes = encode(type, record);
+
+    DatumReader<Record> asmReader = DATUM_READER_FACTORY.create(type, schema);
+    DatumReader<Record> reflectionReader = new ReflectionDatumReader<>(schema, type);
+
+    for (int round = 0; round < 2; round++) {
+      long startTime = System.nanoTime();
+      for (int i = 0; i < 1000000; i++) {
+        asmReader.read(new BinaryDecoder(new ByteArrayInputStream(bytes)), schema);
+      }
+      long endTime = System.nanoTime();
+      System.out.println("ASM time spent: "
+                           + TimeUnit.MILLISECONDS.convert(endTime - startTime, TimeUnit.NANOSECONDS));
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < 1000000; i++) {
+        reflectionReader.read(new BinaryDecoder(new ByteArrayInputStream(bytes)), schema);
+      }
+      endTime = System.nanoTime();
+      System.out.println("Reflection time spent: "
+                           + TimeUnit.MILLISECONDS.convert(endTime - startTime, TimeUnit.NANOSECONDS));
+    }
+  }
+
+  private static class Record {
+    private int i;
+    private String s;
+    private List<String> list;
+    private TestEnum e;
+
+    Record(int i, String s, List<String> list, TestEnum e) {
+      this.i = i;
+      this.s = s;
+      this.list = list;
+      this.e = e;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      Record record = (Record) o;
+
+      return i == record.i && e == record.e && list.equals(record.list) && s.equals(record.s);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(i, s, list, e);
+    }
+  }
+
+  /**
+   *
+   */
+  public static final class Node {
+    public short data;
+    public Short boxedData;
+    public Node left;
+    public Node right;
+
+    public Node(short data, Node left, Node right) {
+      this.data = data;
+      this.boxedData = data;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      Node node = (Node) o;
+
+      return data == node.data
+               && (left  != null ? left.equals(node.left) : node.left == null)
+               && (right != null ? right.equals(node.right) : node.right == null);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(data, left, right);
+    }
+  }
+
+  /**
+   *
+   */
+  public static class Value {
+    private final int id;
+    private final String name;
+
+    public Value(int id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      Value value = (Value) o;
+      return id == value.id && name.equals(value.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(id, name);
+    }
+  }
+
+  /**
+   *
+   */
+  public static class Record1 {
+    private final int i;
+    private final Map<Integer, Value> properties;
+    private final int[] numbers;
+    private final URL url;
+    private final UUID uuid;
+    private final String nullStr;
+
+    public Record1(int i, Map<Integer, Value> properties, URL url) {
+      this.i = i;
+      this.properties = properties;
+      this.numbers = new int[] {1, 2};
+      this.url = url;
+      this.uuid = UUID.randomUUID();
+      this.nullStr = null;
+    }
+  }
+
+  /**
+   *
+   */
+  public static class Record2 {
+    private final Long i;
+    private final Map<String, Value> properties;
+    private final String name;
+    private final long[] numbers;
+    private final URI url;
+    private final UUID uuid;
+    private final String nullStr;
+
+    public Record2(long i, Map<String, Value> properties, String name) {
+      this.i = i;
+      this.properties = properties;
+      this.name = name;
+      this.numbers = new long[0];
+      this.url = null;
+      this.uuid = null;
+      this.nullStr = null;
+    }
+  }
+
+  /**
+   *
+   */
+  public static final class MoreFields {
+
+    static final class Inner {
+      final Map<String, String> map;
+      final String b;
+
+      Inner(String b) {
+        this.b = b;
+        map = ImmutableMap.of("b", b);
+      }
+    }
+
+    final int i;
+    final double d;
+    final String k;
+    final List<String> list;
+    final Inner inner;
+
+    public MoreFields(int i, double d, String k, List<String> list) {
+      this.i = i;
+      this.d = d;
+      this.k = k;
+      this.list = list;
+      inner = new Inner("inner");
+    }
+  }
+
+  /**
+   *
+   */
+  public static final class LessFields {
+    static final class Inner {
+      String b;
+    }
+
+    String k;
+    Inner inner;
+  }
+}
@@ -38,6 +38,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.io.Closeables;
 import com.google.common.io.Flushables;
@@ -488,6 +489,57 @@ public abstract class StreamDataFileTestBase {
     Assert.assertEquals(2000, ts);
   }
 
+  @Test
+  public void testIndexBySize() throws Exception {
+    Location dir = StreamFileTestUtils.createTempDir(getLocationFactory());
+    Location eventFile = dir.getTempFile(".dat");
+    Location indexFile = dir.getTempFile(".idx");
+
+    // Write 100 events of 64K each with different timestamps, with an index interval longer than the time range.
+    StreamDataFileWriter writer = new StreamDataFileWriter(Locations.newOutputSupplier(eventFile),
+                                                           Locations.newOutputSupplier(indexFile),
+                                                           10000L);
+    String body = Strings.repeat('0', 64 * 1024);
+    for (int i = 0; i < 100; i++) {
+      writer.append(StreamFileTestUtils.createEvent(i, body));
+    }
+    writer.close();
+
+    // There should be index entries in between, no more than 1MB and an event apart.
+    StreamDataFileIndex index = new StreamDataFileIndex(Locations.newInputSupplier(indexFile));
+    StreamDataFileIndexIterator iterator = index.indexIterator();
+    int entries = 0;
+    long lastPosition = 0L;
+    while (iterator.nextIndexEntry()) {
+      Assert.assertTrue(iterator.currentPosition() - lastPosition <= 1024 * 1024 + body.length() + 16);
+      lastPosition = iterator.currentPosition();
+      entries++;
+    }
+    Assert.assertTrue(entries > 1);
+    Assert.assertTrue(eventFile.length() - lastPosition <= 1024 * 1024 + body.length() + 16);
+
+    // Reading by time or by the index positions should get the right events.
+    for (long ts : new long[] { 0L, 15L, 16L, 50L, 99L }) {
+      StreamDataFileReader reader = StreamDataFileReader.createByStartTime(Locations.newInputSupplier(eventFile),
+                                                                           Locations.newInputSupplier(indexFile),
+                                                                           ts);
+      List<StreamEvent> events = Lists.newArrayList();
+      Assert.assertEquals(1, reader.read(events, 1, 0, TimeUnit.SECONDS));
+      Assert.assertEquals(ts, events.get(0).getTimestamp());
+      reader.close();
+
+      long position = index.ceilingPositionByTime(ts);
+      Assert.assertTrue(position > 0);
+      reader = StreamDataFileReader.createWithOffset(Locations.newInputSupplier(eventFile),
+                                                     Locations.newInputSupplier(indexFile), position);
+      events.clear();
+      Assert.assertEquals(1, reader.read(events, 1, 0, TimeUnit.SECONDS));
+      Assert.assertTrue(events.get(0).getTimestamp() >= ts);
+      reader.close();
+    }
+    Assert.assertEquals(-1L, index.ceilingPositionByTime(100L));
+  }
+
   @Test
   public void testMaxEvents() throws Exception {
     Location dir = StreamFileTestUtils.createTempDir(getLocationFactory());
@@ -994,6 +1046,140 @@ public abstract class StreamDataFileTestBase {
     reader.close();
   }
 
+  /**
+   * Test for the v3 file format, which compresses the data blocks.
+   */
+  @Test
+  public void testCompressedReadWrite() throws Exception {
+    Location dir = StreamFileTestUtils.createTempDir(getLocationFactory());
+    Location eventFile = dir.getTempFile(".dat");
+    Location indexFile = dir.getTempFile(".idx");
+
+    StreamDataFileWriter writer = new StreamDataFileWriter(
+      Locations.newOutputSupplier(eventFile), Locations.newOutputSupplier(indexFile), 10L,
+      ImmutableMap.of(StreamDataFileConstants.Property.Key.COMPRESSION_CODEC, StreamFileCodec.DEFLATE.getName()));
+
+    // Write 1000 events, with 10 events for each of 100 timestamps
+    for (int i = 0; i < 100; i++) {
+      for (int j = 0; j < 10; j++) {
+        writer.append(StreamFileTestUtils.createEvent(i, "Compressed " + i + " " + j));
+      }
+    }
+    writer.close();
+
+    StreamDataFileReader reader = StreamDataFileReader.create(Locations.newInputSupplier(eventFile));
+    List<PositionStreamEvent> events = Lists.newArrayList();
+    Assert.assertEquals(1000, reader.read(events, 1000, 0, TimeUnit.SECONDS));
+    Assert.assertEquals(-1, reader.read(events, 1, 0, TimeUnit.SECONDS));
+    reader.close();
+
+    long lastPosition = -1L;
+    for (int i = 0; i < 1000; i++) {
+      PositionStreamEvent event = events.get(i);
+      Assert.assertEquals(i / 10, event.getTimestamp());
+      Assert.assertEquals("Compressed " + (i / 10) + " " + (i % 10),
+                          Charsets.UTF_8.decode(event.getBody()).toString());
+      // Each event has a distinct position
+      Assert.assertTrue(event.getStart() > lastPosition);
+      lastPosition = event.getStart();
+    }
+
+    // Open readers at the position of each event, which should read that event first
+    for (PositionStreamEvent event : ImmutableList.copyOf(events)) {
+      reader = StreamDataFileReader.createWithOffset(Locations.newInputSupplier(eventFile),
+                                                     Locations.newInputSupplier(indexFile), event.getStart());
+      List<PositionStreamEvent> readEvents = Lists.newArrayList();
+      Assert.assertEquals(1, reader.read(readEvents, 1, 0, TimeUnit.SECONDS));
+      reader.close();
+      Assert.assertEquals(event.getStart(), readEvents.get(0).getStart());
+      Assert.assertEquals(event.getBody(), readEvents.get(0).getBody());
+    }
+
+    // Open readers by time, using the index
+    for (int i = 0; i < 100; i += 7) {
+      reader = StreamDataFileReader.createByStartTime(Locations.newInputSupplier(eventFile),
+                                                      Locations.newInputSupplier(indexFile), i);
+      List<PositionStreamEvent> readEvents = Lists.newArrayList();
+      Assert.assertEquals(1, reader.read(readEvents, 1, 0, TimeUnit.SECONDS));
+      reader.close();
+      Assert.assertEquals(events.get(i * 10).getStart(), readEvents.get(0).getStart());
+    }
+  }
+
+  @Test
+  public void testCompressedSmallEvents() throws Exception {
+    Location dir = StreamFileTestUtils.createTempDir(getLocationFactory());
+    Location eventFile = dir.getTempFile(".dat");
+    Location indexFile = dir.getTempFile(".idx");
+
+    StreamDataFileWriter writer = new StreamDataFileWriter(
+      Locations.newOutputSupplier(eventFile), Locations.newOutputSupplier(indexFile), 10000L,
+      ImmutableMap.of(StreamDataFileConstants.Property.Key.COMPRESSION_CODEC, StreamFileCodec.DEFLATE.getName()));
+
+    // Empty events compress to much less than one byte each, but still need distinct positions
+    for (int i = 0; i < 1000; i++) {
+      writer.append(StreamFileTestUtils.createEvent(i / 500, ""));
+    }
+    writer.close();
+
+    // Read with a reader that is reopened at its position after every event
+    long position = 0L;
+    long lastPosition = -1L;
+    for (int i = 0; i < 1000; i++) {
+      StreamDataFileReader reader = StreamDataFileReader.createWithOffset(Locations.newInputSupplier(eventFile),
+                                                                          Locations.newInputSupplier(indexFile),
+                                                                          position);
+      List<PositionStreamEvent> events = Lists.newArrayList();
+      Assert.assertEquals(1, reader.read(events, 1, 0, TimeUnit.SECONDS));
+      Assert.assertTrue(events.get(0).getStart() > lastPosition);
+      Assert.assertEquals(i / 500, events.get(0).getTimestamp());
+      lastPosition = events.get(0).getStart();
+      position = reader.getPosition();
+      reader.close();
+    }
+  }
+
+  /**
+   * Test that compressed files are smaller than uncompressed ones, and read back the same events.
+   */
+  @Test
+  public void testCompressedFileSize() throws Exception {
+    int numEvents = 10000;
+    Random random = new Random();
+    List<StreamEvent> events = Lists.newArrayListWithCapacity(numEvents);
+    for (int i = 0; i < numEvents; i++) {
+      String body = String.format("{\"user\":\"user%d\",\"page\":\"/products/%d\",\"referrer\":\"/search\"," +
+                                    "\"agent\":\"Mozilla/5.0\",\"latency\":%d}",
+                                  random.nextInt(10000), random.nextInt(1000), random.nextInt(500));
+      events.add(StreamFileTestUtils.createEvent(i / 100, body));
+    }
+
+    Map<StreamFileCodec, Long> fileSizes = Maps.newHashMap();
+    for (StreamFileCodec codec : StreamFileCodec.values()) {
+      Location dir = StreamFileTestUtils.createTempDir(getLocationFactory());
+      Location eventFile = dir.getTempFile(".dat");
+      Location indexFile = dir.getTempFile(".idx");
+
+      StreamDataFileWriter writer = new StreamDataFileWriter(
+        Locations.newOutputSupplier(eventFile), Locations.newOutputSupplier(indexFile), 10000L,
+        ImmutableMap.of(StreamDataFileConstants.Property.Key.COMPRESSION_CODEC, codec.getName()));
+      writer.appendAll(events.iterator());
+      writer.close();
+      fileSizes.put(codec, eventFile.length());
+
+      StreamDataFileReader reader = StreamDataFileReader.create(Locations.newInputSupplier(eventFile));
+      List<PositionStreamEvent> readEvents = Lists.newArrayListWithCapacity(numEvents);
+      Assert.assertEquals(numEvents, reader.read(readEvents, numEvents, 0, TimeUnit.SECONDS));
+      Assert.assertEquals(-1, reader.read(readEvents, 1, 0, TimeUnit.SECONDS));
+      reader.close();
+      for (int i = 0; i < numEvents; i++) {
+        Assert.assertEquals(events.get(i).getTimestamp(), readEvents.get(i).getTimestamp());
+        Assert.assertEquals(events.get(i).getBody(), readEvents.get(i).getBody());
+      }
+    }
+    Assert.assertTrue(fileSizes.get(StreamFileCodec.DEFLATE) < fileSizes.get(StreamFileCodec.NONE));
+  }
+
   private FileWriter<StreamEvent> createWriter(StreamConfig config, String prefix) {
     return new TimePartitionedStreamFileWriter(config.getLocation(), config.getPartitionDuration(),
                                                prefix, config.getIndexInterval(), config.getStreamId(),
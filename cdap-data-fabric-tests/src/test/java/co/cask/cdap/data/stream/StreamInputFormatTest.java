@@ -208,6 +208,74 @@ public class StreamInputFormatTest {
     Assert.assertEquals(1, output.get("1").intValue());
   }
 
+  @Test
+  public void testTimeRangeSplits() throws Exception {
+    // Write 1000 events in one bucket under one partition, with one index entry for every 100 timestamps.
+    File inputDir = tmpFolder.newFolder();
+    generateEvents(inputDir);
+    File eventFile = new File(new File(inputDir, "1.1000"), "bucket.1.0." + StreamFileType.EVENT.getSuffix());
+
+    Configuration conf = new Configuration();
+    AbstractStreamInputFormat.setStreamId(conf, DUMMY_ID);
+    AbstractStreamInputFormat.setStreamPath(conf, inputDir.toURI());
+    AbstractStreamInputFormat.setMaxSplitSize(conf, 1000);
+    AbstractStreamInputFormat format = new TestStreamInputFormat();
+
+    // Only the data blocks between the index entries around the time range should be split,
+    // and there should be no split for the tail of the file.
+    AbstractStreamInputFormat.setTimeRange(conf, 1401, 1402);
+    List<InputSplit> splits = format.getSplits(new JobContextImpl(new JobConf(conf), new JobID()));
+    Assert.assertFalse(splits.isEmpty());
+    long length = 0L;
+    for (InputSplit split : splits) {
+      StreamInputSplit streamSplit = (StreamInputSplit) split;
+      Assert.assertTrue(streamSplit.getStart() > 0);
+      Assert.assertTrue(streamSplit.getLength() < Long.MAX_VALUE);
+      length += streamSplit.getLength();
+    }
+    Assert.assertTrue(length < eventFile.length() / 5);
+
+    // No split is needed for a time range before all events in the file
+    AbstractStreamInputFormat.setTimeRange(conf, 0, 1000);
+    Assert.assertTrue(format.getSplits(new JobContextImpl(new JobConf(conf), new JobID())).isEmpty());
+  }
+
+  @Test
+  public void testUploadedFileTimeRange() throws Exception {
+    File inputDir = tmpFolder.newFolder();
+    File outputDir = tmpFolder.newFolder();
+
+    outputDir.delete();
+
+    // Write 1000 events into a file like an uploaded one, which uses the close timestamp for all events.
+    // The events are written with earlier timestamps, which are the ones recorded in the index.
+    long partitionStart = System.currentTimeMillis() / 1000 * 1000;
+    File partition = new File(inputDir, (partitionStart / 1000) + ".3600000");
+    File eventFile = new File(partition, "bucket.1.0." + StreamFileType.EVENT.getSuffix());
+    File indexFile = new File(partition, "bucket.1.0." + StreamFileType.INDEX.getSuffix());
+
+    partition.mkdirs();
+
+    StreamDataFileWriter writer = new StreamDataFileWriter(
+      Files.newOutputStreamSupplier(eventFile), Files.newOutputStreamSupplier(indexFile), 100L,
+      ImmutableMap.of(StreamDataFileConstants.Property.Key.UNI_TIMESTAMP,
+                      StreamDataFileConstants.Property.Value.CLOSE_TIMESTAMP));
+    for (int i = 0; i < 1000; i++) {
+      writer.append(StreamFileTestUtils.createEvent(partitionStart - 1000 + i, "Uploaded " + (i % 10)));
+    }
+    writer.close();
+
+    // All events should be processed for a time range that starts after the timestamps in the index
+    runMR(inputDir, outputDir, writer.getCloseTimestamp(), Long.MAX_VALUE, 1000, Long.MAX_VALUE);
+    Map<String, Integer> output = loadMRResult(outputDir);
+
+    Assert.assertEquals(11, output.size());
+    Assert.assertEquals(1000, output.get("Uploaded").intValue());
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(100, output.get(Integer.toString(i)).intValue());
+    }
+  }
+
   @Test
   public void testLiveStream() throws Exception {
     File inputDir = tmpFolder.newFolder();
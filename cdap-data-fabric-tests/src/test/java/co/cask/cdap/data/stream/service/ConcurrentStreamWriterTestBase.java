@@ -43,6 +43,7 @@ import com.google.common.base.Charsets;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.apache.twill.filesystem.Location;
 import org.junit.AfterClass;
@@ -57,6 +58,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
@@ -100,7 +102,8 @@ public abstract class ConcurrentStreamWriterTestBase {
     int threads = Runtime.getRuntime().availableProcessors() * 4;
 
     StreamFileWriterFactory fileWriterFactory = createStreamFileWriterFactory();
-    final ConcurrentStreamWriter streamWriter = createStreamWriter(streamId, streamAdmin, threads, fileWriterFactory);
+    final ConcurrentStreamWriter streamWriter = createStreamWriter(streamId, streamAdmin, threads, 1,
+                                                                  fileWriterFactory);
 
     // Starts n threads to write events through stream writer, each thread write 1000 events
     final int msgPerThread = 1000;
@@ -146,7 +149,8 @@ public abstract class ConcurrentStreamWriterTestBase {
     int threads = Runtime.getRuntime().availableProcessors() * 4;
 
     StreamFileWriterFactory fileWriterFactory = createStreamFileWriterFactory();
-    final ConcurrentStreamWriter streamWriter = createStreamWriter(streamId, streamAdmin, threads, fileWriterFactory);
+    final ConcurrentStreamWriter streamWriter = createStreamWriter(streamId, streamAdmin, threads, 1,
+                                                                  fileWriterFactory);
 
     int msgCount = 10000;
     NamespacedLocationFactory locationFactory = getNamespacedLocationFactory();
@@ -191,6 +195,110 @@ public abstract class ConcurrentStreamWriterTestBase {
     Assert.assertTrue(verifyEvents(threads, msgCount, events));
   }
 
+  @Test
+  public void testShardedWrite() throws Exception {
+    NamespaceId namespace = new NamespaceId("namespace");
+    StreamId streamId = namespace.stream("testShardedWrite");
+    StreamAdmin streamAdmin = new TestStreamAdmin(getNamespacedLocationFactory(), Long.MAX_VALUE, 1000);
+    int threads = Runtime.getRuntime().availableProcessors() * 4;
+    int shards = 4;
+
+    StreamFileWriterFactory fileWriterFactory = createStreamFileWriterFactory();
+    ConcurrentStreamWriter streamWriter = createStreamWriter(streamId, streamAdmin, threads, shards, fileWriterFactory);
+
+    // Half of the threads write events one by one, the other half appends files
+    int msgCount = 1000;
+    List<FileInfo> fileInfos = Lists.newArrayList();
+    for (int i = 0; i < threads / 2; i++) {
+      fileInfos.add(generateFile(getNamespacedLocationFactory(), i, msgCount));
+    }
+
+    CountDownLatch startLatch = new CountDownLatch(1);
+    CountDownLatch completion = new CountDownLatch(threads);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    for (int i = 0; i < threads / 2; i++) {
+      executor.execute(createAppendFileTask(streamId, streamWriter, fileInfos.get(i), startLatch, completion));
+    }
+    for (int i = threads / 2; i < threads; i++) {
+      executor.execute(createWriterTask(streamId, streamWriter, i, msgCount, 1, startLatch, completion));
+    }
+    startLatch.countDown();
+    Assert.assertTrue(completion.await(2, TimeUnit.MINUTES));
+    executor.shutdownNow();
+
+    // Events should be written to files of the shards, with each shard having its own file sequence
+    Set<String> shardPrefixes = Sets.newHashSet();
+    for (int i = 0; i < shards; i++) {
+      shardPrefixes.add(StreamUtils.getShardFilePrefix(fileWriterFactory.getFileNamePrefix(), i));
+    }
+    Location partitionLocation = streamAdmin.getConfig(streamId).getLocation().list().get(0);
+    List<StreamEvent> events = Lists.newArrayListWithCapacity(threads * msgCount);
+    for (Location location : partitionLocation.list()) {
+      if (StreamFileType.getType(location.getName()) != StreamFileType.EVENT) {
+        continue;
+      }
+      Assert.assertTrue(shardPrefixes.contains(StreamUtils.getNamePrefix(location.getName())));
+      StreamDataFileReader reader = StreamDataFileReader.create(Locations.newInputSupplier(location));
+      reader.read(events, Integer.MAX_VALUE, 0, TimeUnit.SECONDS);
+      reader.close();
+    }
+    Assert.assertTrue(verifyEvents(threads, msgCount, events));
+    streamWriter.close();
+  }
+
+  @Test
+  public void testShardAssignment() throws Exception {
+    NamespaceId namespace = new NamespaceId("namespace");
+    StreamId streamId = namespace.stream("testShardAssignment");
+    StreamAdmin streamAdmin = new TestStreamAdmin(getNamespacedLocationFactory(), Long.MAX_VALUE, 1000);
+    int shards = 4;
+
+    // Use the same number of threads as shards, each writing events one by one
+    StreamFileWriterFactory fileWriterFactory = createStreamFileWriterFactory();
+    ConcurrentStreamWriter streamWriter = createStreamWriter(streamId, streamAdmin, shards, shards, fileWriterFactory);
+    int msgCount = 100;
+    CountDownLatch startLatch = new CountDownLatch(1);
+    CountDownLatch completion = new CountDownLatch(shards);
+    ExecutorService executor = Executors.newFixedThreadPool(shards);
+    for (int i = 0; i < shards; i++) {
+      executor.execute(createWriterTask(streamId, streamWriter, i, msgCount, 1, startLatch, completion));
+    }
+    startLatch.countDown();
+    Assert.assertTrue(completion.await(2, TimeUnit.MINUTES));
+    executor.shutdownNow();
+
+    // Threads are assigned to shards in round robin order, hence each shard should have events from exactly one thread
+    Map<String, Set<String>> shardWriters = Maps.newHashMap();
+    Location partitionLocation = streamAdmin.getConfig(streamId).getLocation().list().get(0);
+    List<StreamEvent> events = Lists.newArrayListWithCapacity(shards * msgCount);
+    for (Location location : partitionLocation.list()) {
+      if (StreamFileType.getType(location.getName()) != StreamFileType.EVENT) {
+        continue;
+      }
+      List<StreamEvent> shardEvents = Lists.newArrayList();
+      StreamDataFileReader reader = StreamDataFileReader.create(Locations.newInputSupplier(location));
+      reader.read(shardEvents, Integer.MAX_VALUE, 0, TimeUnit.SECONDS);
+      reader.close();
+
+      Set<String> writers = Sets.newHashSet();
+      for (StreamEvent event : shardEvents) {
+        String message = Charsets.UTF_8.decode(event.getBody()).toString();
+        writers.add(message.substring(message.indexOf(" from ")));
+      }
+      shardWriters.put(StreamUtils.getNamePrefix(location.getName()), writers);
+      events.addAll(shardEvents);
+    }
+
+    Assert.assertEquals(shards, shardWriters.size());
+    for (int i = 0; i < shards; i++) {
+      Set<String> writers = shardWriters.get(StreamUtils.getShardFilePrefix(fileWriterFactory.getFileNamePrefix(), i));
+      Assert.assertNotNull(writers);
+      Assert.assertEquals(1, writers.size());
+    }
+    Assert.assertTrue(verifyEvents(shards, msgCount, events));
+    streamWriter.close();
+  }
+
   private boolean verifyEvents(int threads, int msgPerThread, List<StreamEvent> events) {
     Set<String> messages = Sets.newHashSet();
     for (StreamEvent event : events) {
@@ -207,13 +315,13 @@ public abstract class ConcurrentStreamWriterTestBase {
   }
 
   private ConcurrentStreamWriter createStreamWriter(StreamId streamId, StreamAdmin streamAdmin,
-                                                    int threads, StreamFileWriterFactory writerFactory)
+                                                    int threads, int shards, StreamFileWriterFactory writerFactory)
     throws Exception {
     StreamConfig streamConfig = streamAdmin.getConfig(streamId);
     streamConfig.getLocation().mkdirs();
 
-    return new ConcurrentStreamWriter(COORDINATOR_CLIENT, streamAdmin,
-                                      writerFactory, threads, new TestMetricsCollectorFactory(), impersonator);
+    return new ConcurrentStreamWriter(COORDINATOR_CLIENT, streamAdmin, writerFactory, threads, shards,
+                                      new TestMetricsCollectorFactory(), impersonator);
   }
 
   private Runnable createWriterTask(final StreamId streamId,
@@ -161,6 +161,47 @@ public abstract class StreamConsumerTestBase {
     otherConsumer.close();
   }
 
+  @Test
+  public void testUpgradeToShardedWriters() throws Exception {
+    String stream = "testUpgradeToShardedWriters";
+    StreamId streamId = TEST_NAMESPACE.stream(stream);
+    StreamAdmin streamAdmin = getStreamAdmin();
+    streamAdmin.create(streamId);
+    StreamConfig streamConfig = streamAdmin.getConfig(streamId);
+    streamAdmin.configureInstances(streamId, 0L, 1);
+
+    StreamConsumerFactory consumerFactory = getConsumerFactory();
+    ConsumerConfig consumerConfig = new ConsumerConfig(0L, 0, 1, DequeueStrategy.FIFO, null);
+
+    // Consume with a single writer shard, which stores the consumer state with the offset of the unsharded file only
+    Set<StreamEvent> expectedEvents = Sets.newTreeSet(STREAM_EVENT_COMPARATOR);
+    expectedEvents.addAll(writeEvents(streamConfig, "Unsharded event ", 5));
+    StreamConsumer consumer = consumerFactory.create(streamId, stream, consumerConfig);
+    verifyEvents(consumer, expectedEvents);
+    consumer.close();
+
+    String writerShards = cConf.get(Constants.Stream.WRITER_SHARDS);
+    cConf.setInt(Constants.Stream.WRITER_SHARDS, 2);
+    try {
+      // Events written to both shards should be consumed by the consumer restored from the stored state
+      expectedEvents.clear();
+      for (int shard = 0; shard < 2; shard++) {
+        FileWriter<StreamEvent> writer = getFileWriterFactory().create(streamConfig, 0, shard);
+        try {
+          expectedEvents.addAll(writeEvents(writer, "Shard " + shard + " event ", 5, new Clock()));
+        } finally {
+          writer.close();
+        }
+      }
+
+      consumer = consumerFactory.create(streamId, stream, consumerConfig);
+      verifyEvents(consumer, expectedEvents);
+      consumer.close();
+    } finally {
+      cConf.set(Constants.Stream.WRITER_SHARDS, writerShards);
+    }
+  }
+
   @Test
   public void testFIFORollback() throws Exception {
     String stream = "testFIFORollback";
@@ -20,6 +20,7 @@ import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.io.Locations;
 import co.cask.cdap.data.file.FileWriter;
+import co.cask.cdap.data.stream.StreamFileCodec;
 import co.cask.cdap.data.stream.StreamFileWriterFactory;
 import co.cask.cdap.data.stream.StreamUtils;
 import co.cask.cdap.data.stream.TimePartitionedStreamFileWriter;
@@ -54,7 +55,13 @@ public final class LocationStreamFileWriterFactory implements StreamFileWriterFa
   }
 
   @Override
-  public FileWriter<StreamEvent> create(final StreamConfig config, final int generation) throws IOException {
+  public FileWriter<StreamEvent> create(StreamConfig config, int generation) throws IOException {
+    return create(config, generation, 0);
+  }
+
+  @Override
+  public FileWriter<StreamEvent> create(final StreamConfig config, final int generation,
+                                        int shard) throws IOException {
     try {
       Preconditions.checkNotNull(config.getLocation(), "Location for stream %s is unknown.", config.getStreamId());
 
@@ -69,7 +76,9 @@ public final class LocationStreamFileWriterFactory implements StreamFileWriterFa
       });
 
       return new TimePartitionedStreamFileWriter(baseLocation, config.getPartitionDuration(),
-                                                 filePrefix, config.getIndexInterval(),
+                                                 StreamUtils.getShardFilePrefix(filePrefix, shard),
+                                                 config.getIndexInterval(),
+                                                 StreamFileCodec.fromName(config.getCompressionCodec()),
                                                  config.getStreamId(), impersonator);
     } catch (Exception e) {
       Throwables.propagateIfPossible(e, IOException.class);
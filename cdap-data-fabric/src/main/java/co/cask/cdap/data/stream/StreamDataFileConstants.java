@@ -25,6 +25,7 @@ public final class StreamDataFileConstants {
   static final int MAGIC_HEADER_SIZE = 2;
   static final byte[] MAGIC_HEADER_V1 = {'E', '1'};
   static final byte[] MAGIC_HEADER_V2 = {'E', '2'};
+  static final byte[] MAGIC_HEADER_V3 = {'E', '3'};
 
   static final byte[] INDEX_MAGIC_HEADER_V1 = {'I', '1'};
 
@@ -45,6 +46,9 @@ public final class StreamDataFileConstants {
 
       // Key prefix for properties that will be defaulted to all events' header
       public static final String EVENT_HEADER_PREFIX = "event.";
+
+      // Key for the codec that the data blocks are compressed with
+      public static final String COMPRESSION_CODEC = "stream.compression.codec";
     }
 
     /**
@@ -96,6 +96,26 @@ final class StreamDataFileIndex {
     return idx == -1 ? -1 : positions.getLong(-idx - 2);
   }
 
+  /**
+   * Finds the smallest event file position recorded in the index that has timestamp larger than or equal to the given
+   * timestamp. Since events are written in timestamp order, no event at or after the returned position
+   * has timestamp smaller than the given timestamp.
+   *
+   * @param timestamp Stream event timestamp to search for.
+   * @return The file position or {@code -1} if no record satisfied the requirement can be found.
+   */
+  long ceilingPositionByTime(long timestamp) {
+    int idx = binarySearch(timestamps, timestamp);
+    if (idx < 0) {
+      idx = -idx - 1;
+    }
+    // There can be multiple entries of the same timestamp if the index interval is zero
+    while (idx > 0 && timestamps.getLong(idx - 1) >= timestamp) {
+      idx--;
+    }
+    return idx < timestamps.size() ? positions.getLong(idx) : -1;
+  }
+
   /**
    * Finds the largest event file position recorded in the index that is smaller than or equal to a given offset.
    *
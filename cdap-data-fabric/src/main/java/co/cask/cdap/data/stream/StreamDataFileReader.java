@@ -42,6 +42,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
@@ -67,6 +68,8 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
   private boolean eof;
   private Decoder decoder;
   private StreamEvent eventTemplate;
+  // Inflater for decompressing data blocks, or null if the data blocks are not compressed
+  private Inflater inflater;
 
   /**
    * Opens a new {@link StreamDataFileReader} with the given inputs.
@@ -157,6 +160,9 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
       }
     } finally {
       closed = true;
+      if (inflater != null) {
+        inflater.end();
+      }
     }
   }
 
@@ -289,7 +295,7 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
 
   private void readHeader() throws IOException {
     // Read the header of the event file
-    // First 2 bytes should be 'E' '1'
+    // First 2 bytes should be 'E' followed by the file version
     byte[] magic = new byte[StreamDataFileConstants.MAGIC_HEADER_SIZE];
     ByteStreams.readFully(eventInput, magic);
 
@@ -300,6 +306,19 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
 
     verifySchema(properties);
 
+    if (fileVersion >= 3) {
+      String codecName = properties.get(StreamDataFileConstants.Property.Key.COMPRESSION_CODEC);
+      StreamFileCodec codec;
+      try {
+        codec = StreamFileCodec.fromName(codecName);
+      } catch (IllegalArgumentException e) {
+        throw new IOException(e);
+      }
+      if (codec != StreamFileCodec.NONE && inflater == null) {
+        inflater = new Inflater();
+      }
+    }
+
     // Create event template
     if (fileVersion >= 2) {
       eventTemplate = createEventTemplate(properties);
@@ -323,10 +342,14 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
     if (Arrays.equals(magic, StreamDataFileConstants.MAGIC_HEADER_V2)) {
       return 2;
     }
+    if (Arrays.equals(magic, StreamDataFileConstants.MAGIC_HEADER_V3)) {
+      return 3;
+    }
     throw new IOException(
-      String.format("Unsupported stream file format. First two bytes must be %s or %s",
+      String.format("Unsupported stream file format. First two bytes must be %s, %s or %s",
                     Bytes.toStringBinary(StreamDataFileConstants.MAGIC_HEADER_V1),
-                    Bytes.toStringBinary(StreamDataFileConstants.MAGIC_HEADER_V2))
+                    Bytes.toStringBinary(StreamDataFileConstants.MAGIC_HEADER_V2),
+                    Bytes.toStringBinary(StreamDataFileConstants.MAGIC_HEADER_V3))
     );
   }
 
@@ -364,7 +387,7 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
     // If index is provided, lookup the position smaller but closest to the offset.
     StreamDataFileIndex index = getIndex();
     long pos = index == null ? 0 : index.floorPosition(offset);
-    if (pos > 0) {
+    if (pos > eventInput.getPos()) {
       eventInput.seek(pos);
     }
 
@@ -377,18 +400,24 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
   }
 
   private void initByTime(final long time) throws IOException {
+    // If all events in the file have the same timestamp, the timestamps in the data blocks and the index are
+    // only the times at which the events were written, hence the index cannot be used and the skip condition
+    // needs to use the template timestamp.
+    final long uniTimestamp = eventTemplate.getTimestamp();
+
     // If index is provided, lookup the index find the offset closest to start time.
-    // If no offset is found, starts from the beginning of the events
-    StreamDataFileIndex index = getIndex();
+    // If no offset is found or the offset is behind the current position, starts from the current position,
+    // since events are sorted by timestamp
+    StreamDataFileIndex index = uniTimestamp >= 0 ? null : getIndex();
     long offset = index == null ? 0 : index.floorPositionByTime(time);
-    if (offset > 0) {
+    if (offset > eventInput.getPos()) {
       eventInput.seek(offset);
     }
 
     skipUntil(new SkipCondition() {
       @Override
       public boolean apply(long position, long timestamp) {
-        return timestamp >= time;
+        return (uniTimestamp >= 0 ? uniTimestamp : timestamp) >= time;
       }
     });
   }
@@ -474,7 +503,8 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
   }
 
   private void readDataBlock(ReadFilter filter) throws IOException {
-    // Data block is <timestamp> <length> <stream_data>+
+    // Data block is <timestamp> <length> <stream_data>+, or
+    // <timestamp> <length> <uncompressed_length> <compressed_stream_data> <padding> if compressed
     position = eventInput.getPos();
     long timestamp = readTimestamp();
     if (timestamp < 0) {
@@ -485,7 +515,11 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
     // Use the template timestamp if available
     timestamp = eventTemplate.getTimestamp() >= 0 ? eventTemplate.getTimestamp() : timestamp;
     if (acceptTimestamp(filter, timestamp)) {
-      streamEventBuffer.fillBuffer(eventInput, readLength());
+      if (inflater == null) {
+        streamEventBuffer.fillBuffer(eventInput, readLength());
+      } else {
+        streamEventBuffer.fillCompressedBuffer(eventInput, readLength(), inflater);
+      }
       this.timestamp = timestamp;
       return;
     }
@@ -15,15 +15,22 @@
  */
 package co.cask.cdap.data.stream;
 
+import co.cask.cdap.common.io.BinaryDecoder;
+import co.cask.cdap.common.io.Locations;
+import com.google.common.io.ByteStreams;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.InputSplit;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * Helper class for computing {@link InputSplit} for a stream data file.
@@ -35,7 +42,9 @@ import java.util.List;
  * <br/><br/>
  *
  * Each split produced will also carries {@code startTime} and {@code endTime} so that only stream events within
- * the given time range will get processed.
+ * the given time range will get processed. If the event file has an index, only the part of the file that can
+ * contain events within the time range is split, and a file with all events after the time range has no split.
+ * Files that set a timestamp for all events in their header are always split completely.
  */
 final class StreamDataFileSplitter {
 
@@ -55,10 +64,31 @@ final class StreamDataFileSplitter {
     Path eventFile = eventFileStatus.getPath();
     Path indexFile = getIndexFile(eventFile);
 
-    BlockLocation[] blockLocations = fs.getFileBlockLocations(eventFile, 0, eventFileStatus.getLen());
-
     long length = eventFileStatus.getLen();
     long offset = 0;
+    // Offset of the first data block that only has events at or after the end time, or -1 if not known
+    long endOffset = -1L;
+
+    // The index of a file with a timestamp for all events, such as an uploaded file, has the times that the events
+    // were written instead of the event timestamps, hence it cannot be used to prune the file.
+    StreamDataFileIndex index = loadIndex(fs, indexFile);
+    if (index != null && !hasUniTimestamp(fs, eventFile)) {
+      // Events are written in timestamp order, hence the data blocks before the last index entry that is
+      // earlier than the start time and the ones starting from the first index entry that is not earlier
+      // than the end time can be skipped.
+      if (index.floorPositionByTime(endTime - 1) < 0 && index.ceilingPositionByTime(endTime) >= 0) {
+        return;
+      }
+      if (startTime > 0) {
+        offset = Math.max(0L, index.floorPositionByTime(startTime - 1));
+      }
+      endOffset = index.ceilingPositionByTime(endTime);
+      if (endOffset >= 0) {
+        length = Math.min(length, endOffset);
+      }
+    }
+
+    BlockLocation[] blockLocations = fs.getFileBlockLocations(eventFile, offset, Math.max(0L, length - offset));
     int blockIndex = 0;
 
     while (offset < length) {
@@ -70,13 +100,42 @@ final class StreamDataFileSplitter {
         blockIndex = 0;
       }
 
-      long splitSize = computeSplitSize(eventFileStatus, offset, minSplitSize, maxSplitSize);
+      long splitSize = computeSplitSize(eventFileStatus, offset, length, minSplitSize, maxSplitSize);
       splits.add(splitFactory.createSplit(eventFile, indexFile, startTime, endTime, offset, splitSize, hosts));
       offset += splitSize;
     }
 
-    // One extra split for the tail of the file.
-    splits.add(splitFactory.createSplit(eventFile, indexFile, startTime, endTime, offset, Long.MAX_VALUE, null));
+    // One extra split for the tail of the file, unless events written after the end offset are all beyond end time.
+    if (endOffset < 0) {
+      splits.add(splitFactory.createSplit(eventFile, indexFile, startTime, endTime, offset, Long.MAX_VALUE, null));
+    }
+  }
+
+  /**
+   * Loads the index of the event file.
+   *
+   * @return the {@link StreamDataFileIndex} or {@code null} if the event file has no index.
+   */
+  @Nullable
+  private StreamDataFileIndex loadIndex(FileSystem fs, Path indexFile) throws IOException {
+    if (!fs.exists(indexFile)) {
+      return null;
+    }
+    return new StreamDataFileIndex(Locations.newInputSupplier(fs, indexFile));
+  }
+
+  /**
+   * Returns whether the header of the event file sets a timestamp for all events in the file.
+   */
+  private boolean hasUniTimestamp(FileSystem fs, Path eventFile) throws IOException {
+    try (InputStream input = fs.open(eventFile)) {
+      ByteStreams.skipFully(input, StreamDataFileConstants.MAGIC_HEADER_SIZE);
+      Map<String, String> properties = StreamUtils.decodeMap(new BinaryDecoder(input));
+      return properties.containsKey(StreamDataFileConstants.Property.Key.UNI_TIMESTAMP);
+    } catch (EOFException e) {
+      // The header is not yet completely written, hence the file has no events
+      return false;
+    }
   }
 
   /**
@@ -105,18 +164,20 @@ final class StreamDataFileSplitter {
   /**
    * Compute the actual split size. The split size compute would be no larger than the given max split size.
    * The split size would be no smaller than the given min split size, except if number of bytes between
-   * offset and file length is smaller than min split size.
+   * offset and length is smaller than min split size.
    *
    * @param fileStatus The FileStatus of the file to split on.
    * @param offset Starting offset for the split.
+   * @param length End offset of the part of the file to split on.
    * @param minSplitSize Minimum size for the split.
    * @param maxSplitSize Maximum size for the split.
    * @return
    */
-  private long computeSplitSize(FileStatus fileStatus, long offset, long minSplitSize, long maxSplitSize) {
+  private long computeSplitSize(FileStatus fileStatus, long offset, long length,
+                                long minSplitSize, long maxSplitSize) {
     long blockSize = fileStatus.getBlockSize();
     long splitSize = Math.max(minSplitSize, Math.min(maxSplitSize, blockSize));
-    return Math.min(splitSize, fileStatus.getLen() - offset);
+    return Math.min(splitSize, length - offset);
   }
 
   private Path getIndexFile(Path eventFile) {
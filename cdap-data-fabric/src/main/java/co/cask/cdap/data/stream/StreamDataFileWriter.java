@@ -20,6 +20,7 @@ import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.flow.flowlet.StreamEvent;
 import co.cask.cdap.common.io.BinaryEncoder;
 import co.cask.cdap.common.io.BufferedEncoder;
+import co.cask.cdap.common.io.ByteBuffers;
 import co.cask.cdap.common.io.Encoder;
 import co.cask.cdap.common.stream.StreamEventDataCodec;
 import co.cask.cdap.data.file.FileWriter;
@@ -32,11 +33,15 @@ import com.google.common.io.OutputSupplier;
 import com.google.common.primitives.Longs;
 import org.apache.hadoop.fs.Syncable;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
@@ -48,7 +53,7 @@ import javax.annotation.concurrent.NotThreadSafe;
  * {@code
  *
  * event_file = <header> <data>* <end_marker>
- * header = "E" "1" <properties>
+ * header = "E" "2" <properties>
  * properties = Avro encoded with the properties schema
  * data = <timestamp> <length> <stream_event>+
  * timestamp = 8 bytes int64 for timestamp in milliseconds
@@ -59,6 +64,27 @@ import javax.annotation.concurrent.NotThreadSafe;
  * }
  * </pre>
  *
+ * Compressed stream event file, written if the {@link StreamDataFileConstants.Property.Key#COMPRESSION_CODEC}
+ * property is set to a codec other than {@link StreamFileCodec#NONE}:
+ *
+ * <pre>
+ * {@code
+ *
+ * event_file = <header> <data>* <end_marker>
+ * header = "E" "3" <properties>
+ * data = <timestamp> <length> <uncompressed_length> <compressed_events> <padding>
+ * length = Avro encoded int32 for size in bytes of everything that follows it in the data block
+ * uncompressed_length = Avro encoded int32 for size in bytes for all <stream_event>s
+ * compressed_events = <stream_event>+ compressed with the codec in the properties
+ * padding = zero bytes, so that <length> is at least the number of events in the data block
+ *
+ * }
+ * </pre>
+ *
+ * Since the events of a compressed data block have no offset in the file, the position of an event is the
+ * position of the block's <uncompressed_length> plus the index of the event in the block. Positions therefore still
+ * fall within the block, so that seeking by position and splitting the file by offset work on both formats.
+ *
  * Stream index file:
  *
  * <pre>
@@ -78,20 +104,32 @@ import javax.annotation.concurrent.NotThreadSafe;
 public final class StreamDataFileWriter implements TimestampCloseable, Flushable, FileWriter<StreamEvent> {
 
   private static final int BUFFER_SIZE = 256 * 1024;    // 256K
+  private static final int COMPRESS_BUFFER_SIZE = 64 * 1024;    // 64K
+  // Maximum number of event file bytes between two index entries, as long as the timestamp changes in between
+  private static final long INDEX_BYTES_INTERVAL = 1024 * 1024;    // 1M
 
   private final OutputStream eventOutput;
   private final OutputStream indexOutput;
   private final long indexInterval;
   private final BufferedEncoder encoder;
   private final BufferedEncoder lengthEncoder;
+  private final Deflater deflater;
+  private final ByteArrayOutputStream compressedOutput;
+  private final Encoder compressedEncoder;
+  private final DeflaterOutputStream deflaterOutput;
 
   // Timestamp for the current block
   private long currentTimestamp;
   private long position;
   private long nextIndexTime;
+  private long lastIndexOffset;
+  // Timestamp of the last data block written
+  private long lastBlockTimestamp;
   private boolean synced;
   private boolean closed;
   private long closeTimestamp;
+  // Number of events in the current block
+  private int blockEvents;
 
   /**
    * Constructs a new instance that writes to given outputs. Same as calling
@@ -109,7 +147,9 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
    *
    * @param eventOutputSupplier the provider of the {@link OutputStream} for writing events
    * @param indexOutputSupplier the provider of the {@link OutputStream} for writing the index
-   * @param indexInterval the time interval in milliseconds for emitting a new index entry
+   * @param indexInterval the time interval in milliseconds for emitting a new index entry. A new index entry is also
+   *                      emitted for the first data block of a new timestamp that starts more than 1MB after the
+   *                      previous index entry, so that the index stays dense for streams with high event rates
    * @param properties the property set that will be stored as file properties
    * @throws IOException if there is an error in preparing the output streams
    */
@@ -126,17 +166,37 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
     this.indexInterval = indexInterval;
     this.currentTimestamp = -1L;
     this.closeTimestamp = -1L;
+    this.lastBlockTimestamp = -1L;
 
     Function<OutputStream, Encoder> encoderFactory = createEncoderFactory();
     this.encoder = new BufferedEncoder(BUFFER_SIZE, encoderFactory);
     this.lengthEncoder = new BufferedEncoder(5, encoderFactory);
 
+    StreamFileCodec codec;
     try {
-      init(properties);
-    } catch (IOException e) {
+      codec = StreamFileCodec.fromName(properties.get(StreamDataFileConstants.Property.Key.COMPRESSION_CODEC));
+    } catch (IllegalArgumentException e) {
       Closeables.closeQuietly(eventOutput);
       Closeables.closeQuietly(indexOutput);
-      throw e;
+      throw new IOException(e);
+    }
+    if (codec == StreamFileCodec.NONE) {
+      this.deflater = null;
+      this.compressedOutput = null;
+      this.compressedEncoder = null;
+      this.deflaterOutput = null;
+    } else {
+      this.deflater = new Deflater();
+      this.compressedOutput = new ByteArrayOutputStream(BUFFER_SIZE);
+      this.compressedEncoder = encoderFactory.apply(compressedOutput);
+      // The deflater is reset after each block, which makes the stream reusable for the next block
+      this.deflaterOutput = new DeflaterOutputStream(compressedOutput, deflater, COMPRESS_BUFFER_SIZE);
+    }
+
+    try {
+      init(properties, codec);
+    } catch (IOException e) {
+      throw closeWithException(e);
     }
   }
 
@@ -162,6 +222,36 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
     }
   }
 
+  /**
+   * Writes events that are already encoded with the {@link StreamEventDataCodec#STREAM_DATA_SCHEMA} to the stream
+   * file, without decoding and re-encoding each of them. The encoded events are copied to the data block of the
+   * given timestamp as is, hence the caller is responsible for validating the encoding.
+   *
+   * @param timestamp timestamp of the events
+   * @param encodedEvents the encoded events
+   * @param eventCount number of events in the given buffer
+   * @throws IOException if failed to write the events
+   */
+  public void appendEncoded(long timestamp, ByteBuffer encodedEvents, int eventCount) throws IOException {
+    startAppend(timestamp);
+
+    try {
+      if (encodedEvents.hasArray()) {
+        encoder.writeRaw(encodedEvents.array(), encodedEvents.arrayOffset() + encodedEvents.position(),
+                         encodedEvents.remaining());
+      } else {
+        encoder.writeRaw(ByteBuffers.getByteArray(encodedEvents));
+      }
+      blockEvents += eventCount;
+
+      if (encoder.size() >= BUFFER_SIZE) {
+        flushBlock(false);
+      }
+    } catch (IOException e) {
+      throw closeWithException(e);
+    }
+  }
+
   @Override
   public void close() throws IOException {
     if (closed) {
@@ -175,6 +265,9 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
       eventOutput.write(Longs.toByteArray(-closeTimestamp));
     } finally {
       closed = true;
+      if (deflater != null) {
+        deflater.end();
+      }
       try {
         eventOutput.close();
       } finally {
@@ -199,12 +292,33 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
   }
 
   private void doAppend(StreamEvent event, int flushLimit) throws IOException {
+    startAppend(event.getTimestamp());
+
+    try {
+      // Encodes the event data into buffer.
+      StreamEventDataCodec.encode(event, encoder);
+      blockEvents++;
+
+      // Optionally flush if already filled up the buffer.
+      if (encoder.size() >= flushLimit) {
+        flushBlock(false);
+      }
+
+    } catch (IOException e) {
+      throw closeWithException(e);
+    }
+  }
+
+  /**
+   * Prepares for appending events of the given timestamp, by starting a new data block if the timestamp
+   * is newer than the one of the current block.
+   */
+  private void startAppend(long eventTimestamp) throws IOException {
     if (closed) {
       throw new IOException("Writer already closed.");
     }
 
     synced = false;
-    long eventTimestamp = event.getTimestamp();
     if (eventTimestamp < currentTimestamp) {
       throw closeWithException(new IOException("Out of order events written."));
     }
@@ -219,25 +333,22 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
         eventOutput.write(Bytes.toBytes(currentTimestamp));
         position += Bytes.SIZEOF_LONG;
       }
-
-      // Encodes the event data into buffer.
-      StreamEventDataCodec.encode(event, encoder);
-
-      // Optionally flush if already filled up the buffer.
-      if (encoder.size() >= flushLimit) {
-        flushBlock(false);
-      }
-
     } catch (IOException e) {
       throw closeWithException(e);
     }
   }
 
-  private void init(Map<String, String> properties) throws IOException {
-    // Writes the header for event file
-    encoder.writeRaw(StreamDataFileConstants.MAGIC_HEADER_V2);
-
+  private void init(Map<String, String> properties, StreamFileCodec codec) throws IOException {
+    // Writes the header for event file. Files without compression are written in the previous version,
+    // so that they stay readable by older readers.
     Map<String, String> headers = Maps.newHashMap(properties);
+    if (codec == StreamFileCodec.NONE) {
+      encoder.writeRaw(StreamDataFileConstants.MAGIC_HEADER_V2);
+      headers.remove(StreamDataFileConstants.Property.Key.COMPRESSION_CODEC);
+    } else {
+      encoder.writeRaw(StreamDataFileConstants.MAGIC_HEADER_V3);
+      headers.put(StreamDataFileConstants.Property.Key.COMPRESSION_CODEC, codec.getName());
+    }
     headers.put(StreamDataFileConstants.Property.Key.SCHEMA, StreamEventDataCodec.STREAM_DATA_SCHEMA.toString());
     StreamUtils.encodeMap(headers, encoder);
 
@@ -272,22 +383,41 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
     }
 
     // Record the current event output position if needs to update index
+    // Index offset is the current block start, hence is current position - 8 bytes timestamp already written.
+    // A block is only indexed by size if it is the first block of its timestamp, so that
+    // a lookup by time never skips over a block that has the same timestamp.
     long indexOffset = -1L;
-    if (currentTimestamp >= nextIndexTime) {
-      // Index offset is the current block start, hence is current position - 8 bytes timestamp already written.
-      indexOffset = position - Bytes.SIZEOF_LONG;
+    long blockOffset = position - Bytes.SIZEOF_LONG;
+    if (currentTimestamp >= nextIndexTime
+      || (currentTimestamp > lastBlockTimestamp && blockOffset - lastIndexOffset >= INDEX_BYTES_INTERVAL)) {
+      indexOffset = blockOffset;
     }
 
-    // Writes the size of the encoded event
-    lengthEncoder.writeInt(encoder.size());
-    int size = lengthEncoder.size();
-    lengthEncoder.writeTo(eventOutput);
-    position += size;
+    if (deflater == null) {
+      // Writes the size of the encoded event
+      lengthEncoder.writeInt(encoder.size());
+      int size = lengthEncoder.size();
+      lengthEncoder.writeTo(eventOutput);
+      position += size;
+
+      // Writes all encoded data from the buffer to the output.
+      size = encoder.size();
+      encoder.writeTo(eventOutput);
+      position += size;
+    } else {
+      compressBlock();
+
+      lengthEncoder.writeInt(compressedOutput.size());
+      int size = lengthEncoder.size();
+      lengthEncoder.writeTo(eventOutput);
+      position += size;
 
-    // Writes all encoded data from the buffer to the output.
-    size = encoder.size();
-    encoder.writeTo(eventOutput);
-    position += size;
+      size = compressedOutput.size();
+      compressedOutput.writeTo(eventOutput);
+      compressedOutput.reset();
+      position += size;
+    }
+    blockEvents = 0;
     if (sync) {
       sync(eventOutput);
     }
@@ -301,15 +431,34 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
       }
 
       nextIndexTime = currentTimestamp + indexInterval;
+      lastIndexOffset = indexOffset;
     } else if (sync) {
       sync(indexOutput);
     }
+    lastBlockTimestamp = currentTimestamp;
 
     // Reset the current timestamp so that a data block will start.
     currentTimestamp = -1L;
     synced = sync;
   }
 
+  /**
+   * Compresses the buffered events into the compressed output, which then holds the data block without
+   * the timestamp and length.
+   */
+  private void compressBlock() throws IOException {
+    compressedEncoder.writeInt(encoder.size());
+
+    encoder.writeTo(deflaterOutput);
+    deflaterOutput.finish();
+    deflater.reset();
+
+    // Each event in the block needs a distinct position within the block
+    while (compressedOutput.size() < blockEvents) {
+      compressedOutput.write(0);
+    }
+  }
+
   private void sync(OutputStream output) throws IOException {
     if (output instanceof Syncable) {
       ((Syncable) output).hsync();
@@ -324,6 +473,9 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
    */
   private IOException closeWithException(IOException ex) throws IOException {
     closed = true;
+    if (deflater != null) {
+      deflater.end();
+    }
     Closeables.closeQuietly(eventOutput);
     Closeables.closeQuietly(indexOutput);
     throw ex;
@@ -24,15 +24,19 @@ import co.cask.cdap.common.stream.StreamEventDataCodec;
 import co.cask.cdap.data.file.ReadFilter;
 import co.cask.common.io.ByteBufferInputStream;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
  * A buffer for holding encoded stream events. It is used by {@link StreamDataFileReader} for holding
- * encoded stream events in each data block.
+ * encoded stream events in each data block. For a compressed data block, it holds the decompressed events, and
+ * the position of an event is the start of the data block plus the index of the event in the block.
  */
 @NotThreadSafe
 final class StreamEventBuffer {
@@ -42,12 +46,19 @@ final class StreamEventBuffer {
 
   private ByteBuffer buffer;
   private long basePosition;
+  // Size of the data block in the stream
+  private int blockSize;
+  // Buffer for the compressed data block, and the index of the next event if the data block is compressed
+  private byte[] compressedBuffer;
+  private int eventIndex;
 
   StreamEventBuffer() {
     this.buffer = ByteBuffers.EMPTY_BUFFER;
     this.bufferInput = new ByteBufferInputStream(buffer);
     this.decoder = new BinaryDecoder(bufferInput);
     this.basePosition = -1L;
+    this.compressedBuffer = new byte[0];
+    this.eventIndex = -1;
   }
 
   /**
@@ -64,16 +75,64 @@ final class StreamEventBuffer {
 
     try {
       basePosition = input.getPos();
-      int bytesRead = 0;
-      while (bytesRead != size) {
-        int len = input.read(buffer.array(), bytesRead, size - bytesRead);
-        if (len < 0) {
-          throw new EOFException("Expected to read " + size + ", but only " + bytesRead + " was read");
+      readFully(input, buffer.array(), size);
+      buffer.limit(size);
+      bufferInput.reset(buffer);
+      blockSize = size;
+      eventIndex = -1;
+    } catch (IOException e) {
+      // Make the buffer has nothing to read
+      buffer.position(buffer.limit());
+      basePosition = -1L;
+      throw e;
+    }
+  }
+
+  /**
+   * Fills the internal buffer by reading a compressed data block from the given input stream and decompressing it.
+   *
+   * @param input input stream to read from
+   * @param size number of bytes to read, which is the size of the data block after its length
+   * @param inflater the {@link Inflater} for decompressing the data block
+   * @throws IOException if failed to read from the stream or the data block is corrupted
+   * @throws EOFException if failed to read the given number of bytes from the input
+   */
+  void fillCompressedBuffer(SeekableInputStream input, int size, Inflater inflater) throws IOException {
+    buffer.clear();
+    if (compressedBuffer.length < size) {
+      compressedBuffer = new byte[size];
+    }
+
+    try {
+      basePosition = input.getPos();
+      readFully(input, compressedBuffer, size);
+
+      // The data block starts with the uncompressed size
+      ByteArrayInputStream blockInput = new ByteArrayInputStream(compressedBuffer, 0, size);
+      int uncompressedSize = new BinaryDecoder(blockInput).readInt();
+      int offset = size - blockInput.available();
+
+      buffer = ensureCapacity(buffer, uncompressedSize);
+      inflater.reset();
+      inflater.setInput(compressedBuffer, offset, size - offset);
+      int bytesInflated = 0;
+      while (bytesInflated != uncompressedSize) {
+        int len = inflater.inflate(buffer.array(), bytesInflated, uncompressedSize - bytesInflated);
+        if (len == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Expected to decompress " + uncompressedSize + " bytes from data block at "
+                                  + basePosition + ", but only " + bytesInflated + " were decompressed");
         }
-        bytesRead += len;
+        bytesInflated += len;
       }
-      buffer.limit(size);
+      buffer.limit(uncompressedSize);
       bufferInput.reset(buffer);
+      blockSize = size;
+      eventIndex = 0;
+    } catch (DataFormatException e) {
+      IOException ex = new IOException("Corrupted data block at " + basePosition, e);
+      buffer.position(buffer.limit());
+      basePosition = -1L;
+      throw ex;
     } catch (IOException e) {
       // Make the buffer has nothing to read
       buffer.position(buffer.limit());
@@ -94,7 +153,13 @@ final class StreamEventBuffer {
    * read from the stream.
    */
   long getPosition() {
-    return basePosition >= 0 ? basePosition + buffer.position() : -1L;
+    if (basePosition < 0) {
+      return -1L;
+    }
+    if (eventIndex < 0) {
+      return basePosition + buffer.position();
+    }
+    return hasEvent() ? basePosition + eventIndex : basePosition + blockSize;
   }
 
   /**
@@ -102,7 +167,7 @@ final class StreamEventBuffer {
    * been read from the stream.
    */
   long getEndPosition() {
-    return basePosition >= 0 ? basePosition + buffer.limit() : -1L;
+    return basePosition >= 0 ? basePosition + blockSize : -1L;
   }
 
   /**
@@ -120,7 +185,10 @@ final class StreamEventBuffer {
       throw new IOException("No more event in the buffer");
     }
 
-    long eventPos = basePosition + buffer.position();
+    long eventPos = getPosition();
+    if (eventIndex >= 0) {
+      eventIndex++;
+    }
     if (filter.acceptOffset(eventPos)) {
       return new PositionStreamEvent(StreamEventDataCodec.decode(decoder, defaultHeaders), timestamp, eventPos);
     }
@@ -128,6 +196,17 @@ final class StreamEventBuffer {
     return null;
   }
 
+  private void readFully(SeekableInputStream input, byte[] bytes, int size) throws IOException {
+    int bytesRead = 0;
+    while (bytesRead != size) {
+      int len = input.read(bytes, bytesRead, size - bytesRead);
+      if (len < 0) {
+        throw new EOFException("Expected to read " + size + ", but only " + bytesRead + " was read");
+      }
+      bytesRead += len;
+    }
+  }
+
   /**
    * Ensures that the given {@link ByteBuffer} is of sufficient size.
    *
@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data.stream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Codecs that the data blocks of a stream event file can be compressed with.
+ */
+public enum StreamFileCodec {
+
+  /**
+   * Data blocks are not compressed.
+   */
+  NONE("none"),
+
+  /**
+   * Data blocks are compressed with the deflate algorithm.
+   */
+  DEFLATE("deflate");
+
+  private final String name;
+
+  StreamFileCodec(String name) {
+    this.name = name;
+  }
+
+  /**
+   * @return the name of the codec, as used in stream properties and in the stream file header
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the codec of the given name. A {@code null} name means no compression.
+   *
+   * @throws IllegalArgumentException if there is no codec of the given name
+   */
+  public static StreamFileCodec fromName(@Nullable String name) {
+    if (name == null) {
+      return NONE;
+    }
+    for (StreamFileCodec codec : values()) {
+      if (codec.name.equalsIgnoreCase(name)) {
+        return codec;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported stream compression codec '" + name + "'");
+  }
+}
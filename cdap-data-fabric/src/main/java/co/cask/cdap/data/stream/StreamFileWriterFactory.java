@@ -32,4 +32,16 @@ public interface StreamFileWriterFactory {
   String getFileNamePrefix();
 
   FileWriter<StreamEvent> create(StreamConfig config, int generation) throws IOException;
+
+  /**
+   * Creates a {@link FileWriter} for the given writer shard. Stream files of the shard are named with the prefix
+   * returned by {@link StreamUtils#getShardFilePrefix(String, int)} for the {@link #getFileNamePrefix()}.
+   *
+   * @param config configuration of the stream to write to
+   * @param generation generation of the stream to write to
+   * @param shard the writer shard
+   * @return A new {@link FileWriter} for writing events of the shard
+   * @throws IOException if failed to create the file writer
+   */
+  FileWriter<StreamEvent> create(StreamConfig config, int generation, int shard) throws IOException;
 }
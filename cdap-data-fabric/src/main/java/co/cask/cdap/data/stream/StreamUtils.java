@@ -15,6 +15,8 @@
  */
 package co.cask.cdap.data.stream;
 
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.io.Decoder;
 import co.cask.cdap.common.io.Encoder;
 import co.cask.cdap.common.io.LocationStatus;
@@ -32,6 +34,7 @@ import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import org.apache.twill.filesystem.Location;
 
 import java.io.DataInput;
@@ -253,6 +256,41 @@ public final class StreamUtils {
     return partitionLocation.append(String.format("%s.%06d.%s", prefix, seqId, type.getSuffix()));
   }
 
+  /**
+   * Returns the file name prefix of the given writer shard of a stream writer instance. Shard {@code 0} uses the
+   * instance file prefix as is, so that stream files written without sharding keep the same names.
+   *
+   * @param instanceFilePrefix file name prefix of the stream writer instance
+   * @param shard the writer shard
+   * @return The file name prefix of the shard.
+   */
+  public static String getShardFilePrefix(String instanceFilePrefix, int shard) {
+    return shard == 0 ? instanceFilePrefix : instanceFilePrefix + '_' + shard;
+  }
+
+  /**
+   * Returns the file name prefixes of all stream writer instances and their shards.
+   * The writer instance file prefix is formed by file prefix in cConf + writer instance id.
+   *
+   * @param cConf configuration to get the number of writer instances and shards from
+   * @return A list of file name prefixes.
+   */
+  public static List<String> getWriterFilePrefixes(CConfiguration cConf) {
+    // TODO: Support dynamic writer instances discovery
+    // Current assume it won't change and is based on cConf
+    int instances = cConf.getInt(Constants.Stream.CONTAINER_INSTANCES);
+    int shards = cConf.getInt(Constants.Stream.WRITER_SHARDS);
+    String filePrefix = cConf.get(Constants.Stream.FILE_PREFIX);
+
+    List<String> prefixes = Lists.newArrayListWithCapacity(instances * shards);
+    for (int i = 0; i < instances; i++) {
+      for (int shard = 0; shard < shards; shard++) {
+        prefixes.add(getShardFilePrefix(filePrefix + '.' + i, shard));
+      }
+    }
+    return prefixes;
+  }
+
   /**
    * Returns the aligned partition start time.
    *
@@ -371,7 +409,8 @@ public final class StreamUtils {
     int maxSequence = -1;
     for (Location location : partitionLocation.list()) {
       String fileName = location.getName();
-      if (!fileName.startsWith(filePrefix)) {
+      // Match the separator as well, so that files of other shards with the same instance prefix are excluded
+      if (!fileName.startsWith(filePrefix + '.')) {
         continue;
       }
       StreamUtils.getSequenceId(fileName);
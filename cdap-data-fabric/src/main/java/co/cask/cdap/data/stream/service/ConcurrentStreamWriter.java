@@ -32,6 +32,7 @@ import co.cask.cdap.data2.transaction.stream.StreamConfig;
 import co.cask.cdap.proto.id.StreamId;
 import co.cask.cdap.security.impersonation.Impersonator;
 import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
@@ -62,6 +63,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import javax.annotation.concurrent.ThreadSafe;
@@ -90,6 +92,10 @@ import javax.annotation.concurrent.ThreadSafe;
  * The spin lock between step 2 to step 8 is necessary as it guarantees events enqueued by all threads would eventually
  * get written and flushed.
  *
+ * Since only one thread can be writing to a queue at a time, writes to a stream can be sharded across multiple
+ * queues, each with its own stream file, named with the prefix given by
+ * {@link StreamUtils#getShardFilePrefix(String, int)}. A thread always uses the same shard, so that events written
+ * by the same thread are kept in order.
  */
 @ThreadSafe
 public final class ConcurrentStreamWriter implements Closeable {
@@ -100,7 +106,10 @@ public final class ConcurrentStreamWriter implements Closeable {
   private final StreamAdmin streamAdmin;
   private final int workerThreads;
   private final StreamMetricsCollectorFactory metricsCollectorFactory;
-  private final ConcurrentMap<StreamId, EventQueue> eventQueues;
+  private final int shards;
+  private final AtomicInteger nextShard;
+  private final ThreadLocal<Integer> threadShard;
+  private final ConcurrentMap<StreamShard, EventQueue> eventQueues;
   private final StreamFileFactory streamFileFactory;
   private final Set<StreamId> generationWatched;
   private final List<Cancellable> cancellables;
@@ -108,11 +117,21 @@ public final class ConcurrentStreamWriter implements Closeable {
   private final Service eventQueueRefreshService;
 
   ConcurrentStreamWriter(StreamCoordinatorClient streamCoordinatorClient, StreamAdmin streamAdmin,
-                         StreamFileWriterFactory writerFactory, int workerThreads,
+                         StreamFileWriterFactory writerFactory, int workerThreads, int shards,
                          StreamMetricsCollectorFactory metricsCollectorFactory, Impersonator impersonator) {
+    Preconditions.checkArgument(shards > 0, "Number of stream writer shards must be positive: %s", shards);
     this.streamCoordinatorClient = streamCoordinatorClient;
     this.streamAdmin = streamAdmin;
     this.workerThreads = workerThreads;
+    this.shards = shards;
+    this.nextShard = new AtomicInteger();
+    this.threadShard = new ThreadLocal<Integer>() {
+      @Override
+      protected Integer initialValue() {
+        // Assign shards to threads in round robin order, so that threads are spread evenly across shards
+        return (nextShard.getAndIncrement() & Integer.MAX_VALUE) % ConcurrentStreamWriter.this.shards;
+      }
+    };
     this.metricsCollectorFactory = metricsCollectorFactory;
     this.eventQueues = new MapMaker().concurrencyLevel(workerThreads).makeMap();
     this.streamFileFactory = new StreamFileFactory(writerFactory, impersonator);
@@ -259,7 +278,10 @@ public final class ConcurrentStreamWriter implements Closeable {
   }
 
   private EventQueue getEventQueue(StreamId streamId) throws IOException, NotFoundException {
-    EventQueue eventQueue = eventQueues.get(streamId);
+    // A thread keeps the shard it is first assigned, so that events from the same thread go to the same stream file
+    int shard = shards == 1 ? 0 : threadShard.get();
+    StreamShard streamShard = new StreamShard(streamId, shard);
+    EventQueue eventQueue = eventQueues.get(streamShard);
     if (eventQueue != null) {
       return eventQueue;
     }
@@ -267,7 +289,7 @@ public final class ConcurrentStreamWriter implements Closeable {
     createLock.lock();
     try {
       // Double check
-      eventQueue = eventQueues.get(streamId);
+      eventQueue = eventQueues.get(streamShard);
       if (eventQueue != null) {
         return eventQueue;
       }
@@ -281,8 +303,8 @@ public final class ConcurrentStreamWriter implements Closeable {
         cancellables.add(streamCoordinatorClient.addListener(streamId, streamFileFactory));
       }
 
-      eventQueue = new EventQueue(streamId, metricsCollectorFactory.createMetricsCollector(streamId));
-      eventQueues.put(streamId, eventQueue);
+      eventQueue = new EventQueue(streamShard, metricsCollectorFactory.createMetricsCollector(streamId));
+      eventQueues.put(streamShard, eventQueue);
 
       return eventQueue;
 
@@ -316,13 +338,51 @@ public final class ConcurrentStreamWriter implements Closeable {
   }
 
   private void closeEventQueue(StreamId streamId) {
-    EventQueue eventQueue = eventQueues.remove(streamId);
-    if (eventQueue != null) {
-      try {
-        eventQueue.close();
-      } catch (IOException e) {
-        LOG.warn("Failed to close writer.", e);
+    for (int shard = 0; shard < shards; shard++) {
+      EventQueue eventQueue = eventQueues.remove(new StreamShard(streamId, shard));
+      if (eventQueue != null) {
+        try {
+          eventQueue.close();
+        } catch (IOException e) {
+          LOG.warn("Failed to close writer.", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Identifies one writer shard of a stream.
+   */
+  private static final class StreamShard {
+
+    private final StreamId streamId;
+    private final int shard;
+
+    StreamShard(StreamId streamId, int shard) {
+      this.streamId = streamId;
+      this.shard = shard;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
       }
+      StreamShard other = (StreamShard) o;
+      return shard == other.shard && streamId.equals(other.streamId);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * streamId.hashCode() + shard;
+    }
+
+    @Override
+    public String toString() {
+      return streamId + "[" + shard + "]";
     }
   }
 
@@ -353,13 +413,14 @@ public final class ConcurrentStreamWriter implements Closeable {
     }
 
     /**
-     * Creates a new {@link FileWriter} for the given stream.
+     * Creates a new {@link FileWriter} for the given stream shard.
      *
      * @param streamId identifier of the stream
+     * @param shard the writer shard
      * @return A {@link FileWriter} for writing {@link StreamEvent} to the given stream
      * @throws IOException if failed to create the file writer
      */
-    private FileWriter<StreamEvent> create(StreamId streamId) throws IOException {
+    private FileWriter<StreamEvent> create(StreamId streamId, int shard) throws IOException {
       final StreamConfig streamConfig = streamAdmin.getConfig(streamId);
       int generation;
       try {
@@ -375,8 +436,8 @@ public final class ConcurrentStreamWriter implements Closeable {
         throw Throwables.propagate(e);
       }
 
-      LOG.info("Create stream writer for {} with generation {}", streamId, generation);
-      return writerFactory.create(streamConfig, generation);
+      LOG.info("Create stream writer for {} shard {} with generation {}", streamId, shard, generation);
+      return writerFactory.create(streamConfig, generation, shard);
     }
 
     /**
@@ -387,12 +448,13 @@ public final class ConcurrentStreamWriter implements Closeable {
      * doesn't do explicit check (for performance reason).
      *
      * @param config configuration about the stream to append to
+     * @param shard the writer shard to append to
      * @param eventFile location of the new event file
      * @param indexFile location of the new index file
      * @param timestamp close timestamp of the stream file
      * @throws IOException if failed to append the file to the stream
      */
-    void appendFile(final StreamConfig config, final Location eventFile, final Location indexFile,
+    void appendFile(final StreamConfig config, final int shard, final Location eventFile, final Location indexFile,
                     final long timestamp) throws IOException {
       try {
         impersonator.doAs(config.getStreamId(), new Callable<Void>() {
@@ -409,7 +471,7 @@ public final class ConcurrentStreamWriter implements Closeable {
             partitionLocation.mkdirs();
 
             // Figure out the final stream file name
-            String filePrefix = writerFactory.getFileNamePrefix();
+            String filePrefix = StreamUtils.getShardFilePrefix(writerFactory.getFileNamePrefix(), shard);
             int fileSequence = StreamUtils.getNextSequenceId(partitionLocation, filePrefix);
 
             Location destEventFile = StreamUtils.createStreamLocation(partitionLocation, filePrefix,
@@ -440,7 +502,7 @@ public final class ConcurrentStreamWriter implements Closeable {
    */
   private final class EventQueue implements Closeable {
 
-    private final StreamId streamId;
+    private final StreamShard streamShard;
     private final StreamMetricsCollectorFactory.StreamMetricsCollector metricsCollector;
     private final Queue<WriteRequest> queue;
     private final AtomicBoolean writerFlag;
@@ -450,8 +512,8 @@ public final class ConcurrentStreamWriter implements Closeable {
     private FileWriter<StreamEventData> fileWriter;
     private boolean closed;
 
-    EventQueue(StreamId streamId, StreamMetricsCollectorFactory.StreamMetricsCollector metricsCollector) {
-      this.streamId = streamId;
+    EventQueue(StreamShard streamShard, StreamMetricsCollectorFactory.StreamMetricsCollector metricsCollector) {
+      this.streamShard = streamShard;
       this.streamEvent = new MutableStreamEvent();
       this.queue = new ConcurrentLinkedQueue<>();
       this.writerFlag = new AtomicBoolean(false);
@@ -520,7 +582,8 @@ public final class ConcurrentStreamWriter implements Closeable {
         }
         timestampCloseable.close();
         fileSize = eventFile.length();
-        streamFileFactory.appendFile(streamConfig, eventFile, indexFile, timestampCloseable.getCloseTimestamp());
+        streamFileFactory.appendFile(streamConfig, streamShard.shard, eventFile, indexFile,
+                                     timestampCloseable.getCloseTimestamp());
       } finally {
         writerFlag.set(false);
       }
@@ -565,7 +628,7 @@ public final class ConcurrentStreamWriter implements Closeable {
           eventsWritten = metrics.eventsWritten;
         } catch (Throwable t) {
           // On exception, remove this EventQueue from the map and close this event queue
-          eventQueues.remove(streamId, this);
+          eventQueues.remove(streamShard, this);
           doClose();
 
           for (WriteRequest processed : processQueue) {
@@ -608,7 +671,7 @@ public final class ConcurrentStreamWriter implements Closeable {
         throw new IOException("Stream writer already closed");
       }
       if (fileWriter == null) {
-        fileWriter = transform(streamFileFactory.create(streamId), eventTransformer);
+        fileWriter = transform(streamFileFactory.create(streamShard.streamId, streamShard.shard), eventTransformer);
       }
       return fileWriter;
     }
@@ -297,11 +297,8 @@ public final class StreamFetchHandler extends AbstractHttpHandler {
     }
 
     List<StreamFileOffset> fileOffsets = Lists.newArrayList();
-    int instances = cConf.getInt(Constants.Stream.CONTAINER_INSTANCES);
-    String filePrefix = cConf.get(Constants.Stream.FILE_PREFIX);
-    for (int i = 0; i < instances; i++) {
-      // The actual file prefix is formed by file prefix in cConf + writer instance id
-      String streamFilePrefix = filePrefix + '.' + i;
+    // One offset for each shard of each writer instance
+    for (String streamFilePrefix : StreamUtils.getWriterFilePrefixes(cConf)) {
       Location eventLocation = StreamUtils.createStreamLocation(startPartition, streamFilePrefix,
                                                                 0, StreamFileType.EVENT);
       fileOffsets.add(new StreamFileOffset(eventLocation, 0, generation));
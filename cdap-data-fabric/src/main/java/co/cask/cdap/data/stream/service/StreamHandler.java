@@ -147,6 +147,7 @@ public final class StreamHandler extends AbstractHttpHandler {
     StreamMetricsCollectorFactory metricsCollectorFactory = createStreamMetricsCollectorFactory();
     this.streamWriter = new ConcurrentStreamWriter(streamCoordinatorClient, streamAdmin, writerFactory,
                                                    cConf.getInt(Constants.Stream.WORKER_THREADS),
+                                                   cConf.getInt(Constants.Stream.WRITER_SHARDS),
                                                    metricsCollectorFactory, impersonator);
     this.namespaceQueryAdmin = namespaceQueryAdmin;
     this.impersonator = impersonator;
@@ -18,15 +18,21 @@ package co.cask.cdap.data.stream.service.upload;
 
 import co.cask.cdap.api.stream.StreamEventData;
 import co.cask.cdap.common.NotFoundException;
+import co.cask.cdap.common.io.BinaryDecoder;
 import co.cask.cdap.common.io.ByteBuffers;
+import co.cask.cdap.common.io.Decoder;
+import co.cask.cdap.common.stream.StreamEventDataCodec;
 import co.cask.cdap.data.stream.service.ConcurrentStreamWriter;
 import co.cask.cdap.data.stream.service.MutableStreamEventData;
 import co.cask.cdap.proto.id.StreamId;
+import co.cask.common.io.ByteBufferInputStream;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
@@ -35,19 +41,23 @@ import java.util.Map;
 
 /**
  * A {@link ContentWriter} that buffer all events in memory and write to the actual stream writer when closed.
+ * Encoded events are kept encoded, and only decoded when they are written to the stream writer.
  */
-final class BufferedContentWriter implements ContentWriter, Iterable<ByteBuffer> {
+final class BufferedContentWriter implements EncodedContentWriter, Iterable<ByteBuffer> {
 
   private final StreamId streamId;
   private final ConcurrentStreamWriter streamWriter;
   private final Map<String, String> headers;
   private final List<ByteBuffer> bodies;
+  private final ByteArrayOutputStream encodedEvents;
+  private int encodedEventCount;
 
   BufferedContentWriter(StreamId streamId, ConcurrentStreamWriter streamWriter, Map<String, String> headers) {
     this.streamId = streamId;
     this.streamWriter = streamWriter;
     this.headers = ImmutableMap.copyOf(headers);
     this.bodies = Lists.newLinkedList();
+    this.encodedEvents = new ByteArrayOutputStream();
   }
 
   @Override
@@ -66,10 +76,20 @@ final class BufferedContentWriter implements ContentWriter, Iterable<ByteBuffer>
     }
   }
 
+  @Override
+  public void appendEncoded(ByteBuffer encodedEvents, int eventCount) throws IOException {
+    ByteBuffers.writeToStream(encodedEvents, this.encodedEvents);
+    encodedEventCount += eventCount;
+  }
+
   @Override
   public void close() throws IOException {
+    Iterator<StreamEventData> events = new StreamEventDataIterator(headers, bodies.iterator());
+    if (encodedEventCount > 0) {
+      events = Iterators.concat(events, new EncodedStreamEventDataIterator(headers, getEncodedEvents()));
+    }
     try {
-      streamWriter.enqueue(streamId, new StreamEventDataIterator(headers, bodies.iterator()));
+      streamWriter.enqueue(streamId, events);
     } catch (NotFoundException e) {
       throw Throwables.propagate(e);
     }
@@ -85,6 +105,20 @@ final class BufferedContentWriter implements ContentWriter, Iterable<ByteBuffer>
     return bodies.iterator();
   }
 
+  /**
+   * Returns the encoded events appended so far.
+   */
+  ByteBuffer getEncodedEvents() {
+    return ByteBuffer.wrap(encodedEvents.toByteArray());
+  }
+
+  /**
+   * Returns the number of encoded events appended so far.
+   */
+  int getEncodedEventCount() {
+    return encodedEventCount;
+  }
+
   private static final class StreamEventDataIterator extends AbstractIterator<StreamEventData> {
 
     private final Iterator<? extends ByteBuffer> bodies;
@@ -103,4 +137,33 @@ final class BufferedContentWriter implements ContentWriter, Iterable<ByteBuffer>
       return streamEventData.setBody(bodies.next());
     }
   }
+
+  /**
+   * Decodes the events in a buffer of encoded events, with the given headers as the default headers.
+   */
+  private static final class EncodedStreamEventDataIterator extends AbstractIterator<StreamEventData> {
+
+    private final Map<String, String> headers;
+    private final ByteBuffer encodedEvents;
+    private final Decoder decoder;
+
+    private EncodedStreamEventDataIterator(Map<String, String> headers, ByteBuffer encodedEvents) {
+      this.headers = headers;
+      this.encodedEvents = encodedEvents;
+      this.decoder = new BinaryDecoder(new ByteBufferInputStream(encodedEvents));
+    }
+
+    @Override
+    protected StreamEventData computeNext() {
+      if (!encodedEvents.hasRemaining()) {
+        return endOfData();
+      }
+      try {
+        return StreamEventDataCodec.decode(decoder, headers);
+      } catch (IOException e) {
+        // Should not happen, since the events were validated when they were uploaded
+        throw Throwables.propagate(e);
+      }
+    }
+  }
 }
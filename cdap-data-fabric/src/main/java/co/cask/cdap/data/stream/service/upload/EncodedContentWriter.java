@@ -0,0 +1,36 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data.stream.service.upload;
+
+import co.cask.cdap.common.stream.StreamEventDataCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ContentWriter} that can also write events that are already encoded in the stream file format.
+ */
+interface EncodedContentWriter extends ContentWriter {
+
+  /**
+   * Writes events encoded with the {@link StreamEventDataCodec#STREAM_DATA_SCHEMA} to the stream file as is.
+   *
+   * @param encodedEvents buffer containing the encoded events
+   * @param eventCount number of events in the buffer
+   */
+  void appendEncoded(ByteBuffer encodedEvents, int eventCount) throws IOException;
+}
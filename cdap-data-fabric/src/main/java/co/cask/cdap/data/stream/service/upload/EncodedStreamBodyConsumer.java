@@ -0,0 +1,281 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data.stream.service.upload;
+
+import co.cask.cdap.common.stream.StreamEventDataCodec;
+import co.cask.cdap.proto.id.StreamId;
+import co.cask.http.BodyConsumer;
+import co.cask.http.HttpResponder;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A {@link BodyConsumer} for consuming a sequence of events that are already encoded with the
+ * {@link StreamEventDataCodec#STREAM_DATA_SCHEMA}, which is the encoding used by the stream file. The events are
+ * not decoded. Only their framing is validated, and each run of complete events is written to the stream file as is.
+ * <p>
+ * It can also consume a sequence of length prefixed event bodies, each being an Avro encoded long length followed
+ * by the body bytes. These are turned into encoded events by appending an empty headers map after each body.
+ */
+@NotThreadSafe
+final class EncodedStreamBodyConsumer extends BodyConsumer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(EncodedStreamBodyConsumer.class);
+
+  // Maximum number of bytes of an Avro encoded int
+  private static final int MAX_INT_BYTES = 5;
+
+  private final StreamId streamId;
+  private final ContentWriterFactory contentWriterFactory;
+  private final boolean bodiesOnly;
+  private EncodedContentWriter contentWriter;
+  private boolean failed;
+  private ChannelBuffer buffer = ChannelBuffers.EMPTY_BUFFER;
+
+  // Index in the buffer after the last value read by the framing validation, and the last int value read
+  private int readIndex;
+  private int intValue;
+
+  EncodedStreamBodyConsumer(ContentWriterFactory contentWriterFactory) {
+    this(contentWriterFactory, false);
+  }
+
+  /**
+   * Creates an instance that consumes either encoded events or length prefixed event bodies.
+   *
+   * @param contentWriterFactory the factory for creating the writer of the events
+   * @param bodiesOnly {@code true} if the content is length prefixed event bodies without headers
+   */
+  EncodedStreamBodyConsumer(ContentWriterFactory contentWriterFactory, boolean bodiesOnly) {
+    this.streamId = contentWriterFactory.getStream();
+    this.contentWriterFactory = contentWriterFactory;
+    this.bodiesOnly = bodiesOnly;
+  }
+
+  @Override
+  public void chunk(ChannelBuffer chunk, HttpResponder responder) {
+    if (failed) {
+      return;
+    }
+
+    ChannelBuffer contentChunk = chunk;
+    if (buffer.readable()) {
+      contentChunk = ChannelBuffers.wrappedBuffer(buffer, contentChunk);
+      buffer = ChannelBuffers.EMPTY_BUFFER;
+    }
+
+    try {
+      processChunk(contentChunk);
+      if (contentChunk.readable()) {
+        buffer = contentChunk;
+      }
+    } catch (Exception e) {
+      failed = true;
+      respondFailure(responder, e);
+
+      // Propagate the exception so that the netty http service will terminate the handling
+      throw Throwables.propagate(e);
+    }
+  }
+
+  @Override
+  public void finished(HttpResponder responder) {
+    if (failed) {
+      return;
+    }
+    try {
+      if (buffer.readable()) {
+        throw new IllegalArgumentException("Incomplete stream event at the end of the upload content");
+      }
+      if (contentWriter != null) {
+        contentWriter.close();
+      }
+      responder.sendStatus(HttpResponseStatus.OK);
+    } catch (Exception e) {
+      // No need to propagate since it's the end of upload already.
+      respondFailure(responder, e);
+    }
+  }
+
+  @Override
+  public void handleError(Throwable cause) {
+    LOG.warn("Failed to handle upload to stream {}", streamId, cause);
+    if (contentWriter != null) {
+      contentWriter.cancel();
+    }
+  }
+
+  /**
+   * Writes all complete events at the beginning of the given buffer and advances the buffer reader index past them.
+   */
+  private void processChunk(ChannelBuffer chunk) throws IOException {
+    int start = chunk.readerIndex();
+    int index = start;
+    int eventCount = 0;
+    int eventLength = eventLength(chunk, index);
+    while (eventLength >= 0) {
+      index += eventLength;
+      eventCount++;
+      eventLength = eventLength(chunk, index);
+    }
+    if (eventCount == 0) {
+      return;
+    }
+    ByteBuffer encodedEvents = bodiesOnly ? encodeBodies(chunk, start, index, eventCount)
+                                          : chunk.toByteBuffer(start, index - start);
+    getContentWriter().appendEncoded(encodedEvents, eventCount);
+    chunk.readerIndex(index);
+  }
+
+  /**
+   * Encodes the length prefixed bodies between the given indices of the buffer as events without headers. The
+   * length prefix is the same as the Avro encoding of the body, hence only the empty headers map is appended.
+   */
+  private ByteBuffer encodeBodies(ChannelBuffer chunk, int start, int end, int eventCount) {
+    byte[] encoded = new byte[end - start + eventCount];
+    int offset = 0;
+    int index = start;
+    while (index < end) {
+      int length = eventLength(chunk, index);
+      chunk.getBytes(index, encoded, offset, length);
+      offset += length;
+      // The empty headers map
+      encoded[offset++] = 0;
+      index += length;
+    }
+    return ByteBuffer.wrap(encoded);
+  }
+
+  /**
+   * Returns the number of bytes of the encoded event that starts at the given index of the buffer,
+   * or {@code -1} if the buffer does not contain the complete event.
+   *
+   * @throws IllegalArgumentException if the bytes are not a valid encoded event
+   */
+  private int eventLength(ChannelBuffer chunk, int index) {
+    readIndex = index;
+
+    // The body bytes
+    if (!skipBytes(chunk)) {
+      return -1;
+    }
+    if (bodiesOnly) {
+      return readIndex - index;
+    }
+
+    // The headers map, which is a sequence of blocks of entries, ended by an empty block
+    if (!readInt(chunk)) {
+      return -1;
+    }
+    while (intValue != 0) {
+      if (intValue < 0) {
+        throw new IllegalArgumentException("Invalid number of stream event headers " + intValue);
+      }
+      for (int i = intValue; i > 0; i--) {
+        // The header key and the union index of the header value, which is either a string or null
+        if (!skipBytes(chunk) || !readInt(chunk)) {
+          return -1;
+        }
+        if (intValue == 0) {
+          if (!skipBytes(chunk)) {
+            return -1;
+          }
+        } else if (intValue != 1) {
+          throw new IllegalArgumentException("Invalid type index of stream event header value " + intValue);
+        }
+      }
+      if (!readInt(chunk)) {
+        return -1;
+      }
+    }
+    return readIndex - index;
+  }
+
+  /**
+   * Reads an Avro encoded int into {@link #intValue}.
+   *
+   * @return {@code true} if the int was read, or {@code false} if the buffer ends before the int does
+   */
+  private boolean readInt(ChannelBuffer chunk) {
+    int val = 0;
+    for (int i = 0; i < MAX_INT_BYTES; i++) {
+      if (readIndex >= chunk.writerIndex()) {
+        return false;
+      }
+      int b = chunk.getByte(readIndex++) & 0xff;
+      val ^= (b & 0x7f) << (7 * i);
+      if (b <= 0x7f) {
+        intValue = (val >>> 1) ^ -(val & 1);
+        return true;
+      }
+    }
+    throw new IllegalArgumentException("Invalid encoded int in stream event");
+  }
+
+  /**
+   * Skips Avro encoded bytes or string.
+   *
+   * @return {@code true} if the bytes were skipped, or {@code false} if the buffer ends before the bytes do
+   */
+  private boolean skipBytes(ChannelBuffer chunk) {
+    if (!readInt(chunk)) {
+      return false;
+    }
+    if (intValue < 0) {
+      throw new IllegalArgumentException("Invalid length of bytes in stream event " + intValue);
+    }
+    if (chunk.writerIndex() - readIndex < intValue) {
+      return false;
+    }
+    readIndex += intValue;
+    return true;
+  }
+
+  private EncodedContentWriter getContentWriter() throws IOException {
+    if (contentWriter == null) {
+      ContentWriter writer = contentWriterFactory.create(ImmutableMap.<String, String>of());
+      if (!(writer instanceof EncodedContentWriter)) {
+        writer.cancel();
+        throw new IOException("Writing encoded stream events is not supported by " + writer.getClass().getName());
+      }
+      contentWriter = (EncodedContentWriter) writer;
+    }
+    return contentWriter;
+  }
+
+  private void respondFailure(HttpResponder responder, Exception e) {
+    if (contentWriter != null) {
+      contentWriter.cancel();
+    }
+    if (e instanceof IllegalArgumentException) {
+      LOG.debug("Invalid upload content to stream {}", streamId, e);
+      responder.sendString(HttpResponseStatus.BAD_REQUEST, "Invalid encoded stream event: " + e.getMessage());
+      return;
+    }
+    LOG.error("Failed to write upload content to stream {}", streamId, e);
+    responder.sendString(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Failed to write uploaded content");
+  }
+}
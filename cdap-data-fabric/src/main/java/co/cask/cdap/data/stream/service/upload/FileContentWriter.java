@@ -37,7 +37,7 @@ import java.util.Map;
 /**
  * Implementation of {@link ContentWriter} that writes to stream file directly.
  */
-final class FileContentWriter implements ContentWriter {
+final class FileContentWriter implements EncodedContentWriter {
 
   private final StreamConfig streamConfig;
   private final ConcurrentStreamWriter streamWriter;
@@ -62,6 +62,7 @@ final class FileContentWriter implements ContentWriter {
     Map<String, String> properties = createStreamFileProperties(headers);
     properties.put(StreamDataFileConstants.Property.Key.UNI_TIMESTAMP,
                    StreamDataFileConstants.Property.Value.CLOSE_TIMESTAMP);
+    properties.put(StreamDataFileConstants.Property.Key.COMPRESSION_CODEC, streamConfig.getCompressionCodec());
     this.writer = new StreamDataFileWriter(Locations.newOutputSupplier(eventFile),
                                            Locations.newOutputSupplier(indexFile),
                                            streamConfig.getIndexInterval(),
@@ -90,6 +91,12 @@ final class FileContentWriter implements ContentWriter {
     }
   }
 
+  @Override
+  public void appendEncoded(ByteBuffer encodedEvents, int eventCount) throws IOException {
+    writer.appendEncoded(System.currentTimeMillis(), encodedEvents, eventCount);
+    this.eventCount += eventCount;
+  }
+
   @Override
   public void cancel() {
     Closeables.closeQuietly(writer);
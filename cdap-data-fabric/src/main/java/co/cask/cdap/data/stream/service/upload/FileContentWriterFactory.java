@@ -58,6 +58,13 @@ public final class FileContentWriterFactory implements ContentWriterFactory {
 
   @Override
   public ContentWriter create(Map<String, String> headers) throws IOException {
+    return createFileContentWriter(headers);
+  }
+
+  /**
+   * Creates a {@link FileContentWriter}, which also supports writing encoded events.
+   */
+  FileContentWriter createFileContentWriter(Map<String, String> headers) throws IOException {
     Map<String, String> allHeaders = Maps.newHashMap(this.headers);
     allHeaders.putAll(headers);
     Location uploadDir = streamTmpLocation.append("upload").getTempFile(Long.toString(System.currentTimeMillis()));
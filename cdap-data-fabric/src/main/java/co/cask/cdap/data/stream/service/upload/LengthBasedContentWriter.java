@@ -33,7 +33,7 @@ import java.util.concurrent.Callable;
  * Implementation of {@link ContentWriter} that dynamically decides to buffers all events in memory or writes to stream
  * file based on the length of streaming data.
  */
-final class LengthBasedContentWriter implements ContentWriter {
+final class LengthBasedContentWriter implements EncodedContentWriter {
 
   private final long bufferThreshold;
   private final BufferedContentWriter bufferedContentWriter;
@@ -41,7 +41,7 @@ final class LengthBasedContentWriter implements ContentWriter {
   private final StreamId streamId;
   private final Impersonator impersonator;
 
-  private ContentWriter fileContentWriter;
+  private FileContentWriter fileContentWriter;
   private long bodySize;
 
   LengthBasedContentWriter(StreamConfig streamConfig, ConcurrentStreamWriter streamWriter, Map<String, String> headers,
@@ -84,6 +84,17 @@ final class LengthBasedContentWriter implements ContentWriter {
     }
   }
 
+  @Override
+  public void appendEncoded(ByteBuffer encodedEvents, int eventCount) throws IOException {
+    if (fileContentWriter != null) {
+      fileContentWriter.appendEncoded(encodedEvents, eventCount);
+    } else {
+      int size = encodedEvents.remaining();
+      bufferedContentWriter.appendEncoded(encodedEvents, eventCount);
+      updateWriter(size);
+    }
+  }
+
   @Override
   public void cancel() {
     if (fileContentWriter != null) {
@@ -105,21 +116,32 @@ final class LengthBasedContentWriter implements ContentWriter {
   private boolean updateWriter(long length) throws IOException {
     bodySize += length;
     if (bodySize >= bufferThreshold) {
-      try {
-        fileContentWriter = impersonator.doAs(streamId, new Callable<ContentWriter>() {
-          @Override
-          public ContentWriter call() throws Exception {
-            return fileContentWriterFactory.create(ImmutableMap.<String, String>of());
-          }
-        });
-      } catch (Exception e) {
-        Throwables.propagateIfPossible(e, IOException.class);
-        throw new IOException(e);
-      }
-      fileContentWriter.appendAll(bufferedContentWriter.iterator(), true);
-      bufferedContentWriter.cancel();
+      switchToFileWriter();
       return true;
     }
     return false;
   }
+
+  /**
+   * Creates the file content writer and moves all buffered events to it.
+   */
+  private void switchToFileWriter() throws IOException {
+    try {
+      fileContentWriter = impersonator.doAs(streamId, new Callable<FileContentWriter>() {
+        @Override
+        public FileContentWriter call() throws Exception {
+          return fileContentWriterFactory.createFileContentWriter(ImmutableMap.<String, String>of());
+        }
+      });
+    } catch (Exception e) {
+      Throwables.propagateIfPossible(e, IOException.class);
+      throw new IOException(e);
+    }
+    fileContentWriter.appendAll(bufferedContentWriter.iterator(), true);
+    if (bufferedContentWriter.getEncodedEventCount() > 0) {
+      fileContentWriter.appendEncoded(bufferedContentWriter.getEncodedEvents(),
+                                      bufferedContentWriter.getEncodedEventCount());
+    }
+    bufferedContentWriter.cancel();
+  }
 }
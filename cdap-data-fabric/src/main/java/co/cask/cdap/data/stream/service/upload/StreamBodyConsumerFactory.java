@@ -45,6 +45,12 @@ public class StreamBodyConsumerFactory {
     if (contentType.equals("avro/binary")) {
       return new AvroStreamBodyConsumer(contentWriterFactory);
     }
+    if (contentType.equals("avro/x-stream-events")) {
+      return new EncodedStreamBodyConsumer(contentWriterFactory);
+    }
+    if (contentType.equals("avro/x-stream-bodies")) {
+      return new EncodedStreamBodyConsumer(contentWriterFactory, true);
+    }
     throw new UnsupportedOperationException("Unsupported content type " + contentType);
   }
 }
@@ -16,13 +16,14 @@
 
 package co.cask.cdap.data2.dataset2.lib.cube;
 
-import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
 import co.cask.cdap.api.dataset.lib.cube.Cube;
 import co.cask.cdap.api.dataset.lib.cube.CubeDeleteQuery;
 import co.cask.cdap.api.dataset.lib.cube.CubeExploreQuery;
 import co.cask.cdap.api.dataset.lib.cube.CubeFact;
 import co.cask.cdap.api.dataset.lib.cube.CubeQuery;
 import co.cask.cdap.api.dataset.lib.cube.DimensionValue;
+import co.cask.cdap.api.dataset.lib.cube.MeasureType;
+import co.cask.cdap.api.dataset.lib.cube.Measurement;
 import co.cask.cdap.api.dataset.lib.cube.TimeSeries;
 import co.cask.cdap.api.dataset.lib.cube.TimeValue;
 import co.cask.cdap.api.dataset.metrics.MeteredDataset;
@@ -30,21 +31,22 @@ import co.cask.cdap.api.metrics.MetricsCollector;
 import co.cask.cdap.common.utils.ImmutablePair;
 import co.cask.cdap.data2.dataset2.lib.timeseries.Fact;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactScan;
-import co.cask.cdap.data2.dataset2.lib.timeseries.FactScanResult;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactScanner;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
-import com.google.common.collect.HashBasedTable;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
-import com.google.common.collect.Table;
+import org.apache.twill.common.Threads;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -52,6 +54,14 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
 /**
@@ -67,6 +77,9 @@ public class DefaultCube implements Cube, MeteredDataset {
   private final Map<Integer, FactTable> resolutionToFactTable;
   private final Map<String, ? extends Aggregation> aggregations;
   private final Map<String, AggregationAlias> aggregationAliasMap;
+  private final int queryParallelism;
+  @Nullable
+  private final ExecutorService queryExecutor;
 
   @Nullable
   private MetricsCollector metrics;
@@ -74,12 +87,33 @@ public class DefaultCube implements Cube, MeteredDataset {
   public DefaultCube(int[] resolutions, FactTableSupplier factTableSupplier,
                      Map<String, ? extends Aggregation> aggregations,
                      Map<String, AggregationAlias> aggregationAliasMap) {
+    this(resolutions, factTableSupplier, aggregations, aggregationAliasMap, 1);
+  }
+
+  /**
+   * Creates a cube that scans ranges of a query in parallel.
+   *
+   * @param queryParallelism maximum number of concurrent scans for a single query. Should only be {@code > 1} if
+   *                         the tables provided by the {@link FactTableSupplier} can be scanned concurrently.
+   */
+  public DefaultCube(int[] resolutions, FactTableSupplier factTableSupplier,
+                     Map<String, ? extends Aggregation> aggregations,
+                     Map<String, AggregationAlias> aggregationAliasMap, int queryParallelism) {
+    Preconditions.checkArgument(queryParallelism > 0, "Query parallelism should be > 0");
     this.aggregations = aggregations;
     this.resolutionToFactTable = Maps.newHashMap();
     for (int resolution : resolutions) {
       resolutionToFactTable.put(resolution, factTableSupplier.get(resolution, 3600));
     }
     this.aggregationAliasMap = aggregationAliasMap;
+    this.queryParallelism = queryParallelism;
+    // Creates a executor that will shrink to 0 threads if left idle
+    // Uses daemon thread, hence no need to worry about shutdown
+    // When all threads are busy, use the caller thread to execute
+    this.queryExecutor = queryParallelism == 1 ? null :
+      new ThreadPoolExecutor(0, queryParallelism, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                             Threads.createDaemonThreadFactory("cube-query-%d"),
+                             new ThreadPoolExecutor.CallerRunsPolicy());
   }
 
   @Override
@@ -89,7 +123,9 @@ public class DefaultCube implements Cube, MeteredDataset {
 
   @Override
   public void add(Collection<? extends CubeFact> facts) {
-    List<Fact> toWrite = Lists.newArrayList();
+    // Facts of the same dimension values and timestamp are coalesced, so that the fact tables write each cell once
+    Map<ImmutablePair<Long, List<DimensionValue>>, CoalescedFact> coalescedFacts = new LinkedHashMap<>();
+    int createdCount = 0;
     int dimValuesCount = 0;
     for (CubeFact fact : facts) {
       for (Map.Entry<String, ? extends Aggregation> aggEntry : aggregations.entrySet()) {
@@ -108,18 +144,31 @@ public class DefaultCube implements Cube, MeteredDataset {
             dimensionValues.add(new DimensionValue(dimensionName, fact.getDimensionValues().get(dimensionValueKey)));
             dimValuesCount++;
           }
-          toWrite.add(new Fact(fact.getTimestamp(), dimensionValues, fact.getMeasurements()));
+          ImmutablePair<Long, List<DimensionValue>> key = ImmutablePair.of(fact.getTimestamp(), dimensionValues);
+          CoalescedFact coalescedFact = coalescedFacts.get(key);
+          if (coalescedFact == null) {
+            coalescedFact = new CoalescedFact();
+            coalescedFacts.put(key, coalescedFact);
+          }
+          coalescedFact.addAll(fact.getMeasurements());
+          createdCount++;
         }
       }
     }
 
+    List<Fact> toWrite = new ArrayList<>(coalescedFacts.size());
+    for (Map.Entry<ImmutablePair<Long, List<DimensionValue>>, CoalescedFact> entry : coalescedFacts.entrySet()) {
+      toWrite.add(new Fact(entry.getKey().getFirst(), entry.getKey().getSecond(), entry.getValue().getMeasurements()));
+    }
+
     for (FactTable table : resolutionToFactTable.values()) {
       table.add(toWrite);
     }
 
     incrementMetric("cube.cubeFact.add.request.count", 1);
     incrementMetric("cube.cubeFact.added.count", facts.size());
-    incrementMetric("cube.tsFact.created.count", toWrite.size());
+    incrementMetric("cube.tsFact.created.count", createdCount);
+    incrementMetric("cube.tsFact.coalesced.count", createdCount - toWrite.size());
     incrementMetric("cube.tsFact.created.dimValues.count", dimValuesCount);
     incrementMetric("cube.tsFact.added.count", toWrite.size() * resolutionToFactTable.size());
   }
@@ -160,11 +209,16 @@ public class DefaultCube implements Cube, MeteredDataset {
 
       3) While scanning build a table: dimension values -> time -> value. Use measureType as values aggregate
          function if needed.
+
+      If the resolution of the query is not aggregated, the coarsest aggregated resolution that divides it is
+      scanned and the values are aggregated into the time slots of the query resolution. The time range is split at
+      row boundaries into ranges that are scanned in parallel, when the cube is created with query parallelism > 1.
     */
 
     incrementMetric("cube.query.request.count", 1);
 
-    if (!resolutionToFactTable.containsKey(query.getResolution())) {
+    int resolution = findResolution(query.getResolution());
+    if (resolution < 0) {
       incrementMetric("cube.query.request.failure.count", 1);
       throw new IllegalArgumentException("There's no data aggregated for specified resolution to satisfy the query: " +
                                            query.toString());
@@ -195,7 +249,7 @@ public class DefaultCube implements Cube, MeteredDataset {
 
     // tell how many queries end up querying specific pre-aggregated views and resolutions
     incrementMetric("cube.query.agg." + aggName + ".count", 1);
-    incrementMetric("cube.query.res." + query.getResolution() + ".count", 1);
+    incrementMetric("cube.query.res." + resolution + ".count", 1);
 
     // 2) build a scan for a query
     List<DimensionValue> dimensionValues = Lists.newArrayList();
@@ -208,14 +262,15 @@ public class DefaultCube implements Cube, MeteredDataset {
                                  query.getMeasurements().keySet(), dimensionValues);
 
     // 3) execute scan query
-    FactTable table = resolutionToFactTable.get(query.getResolution());
-    FactScanner scanner = table.scan(scan);
-    Table<Map<String, String>, String, Map<Long, Long>> resultMap = getTimeSeries(query, scanner);
+    FactTable table = resolutionToFactTable.get(resolution);
+    FactScanAggregator result = scan(query, agg, table, scan);
 
+    incrementMetric("cube.query.scan.records.count", result.getRecordsCount());
+    incrementMetric("cube.query.scan.skipped.count", result.getSkippedCount());
     incrementMetric("cube.query.request.success.count", 1);
-    incrementMetric("cube.query.result.size", resultMap.size());
+    incrementMetric("cube.query.result.size", result.getGroupsCount());
 
-    Collection<TimeSeries> timeSeries = convertToQueryResult(query, resultMap);
+    Collection<TimeSeries> timeSeries = convertToQueryResult(query, result);
     incrementMetric("cube.query.result.timeseries.count", timeSeries.size());
 
     return timeSeries;
@@ -255,7 +310,7 @@ public class DefaultCube implements Cube, MeteredDataset {
       slice.put(dimensionValue.getName(), dimensionValue.getValue());
     }
 
-    FactTable table = resolutionToFactTable.get(query.getResolution());
+    FactTable table = getFactTable(query);
 
     for (Aggregation agg : aggregations.values()) {
       if (agg.getDimensionNames().containsAll(slice.keySet())) {
@@ -280,7 +335,7 @@ public class DefaultCube implements Cube, MeteredDataset {
       slice.put(dimensionValue.getName(), dimensionValue.getValue());
     }
 
-    FactTable table = resolutionToFactTable.get(query.getResolution());
+    FactTable table = getFactTable(query);
 
     for (Aggregation agg : aggregations.values()) {
       if (agg.getDimensionNames().containsAll(slice.keySet())) {
@@ -329,100 +384,122 @@ public class DefaultCube implements Cube, MeteredDataset {
     return currentBest;
   }
 
-  private Table<Map<String, String>, String, Map<Long, Long>> getTimeSeries(CubeQuery query, FactScanner scanner) {
-    // {dimension values, measure} -> {time -> value}s
-    Table<Map<String, String>, String, Map<Long, Long>> result = HashBasedTable.create();
-
-    int count = 0;
-    while (scanner.hasNext()) {
-      FactScanResult next = scanner.next();
-      incrementMetric("cube.query.scan.records.count", 1);
-
-      boolean skip = false;
-      // using tree map, as we are using it as a key for a map
-      Map<String, String> seriesDimensions = Maps.newTreeMap();
-      for (String dimensionName : query.getGroupByDimensions()) {
-        // todo: use Map<String, String> instead of List<DimensionValue> into a String, String, everywhere
-        for (DimensionValue dimensionValue : next.getDimensionValues()) {
-          if (dimensionName.equals(dimensionValue.getName())) {
-            if (dimensionValue.getValue() == null) {
-              // Currently, we do NOT return null as grouped by value.
-              // Depending on whether dimension is required or not the records with null value in it may or may not be
-              // in aggregation. At this moment, the choosing of the aggregation for query doesn't look at this, so
-              // potentially null may or may not be included in results, depending on the aggregation selected
-              // querying. We don't want to produce inconsistent results varying due to different aggregations selected,
-              // so don't return nulls in any of those cases.
-              skip = true;
-              continue;
-            }
-            seriesDimensions.put(dimensionName, dimensionValue.getValue());
-            break;
-          }
-        }
-      }
+  /**
+   * Returns the {@link FactTable} to search for the given {@link CubeExploreQuery}, resolved the same way as
+   * for {@link #query(CubeQuery)}.
+   */
+  private FactTable getFactTable(CubeExploreQuery query) {
+    int resolution = findResolution(query.getResolution());
+    if (resolution < 0) {
+      throw new IllegalArgumentException("There's no data aggregated for specified resolution to satisfy the query: " +
+                                           query.toString());
+    }
+    return resolutionToFactTable.get(resolution);
+  }
 
-      if (skip) {
-        incrementMetric("cube.query.scan.skipped.count", 1);
-        continue;
+  /**
+   * Returns the resolution of the fact table to scan for the given query resolution: the query resolution itself
+   * if it is aggregated, otherwise the coarsest aggregated resolution that divides it, or {@code -1} if there is none.
+   */
+  private int findResolution(int queryResolution) {
+    if (resolutionToFactTable.containsKey(queryResolution)) {
+      return queryResolution;
+    }
+    int result = -1;
+    for (int resolution : resolutionToFactTable.keySet()) {
+      if (resolution < queryResolution && queryResolution % resolution == 0 && resolution > result) {
+        result = resolution;
       }
+    }
+    return result;
+  }
 
-      for (TimeValue timeValue : next) {
-        Map<Long, Long> timeValues = result.get(seriesDimensions, next.getMeasureName());
-        if (timeValues == null) {
-          result.put(seriesDimensions, next.getMeasureName(), Maps.<Long, Long>newHashMap());
-        }
+  private FactScanAggregator scan(final CubeQuery query, final Aggregation agg,
+                                  final FactTable table, FactScan scan) {
+    // hard-limit on records to scan is shared by all the scans of the query
+    final AtomicInteger recordsToScan = new AtomicInteger(MAX_RECORDS_TO_SCAN);
+    List<FactScan> scans = queryExecutor == null ? Collections.singletonList(scan) :
+      table.split(scan, queryParallelism);
+    if (scans.size() == 1) {
+      return scan(query, agg, table, scans.get(0), recordsToScan);
+    }
 
-        AggregationFunction function = query.getMeasurements().get(next.getMeasureName());
-        if (AggregationFunction.SUM == function) {
-          Long value =  result.get(seriesDimensions, next.getMeasureName()).get(timeValue.getTimestamp());
-          value = value == null ? 0 : value;
-          value += timeValue.getValue();
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), value);
-        } else if (AggregationFunction.MAX == function) {
-          Long value = result.get(seriesDimensions, next.getMeasureName()).get(timeValue.getTimestamp());
-          value = value != null && value > timeValue.getValue() ? value : timeValue.getValue();
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), value);
-        } else if (AggregationFunction.MIN == function) {
-          Long value =  result.get(seriesDimensions, next.getMeasureName()).get(timeValue.getTimestamp());
-          value = value != null && value < timeValue.getValue() ? value : timeValue.getValue();
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), value);
-        } else if (AggregationFunction.LATEST == function) {
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), timeValue.getValue());
+    incrementMetric("cube.query.scan.parallel.count", scans.size());
+    List<Future<FactScanAggregator>> futures = new ArrayList<>(scans.size());
+    try {
+      for (final FactScan split : scans) {
+        futures.add(queryExecutor.submit(new Callable<FactScanAggregator>() {
+          @Override
+          public FactScanAggregator call() throws Exception {
+            return scan(query, agg, table, split, recordsToScan);
+          }
+        }));
+      }
+      // splits are ordered by time, which is the order the results have to be merged in
+      FactScanAggregator result = null;
+      for (Future<FactScanAggregator> future : futures) {
+        FactScanAggregator aggregator = future.get();
+        if (result == null) {
+          result = aggregator;
         } else {
-          // should never happen: developer error
-          throw new RuntimeException("Unknown MeasureType: " + function);
+          result.merge(aggregator);
         }
       }
-      if (++count >= MAX_RECORDS_TO_SCAN) {
-        break;
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      for (Future<FactScanAggregator> future : futures) {
+        future.cancel(true);
       }
     }
-    return result;
   }
 
-  private Collection<TimeSeries> convertToQueryResult(CubeQuery query,
-                                                      Table<Map<String, String>, String,
-                                                        Map<Long, Long>> resultTable) {
+  private FactScanAggregator scan(CubeQuery query, Aggregation agg, FactTable table, FactScan scan,
+                                  AtomicInteger recordsToScan) {
+    FactScanAggregator aggregator = new FactScanAggregator(query.getMeasurements(), query.getGroupByDimensions(),
+                                                           agg.getDimensionNames(), query.getResolution());
+    FactScanner scanner = table.scan(scan);
+    boolean exhausted = false;
+    try {
+      while (scanner.hasNext()) {
+        if (recordsToScan.getAndDecrement() <= 0) {
+          return aggregator;
+        }
+        aggregator.add(scanner.next());
+      }
+      exhausted = true;
+    } finally {
+      // the scanner closes itself when exhausted
+      if (!exhausted) {
+        scanner.close();
+      }
+    }
+    return aggregator;
+  }
 
+  private Collection<TimeSeries> convertToQueryResult(CubeQuery query, FactScanAggregator aggregator) {
+    // at least one data point is always returned for a time series
+    int limit = Math.max(query.getLimit(), 1);
     List<TimeSeries> result = Lists.newArrayList();
     // iterating each groupValue dimensions
-    for (Map.Entry<Map<String, String>, Map<String, Map<Long, Long>>> row : resultTable.rowMap().entrySet()) {
+    for (Map.Entry<Map<String, String>, Map<String, List<TimeValue>>> row :
+      aggregator.getTimeSeries(limit, query.getInterpolator() != null).entrySet()) {
       // iterating each measure
-      for (Map.Entry<String, Map<Long, Long>> measureEntry : row.getValue().entrySet()) {
+      for (Map.Entry<String, List<TimeValue>> measureEntry : row.getValue().entrySet()) {
         // generating time series for a grouping and a measure
         int count = 0;
-        List<TimeValue> timeValues = Lists.newArrayList();
-        for (Map.Entry<Long, Long> timeValue : measureEntry.getValue().entrySet()) {
-          timeValues.add(new TimeValue(timeValue.getKey(), timeValue.getValue()));
-        }
-        Collections.sort(timeValues);
         PeekingIterator<TimeValue> timeValueItor = Iterators.peekingIterator(
-          new TimeSeriesInterpolator(timeValues, query.getInterpolator(), query.getResolution()).iterator());
+          new TimeSeriesInterpolator(measureEntry.getValue(), query.getInterpolator(),
+                                     query.getResolution()).iterator());
         List<TimeValue> resultTimeValues = Lists.newArrayList();
         while (timeValueItor.hasNext()) {
           TimeValue timeValue = timeValueItor.next();
           resultTimeValues.add(new TimeValue(timeValue.getTimestamp(), timeValue.getValue()));
-          if (++count >= query.getLimit()) {
+          if (++count >= limit) {
             break;
           }
         }
@@ -439,11 +516,42 @@ public class DefaultCube implements Cube, MeteredDataset {
 
   @Override
   public void close() throws IOException {
+    if (queryExecutor != null) {
+      queryExecutor.shutdownNow();
+    }
     for (FactTable factTable : resolutionToFactTable.values()) {
       factTable.close();
     }
   }
 
+  /**
+   * Measurements of facts with the same dimension values and timestamp. Counters of the same name are summed and
+   * the last gauge of the same name wins, which is the same as writing them one by one.
+   */
+  private static final class CoalescedFact {
+    private final Map<String, Measurement> counters = new LinkedHashMap<>();
+    private final Map<String, Measurement> gauges = new LinkedHashMap<>();
+
+    void addAll(Collection<Measurement> measurements) {
+      for (Measurement measurement : measurements) {
+        if (measurement.getType() != MeasureType.COUNTER) {
+          gauges.put(measurement.getName(), measurement);
+          continue;
+        }
+        Measurement existing = counters.get(measurement.getName());
+        counters.put(measurement.getName(), existing == null ? measurement :
+          new Measurement(measurement.getName(), MeasureType.COUNTER, existing.getValue() + measurement.getValue()));
+      }
+    }
+
+    Collection<Measurement> getMeasurements() {
+      List<Measurement> measurements = new ArrayList<>(counters.size() + gauges.size());
+      measurements.addAll(counters.values());
+      measurements.addAll(gauges.values());
+      return measurements;
+    }
+  }
+
   private static final class DimensionValueComparator implements Comparator<DimensionValue> {
     @Override
     public int compare(DimensionValue t1, DimensionValue t2) {
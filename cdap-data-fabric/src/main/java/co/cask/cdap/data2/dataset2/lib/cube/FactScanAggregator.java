@@ -0,0 +1,355 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.cube;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import co.cask.cdap.api.dataset.lib.cube.DimensionValue;
+import co.cask.cdap.api.dataset.lib.cube.TimeValue;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactScanResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregates {@link FactScanResult}s of a cube query into time series, grouped by the values of the group-by
+ * dimensions and the measure name. Values are aggregated into primitive arrays indexed by the time slot of the
+ * query resolution, which may be coarser than the resolution of the scanned data.
+ * <p/>
+ * Not thread safe: concurrent scans should use separate instances and combine them with {@link #merge}.
+ */
+final class FactScanAggregator {
+
+  // Time slots are kept in pages of fixed size, so that sparse series over long time ranges stay small
+  private static final int PAGE_BITS = 10;
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  private final Map<String, AggregationFunction> measurements;
+  private final List<String> groupByDimensions;
+  // index of each group-by dimension in the dimension values of a scan result, -1 if not present
+  private final int[] groupByIndexes;
+  private final int resolution;
+
+  // {group-by dimension values} -> {measure name -> series}
+  private final Map<List<String>, Map<String, Series>> result = new LinkedHashMap<>();
+  private int recordsCount;
+  private int skippedCount;
+
+  /**
+   * Creates an instance.
+   *
+   * @param measurements measures to aggregate with their aggregation functions
+   * @param groupByDimensions names of dimensions to group by
+   * @param dimensionNames names of the dimensions of the scanned aggregation, in the order of scan results
+   * @param resolution resolution in seconds of the resulting time series
+   */
+  FactScanAggregator(Map<String, AggregationFunction> measurements, List<String> groupByDimensions,
+                     List<String> dimensionNames, int resolution) {
+    this.measurements = measurements;
+    this.groupByDimensions = groupByDimensions;
+    this.groupByIndexes = new int[groupByDimensions.size()];
+    for (int i = 0; i < groupByIndexes.length; i++) {
+      groupByIndexes[i] = dimensionNames.indexOf(groupByDimensions.get(i));
+    }
+    this.resolution = resolution;
+  }
+
+  /**
+   * Adds a scan result to the aggregation.
+   */
+  void add(FactScanResult scanResult) {
+    recordsCount++;
+
+    List<String> groupValues = Collections.emptyList();
+    if (groupByIndexes.length > 0) {
+      List<DimensionValue> dimensionValues = scanResult.getDimensionValues();
+      String[] values = new String[groupByIndexes.length];
+      for (int i = 0; i < groupByIndexes.length; i++) {
+        int index = groupByIndexes[i];
+        if (index < 0 || index >= dimensionValues.size()) {
+          continue;
+        }
+        values[i] = dimensionValues.get(index).getValue();
+        if (values[i] == null) {
+          // Currently, we do NOT return null as grouped by value.
+          // Depending on whether dimension is required or not the records with null value in it may or may not be
+          // in aggregation. At this moment, the choosing of the aggregation for query doesn't look at this, so
+          // potentially null may or may not be included in results, depending on the aggregation selected
+          // querying. We don't want to produce inconsistent results varying due to different aggregations selected,
+          // so don't return nulls in any of those cases.
+          skippedCount++;
+          return;
+        }
+      }
+      groupValues = Arrays.asList(values);
+    }
+
+    Iterator<TimeValue> timeValues = scanResult.iterator();
+    if (!timeValues.hasNext()) {
+      // no data points in the time range, which should not produce a time series
+      return;
+    }
+
+    String measureName = scanResult.getMeasureName();
+    Map<String, Series> measureSeries = result.get(groupValues);
+    if (measureSeries == null) {
+      measureSeries = new HashMap<>();
+      result.put(groupValues, measureSeries);
+    }
+    Series series = measureSeries.get(measureName);
+    if (series == null) {
+      AggregationFunction function = measurements.get(measureName);
+      if (function == null) {
+        // should never happen: developer error
+        throw new RuntimeException("Unknown MeasureType: " + function);
+      }
+      series = new Series(function);
+      measureSeries.put(measureName, series);
+    }
+
+    while (timeValues.hasNext()) {
+      TimeValue timeValue = timeValues.next();
+      series.add(timeValue.getTimestamp() / resolution, timeValue.getTimestamp(), timeValue.getValue());
+    }
+  }
+
+  /**
+   * Merges the result of another aggregator into this one. The other aggregator must be created with the same
+   * parameters and cover later or the same time range.
+   */
+  void merge(FactScanAggregator other) {
+    recordsCount += other.recordsCount;
+    skippedCount += other.skippedCount;
+    for (Map.Entry<List<String>, Map<String, Series>> groupEntry : other.result.entrySet()) {
+      Map<String, Series> measureSeries = result.get(groupEntry.getKey());
+      if (measureSeries == null) {
+        result.put(groupEntry.getKey(), groupEntry.getValue());
+        continue;
+      }
+      for (Map.Entry<String, Series> seriesEntry : groupEntry.getValue().entrySet()) {
+        Series series = measureSeries.get(seriesEntry.getKey());
+        if (series == null) {
+          measureSeries.put(seriesEntry.getKey(), seriesEntry.getValue());
+        } else {
+          series.merge(seriesEntry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * @return number of scan results added
+   */
+  int getRecordsCount() {
+    return recordsCount;
+  }
+
+  /**
+   * @return number of scan results skipped because of a {@code null} value of a group-by dimension
+   */
+  int getSkippedCount() {
+    return skippedCount;
+  }
+
+  /**
+   * @return number of distinct groups of group-by dimension values
+   */
+  int getGroupsCount() {
+    return result.size();
+  }
+
+  /**
+   * Returns the aggregated time series. Data points of each time series are sorted by time.
+   *
+   * @param limit maximum number of data points the caller needs for each time series
+   * @param interpolate {@code true} if the caller interpolates the time series, in which case the data point right
+   *                    after the limit is also returned, so that the values before it can be interpolated
+   * @return {group-by dimension values} -> {measure name -> data points}
+   */
+  Map<Map<String, String>, Map<String, List<TimeValue>>> getTimeSeries(int limit, boolean interpolate) {
+    Map<Map<String, String>, Map<String, List<TimeValue>>> timeSeries = new LinkedHashMap<>();
+    for (Map.Entry<List<String>, Map<String, Series>> groupEntry : result.entrySet()) {
+      // using tree map, as it is used as a key for a map
+      Map<String, String> dimensions = new TreeMap<>();
+      for (int i = 0; i < groupByDimensions.size(); i++) {
+        String value = groupEntry.getKey().get(i);
+        if (value != null) {
+          dimensions.put(groupByDimensions.get(i), value);
+        }
+      }
+      Map<String, List<TimeValue>> measureTimeValues = timeSeries.get(dimensions);
+      if (measureTimeValues == null) {
+        measureTimeValues = new LinkedHashMap<>();
+        timeSeries.put(dimensions, measureTimeValues);
+      }
+      for (Map.Entry<String, Series> seriesEntry : groupEntry.getValue().entrySet()) {
+        measureTimeValues.put(seriesEntry.getKey(), seriesEntry.getValue().getTimeValues(limit, interpolate));
+      }
+    }
+    return timeSeries;
+  }
+
+  /**
+   * Aggregated values of a single time series.
+   */
+  private final class Series {
+    private final AggregationFunction function;
+    private final Map<Long, Page> pages = new HashMap<>();
+    // most of the values of a scan result fall into the same page
+    private long lastPageIndex = -1;
+    private Page lastPage;
+
+    Series(AggregationFunction function) {
+      this.function = function;
+    }
+
+    void add(long slot, long ts, long value) {
+      long pageIndex = slot >> PAGE_BITS;
+      Page page = lastPage;
+      if (pageIndex != lastPageIndex) {
+        page = pages.get(pageIndex);
+        if (page == null) {
+          page = new Page(function == AggregationFunction.LATEST);
+          pages.put(pageIndex, page);
+        }
+        lastPageIndex = pageIndex;
+        lastPage = page;
+      }
+      page.add(function, (int) (slot & PAGE_MASK), ts, value);
+    }
+
+    void merge(Series other) {
+      for (Map.Entry<Long, Page> entry : other.pages.entrySet()) {
+        Page page = pages.get(entry.getKey());
+        if (page == null) {
+          pages.put(entry.getKey(), entry.getValue());
+        } else {
+          page.merge(function, entry.getValue());
+        }
+      }
+      lastPageIndex = -1;
+      lastPage = null;
+    }
+
+    List<TimeValue> getTimeValues(int limit, boolean interpolate) {
+      Long[] pageIndexes = pages.keySet().toArray(new Long[pages.size()]);
+      Arrays.sort(pageIndexes);
+
+      List<TimeValue> timeValues = new ArrayList<>();
+      long maxTs = Long.MAX_VALUE;
+      for (Long pageIndex : pageIndexes) {
+        Page page = pages.get(pageIndex);
+        for (int offset = page.nextSet(0); offset >= 0; offset = page.nextSet(offset + 1)) {
+          long ts = ((pageIndex << PAGE_BITS) + offset) * resolution;
+          if (!interpolate && timeValues.size() >= limit) {
+            return timeValues;
+          }
+          if (timeValues.isEmpty()) {
+            // with interpolation there is a data point in every time slot after the first one
+            maxTs = ts + (long) (limit - 1) * resolution;
+          }
+          timeValues.add(new TimeValue(ts, page.values[offset]));
+          if (interpolate && ts >= maxTs) {
+            return timeValues;
+          }
+        }
+      }
+      return timeValues;
+    }
+  }
+
+  /**
+   * Values of consecutive time slots.
+   */
+  private static final class Page {
+    private final long[] values = new long[PAGE_SIZE];
+    // bitmap of the time slots that have value
+    private final long[] present = new long[PAGE_SIZE >> 6];
+    // timestamp of the current value in each time slot, only needed for the LATEST function
+    private final long[] timestamps;
+
+    Page(boolean trackTimestamps) {
+      this.timestamps = trackTimestamps ? new long[PAGE_SIZE] : null;
+    }
+
+    void add(AggregationFunction function, int offset, long ts, long value) {
+      long mask = 1L << offset;
+      if ((present[offset >> 6] & mask) == 0) {
+        present[offset >> 6] |= mask;
+        values[offset] = value;
+        if (timestamps != null) {
+          timestamps[offset] = ts;
+        }
+        return;
+      }
+      switch (function) {
+        case SUM:
+          values[offset] += value;
+          break;
+        case MAX:
+          values[offset] = Math.max(values[offset], value);
+          break;
+        case MIN:
+          values[offset] = Math.min(values[offset], value);
+          break;
+        case LATEST:
+          // data points of the same time are applied in the scan order
+          if (ts >= timestamps[offset]) {
+            values[offset] = value;
+            timestamps[offset] = ts;
+          }
+          break;
+        default:
+          // should never happen: developer error
+          throw new RuntimeException("Unknown MeasureType: " + function);
+      }
+    }
+
+    void merge(AggregationFunction function, Page other) {
+      for (int offset = other.nextSet(0); offset >= 0; offset = other.nextSet(offset + 1)) {
+        add(function, offset, other.timestamps == null ? 0L : other.timestamps[offset], other.values[offset]);
+      }
+    }
+
+    /**
+     * Returns the first offset at or after the given one that has value, or {@code -1} if there is none.
+     */
+    int nextSet(int offset) {
+      if (offset >= PAGE_SIZE) {
+        return -1;
+      }
+      int word = offset >> 6;
+      long bits = present[word] & (-1L << offset);
+      while (true) {
+        if (bits != 0) {
+          return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        if (++word == present.length) {
+          return -1;
+        }
+        bits = present[word];
+      }
+    }
+  }
+}
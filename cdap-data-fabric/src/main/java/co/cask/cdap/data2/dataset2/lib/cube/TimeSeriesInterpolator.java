@@ -46,14 +46,14 @@ import javax.annotation.Nullable;
  *   5   -   -   -   3
  *   5   5   5   5   3
  */
-class TimeSeriesInterpolator implements Iterable<TimeValue> {
+public class TimeSeriesInterpolator implements Iterable<TimeValue> {
 
   private final Collection<TimeValue> timeSeries;
   @Nullable
   private final Interpolator interpolator;
   private final int resolution;
 
-  TimeSeriesInterpolator(Collection<TimeValue> timeValues, @Nullable Interpolator interpolator, int resolution) {
+  public TimeSeriesInterpolator(Collection<TimeValue> timeValues, @Nullable Interpolator interpolator, int resolution) {
     this.timeSeries = ImmutableList.copyOf(timeValues);
     this.interpolator = interpolator;
     this.resolution = resolution;
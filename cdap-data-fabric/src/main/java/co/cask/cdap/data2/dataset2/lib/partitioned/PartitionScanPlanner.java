@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.partitioned;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.lib.PartitionFilter;
+import co.cask.cdap.api.dataset.lib.Partitioning;
+import co.cask.cdap.api.dataset.lib.Partitioning.FieldType;
+import co.cask.cdap.common.utils.ImmutablePair;
+import co.cask.cdap.data2.dataset2.lib.table.FuzzyRowFilter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Plans how the partitions matching a {@link PartitionFilter} are read from the partitions table.
+ *
+ * The partitions table is ordered by the first partitioning field, hence a filter with an equality condition on
+ * that field is always answered by a scan of the row key range. Otherwise, the most selective equality or bounded
+ * range condition on an indexed field is answered through the index of that field, unless the condition on the first
+ * field is at least as selective. A range with only one bound is never answered through an index: it may match most
+ * of the partitions, and reading those through an index costs an extra lookup per partition. If no index is used,
+ * the partitions table is scanned with a {@link FuzzyRowFilter} that matches the values of equality conditions on
+ * later fields, as long as their position in the row key is known.
+ */
+final class PartitionScanPlanner {
+
+  private static final byte[] INDEX_COL_PREFIX = { 'i', '.' };
+
+  private final Partitioning partitioning;
+  private final Set<String> indexedFields;
+
+  PartitionScanPlanner(Partitioning partitioning, Set<String> indexedFields) {
+    this.partitioning = partitioning;
+    this.indexedFields = ImmutableSet.copyOf(indexedFields);
+  }
+
+  /**
+   * @return the names of the partitioning fields that have a secondary index.
+   */
+  Set<String> getIndexedFields() {
+    return indexedFields;
+  }
+
+  /**
+   * Returns the name of the indexed field whose index should be used to find the partitions matching the
+   * given filter, or {@code null} if the partitions table should be scanned instead.
+   */
+  @Nullable
+  String getIndexedField(@Nullable PartitionFilter filter) {
+    if (filter == null || indexedFields.isEmpty()) {
+      return null;
+    }
+    String firstField = partitioning.getFields().keySet().iterator().next();
+    PartitionFilter.Condition<? extends Comparable> firstCondition = filter.getCondition(firstField);
+
+    // an index is only used for an equality or a bounded range that is more selective than the condition on
+    // the first field
+    String bestField = null;
+    int bestRank = Math.max(firstCondition == null ? 0 : rank(firstCondition), 1);
+    for (String fieldName : partitioning.getFields().keySet()) {
+      PartitionFilter.Condition<? extends Comparable> condition = filter.getCondition(fieldName);
+      if (condition == null || !indexedFields.contains(fieldName)) {
+        continue;
+      }
+      int rank = rank(condition);
+      if (rank > bestRank) {
+        bestField = fieldName;
+        bestRank = rank;
+      }
+    }
+    return bestField;
+  }
+
+  /**
+   * Creates a {@link FuzzyRowFilter} for scanning the partitions table with the given filter. The fuzzy row key
+   * fixes the values of the equality conditions in the filter, and leaves the bytes of other int and long fields
+   * unfixed. Because the length of a string field is only known if it has an equality condition, the fuzzy row key
+   * ends before the first string field without such condition.
+   *
+   * @return a {@link FuzzyRowFilter}, or {@code null} if it would not match less rows than the range scan.
+   */
+  @Nullable
+  FuzzyRowFilter createFuzzyRowFilter(@Nullable PartitionFilter filter) {
+    if (filter == null) {
+      return null;
+    }
+    ByteArrayOutputStream keyBytes = new ByteArrayOutputStream();
+    ByteArrayOutputStream maskBytes = new ByteArrayOutputStream();
+    int fixedLength = 0; // length of the fuzzy row key up to the last byte with a fixed value
+    boolean hasUnfixed = false;
+    boolean useful = false;
+    boolean first = true;
+
+    for (Map.Entry<String, FieldType> entry : partitioning.getFields().entrySet()) {
+      if (!first) {
+        // the \0 between fields
+        keyBytes.write(0);
+        maskBytes.write(0);
+      }
+      first = false;
+      FieldType fieldType = entry.getValue();
+      PartitionFilter.Condition<? extends Comparable> condition = filter.getCondition(entry.getKey());
+      if (condition != null && condition.isSingleValue()) {
+        byte[] bytes = FieldTypes.toBytes(condition.getValue(), fieldType);
+        keyBytes.write(bytes, 0, bytes.length);
+        maskBytes.write(new byte[bytes.length], 0, bytes.length);
+        fixedLength = keyBytes.size();
+        // the range scan already covers the equality conditions that precede any unfixed byte
+        useful = useful || hasUnfixed;
+      } else if (fieldType == FieldType.INT || fieldType == FieldType.LONG) {
+        int size = fieldType == FieldType.INT ? Bytes.SIZEOF_INT : Bytes.SIZEOF_LONG;
+        byte[] mask = new byte[size];
+        Arrays.fill(mask, (byte) 1);
+        keyBytes.write(new byte[size], 0, size);
+        maskBytes.write(mask, 0, size);
+        hasUnfixed = true;
+      } else {
+        // the position of the following fields in the row key is unknown
+        break;
+      }
+    }
+    if (!useful) {
+      return null;
+    }
+    byte[] fuzzyKey = Arrays.copyOf(keyBytes.toByteArray(), fixedLength);
+    byte[] fuzzyMask = Arrays.copyOf(maskBytes.toByteArray(), fixedLength);
+    return new FuzzyRowFilter(ImmutableList.of(ImmutablePair.of(fuzzyKey, fuzzyMask)));
+  }
+
+  /**
+   * @return the column of the partitions table that holds the value of the given field for indexing.
+   */
+  static byte[] getIndexColumn(String fieldName) {
+    return Bytes.concat(INDEX_COL_PREFIX, Bytes.toBytes(fieldName));
+  }
+
+  /**
+   * Ranks a condition by its expected selectivity: an equality condition ranks highest, followed by a range with
+   * both bounds and then a range with only one bound.
+   */
+  private static int rank(PartitionFilter.Condition<? extends Comparable> condition) {
+    if (condition.isSingleValue()) {
+      return 3;
+    }
+    return condition.getLower() != null && condition.getUpper() != null ? 2 : 1;
+  }
+}
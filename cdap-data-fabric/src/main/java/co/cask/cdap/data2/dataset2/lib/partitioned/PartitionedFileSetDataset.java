@@ -45,11 +45,13 @@ import co.cask.cdap.api.dataset.lib.PartitionMetadata;
 import co.cask.cdap.api.dataset.lib.PartitionOutput;
 import co.cask.cdap.api.dataset.lib.PartitionedFileSet;
 import co.cask.cdap.api.dataset.lib.PartitionedFileSetArguments;
+import co.cask.cdap.api.dataset.lib.PartitionedFileSetProperties;
 import co.cask.cdap.api.dataset.lib.Partitioning;
 import co.cask.cdap.api.dataset.lib.Partitioning.FieldType;
 import co.cask.cdap.api.dataset.lib.partitioned.PartitionKeyCodec;
 import co.cask.cdap.api.dataset.table.Put;
 import co.cask.cdap.api.dataset.table.Row;
+import co.cask.cdap.api.dataset.table.Scan;
 import co.cask.cdap.api.dataset.table.Scanner;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.io.Locations;
@@ -81,11 +83,13 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -137,6 +141,7 @@ public class PartitionedFileSetDataset extends AbstractDataset
   protected final Map<String, String> runtimeArguments;
   protected final Partitioning partitioning;
   private final IndexedTable partitionsTable;
+  private final PartitionScanPlanner scanPlanner;
   private final Provider<ExploreFacade> exploreFacadeProvider;
 
   private final DatasetId datasetInstanceId;
@@ -164,6 +169,8 @@ public class PartitionedFileSetDataset extends AbstractDataset
     this.exploreEnabled = FileSetProperties.isExploreEnabled(spec.getProperties());
     this.runtimeArguments = arguments;
     this.partitioning = partitioning;
+    this.scanPlanner = new PartitionScanPlanner(partitioning,
+                                                PartitionedFileSetProperties.getIndexedFields(spec.getProperties()));
     this.exploreFacadeProvider = exploreFacadeProvider;
     this.datasetInstanceId = new DatasetId(datasetContext.getNamespaceId(), name);
   }
@@ -356,6 +363,12 @@ public class PartitionedFileSetDataset extends AbstractDataset
     if (!appending) {
       put.add(RELATIVE_PATH, Bytes.toBytes(path));
       put.add(CREATION_TIME_COL, nowInMillis);
+      // index the row by the values of the indexed partitioning fields. Their encoding flips the sign bit of int and
+      // long values, hence range scans over the index also return negative values in order.
+      for (String fieldName : scanPlanner.getIndexedFields()) {
+        put.add(PartitionScanPlanner.getIndexColumn(fieldName),
+                FieldTypes.toBytes(key.getField(fieldName), partitioning.getFieldType(fieldName)));
+      }
     }
     put.add(LAST_MODIFICATION_TIME_COL, nowInMillis);
 
@@ -488,17 +501,21 @@ public class PartitionedFileSetDataset extends AbstractDataset
       }
       inProgressBeforeScanEnd.add(txId);
     }
-    return new PartitionConsumerResult(new PartitionConsumerState(scanUpTo, inProgressBeforeScanEnd),
-                                       partitions);
+    PartitionConsumerState newState =
+      new PartitionConsumerState(scanUpTo, inProgressBeforeScanEnd, partitionConsumerState.isCompact());
+    return new PartitionConsumerResult(newState, partitions);
   }
 
-  // returns the set of Longs that are in oldLongs, but not in newLongs (oldLongs - newLongs)
-  private Set<Long> setDiff(List<Long> oldLongs, long[] newLongs) {
-    Set<Long> oldLongsSet = new HashSet<>(oldLongs);
-    for (long newLong : newLongs) {
-      oldLongsSet.remove(newLong);
+  // returns the unique Longs that are in oldLongs, but not in the sorted newLongs (oldLongs - newLongs),
+  // in the order of oldLongs
+  private Set<Long> setDiff(List<Long> oldLongs, long[] sortedNewLongs) {
+    Set<Long> diff = new LinkedHashSet<>();
+    for (Long oldLong : oldLongs) {
+      if (Arrays.binarySearch(sortedNewLongs, oldLong) < 0) {
+        diff.add(oldLong);
+      }
     }
-    return oldLongsSet;
+    return diff;
   }
 
   @WriteOnly
@@ -757,43 +774,74 @@ public class PartitionedFileSetDataset extends AbstractDataset
   // if decodeMetadata is false, null is passed as the PartitionMetadata to the PartitionConsumer,
   // for efficiency reasons, since the metadata is not always needed
   protected void getPartitions(@Nullable PartitionFilter filter, PartitionConsumer consumer, boolean decodeMetadata) {
+    String indexedField = scanPlanner.getIndexedField(filter);
+    if (indexedField != null) {
+      try (Scanner scanner = scanByIndex(filter, indexedField)) {
+        getPartitions(scanner, filter, consumer, decodeMetadata, Long.MAX_VALUE);
+      }
+      return;
+    }
     byte[] startKey = generateStartKey(filter);
     byte[] endKey = generateStopKey(filter);
-    getPartitions(filter, consumer, decodeMetadata, startKey, endKey, Long.MAX_VALUE);
+    try (Scanner scanner = partitionsTable.scan(new Scan(startKey, endKey,
+                                                         scanPlanner.createFuzzyRowFilter(filter)))) {
+      getPartitions(scanner, filter, consumer, decodeMetadata, Long.MAX_VALUE);
+    }
   }
 
   private void getPartitions(@Nullable PartitionFilter filter, PartitionConsumer consumer, boolean decodeMetadata,
                              @Nullable byte[] startKey, @Nullable byte[] endKey, long limit) {
-    long count = 0L;
     try (Scanner scanner = partitionsTable.scan(startKey, endKey)) {
-      while (count < limit) {
-        Row row = scanner.next();
-        if (row == null) {
-          break;
-        }
-        PartitionKey key;
-        try {
-          key = parseRowKey(row.getRow(), partitioning);
-        } catch (IllegalArgumentException e) {
-          LOG.debug(String.format("Failed to parse row key for partitioned file set '%s': %s",
-                                  getName(), Bytes.toStringBinary(row.getRow())));
-          continue;
-        }
-        if (filter != null && !filter.match(key)) {
-          continue;
-        }
-        byte[] pathBytes = row.get(RELATIVE_PATH);
-        if (pathBytes != null) {
-          consumer.consume(key, Bytes.toString(pathBytes), decodeMetadata ? metadataFromRow(row) : null);
-        }
-        count++;
+      getPartitions(scanner, filter, consumer, decodeMetadata, limit);
+    }
+  }
+
+  private void getPartitions(Scanner scanner, @Nullable PartitionFilter filter, PartitionConsumer consumer,
+                             boolean decodeMetadata, long limit) {
+    long count = 0L;
+    while (count < limit) {
+      Row row = scanner.next();
+      if (row == null) {
+        break;
+      }
+      PartitionKey key;
+      try {
+        key = parseRowKey(row.getRow(), partitioning);
+      } catch (IllegalArgumentException e) {
+        LOG.debug(String.format("Failed to parse row key for partitioned file set '%s': %s",
+                                getName(), Bytes.toStringBinary(row.getRow())));
+        continue;
+      }
+      if (filter != null && !filter.match(key)) {
+        continue;
       }
-      if (count == 0) {
-        warnIfInvalidPartitionFilter(filter, partitioning);
+      byte[] pathBytes = row.get(RELATIVE_PATH);
+      if (pathBytes != null) {
+        consumer.consume(key, Bytes.toString(pathBytes), decodeMetadata ? metadataFromRow(row) : null);
       }
+      count++;
+    }
+    if (count == 0) {
+      warnIfInvalidPartitionFilter(filter, partitioning);
     }
   }
 
+  /**
+   * Opens a {@link Scanner} over the partitions that match the condition of the filter on the given indexed field,
+   * using the index of that field.
+   */
+  private Scanner scanByIndex(PartitionFilter filter, String fieldName) {
+    FieldType fieldType = partitioning.getFieldType(fieldName);
+    PartitionFilter.Condition<? extends Comparable> condition = filter.getCondition(fieldName);
+    byte[] column = PartitionScanPlanner.getIndexColumn(fieldName);
+    if (condition.isSingleValue()) {
+      return partitionsTable.readByIndex(column, FieldTypes.toBytes(condition.getValue(), fieldType));
+    }
+    byte[] startValue = condition.getLower() == null ? null : FieldTypes.toBytes(condition.getLower(), fieldType);
+    byte[] endValue = condition.getUpper() == null ? null : FieldTypes.toBytes(condition.getUpper(), fieldType);
+    return partitionsTable.scanByIndex(column, startValue, endValue);
+  }
+
   private PartitionMetadata metadataFromRow(Row row) {
     Map<String, String> metadata = new HashMap<>();
     for (Map.Entry<byte[], byte[]> entry : row.getColumns().entrySet()) {
@@ -1268,9 +1316,10 @@ public class PartitionedFileSetDataset extends AbstractDataset
       if (condition == null) {
         break; // this field is not present; we can't include any more fields in the stop key
       }
-      Comparable upperValue = condition.getUpper();
+      // the upper bound of an equality condition is its value
+      Comparable upperValue = condition.isSingleValue() ? condition.getValue() : condition.getUpper();
       if (upperValue == null) {
-        break; // this field is not present; we can't include any more fields in the stop key
+        break; // this field has no upper bound; we can't include any more fields in the stop key
       }
       try {
         fieldType.validate(upperValue);
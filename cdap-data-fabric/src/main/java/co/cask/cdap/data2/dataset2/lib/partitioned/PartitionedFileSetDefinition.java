@@ -47,6 +47,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Defines the partitioned dataset type. At this time, the partitions are not managed by the
@@ -85,10 +86,12 @@ public class PartitionedFileSetDefinition
   public DatasetSpecification configure(String instanceName, DatasetProperties properties) {
     Partitioning partitioning = PartitionedFileSetProperties.getPartitioning(properties.getProperties());
     Preconditions.checkNotNull(partitioning, "Properties do not contain partitioning");
+    Set<String> indexedFields = PartitionedFileSetProperties.getIndexedFields(properties.getProperties());
+    validateIndexedFields(partitioning, indexedFields);
     // define the columns for indexing on the partitionsTable
     DatasetProperties indexedTableProperties = DatasetProperties.builder()
       .addAll(properties.getProperties())
-      .add(IndexedTable.INDEX_COLUMNS_CONF_KEY, INDEXED_COLS)
+      .add(IndexedTable.INDEX_COLUMNS_CONF_KEY, getIndexedColumns(indexedFields))
       .build();
     return DatasetSpecification.builder(instanceName, getName())
       .properties(properties.getProperties())
@@ -113,10 +116,18 @@ public class PartitionedFileSetDefinition
         "Partitioning cannot be changed. Existing: %s, new: %s", oldPartitioning, newPartitioning));
     }
 
+    // validate that the indexed fields are not changing, because existing partitions would be missing from an index
+    Set<String> oldIndexedFields = PartitionedFileSetProperties.getIndexedFields(currentSpec.getProperties());
+    Set<String> newIndexedFields = PartitionedFileSetProperties.getIndexedFields(properties.getProperties());
+    if (!oldIndexedFields.equals(newIndexedFields)) {
+      throw new IncompatibleUpdateException(String.format(
+        "Indexed partitioning fields cannot be changed. Existing: %s, new: %s", oldIndexedFields, newIndexedFields));
+    }
+
     // define the columns for indexing on the partitionsTable
     DatasetProperties indexedTableProperties = DatasetProperties.builder()
       .addAll(properties.getProperties())
-      .add(IndexedTable.INDEX_COLUMNS_CONF_KEY, INDEXED_COLS)
+      .add(IndexedTable.INDEX_COLUMNS_CONF_KEY, getIndexedColumns(newIndexedFields))
       .build();
     return DatasetSpecification.builder(instanceName, getName())
       .properties(properties.getProperties())
@@ -157,6 +168,32 @@ public class PartitionedFileSetDefinition
                                          getExploreProvider());
   }
 
+  /**
+   * Validates that the indexed fields are fields of the partitioning, other than the first field. The partitions
+   * are ordered by the first field, hence an index on that field would never be used.
+   */
+  private static void validateIndexedFields(Partitioning partitioning, Set<String> indexedFields) {
+    String firstField = partitioning.getFields().keySet().iterator().next();
+    for (String fieldName : indexedFields) {
+      Preconditions.checkArgument(partitioning.getFields().containsKey(fieldName),
+                                  "Indexed field '%s' is not a field of the partitioning %s", fieldName, partitioning);
+      Preconditions.checkArgument(!firstField.equals(fieldName),
+                                  "Indexed field '%s' is the first field of the partitioning %s and cannot be indexed",
+                                  fieldName, partitioning);
+    }
+  }
+
+  /**
+   * @return the columns of the partitions table to index, for the given indexed partitioning fields.
+   */
+  private static String getIndexedColumns(Set<String> indexedFields) {
+    StringBuilder builder = new StringBuilder(INDEXED_COLS);
+    for (String fieldName : indexedFields) {
+      builder.append(',').append(Bytes.toString(PartitionScanPlanner.getIndexColumn(fieldName)));
+    }
+    return builder.toString();
+  }
+
   // if the arguments do not contain an output location, generate one from the partition key (if present)
   protected static Map<String, String> updateArgumentsIfNeeded(Map<String, String> arguments,
                                                                Partitioning partitioning) {
@@ -39,8 +39,26 @@ public class SimplePartitionConsumer {
    * @param partitionedFileSet the PartitionedFileSet to consume from
    */
   public SimplePartitionConsumer(PartitionedFileSet partitionedFileSet) {
+    this(partitionedFileSet, false);
+  }
+
+  /**
+   * Creates an instance of a SimplePartitionConsumer which begins consuming from the beginning.
+   *
+   * @param partitionedFileSet the PartitionedFileSet to consume from
+   * @param compactState whether to keep the state as a compact cursor. See {@link PartitionConsumerState#isCompact()}.
+   */
+  public SimplePartitionConsumer(PartitionedFileSet partitionedFileSet, boolean compactState) {
     this.partitionedFileSet = partitionedFileSet;
-    this.partitionConsumerState = PartitionConsumerState.FROM_BEGINNING;
+    this.partitionConsumerState = compactState ? PartitionConsumerState.COMPACT_FROM_BEGINNING
+                                               : PartitionConsumerState.FROM_BEGINNING;
+  }
+
+  /**
+   * @return the state of this consumer, to be used by the next call to consume partitions
+   */
+  public PartitionConsumerState getPartitionConsumerState() {
+    return partitionConsumerState;
   }
 
   /**
@@ -0,0 +1,589 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.table;
+
+import co.cask.cdap.api.common.Bytes;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * {@link WriteBuffer} that keeps the changes as cells in a compact binary encoding, appended to large byte array
+ * pages, instead of in a map per row with an {@link Update} object per column. Each cell is encoded as
+ * {@code [op][row length][column length][value length][row][column][value]}, with the lengths as variable-length
+ * integers, and is referenced by a {@code long} pointer of page index and offset.
+ * <p/>
+ * Written cells are collected in a small unsorted tail. When the tail is full, it is sorted into a run of pointers
+ * that is ordered by row and column, with at most one cell per column. Runs of similar size are merged, so that
+ * there are only logarithmically many runs: looking up a row is a binary search in every run plus a scan of the tail.
+ * When merging, the newer cell replaces the older one, except that increments are combined with the older cell.
+ * Replaced cells stay in the arena until they take more space than the live cells, at which point the live cells
+ * are copied to new pages.
+ * <p/>
+ * Iterating over a range of rows first merges all runs into one, and then walks it in a single pass. Runs and written
+ * bytes of the pages are never modified, so that iterators are not affected by later writes.
+ * <p/>
+ * Not thread safe.
+ */
+final class ArenaWriteBuffer implements WriteBuffer {
+
+  private static final byte PUT = 0;
+  private static final byte DELETE = 1;
+  private static final byte INCREMENT = 2;
+
+  // size of the arena pages, larger cells get a page of their own
+  private static final int PAGE_SIZE = 64 * 1024;
+  // number of cells written before they are sorted into a run
+  private static final int TAIL_SIZE = 1024;
+  // the arena is compacted when the replaced cells take more space than this and than the live cells
+  private static final long MIN_GARBAGE_BYTES = 1024 * 1024;
+  // number of bits of the filter of cells that have a value that is not a long
+  private static final int NON_LONG_FILTER_BITS = 1 << 20;
+
+  private static final long[] EMPTY_RUN = new long[0];
+  private static final byte[] EMPTY_BYTES = new byte[0];
+
+  // pages of the arena, of which the first pageCount are in use
+  private byte[][] pages;
+  private int pageCount;
+  // offset of the next cell in the last page
+  private int pageOffset;
+  // number of bytes of all cells in the arena, and of the cells that were replaced
+  private long arenaBytes;
+  private long garbageBytes;
+
+  // pointers of the cells that are not sorted yet, in the order they were written
+  private final long[] tail = new long[TAIL_SIZE];
+  private final long[] sortBuffer = new long[TAIL_SIZE];
+  private int tailSize;
+  // sorted runs of cell pointers, from the oldest to the newest
+  private final List<long[]> runs = new ArrayList<>();
+
+  // cells that may have a buffered value that is not a long. Only increments of those need to be validated.
+  private BitSet nonLongCells;
+
+  // cells for comparisons, reused to avoid creating objects
+  private final Cell left = new Cell();
+  private final Cell right = new Cell();
+
+  @Override
+  public boolean isEmpty() {
+    return tailSize == 0 && runs.isEmpty();
+  }
+
+  @Override
+  public void clear() {
+    // not reusing the pages, as they may still be referenced by iterators
+    pages = null;
+    pageCount = 0;
+    pageOffset = 0;
+    arenaBytes = 0;
+    garbageBytes = 0;
+    tailSize = 0;
+    runs.clear();
+    nonLongCells = null;
+  }
+
+  @Override
+  public void put(byte[] row, byte[][] columns, byte[][] values) {
+    for (int i = 0; i < columns.length; i++) {
+      byte[] column = columns[i];
+      byte[] value = values[i];
+      if (value == null) {
+        add(append(DELETE, row, 0, row.length, column, 0, column.length, EMPTY_BYTES));
+        continue;
+      }
+      add(append(PUT, row, 0, row.length, column, 0, column.length, value));
+      if (value.length != Bytes.SIZEOF_LONG) {
+        if (nonLongCells == null) {
+          nonLongCells = new BitSet(NON_LONG_FILTER_BITS);
+        }
+        nonLongCells.set(getFilterIndex(row, column));
+      }
+    }
+  }
+
+  @Override
+  public void increment(byte[] row, byte[][] columns, long[] amounts) {
+    if (nonLongCells != null) {
+      // validate all increments before buffering any of them
+      NavigableMap<byte[], Update> buffered = null;
+      boolean fetched = false;
+      for (int i = 0; i < columns.length; i++) {
+        if (!nonLongCells.get(getFilterIndex(row, columns[i]))) {
+          continue;
+        }
+        if (!fetched) {
+          buffered = getRow(row);
+          fetched = true;
+        }
+        if (buffered != null) {
+          // throws NumberFormatException if the buffered value is not a long
+          Updates.mergeUpdates(buffered.get(columns[i]), new IncrementValue(amounts[i]));
+        }
+      }
+    }
+    for (int i = 0; i < columns.length; i++) {
+      byte[] column = columns[i];
+      add(append(INCREMENT, row, 0, row.length, column, 0, column.length, Bytes.toBytes(amounts[i])));
+    }
+  }
+
+  @Nullable
+  @Override
+  public NavigableMap<byte[], Update> getRow(byte[] row) {
+    NavigableMap<byte[], Update> result = null;
+    for (long[] run : runs) {
+      for (int i = lowerBound(pages, run, row, left); i < run.length; i++) {
+        if (left.set(pages, run[i]).compareRow(row) != 0) {
+          break;
+        }
+        result = apply(result, left);
+      }
+    }
+    for (int i = 0; i < tailSize; i++) {
+      if (left.set(pages, tail[i]).compareRow(row) == 0) {
+        result = apply(result, left);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public List<NavigableMap<byte[], Update>> getRows(List<byte[]> rows) {
+    // sort the tail once, instead of scanning it for every row
+    flushTail();
+    mergeSimilarRuns();
+    List<NavigableMap<byte[], Update>> result = new ArrayList<>(rows.size());
+    for (byte[] row : rows) {
+      result.add(getRow(row));
+    }
+    return result;
+  }
+
+  @Override
+  public Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> getRows(@Nullable byte[] startRow,
+                                                                           @Nullable final byte[] stopRow) {
+    final long[] run = mergeRuns();
+    final byte[][] snapshot = pages;
+    final Cell cell = new Cell();
+    final int start = startRow == null ? 0 : lowerBound(snapshot, run, startRow, cell);
+
+    return new AbstractIterator<Map.Entry<byte[], NavigableMap<byte[], Update>>>() {
+      private int index = start;
+
+      @Override
+      protected Map.Entry<byte[], NavigableMap<byte[], Update>> computeNext() {
+        if (index >= run.length) {
+          return endOfData();
+        }
+        cell.set(snapshot, run[index]);
+        if (stopRow != null && cell.compareRow(stopRow) >= 0) {
+          return endOfData();
+        }
+        byte[] row = cell.copyRow();
+        NavigableMap<byte[], Update> columns = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        do {
+          columns.put(cell.copyColumn(), cell.toUpdate());
+        } while (++index < run.length && cell.set(snapshot, run[index]).compareRow(row) == 0);
+        return Maps.immutableEntry(row, columns);
+      }
+    };
+  }
+
+  @Override
+  public NavigableMap<byte[], NavigableMap<byte[], Update>> drain() {
+    NavigableMap<byte[], NavigableMap<byte[], Update>> result = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+    Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rows = getRows(null, null);
+    while (rows.hasNext()) {
+      Map.Entry<byte[], NavigableMap<byte[], Update>> row = rows.next();
+      result.put(row.getKey(), row.getValue());
+    }
+    clear();
+    return result;
+  }
+
+  /**
+   * @return number of bytes of the cells in the arena, including the ones that were replaced
+   */
+  @VisibleForTesting
+  long getArenaBytes() {
+    return arenaBytes;
+  }
+
+  /**
+   * Adds a written cell to the tail, and sorts the tail into a run if it is full.
+   */
+  private void add(long pointer) {
+    tail[tailSize++] = pointer;
+    if (tailSize < TAIL_SIZE) {
+      return;
+    }
+    flushTail();
+    mergeSimilarRuns();
+    if (garbageBytes > MIN_GARBAGE_BYTES && garbageBytes > arenaBytes - garbageBytes) {
+      compactArena();
+    }
+  }
+
+  /**
+   * Sorts the cells of the tail into a new run.
+   */
+  private void flushTail() {
+    if (tailSize == 0) {
+      return;
+    }
+    long[] run = Arrays.copyOf(tail, tailSize);
+    tailSize = 0;
+    sort(run, 0, run.length);
+
+    // the sort is stable, so that later writes of the same cell come after earlier ones
+    int size = 0;
+    for (long pointer : run) {
+      if (size > 0 && compare(run[size - 1], pointer) == 0) {
+        run[size - 1] = combine(run[size - 1], pointer);
+      } else {
+        run[size++] = pointer;
+      }
+    }
+    runs.add(size == run.length ? run : Arrays.copyOf(run, size));
+  }
+
+  /**
+   * Merges runs of similar size, so that the sizes of the runs grow geometrically.
+   */
+  private void mergeSimilarRuns() {
+    while (runs.size() > 1 && runs.get(runs.size() - 2).length <= 2 * runs.get(runs.size() - 1).length) {
+      mergeLastRuns();
+    }
+  }
+
+  /**
+   * Merges all cells into a single run.
+   *
+   * @return the single run
+   */
+  private long[] mergeRuns() {
+    flushTail();
+    while (runs.size() > 1) {
+      mergeLastRuns();
+    }
+    return runs.isEmpty() ? EMPTY_RUN : runs.get(0);
+  }
+
+  private void mergeLastRuns() {
+    long[] newer = runs.remove(runs.size() - 1);
+    long[] older = runs.remove(runs.size() - 1);
+
+    long[] result = new long[older.length + newer.length];
+    int i = 0;
+    int j = 0;
+    int size = 0;
+    while (i < older.length && j < newer.length) {
+      int cmp = compare(older[i], newer[j]);
+      if (cmp < 0) {
+        result[size++] = older[i++];
+      } else if (cmp > 0) {
+        result[size++] = newer[j++];
+      } else {
+        result[size++] = combine(older[i++], newer[j++]);
+      }
+    }
+    while (i < older.length) {
+      result[size++] = older[i++];
+    }
+    while (j < newer.length) {
+      result[size++] = newer[j++];
+    }
+    runs.add(size == result.length ? result : Arrays.copyOf(result, size));
+  }
+
+  /**
+   * Copies the live cells to new pages.
+   */
+  private void compactArena() {
+    long[] run = mergeRuns();
+    byte[][] oldPages = pages;
+    pages = null;
+    pageCount = 0;
+    pageOffset = 0;
+    arenaBytes = 0;
+    garbageBytes = 0;
+
+    long[] compacted = new long[run.length];
+    for (int i = 0; i < run.length; i++) {
+      Cell cell = left.set(oldPages, run[i]);
+      compacted[i] = append(cell.op, cell.page, cell.rowOffset, cell.rowLength,
+                            cell.page, cell.columnOffset, cell.columnLength,
+                            cell.page, cell.valueOffset, cell.valueLength);
+    }
+    runs.clear();
+    runs.add(compacted);
+  }
+
+  /**
+   * Combines two cells of the same row and column.
+   *
+   * @return pointer to the cell that replaces both
+   */
+  private long combine(long older, long newer) {
+    Cell base = left.set(pages, older);
+    Cell modifier = right.set(pages, newer);
+    garbageBytes += base.length;
+    if (modifier.op != INCREMENT) {
+      return newer;
+    }
+    garbageBytes += modifier.length;
+
+    // same as Updates.mergeUpdates()
+    long amount = modifier.getLong();
+    byte op = base.op == INCREMENT ? INCREMENT : PUT;
+    long value = base.op == DELETE ? amount : base.getLong() + amount;
+    return append(op, base.page, base.rowOffset, base.rowLength, base.page, base.columnOffset, base.columnLength,
+                  Bytes.toBytes(value));
+  }
+
+  private long append(byte op, byte[] row, int rowOffset, int rowLength,
+                      byte[] column, int columnOffset, int columnLength, byte[] value) {
+    return append(op, row, rowOffset, rowLength, column, columnOffset, columnLength, value, 0, value.length);
+  }
+
+  /**
+   * Appends a cell to the arena.
+   *
+   * @return pointer to the cell
+   */
+  private long append(byte op, byte[] row, int rowOffset, int rowLength,
+                      byte[] column, int columnOffset, int columnLength,
+                      byte[] value, int valueOffset, int valueLength) {
+    int size = 1 + getVIntSize(rowLength) + getVIntSize(columnLength) + getVIntSize(valueLength)
+      + rowLength + columnLength + valueLength;
+    if (pageCount == 0 || pageOffset + size > pages[pageCount - 1].length) {
+      addPage(Math.max(PAGE_SIZE, size));
+    }
+    byte[] page = pages[pageCount - 1];
+    long pointer = ((long) (pageCount - 1) << 32) | pageOffset;
+
+    int pos = pageOffset;
+    page[pos++] = op;
+    pos = writeVInt(page, pos, rowLength);
+    pos = writeVInt(page, pos, columnLength);
+    pos = writeVInt(page, pos, valueLength);
+    System.arraycopy(row, rowOffset, page, pos, rowLength);
+    pos += rowLength;
+    System.arraycopy(column, columnOffset, page, pos, columnLength);
+    pos += columnLength;
+    System.arraycopy(value, valueOffset, page, pos, valueLength);
+    pageOffset = pos + valueLength;
+
+    arenaBytes += size;
+    return pointer;
+  }
+
+  private void addPage(int size) {
+    if (pages == null) {
+      pages = new byte[16][];
+    } else if (pageCount == pages.length) {
+      // copy on growth, the old array is still used by iterators
+      pages = Arrays.copyOf(pages, pageCount * 2);
+    }
+    pages[pageCount++] = new byte[size];
+    pageOffset = 0;
+  }
+
+  private int compare(long pointer1, long pointer2) {
+    return left.set(pages, pointer1).compareTo(right.set(pages, pointer2));
+  }
+
+  /**
+   * Stable merge sort of pointers by row and column.
+   */
+  private void sort(long[] run, int from, int to) {
+    if (to - from <= 16) {
+      // insertion sort
+      for (int i = from + 1; i < to; i++) {
+        long pointer = run[i];
+        int j = i - 1;
+        while (j >= from && compare(run[j], pointer) > 0) {
+          run[j + 1] = run[j];
+          j--;
+        }
+        run[j + 1] = pointer;
+      }
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    sort(run, from, mid);
+    sort(run, mid, to);
+    if (compare(run[mid - 1], run[mid]) <= 0) {
+      return;
+    }
+    System.arraycopy(run, from, sortBuffer, from, to - from);
+    int i = from;
+    int j = mid;
+    int k = from;
+    while (i < mid && j < to) {
+      run[k++] = compare(sortBuffer[j], sortBuffer[i]) < 0 ? sortBuffer[j++] : sortBuffer[i++];
+    }
+    while (i < mid) {
+      run[k++] = sortBuffer[i++];
+    }
+    while (j < to) {
+      run[k++] = sortBuffer[j++];
+    }
+  }
+
+  /**
+   * @return index of the first cell in the run whose row is not less than the given row
+   */
+  private static int lowerBound(byte[][] pages, long[] run, byte[] row, Cell cell) {
+    int low = 0;
+    int high = run.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (cell.set(pages, run[mid]).compareRow(row) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static NavigableMap<byte[], Update> apply(@Nullable NavigableMap<byte[], Update> columns, Cell cell) {
+    if (columns == null) {
+      columns = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+    }
+    byte[] column = cell.copyColumn();
+    columns.put(column, Updates.mergeUpdates(columns.get(column), cell.toUpdate()));
+    return columns;
+  }
+
+  private static int getFilterIndex(byte[] row, byte[] column) {
+    return (31 * Bytes.hashCode(row) + Bytes.hashCode(column)) & (NON_LONG_FILTER_BITS - 1);
+  }
+
+  private static int getVIntSize(int value) {
+    int size = 1;
+    while ((value >>>= 7) != 0) {
+      size++;
+    }
+    return size;
+  }
+
+  private static int writeVInt(byte[] bytes, int pos, int value) {
+    while ((value & ~0x7F) != 0) {
+      bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes[pos++] = (byte) value;
+    return pos;
+  }
+
+  /**
+   * Decoded view of a cell in the arena.
+   */
+  private static final class Cell {
+    private byte[] page;
+    private int length;
+    private byte op;
+    private int rowOffset;
+    private int rowLength;
+    private int columnOffset;
+    private int columnLength;
+    private int valueOffset;
+    private int valueLength;
+    private int pos;
+
+    Cell set(byte[][] pages, long pointer) {
+      page = pages[(int) (pointer >>> 32)];
+      int offset = (int) pointer;
+      pos = offset;
+      op = page[pos++];
+      rowLength = readVInt();
+      columnLength = readVInt();
+      valueLength = readVInt();
+      rowOffset = pos;
+      columnOffset = rowOffset + rowLength;
+      valueOffset = columnOffset + columnLength;
+      length = valueOffset + valueLength - offset;
+      return this;
+    }
+
+    int compareRow(byte[] row) {
+      return Bytes.compareTo(page, rowOffset, rowLength, row, 0, row.length);
+    }
+
+    int compareTo(Cell other) {
+      int cmp = Bytes.compareTo(page, rowOffset, rowLength, other.page, other.rowOffset, other.rowLength);
+      if (cmp != 0) {
+        return cmp;
+      }
+      return Bytes.compareTo(page, columnOffset, columnLength, other.page, other.columnOffset, other.columnLength);
+    }
+
+    byte[] copyRow() {
+      return Arrays.copyOfRange(page, rowOffset, rowOffset + rowLength);
+    }
+
+    byte[] copyColumn() {
+      return Arrays.copyOfRange(page, columnOffset, columnOffset + columnLength);
+    }
+
+    long getLong() {
+      if (valueLength != Bytes.SIZEOF_LONG) {
+        throw new NumberFormatException("Attempted to increment a value that is not convertible to long");
+      }
+      return Bytes.toLong(page, valueOffset);
+    }
+
+    Update toUpdate() {
+      switch (op) {
+        case PUT:
+          return new PutValue(Arrays.copyOfRange(page, valueOffset, valueOffset + valueLength));
+        case DELETE:
+          return new PutValue(null);
+        case INCREMENT:
+          return new IncrementValue(getLong());
+        default:
+          // should never happen: developer error
+          throw new IllegalStateException("Unknown cell operation: " + op);
+      }
+    }
+
+    private int readVInt() {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = page[pos++];
+        value |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+  }
+}
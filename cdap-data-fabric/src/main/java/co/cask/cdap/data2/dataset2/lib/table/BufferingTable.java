@@ -36,7 +36,9 @@ import co.cask.cdap.api.metrics.MetricsCollector;
 import co.cask.cdap.common.conf.Constants;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.apache.tephra.Transaction;
@@ -53,7 +55,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import javax.annotation.Nullable;
 
 /**
@@ -74,7 +75,8 @@ import javax.annotation.Nullable;
  *       Given the snapshot isolation tx model, this can be improved in future implementations.
  * <p>
  * NOTE: current implementation persists changes only at the end of transaction. Beware of OOME. There should be better
- *       implementation for MapReduce case (YMMV though, for counters/aggregations this implementation looks sweet)
+ *       implementation for MapReduce case (YMMV though, for counters/aggregations this implementation looks sweet).
+ *       Setting {@link TableProperties#PROPERTY_COMPACT_WRITE_BUFFER} reduces the memory the changes take.
  * <p>
  * NOTE: Using {@link #get(byte[], byte[], byte[], int)} is generally always not efficient since it always hits the
  *       persisted store even if all needed data is in-memory buffer. See more info at method javadoc
@@ -86,6 +88,9 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
 
   protected static final byte[] DELETE_MARKER = new byte[0];
 
+  // undo only needs the rows and columns of the persisted changes, so values of flushed changes are not kept
+  private static final Update FLUSHED = new PutValue(null);
+
   // name of the table
   private final String name;
   // conflict detection level
@@ -94,14 +99,20 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   private final byte[] nameAsTxChangePrefix;
   // Whether read-less increments should be used when increment() is called
   private final boolean enableReadlessIncrements;
+  // Size in bytes of the in-memory buffer at which it is persisted before the transaction commits, 0 to disable
+  private final long flushSize;
 
   // In-memory buffer that keeps not yet persisted data. It is row->(column->value) map. Value can be null which means
   // that the corresponded column was removed.
-  private NavigableMap<byte[], NavigableMap<byte[], Update>> buff;
+  private WriteBuffer buff;
 
-  // Keeps track of what was persisted so far
+  // Keeps track of what was persisted so far. For changes flushed before the commit, only the row and column keys
+  // are kept here, so that the values don't have to be kept in memory until the transaction ends
   private NavigableMap<byte[], NavigableMap<byte[], Update>> toUndo;
 
+  // Approximate size in bytes of the changes in the in-memory buffer
+  private long bufferSize;
+
   // Report data ops metrics to
   private MetricsCollector metricsCollector;
 
@@ -145,12 +156,22 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     this.name = name;
     this.conflictLevel = TableProperties.getConflictDetection(properties, ConflictDetection.ROW);
     this.enableReadlessIncrements = enableReadlessIncrements;
+    long flushSize = TableProperties.getWriteBufferFlushSize(properties);
+    // Changes persisted before commit are not part of the transaction change set, and read-less increments of the
+    // same column persisted with the same version would overwrite each other
+    if (flushSize > 0 && (conflictLevel != ConflictDetection.NONE || enableReadlessIncrements)) {
+      LOG.warn("Ignoring {} of table {}: it is only supported with conflict detection level {} " +
+                 "and without read-less increments", TableProperties.PROPERTY_WRITE_BUFFER_FLUSH_SIZE, name,
+               ConflictDetection.NONE);
+      flushSize = 0;
+    }
+    this.flushSize = flushSize;
     // TODO: having central dataset management service will allow us to use table ids instead of names, which will
     //       reduce changeset size transferred to/from server
     // we want it to be of format length+value to avoid conflicts like table="ab", row="cd" vs table="abc", row="d"
     // Default uses the above scheme. Subclasses can change it by overriding the #getNameAsTxChangePrefix method
     this.nameAsTxChangePrefix = Bytes.add(new byte[]{(byte) name.length()}, Bytes.toBytes(name));
-    this.buff = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+    this.buff = TableProperties.getCompactWriteBuffer(properties) ? new ArenaWriteBuffer() : new MapWriteBuffer();
   }
 
   /**
@@ -273,6 +294,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     }
     // starting with fresh buffer when tx starts
     buff.clear();
+    bufferSize = 0;
     toUndo = null;
     this.tx = tx;
   }
@@ -308,17 +330,20 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
 
   private Collection<byte[]> getRowChanges() {
     // we resolve conflicts on row level of individual table
-    List<byte[]> changes = new ArrayList<>(buff.size());
-    for (byte[] changedRow : buff.keySet()) {
-      changes.add(Bytes.add(getNameAsTxChangePrefix(), changedRow));
+    List<byte[]> changes = new ArrayList<>();
+    Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rows = buff.getRows(null, null);
+    while (rows.hasNext()) {
+      changes.add(Bytes.add(getNameAsTxChangePrefix(), rows.next().getKey()));
     }
     return changes;
   }
 
   private Collection<byte[]> getColumnChanges() {
     // we resolve conflicts on row level of individual table
-    List<byte[]> changes = new ArrayList<>(buff.size());
-    for (Map.Entry<byte[], NavigableMap<byte[], Update>> rowChange : buff.entrySet()) {
+    List<byte[]> changes = new ArrayList<>();
+    Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rows = buff.getRows(null, null);
+    while (rows.hasNext()) {
+      Map.Entry<byte[], NavigableMap<byte[], Update>> rowChange = rows.next();
       if (rowChange.getValue() == null) {
         // NOTE: as of now we cannot detect conflict between delete whole row and row's column value change.
         //       this is not a big problem as of now, as row deletion is now act as deletion of every column, but this
@@ -341,14 +366,28 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     if (!buff.isEmpty()) {
       // We first assume that all data will be persisted. So that if exception happen during persist we try to
       // rollback everything we had in in-memory buffer.
-      toUndo = buff;
-      // clearing up in-memory buffer by initializing new map.
-      // NOTE: we want to init map here so that if no changes are made we re-use same instance of the map in next tx
-      // NOTE: we could cache two maps and swap them to avoid creation of map instances, but code would be ugly
-      buff = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+      // Draining also clears up the in-memory buffer.
+      NavigableMap<byte[], NavigableMap<byte[], Update>> changes = buff.drain();
+      bufferSize = 0;
+      if (flushSize > 0 && metricsCollector != null) {
+        metricsCollector.gauge(Constants.Metrics.Name.Dataset.BUFFER_SIZE, bufferSize);
+      }
+      if (toUndo == null) {
+        toUndo = changes;
+      } else {
+        // merging with the keys flushed before, without modifying the changes to persist
+        for (Map.Entry<byte[], NavigableMap<byte[], Update>> row : changes.entrySet()) {
+          NavigableMap<byte[], Update> columns = toUndo.get(row.getKey());
+          if (columns == null) {
+            toUndo.put(row.getKey(), row.getValue());
+          } else {
+            columns.putAll(row.getValue());
+          }
+        }
+      }
       // TODO: tracking of persisted items can be optimized by returning a pair {succeededOrNot, persisted} which
       //       tells if persisting succeeded and what was persisted (i.e. what we will have to undo in case of rollback)
-      persist(toUndo);
+      persist(changes);
     }
     return true;
   }
@@ -357,6 +396,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   public void postTxCommit() {
     // don't need buffer anymore: tx has been committed
     buff.clear();
+    bufferSize = 0;
     toUndo = null;
     tx = null;
   }
@@ -364,6 +404,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   @Override
   public boolean rollbackTx() throws Exception {
     buff.clear();
+    bufferSize = 0;
     if (toUndo != null) {
       undo(toUndo);
       toUndo = null;
@@ -415,7 +456,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     ensureTransactionIsStarted();
     reportRead(1);
     // checking if the row was deleted inside this tx
-    NavigableMap<byte[], Update> buffCols = buff.get(row);
+    NavigableMap<byte[], Update> buffCols = buff.getRow(row);
 
     // NOTE: since we cannot tell the exact column set, we always have to go to persisted store.
     //       potential improvement: do not fetch columns available in in-mem buffer (we know them at this point)
@@ -453,6 +494,8 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
       Preconditions.checkArgument(gets.size() == persistedRows.size(),
         "Invalid number of rows fetched when performing multi-get. There must be one row for each get.");
 
+      // look up the buffered changes of all rows at once, unless nothing is buffered
+      Iterator<NavigableMap<byte[], Update>> buffRowsIter = buff.isEmpty() ? null : getBufferRows(gets).iterator();
       List<Row> result = Lists.newArrayListWithCapacity(persistedRows.size());
 
       Iterator<Map<byte[], byte[]>> persistedRowsIter = persistedRows.iterator();
@@ -460,15 +503,20 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
       while (persistedRowsIter.hasNext() && getIter.hasNext()) {
         Get get = getIter.next();
         Map<byte[], byte[]> persistedRow = persistedRowsIter.next();
-
-        // navigable copy of the persisted data. Implementation may return immutable or unmodifiable maps,
-        // so we make a copy here.
-        NavigableMap<byte[], byte[]> rowColumns = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-        rowColumns.putAll(persistedRow);
+        NavigableMap<byte[], Update> buffCols = buffRowsIter == null ? null : buffRowsIter.next();
+
+        NavigableMap<byte[], byte[]> rowColumns;
+        if (buffCols == null && persistedRow instanceof NavigableMap) {
+          // nothing to merge, and unwrapDeletes() makes a copy anyway
+          rowColumns = (NavigableMap<byte[], byte[]>) persistedRow;
+        } else {
+          // navigable copy of the persisted data. Implementation may return immutable or unmodifiable maps,
+          // so we make a copy here.
+          rowColumns = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+          rowColumns.putAll(persistedRow);
+        }
 
         byte[] row = get.getRow();
-        NavigableMap<byte[], Update> buffCols = buff.get(row);
-
         // merge what was in the buffer and what was persisted
         if (buffCols != null) {
           List<byte[]> getColumns = get.getColumns();
@@ -485,6 +533,14 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     }
   }
 
+  private List<NavigableMap<byte[], Update>> getBufferRows(List<Get> gets) {
+    List<byte[]> rows = Lists.newArrayListWithCapacity(gets.size());
+    for (Get get : gets) {
+      rows.add(get.getRow());
+    }
+    return buff.getRows(rows);
+  }
+
   /**
    * NOTE: if value is null corresponded column is deleted. It will not be in result set when reading.
    *
@@ -500,23 +556,57 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   }
 
   private void putInternal(byte[] row, byte[][] columns, byte[][] values) {
-    NavigableMap<byte[], Update> colVals = buff.get(row);
-    boolean newRow = false;
-    if (colVals == null) {
-      colVals = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-      newRow = true;
-    }
     for (int i = 0; i < columns.length; i++) {
-      // NOTE: we copy passed column's and value's byte arrays to protect buffer against possible changes of these
-      // arrays on client
       if (values[i] != null && values[i].length == 0) {
         warnAboutEmptyValue(columns[i]);
       }
-      colVals.put(copy(columns[i]), new PutValue(copy(values[i])));
     }
-    if (newRow) {
-      // NOTE: we copy passed row's byte arrays to protect buffer against possible changes of this array on client
-      buff.put(copy(row), colVals);
+    buff.put(row, columns, values);
+
+    if (flushSize > 0) {
+      bufferSize += getSize(row) + getSize(columns) + getSize(values);
+      if (bufferSize >= flushSize) {
+        flush();
+      }
+    }
+  }
+
+  /**
+   * Persists the in-memory buffer before the transaction commits. The row and column keys of the persisted changes
+   * are remembered, so that they are undone if the transaction is rolled back.
+   */
+  private void flush() {
+    NavigableMap<byte[], NavigableMap<byte[], Update>> changes = buff.drain();
+    long flushedBytes = bufferSize;
+    bufferSize = 0;
+    // remembering the changes before persisting them, so that partially persisted changes are undone, too
+    addKeysToUndo(changes);
+    try {
+      persist(changes);
+    } catch (Exception e) {
+      LOG.debug("flush failed for table: " + getTransactionAwareName(), e);
+      throw new DataSetException("flush failed", e);
+    }
+    if (metricsCollector != null) {
+      metricsCollector.increment(Constants.Metrics.Name.Dataset.BUFFER_FLUSH_COUNT, 1);
+      metricsCollector.increment(Constants.Metrics.Name.Dataset.BUFFER_FLUSH_BYTES, flushedBytes);
+      metricsCollector.gauge(Constants.Metrics.Name.Dataset.BUFFER_SIZE, bufferSize);
+    }
+  }
+
+  private void addKeysToUndo(NavigableMap<byte[], NavigableMap<byte[], Update>> persisted) {
+    if (toUndo == null) {
+      toUndo = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    }
+    for (Map.Entry<byte[], NavigableMap<byte[], Update>> row : persisted.entrySet()) {
+      NavigableMap<byte[], Update> columns = toUndo.get(row.getKey());
+      if (columns == null) {
+        columns = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        toUndo.put(row.getKey(), columns);
+      }
+      for (byte[] column : row.getValue().keySet()) {
+        columns.put(column, FLUSHED);
+      }
     }
   }
 
@@ -620,14 +710,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   public void increment(byte[] row, byte[][] columns, long[] amounts) {
     ensureTransactionIsStarted();
     if (enableReadlessIncrements) {
-      NavigableMap<byte[], Update> colVals = buff.get(row);
-      if (colVals == null) {
-        colVals = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-        buff.put(row, colVals);
-      }
-      for (int i = 0; i < columns.length; i++) {
-        colVals.put(columns[i], Updates.mergeUpdates(colVals.get(columns[i]), new IncrementValue(amounts[i])));
-      }
+      buff.increment(row, columns, amounts);
       reportWrite(1, getSize(row) + getSize(columns) + getSize(amounts));
     } else {
       internalIncrementAndGet(row, columns, amounts);
@@ -674,7 +757,13 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   @Override
   public List<Split> getSplits(int numSplits, byte[] start, byte[] stop) {
     ensureTransactionIsStarted();
-    List<KeyRange> keyRanges = SplitsUtil.primitiveGetSplits(numSplits, start, stop);
+    return toSplits(SplitsUtil.primitiveGetSplits(numSplits, start, stop));
+  }
+
+  /**
+   * Converts key ranges to {@link TableSplit}s.
+   */
+  protected static List<Split> toSplits(List<KeyRange> keyRanges) {
     return Lists.transform(keyRanges, new Function<KeyRange, Split>() {
       @Nullable
       @Override
@@ -695,9 +784,9 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   @Override
   public Scanner scan(Scan scan) {
     ensureTransactionIsStarted();
-    NavigableMap<byte[], NavigableMap<byte[], Update>> bufferMap = scanBuffer(scan);
+    Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> bufferRows = scanBuffer(scan);
     try {
-      return new BufferingScanner(bufferMap, scanPersisted(scan));
+      return new BufferingScanner(bufferRows, scanPersisted(scan));
     } catch (Exception e) {
       LOG.debug("scan failed for table: " + getTransactionAwareName() +
           ", scan: " + scan.toString(), e);
@@ -705,39 +794,28 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     }
   }
 
-  private NavigableMap<byte[], NavigableMap<byte[], Update>> scanBuffer(Scan scan) {
-    NavigableMap<byte[], NavigableMap<byte[], Update>> bufferMap;
-    byte[] startRow = scan.getStartRow();
-    byte[] stopRow = scan.getStopRow();
-    if (startRow == null && stopRow == null) {
-      bufferMap = buff;
-    } else if (startRow == null) {
-      bufferMap = buff.headMap(stopRow, false);
-    } else if (stopRow == null) {
-      bufferMap = buff.tailMap(startRow, true);
-    } else {
-      bufferMap = buff.subMap(startRow, true, stopRow, false);
-    }
-    bufferMap = applyFilter(bufferMap, scan.getFilter());
-    return bufferMap;
+  private Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> scanBuffer(Scan scan) {
+    Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> bufferRows =
+      buff.getRows(scan.getStartRow(), scan.getStopRow());
+    return applyFilter(bufferRows, scan.getFilter());
   }
 
-  private NavigableMap<byte[], NavigableMap<byte[], Update>> applyFilter(
-                                                        NavigableMap<byte[], NavigableMap<byte[], Update>> bufferMap,
-                                                        @Nullable Filter filter) {
+  private Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> applyFilter(
+                                                Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> bufferRows,
+                                                @Nullable Filter filter) {
     if (filter == null) {
-      return bufferMap;
+      return bufferRows;
     }
 
     // todo: currently we support only FuzzyRowFilter as an experimental feature
     if (filter instanceof FuzzyRowFilter) {
-      NavigableMap<byte[], NavigableMap<byte[], Update>> result = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-      for (Map.Entry<byte[], NavigableMap<byte[], Update>> entry : bufferMap.entrySet()) {
-        if (FuzzyRowFilter.ReturnCode.INCLUDE == ((FuzzyRowFilter) filter).filterRow(entry.getKey())) {
-          result.put(entry.getKey(), entry.getValue());
+      final FuzzyRowFilter rowFilter = (FuzzyRowFilter) filter;
+      return Iterators.filter(bufferRows, new Predicate<Map.Entry<byte[], NavigableMap<byte[], Update>>>() {
+        @Override
+        public boolean apply(Map.Entry<byte[], NavigableMap<byte[], Update>> entry) {
+          return FuzzyRowFilter.ReturnCode.INCLUDE == rowFilter.filterRow(entry.getKey());
         }
-      }
-      return result;
+      });
     } else {
       throw new DataSetException("Unknown filter type: " + filter);
     }
@@ -746,12 +824,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   private Map<byte[], byte[]> getRowMap(byte[] row) throws Exception {
     NavigableMap<byte[], byte[]> result = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
     // checking if the row was deleted inside this tx
-    NavigableMap<byte[], Update> buffCols = buff.get(row);
-    boolean rowDeleted = buffCols == null && buff.containsKey(row);
-    if (rowDeleted) {
-      return Collections.emptyMap();
-    }
-
+    NavigableMap<byte[], Update> buffCols = buff.getRow(row);
     Map<byte[], byte[]> persisted = getPersisted(row, null);
 
 
@@ -767,7 +840,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   private Map<byte[], byte[]> getRowMap(byte[] row, byte[][] columns) throws Exception {
     NavigableMap<byte[], byte[]> result = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
     // checking if the row was deleted inside this tx
-    NavigableMap<byte[], Update> buffCols = buff.get(row);
+    NavigableMap<byte[], Update> buffCols = buff.getRow(row);
 
     // if nothing locally, return all from server
     if (buffCols == null) {
@@ -962,11 +1035,11 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   // they get annotated
 
   @ReadOnly
-  private Iterator<byte[]> getBufferKeyIterator(NavigableMap<byte[], NavigableMap<byte[], Update>> buffer) {
-    final Iterator<byte[]> iterator = buffer.keySet().iterator();
-    return new AbstractIterator<byte[]>() {
+  private Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> getBufferRowIterator(
+    final Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> iterator) {
+    return new AbstractIterator<Map.Entry<byte[], NavigableMap<byte[], Update>>>() {
       @Override
-      protected byte[] computeNext() {
+      protected Map.Entry<byte[], NavigableMap<byte[], Update>> computeNext() {
         return BufferingTable.this.hasNext(iterator) ? BufferingTable.this.next(iterator) : endOfData();
       }
     };
@@ -982,28 +1055,20 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     return iterator.next();
   }
 
-  @ReadOnly
-  private NavigableMap<byte[], Update> getFromBuffer(NavigableMap<byte[], NavigableMap<byte[], Update>> buffer,
-                                                     byte[] key) {
-    return buffer.get(key);
-  }
-
   /**
    * Scanner implementation that overlays buffered data on top of already persisted data.
    */
   private class BufferingScanner implements Scanner {
-    private final NavigableMap<byte[], NavigableMap<byte[], Update>> buffer;
     private final Scanner persistedScanner;
-    private final Iterator<byte[]> keyIter;
+    private final Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> bufferIter;
     private byte[] currentKey;
+    private NavigableMap<byte[], Update> currentColumns;
     private Row currentRow;
 
-    private BufferingScanner(NavigableMap<byte[], NavigableMap<byte[], Update>> buffer, Scanner persistedScanner) {
-      this.buffer = buffer;
-      this.keyIter = getBufferKeyIterator(buffer);
-      if (this.keyIter.hasNext()) {
-        currentKey = keyIter.next();
-      }
+    private BufferingScanner(Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> bufferRows,
+                             Scanner persistedScanner) {
+      this.bufferIter = getBufferRowIterator(bufferRows);
+      nextBufferRow();
       this.persistedScanner = persistedScanner;
       this.currentRow = this.persistedScanner.next();
     }
@@ -1035,22 +1100,33 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
       } else if (order < 0) {
         // buffer row comes first or persisted scanner is empty
         Map<byte[], byte[]> persistedRow = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-        mergeToPersisted(persistedRow, getFromBuffer(buffer, currentKey), null);
+        mergeToPersisted(persistedRow, currentColumns, null);
         result = new Result(copy(currentKey), persistedRow);
 
-        currentKey = keyIter.hasNext() ? keyIter.next() : null;
+        nextBufferRow();
       } else {
         // if currentKey and currentRow are equal, merge and advance both
         Map<byte[], byte[]> persisted = currentRow.getColumns();
-        mergeToPersisted(persisted, getFromBuffer(buffer, currentKey), null);
+        mergeToPersisted(persisted, currentColumns, null);
         result = new Result(currentRow.getRow(), persisted);
 
         currentRow = persistedScanner.next();
-        currentKey = keyIter.hasNext() ? keyIter.next() : null;
+        nextBufferRow();
       }
       return result;
     }
 
+    private void nextBufferRow() {
+      if (bufferIter.hasNext()) {
+        Map.Entry<byte[], NavigableMap<byte[], Update>> entry = bufferIter.next();
+        currentKey = entry.getKey();
+        currentColumns = entry.getValue();
+      } else {
+        currentKey = null;
+        currentColumns = null;
+      }
+    }
+
     @Override
     public void close() {
       this.persistedScanner.close();
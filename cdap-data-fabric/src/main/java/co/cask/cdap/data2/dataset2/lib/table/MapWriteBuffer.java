@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.table;
+
+import co.cask.cdap.api.common.Bytes;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import javax.annotation.Nullable;
+
+/**
+ * {@link WriteBuffer} that keeps the changes in a sorted map of row->(column->update).
+ */
+final class MapWriteBuffer implements WriteBuffer {
+
+  private NavigableMap<byte[], NavigableMap<byte[], Update>> buff = newBuffer();
+
+  @Override
+  public boolean isEmpty() {
+    return buff.isEmpty();
+  }
+
+  @Override
+  public void clear() {
+    buff.clear();
+  }
+
+  @Override
+  public void put(byte[] row, byte[][] columns, byte[][] values) {
+    NavigableMap<byte[], Update> colVals = buff.get(row);
+    boolean newRow = false;
+    if (colVals == null) {
+      colVals = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+      newRow = true;
+    }
+    for (int i = 0; i < columns.length; i++) {
+      // NOTE: we copy passed column's and value's byte arrays to protect buffer against possible changes of these
+      // arrays on client
+      colVals.put(copy(columns[i]), new PutValue(copy(values[i])));
+    }
+    if (newRow) {
+      // NOTE: we copy passed row's byte arrays to protect buffer against possible changes of this array on client
+      buff.put(copy(row), colVals);
+    }
+  }
+
+  @Override
+  public void increment(byte[] row, byte[][] columns, long[] amounts) {
+    NavigableMap<byte[], Update> colVals = buff.get(row);
+    if (colVals == null) {
+      colVals = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+      buff.put(row, colVals);
+    }
+    for (int i = 0; i < columns.length; i++) {
+      colVals.put(columns[i], Updates.mergeUpdates(colVals.get(columns[i]), new IncrementValue(amounts[i])));
+    }
+  }
+
+  @Nullable
+  @Override
+  public NavigableMap<byte[], Update> getRow(byte[] row) {
+    return buff.get(row);
+  }
+
+  @Override
+  public List<NavigableMap<byte[], Update>> getRows(List<byte[]> rows) {
+    List<NavigableMap<byte[], Update>> result = new ArrayList<>(rows.size());
+    for (byte[] row : rows) {
+      result.add(buff.get(row));
+    }
+    return result;
+  }
+
+  @Override
+  public Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> getRows(@Nullable byte[] startRow,
+                                                                           @Nullable byte[] stopRow) {
+    NavigableMap<byte[], NavigableMap<byte[], Update>> rows;
+    if (startRow == null && stopRow == null) {
+      rows = buff;
+    } else if (startRow == null) {
+      rows = buff.headMap(stopRow, false);
+    } else if (stopRow == null) {
+      rows = buff.tailMap(startRow, true);
+    } else {
+      rows = buff.subMap(startRow, true, stopRow, false);
+    }
+    return rows.entrySet().iterator();
+  }
+
+  @Override
+  public NavigableMap<byte[], NavigableMap<byte[], Update>> drain() {
+    NavigableMap<byte[], NavigableMap<byte[], Update>> result = buff;
+    // NOTE: we could cache two maps and swap them to avoid creation of map instances, but code would be ugly
+    buff = newBuffer();
+    return result;
+  }
+
+  private static NavigableMap<byte[], NavigableMap<byte[], Update>> newBuffer() {
+    return new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+  }
+
+  private static byte[] copy(byte[] bytes) {
+    return bytes == null ? null : Arrays.copyOf(bytes, bytes.length);
+  }
+}
@@ -38,7 +38,7 @@ public class SplitsUtil {
    * we cannot read this number from configuration, because the current OVCTable(Handle) does not pass configuration
    * down into the tables anywhere. See ENG-2395 for the fix.
    */
-  static final int DEFAULT_NUMBER_OF_SPLITS = 8;
+  public static final int DEFAULT_NUMBER_OF_SPLITS = 8;
 
   /**
    * Simplest possible implementation of getSplits. Takes the given start and end and divides the key space in
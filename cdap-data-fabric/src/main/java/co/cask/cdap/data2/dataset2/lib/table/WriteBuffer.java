@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.table;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import javax.annotation.Nullable;
+
+/**
+ * In-memory buffer of the changes that a {@link BufferingTable} made in the current transaction. Changes are kept as
+ * row->(column->update), where an update is either a {@link PutValue} or an {@link IncrementValue}. A
+ * {@link PutValue} with {@code null} value means that the column was deleted.
+ */
+interface WriteBuffer {
+
+  /**
+   * @return {@code true} if there are no buffered changes
+   */
+  boolean isEmpty();
+
+  /**
+   * Removes all buffered changes.
+   */
+  void clear();
+
+  /**
+   * Buffers the given values. A {@code null} value deletes the column. The buffer copies the given arrays.
+   */
+  void put(byte[] row, byte[][] columns, byte[][] values);
+
+  /**
+   * Buffers read-less increments of the given columns.
+   *
+   * @throws NumberFormatException if a buffered value of one of the columns is not a long
+   */
+  void increment(byte[] row, byte[][] columns, long[] amounts);
+
+  /**
+   * @return the buffered changes of a row as column->update, or {@code null} if the row has no buffered changes
+   */
+  @Nullable
+  NavigableMap<byte[], Update> getRow(byte[] row);
+
+  /**
+   * Returns the buffered changes of a batch of rows. This is more efficient than calling {@link #getRow(byte[])}
+   * for each of the rows.
+   *
+   * @return list with the buffered changes of each of the given rows, as column->update, or {@code null} for the
+   *         rows that have no buffered changes
+   */
+  List<NavigableMap<byte[], Update>> getRows(List<byte[]> rows);
+
+  /**
+   * Returns the buffered changes of a range of rows, sorted by row key.
+   *
+   * @param startRow first row of the range, inclusive, or {@code null} to start at the first row
+   * @param stopRow last row of the range, exclusive, or {@code null} to stop after the last row
+   * @return iterator of row->(column->update)
+   */
+  Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> getRows(@Nullable byte[] startRow,
+                                                                    @Nullable byte[] stopRow);
+
+  /**
+   * Returns all buffered changes and removes them from the buffer.
+   *
+   * @return map of row->(column->update)
+   */
+  NavigableMap<byte[], NavigableMap<byte[], Update>> drain();
+}
@@ -19,9 +19,11 @@ package co.cask.cdap.data2.dataset2.lib.table.leveldb;
 import co.cask.cdap.api.annotation.ReadOnly;
 import co.cask.cdap.api.annotation.WriteOnly;
 import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.data.batch.Split;
 import co.cask.cdap.api.dataset.DataSetException;
 import co.cask.cdap.api.dataset.DatasetContext;
 import co.cask.cdap.api.dataset.DatasetSpecification;
+import co.cask.cdap.api.dataset.table.Get;
 import co.cask.cdap.api.dataset.table.Row;
 import co.cask.cdap.api.dataset.table.Scan;
 import co.cask.cdap.api.dataset.table.Scanner;
@@ -29,12 +31,15 @@ import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.data2.dataset2.lib.table.BufferingTable;
 import co.cask.cdap.data2.dataset2.lib.table.FuzzyRowFilter;
 import co.cask.cdap.data2.dataset2.lib.table.IncrementValue;
+import co.cask.cdap.data2.dataset2.lib.table.KeyRange;
 import co.cask.cdap.data2.dataset2.lib.table.PutValue;
+import co.cask.cdap.data2.dataset2.lib.table.SplitsUtil;
 import co.cask.cdap.data2.dataset2.lib.table.Update;
 import co.cask.cdap.data2.dataset2.lib.table.inmemory.PrefixedNamespaces;
 import com.google.common.collect.Maps;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import javax.annotation.Nullable;
@@ -128,6 +133,28 @@ public class LevelDBTable extends BufferingTable {
     return core.getRow(row, null, startColumn, stopColumn, limit, tx);
   }
 
+  @ReadOnly
+  @Override
+  protected List<Map<byte[], byte[]>> getPersisted(List<Get> gets) throws Exception {
+    return core.getRows(gets, tx);
+  }
+
+  /**
+   * Returns splits that hold about the same amount of data, based on the sizes that LevelDB reports for ranges of
+   * rows. Falls back to {@link BufferingTable#getSplits(int, byte[], byte[])} if LevelDB does not report any data.
+   */
+  @Override
+  public List<Split> getSplits(int numSplits, byte[] start, byte[] stop) {
+    ensureTransactionIsStarted();
+    List<KeyRange> keyRanges;
+    try {
+      keyRanges = core.getSplits(numSplits > 0 ? numSplits : SplitsUtil.DEFAULT_NUMBER_OF_SPLITS, start, stop);
+    } catch (IOException e) {
+      throw new DataSetException("getSplits failed", e);
+    }
+    return keyRanges == null ? super.getSplits(numSplits, start, stop) : toSplits(keyRanges);
+  }
+
   @ReadOnly
   @Override
   protected Scanner scanPersisted(Scan scan) throws Exception {
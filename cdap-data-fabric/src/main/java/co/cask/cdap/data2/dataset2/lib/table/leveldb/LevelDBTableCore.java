@@ -17,11 +17,13 @@
 package co.cask.cdap.data2.dataset2.lib.table.leveldb;
 
 import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.table.Get;
 import co.cask.cdap.api.dataset.table.Result;
 import co.cask.cdap.api.dataset.table.Row;
 import co.cask.cdap.api.dataset.table.Scanner;
 import co.cask.cdap.common.utils.ImmutablePair;
 import co.cask.cdap.data2.dataset2.lib.table.FuzzyRowFilter;
+import co.cask.cdap.data2.dataset2.lib.table.KeyRange;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
@@ -30,18 +32,25 @@ import com.google.common.collect.Maps;
 import org.apache.tephra.Transaction;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Range;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.concurrent.locks.Lock;
 import javax.annotation.Nullable;
 
 /**
@@ -65,10 +74,24 @@ public class LevelDBTableCore {
   // used for obtaining the next row/column for upper bound
   private static final byte[] ONE_ZERO = { 0x00 };
 
+  // a row that is greater than all rows that are used in practice, only used to measure the size of a table
+  private static final byte[] MAX_ROW = createMaxRow();
+
+  // number of bisections at most to find the boundary of a split, and the allowed error of the split sizes as a
+  // fraction of the average split size
+  private static final int MAX_SPLIT_BISECTIONS = 64;
+  private static final int SPLIT_SIZE_TOLERANCE = 20;
+
   private static byte[] upperBound(byte[] column) {
     return Bytes.add(column, ONE_ZERO);
   }
 
+  private static byte[] createMaxRow() {
+    byte[] row = new byte[256];
+    Arrays.fill(row, (byte) 0xff);
+    return row;
+  }
+
   // empty immutable row's column->value map constant
   // Using ImmutableSortedMap instead of Maps.unmodifiableNavigableMap to avoid conflicts with
   // Hadoop, which uses an older version of guava without that method.
@@ -92,48 +115,73 @@ public class LevelDBTableCore {
   }
 
 
-  public synchronized boolean swap(byte[] row, byte[] column, byte[] oldValue, byte[] newValue) throws IOException {
-    byte[] existing = getRow(row, new byte[][] { column }, null, null, -1, null).get(column);
-    // verify
-    if (oldValue == null && existing != null) {
-      return false;
-    }
-    if (oldValue != null && (existing == null || !Bytes.equals(oldValue, existing))) {
-      return false;
-    }
-    // write
-    if (newValue == null) {
-      // to-do
-      deleteColumn(row, column);
-    } else {
-      persist(Collections.singletonMap(row, Collections.singletonMap(column, newValue)), System.currentTimeMillis());
+  public boolean swap(byte[] row, byte[] column, byte[] oldValue, byte[] newValue) throws IOException {
+    Lock lock = service.getRowLock(tableName, row);
+    lock.lock();
+    try {
+      byte[] existing = getRow(row, new byte[][] { column }, null, null, -1, null).get(column);
+      // verify
+      if (oldValue == null && existing != null) {
+        return false;
+      }
+      if (oldValue != null && (existing == null || !Bytes.equals(oldValue, existing))) {
+        return false;
+      }
+      // write
+      if (newValue == null) {
+        // to-do
+        deleteColumn(row, column);
+      } else {
+        persist(Collections.singletonMap(row, Collections.singletonMap(column, newValue)), System.currentTimeMillis());
+      }
+      return true;
+    } finally {
+      lock.unlock();
     }
-    return true;
   }
 
-  public synchronized Map<byte[], Long> increment(byte[] row, Map<byte[], Long> increments) throws IOException {
-    Map<byte[], Long> result = getResultMap(row, increments);
-    Map<byte[], byte[]> replacing = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-    for (Map.Entry<byte[], Long> entry : result.entrySet()) {
-      replacing.put(entry.getKey(), Bytes.toBytes(entry.getValue()));
+  public Map<byte[], Long> increment(byte[] row, Map<byte[], Long> increments) throws IOException {
+    Lock lock = service.getRowLock(tableName, row);
+    lock.lock();
+    try {
+      Map<byte[], Long> result = getResultMap(row, increments);
+      Map<byte[], byte[]> replacing = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+      for (Map.Entry<byte[], Long> entry : result.entrySet()) {
+        replacing.put(entry.getKey(), Bytes.toBytes(entry.getValue()));
+      }
+      persist(ImmutableMap.of(row, replacing), System.currentTimeMillis());
+      return result;
+    } finally {
+      lock.unlock();
     }
-    persist(ImmutableMap.of(row, replacing), System.currentTimeMillis());
-    return result;
   }
 
 
-  public synchronized void increment(NavigableMap<byte[], NavigableMap<byte[], Long>> updates) throws IOException {
-    Map<byte[], Map<byte[], byte[]>> resultMap = Maps.newHashMap();
-    for (NavigableMap.Entry<byte[], NavigableMap<byte[], Long>> row : updates.entrySet()) {
-      NavigableMap<byte[], Long> increments = row.getValue();
-      Map<byte[], byte[]> replacing = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-      Map<byte[], Long> result = getResultMap(row.getKey(), increments);
-      for (Map.Entry<byte[], Long> entry : result.entrySet()) {
-        replacing.put(entry.getKey(), Bytes.toBytes(entry.getValue()));
+  public void increment(NavigableMap<byte[], NavigableMap<byte[], Long>> updates) throws IOException {
+    // the locks are acquired in a consistent order, which avoids deadlocks with concurrent increments
+    Iterable<Lock> locks = service.getRowLocks(tableName, updates.keySet());
+    Deque<Lock> acquired = new ArrayDeque<>();
+    try {
+      for (Lock lock : locks) {
+        lock.lock();
+        acquired.push(lock);
+      }
+      Map<byte[], Map<byte[], byte[]>> resultMap = Maps.newHashMap();
+      for (NavigableMap.Entry<byte[], NavigableMap<byte[], Long>> row : updates.entrySet()) {
+        NavigableMap<byte[], Long> increments = row.getValue();
+        Map<byte[], byte[]> replacing = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        Map<byte[], Long> result = getResultMap(row.getKey(), increments);
+        for (Map.Entry<byte[], Long> entry : result.entrySet()) {
+          replacing.put(entry.getKey(), Bytes.toBytes(entry.getValue()));
+        }
+        resultMap.put(row.getKey(), replacing);
+      }
+      persist(resultMap, System.currentTimeMillis());
+    } finally {
+      while (!acquired.isEmpty()) {
+        acquired.pop().unlock();
       }
-      resultMap.put(row.getKey(), replacing);
     }
-    persist(resultMap, System.currentTimeMillis());
   }
 
   private Map<byte[], Long> getResultMap(byte[] row, Map<byte[], Long> increments) throws IOException {
@@ -212,10 +260,56 @@ public class LevelDBTableCore {
   public NavigableMap<byte[], byte[]> getRow(byte[] row, @Nullable byte[][] columns,
                                              byte[] startCol, byte[] stopCol,
                                              int limit, Transaction tx) throws IOException {
-    if (columns != null) {
-      if (columns.length == 0) {
-        return EMPTY_ROW_MAP;
+    if (columns != null && columns.length == 0) {
+      return EMPTY_ROW_MAP;
+    }
+    try (DBIterator iterator = getDB().iterator()) {
+      return getRow(iterator, row, columns, startCol, stopCol, limit, tx);
+    }
+  }
+
+  /**
+   * Reads a batch of rows using a single iterator, which sees the same snapshot of the table for all rows. The rows
+   * are read in the order of their keys, so that the iterator only ever seeks forward.
+   *
+   * @param gets the rows to read, each with the columns to read or null to read all columns
+   * @return list with the columns of each of the given rows, in the order of the gets
+   */
+  public List<Map<byte[], byte[]>> getRows(List<Get> gets, Transaction tx) throws IOException {
+    final Get[] getArray = gets.toArray(new Get[gets.size()]);
+    Integer[] order = new Integer[getArray.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return Bytes.compareTo(getArray[i1].getRow(), getArray[i2].getRow());
       }
+    });
+
+    List<Map<byte[], byte[]>> rows = new ArrayList<Map<byte[], byte[]>>(Collections.nCopies(getArray.length,
+                                                                                        EMPTY_ROW_MAP));
+    try (DBIterator iterator = getDB().iterator()) {
+      for (int i : order) {
+        List<byte[]> columns = getArray[i].getColumns();
+        if (columns == null || !columns.isEmpty()) {
+          rows.set(i, getRow(iterator, getArray[i].getRow(),
+                             columns == null ? null : columns.toArray(new byte[columns.size()][]),
+                             null, null, -1, tx));
+        }
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Reads one row with the given iterator. The columns must not be empty.
+   */
+  private static NavigableMap<byte[], byte[]> getRow(DBIterator iterator, byte[] row, @Nullable byte[][] columns,
+                                                     byte[] startCol, byte[] stopCol,
+                                                     int limit, Transaction tx) throws IOException {
+    if (columns != null) {
       columns = Arrays.copyOf(columns, columns.length);
       Arrays.sort(columns, Bytes.BYTES_COMPARATOR);
       limit = columns.length;
@@ -223,10 +317,109 @@ public class LevelDBTableCore {
 
     byte[] startKey = createStartKey(row, columns == null ? startCol : columns[0]);
     byte[] endKey = createEndKey(row, columns == null ? stopCol : upperBound(columns[columns.length - 1]));
-    try (DBIterator iterator = getDB().iterator()) {
-      iterator.seek(startKey);
-      return getRow(iterator, endKey, tx, false, columns, limit).getSecond();
+    iterator.seek(startKey);
+    return getRow(iterator, endKey, tx, false, columns, limit).getSecond();
+  }
+
+  /**
+   * Divides a range of rows into splits that hold about the same amount of data. The boundaries of the splits are
+   * found by bisecting the row keys, using the approximate sizes that LevelDB reports for ranges of keys. These sizes
+   * only account for data that was written to files, not for data that is still in the memtable.
+   *
+   * @param numSplits the maximum number of splits to return
+   * @param start first row of the range, inclusive, or null to start at the first row
+   * @param stop last row of the range, exclusive, or null to stop after the last row
+   * @return the splits, or null if LevelDB does not report any data for the range
+   */
+  @Nullable
+  public List<KeyRange> getSplits(int numSplits, @Nullable byte[] start, @Nullable byte[] stop) throws IOException {
+    if (start != null && stop != null && Bytes.compareTo(start, stop) >= 0) {
+      return Collections.emptyList();
+    }
+    DB db = getDB();
+    byte[] startRow = start == null ? Bytes.EMPTY_BYTE_ARRAY : start;
+    long totalSize = getApproximateSize(db, startRow, stop);
+    if (totalSize <= 0) {
+      return null;
+    }
+    long tolerance = totalSize / numSplits / SPLIT_SIZE_TOLERANCE;
+
+    List<KeyRange> splits = new ArrayList<>(numSplits);
+    byte[] splitStart = start;
+    byte[] lastBoundary = startRow;
+    for (int i = 1; i < numSplits; i++) {
+      long targetSize = totalSize * i / numSplits;
+      // bisect the rows after the last boundary for the one that is closest to the target size
+      byte[] low = lastBoundary;
+      byte[] high = stop;
+      byte[] boundary = null;
+      long boundaryError = Long.MAX_VALUE;
+      for (int j = 0; j < MAX_SPLIT_BISECTIONS && boundaryError > tolerance; j++) {
+        byte[] mid = midRow(low, high);
+        if (mid == null) {
+          break;
+        }
+        long size = getApproximateSize(db, startRow, mid);
+        if (Math.abs(size - targetSize) < boundaryError) {
+          boundary = mid;
+          boundaryError = Math.abs(size - targetSize);
+        }
+        if (size < targetSize) {
+          low = mid;
+        } else {
+          high = mid;
+        }
+      }
+      if (boundary != null) {
+        splits.add(new KeyRange(splitStart, boundary));
+        splitStart = boundary;
+        lastBoundary = boundary;
+      }
+    }
+    splits.add(new KeyRange(splitStart, stop));
+    return splits;
+  }
+
+  private static long getApproximateSize(DB db, byte[] startRow, @Nullable byte[] stopRow) {
+    byte[] endKey = createStartKey(stopRow == null ? MAX_ROW : stopRow);
+    return db.getApproximateSizes(new Range(createStartKey(startRow), endKey))[0];
+  }
+
+  /**
+   * Returns a row that is between two rows, or null if there is none at the resolution of this method: the row is
+   * computed from the first 7 bytes that follow the common prefix of the two rows.
+   */
+  @Nullable
+  private static byte[] midRow(byte[] low, @Nullable byte[] high) {
+    int prefix = 0;
+    if (high != null) {
+      while (prefix < low.length && prefix < high.length && low[prefix] == high[prefix]) {
+        prefix++;
+      }
+    }
+    long lowValue = longForBytes(low, prefix);
+    long highValue = high == null ? 1L << 56 : longForBytes(high, prefix);
+    long midValue = lowValue + (highValue - lowValue) / 2;
+    if (midValue <= lowValue) {
+      return null;
+    }
+    // the mid row is greater than low, because it is greater in one of the 7 bytes, and less than high for the same
+    // reason. Trailing zeros are not needed, and removing them does not change that.
+    byte[] row = Bytes.add(Arrays.copyOf(low, prefix), Bytes.tail(Bytes.toBytes(midValue), 7));
+    int length = row.length;
+    while (row[length - 1] == 0) {
+      length--;
+    }
+    return Arrays.copyOf(row, length);
+  }
+
+  // returns the 7 bytes following the offset as a long, padded with zeros if the array is shorter
+  private static long longForBytes(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + 7; i++) {
+      value = (value << 8) | (i < bytes.length ? bytes[i] & 0xff : 0);
     }
+    return value;
   }
 
   private static Scanner createEmptyScanner() {
@@ -16,6 +16,7 @@
 
 package co.cask.cdap.data2.dataset2.lib.table.leveldb;
 
+import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.data2.transaction.stream.leveldb.LevelDBNameConverter;
@@ -25,12 +26,17 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Striped;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import org.apache.tephra.Transaction;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBComparator;
+import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,9 +46,12 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
 
 import static org.iq80.leveldb.impl.Iq80DBFactory.factory;
 
@@ -54,12 +63,19 @@ public class LevelDBTableService {
 
   private static final Logger LOG = LoggerFactory.getLogger(LevelDBTableService.class);
 
+  // number of deletes written in one batch when pruning versions
+  private static final int PRUNE_DELETES_PER_BATCH = 1024;
+
+  // number of locks shared by the rows of all tables for read-modify-write operations
+  private static final int ROW_LOCK_STRIPES = 1024;
+
   private int blockSize;
   private long cacheSize;
   private String basePath;
   private WriteOptions writeOptions;
 
   private final ConcurrentMap<String, DB> tables = Maps.newConcurrentMap();
+  private final Striped<Lock> rowLocks = Striped.lock(ROW_LOCK_STRIPES);
 
   /**
    * To avoid database locking issues make sure that the single LevelDBTableService instance
@@ -152,6 +168,31 @@ public class LevelDBTableService {
     return size;
   }
 
+  /**
+   * Returns the lock that guards read-modify-write operations on a row of a table. Rows of the same or of different
+   * tables may share the same lock.
+   */
+  public Lock getRowLock(String tableName, byte[] row) {
+    return rowLocks.get(getRowLockKey(tableName, row));
+  }
+
+  /**
+   * Returns the locks that guard read-modify-write operations on the given rows of a table. The locks are returned
+   * in a consistent order, so that acquiring them in iteration order cannot deadlock with other callers. The same
+   * lock may be returned more than once, which is fine as the locks are reentrant.
+   */
+  public Iterable<Lock> getRowLocks(String tableName, Collection<byte[]> rows) {
+    List<Integer> keys = Lists.newArrayListWithCapacity(rows.size());
+    for (byte[] row : rows) {
+      keys.add(getRowLockKey(tableName, row));
+    }
+    return rowLocks.bulkGet(keys);
+  }
+
+  private static Integer getRowLockKey(String tableName, byte[] row) {
+    return 31 * tableName.hashCode() + Bytes.hashCode(row);
+  }
+
   public WriteOptions getWriteOptions() {
     return writeOptions;
   }
@@ -229,6 +270,69 @@ public class LevelDBTableService {
   }
 
 
+  /**
+   * Removes the versions of a table that no transaction can see anymore. For each column, the newest version that
+   * is visible to all current and future transactions shadows all older versions, which are removed. If that newest
+   * version is a delete marker, it is removed as well.
+   *
+   * @param tableName name of the table to prune
+   * @param tx a transaction started after all transactions that are still running, which determines the versions
+   *           visible to all transactions through its visibility upper bound and its invalid and in-progress lists
+   * @return statistics of the removed versions
+   */
+  public PruneStats pruneVersions(String tableName, Transaction tx) throws IOException {
+    DB db = getTable(tableName);
+    long versions = 0;
+    long bytes = 0;
+
+    WriteBatch batch = db.createWriteBatch();
+    int deletesInBatch = 0;
+    try (DBIterator iterator = db.iterator()) {
+      iterator.seekToFirst();
+      byte[] previousRow = null;
+      byte[] previousColumn = null;
+      boolean shadowed = false;
+      // keys are sorted by row and column, and by version in descending order within a column
+      while (iterator.hasNext()) {
+        Map.Entry<byte[], byte[]> entry = iterator.next();
+        KeyValue kv = KeyValue.fromKey(entry.getKey());
+        byte[] row = kv.getRow();
+        byte[] column = kv.getQualifier();
+        if (previousRow == null || !Bytes.equals(previousRow, row) || !Bytes.equals(previousColumn, column)) {
+          previousRow = row;
+          previousColumn = column;
+          shadowed = false;
+        }
+        if (!isVisibleToAll(tx, kv.getTimestamp())) {
+          continue;
+        }
+        // an empty value is a delete marker, see LevelDBTableCore
+        if (shadowed || entry.getValue().length == 0) {
+          batch.delete(entry.getKey());
+          versions++;
+          bytes += entry.getKey().length + entry.getValue().length;
+          if (++deletesInBatch >= PRUNE_DELETES_PER_BATCH) {
+            db.write(batch, writeOptions);
+            batch = db.createWriteBatch();
+            deletesInBatch = 0;
+          }
+        }
+        shadowed = true;
+      }
+    }
+    // perform any outstanding deletes
+    if (deletesInBatch > 0) {
+      db.write(batch, writeOptions);
+    }
+    return new PruneStats(versions, bytes);
+  }
+
+  private static boolean isVisibleToAll(Transaction tx, long version) {
+    return version <= tx.getVisibilityUpperBound()
+      && Arrays.binarySearch(tx.getInvalids(), version) < 0
+      && Arrays.binarySearch(tx.getInProgress(), version) < 0;
+  }
+
   private static String getDBPath(String basePath, String tableName) {
     String encodedTableName;
     try {
@@ -266,6 +370,33 @@ public class LevelDBTableService {
     }
   }
 
+  /**
+   * Statistics of the versions removed from a table by {@link #pruneVersions(String, Transaction)}.
+   */
+  public static final class PruneStats {
+    private final long versions;
+    private final long bytes;
+
+    public PruneStats(long versions, long bytes) {
+      this.versions = versions;
+      this.bytes = bytes;
+    }
+
+    /**
+     * @return number of versions removed
+     */
+    public long getVersions() {
+      return versions;
+    }
+
+    /**
+     * @return size in bytes of the keys and values removed
+     */
+    public long getBytes() {
+      return bytes;
+    }
+  }
+
   /**
    * Represents LevelDB's table stats.
    */
@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.table.leveldb;
+
+import co.cask.cdap.api.metrics.MetricsCollectionService;
+import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.data2.transaction.stream.leveldb.LevelDBNameConverter;
+import co.cask.cdap.data2.util.TableId;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import org.apache.tephra.Transaction;
+import org.apache.tephra.TransactionSystemClient;
+import org.apache.twill.common.Threads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically removes the versions of all LevelDB tables that are no longer visible to any transaction,
+ * using {@link LevelDBTableService#pruneVersions(String, Transaction)}.
+ */
+public class LevelDBVersionPruningService extends AbstractScheduledService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LevelDBVersionPruningService.class);
+
+  private final LevelDBTableService tableService;
+  private final TransactionSystemClient txClient;
+  private final MetricsCollectionService metricsService;
+  private final long pruneIntervalSeconds;
+  private ScheduledExecutorService executor;
+
+  @Inject
+  public LevelDBVersionPruningService(LevelDBTableService tableService, TransactionSystemClient txClient,
+                                      MetricsCollectionService metricsService, CConfiguration cConf) {
+    this.tableService = tableService;
+    this.txClient = txClient;
+    this.metricsService = metricsService;
+    this.pruneIntervalSeconds = cConf.getLong(Constants.CFG_DATA_LEVELDB_PRUNE_INTERVAL,
+                                              Constants.DEFAULT_DATA_LEVELDB_PRUNE_INTERVAL);
+  }
+
+  @Override
+  protected void shutDown() throws Exception {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  protected void runOneIteration() throws Exception {
+    // The transaction is only used to get the versions visible to all transactions. Abort it right away,
+    // so that it doesn't hold back the visibility upper bound or time out while pruning.
+    Transaction tx = txClient.startShort();
+    txClient.abort(tx);
+
+    for (String tableName : tableService.list()) {
+      try {
+        long startTime = System.currentTimeMillis();
+        LevelDBTableService.PruneStats stats = tableService.pruneVersions(tableName, tx);
+        if (stats.getVersions() > 0) {
+          LOG.debug("Pruned {} versions of {} bytes from LevelDB table {} in {} ms", stats.getVersions(),
+                    stats.getBytes(), tableName, System.currentTimeMillis() - startTime);
+          report(tableName, stats);
+        }
+      } catch (Exception e) {
+        // the table may have been dropped in the meantime, continue with the other tables
+        LOG.warn("Failed to prune versions of LevelDB table {}", tableName, e);
+      }
+    }
+  }
+
+  @Override
+  protected Scheduler scheduler() {
+    return Scheduler.newFixedDelaySchedule(pruneIntervalSeconds, pruneIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  @Override
+  protected final ScheduledExecutorService executor() {
+    executor = Executors.newSingleThreadScheduledExecutor(
+      Threads.createDaemonThreadFactory("LevelDBVersionPruningService-scheduler"));
+    return executor;
+  }
+
+  private void report(String tableName, LevelDBTableService.PruneStats stats) {
+    TableId tableId = LevelDBNameConverter.from(tableName);
+    MetricsContext collector =
+      metricsService.getContext(ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, tableId.getNamespace(),
+                                                Constants.Metrics.Tag.DATASET, tableId.getTableName()));
+    collector.increment("dataset.pruned.versions", stats.getVersions());
+    collector.increment("dataset.pruned.bytes", stats.getBytes());
+  }
+}
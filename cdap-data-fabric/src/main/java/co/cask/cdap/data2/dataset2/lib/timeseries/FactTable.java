@@ -167,6 +167,38 @@ public final class FactTable implements Closeable {
     return new FactScanner(getScanner(scan), codec, scan.getStartTs(), scan.getEndTs(), scan.getMeasureNames());
   }
 
+  /**
+   * Splits the given scan into at most {@code maxSplits} scans with consecutive, non-overlapping time ranges.
+   * The split points are aligned to the row timebase, hence the row key ranges of the resulting scans do not overlap
+   * and each of them can be scanned independently. The returned scans are ordered by time.
+   *
+   * @param scan the scan to split
+   * @param maxSplits maximum number of scans to return
+   * @return list of scans that together cover the same facts as the given scan
+   */
+  public List<FactScan> split(FactScan scan, int maxSplits) {
+    Preconditions.checkArgument(maxSplits > 0, "Number of splits should be > 0");
+    long startTimeBase = scan.getStartTs() / resolution * resolution / rollTime * rollTime;
+    long endTimeBase = scan.getEndTs() / resolution * resolution / rollTime * rollTime;
+    long timeBases = (endTimeBase - startTimeBase) / rollTime + 1;
+    if (maxSplits == 1 || timeBases <= 1) {
+      return Collections.singletonList(scan);
+    }
+
+    // number of timebases (rows of the same dimension values and measure) to cover by each split
+    long timeBasesPerSplit = (timeBases + maxSplits - 1) / maxSplits;
+    List<FactScan> splits = new ArrayList<>();
+    long startTs = scan.getStartTs();
+    long nextTimeBase = startTimeBase + timeBasesPerSplit * rollTime;
+    while (nextTimeBase <= endTimeBase) {
+      splits.add(new FactScan(startTs, nextTimeBase - 1, scan.getMeasureNames(), scan.getDimensionValues()));
+      startTs = nextTimeBase;
+      nextTimeBase += timeBasesPerSplit * rollTime;
+    }
+    splits.add(new FactScan(startTs, scan.getEndTs(), scan.getMeasureNames(), scan.getDimensionValues()));
+    return splits;
+  }
+
   private List<String> getSortedMeasures(Collection<String> measures) {
     Map<String, Long> measureToEntityMap = new HashMap<>();
     List<String> measureNames = new ArrayList<>();
@@ -17,7 +17,6 @@
 package co.cask.cdap.data2.transaction.stream;
 
 import co.cask.cdap.common.conf.CConfiguration;
-import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.data.file.FileReader;
 import co.cask.cdap.data.file.ReadFilter;
 import co.cask.cdap.data.file.filter.TTLReadFilter;
@@ -37,6 +36,7 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.apache.twill.filesystem.Location;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +45,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 /**
@@ -95,13 +96,8 @@ public abstract class AbstractStreamFileConsumerFactory implements StreamConsume
   protected void getFileOffsets(Location partitionLocation,
                                 Collection<? super StreamFileOffset> fileOffsets,
                                 int generation) throws IOException {
-    // TODO: Support dynamic writer instances discovery
-    // Current assume it won't change and is based on cConf
-    int instances = cConf.getInt(Constants.Stream.CONTAINER_INSTANCES);
-    String filePrefix = cConf.get(Constants.Stream.FILE_PREFIX);
-    for (int i = 0; i < instances; i++) {
-      // The actual file prefix is formed by file prefix in cConf + writer instance id
-      String streamFilePrefix = filePrefix + '.' + i;
+    // One offset for each shard of each writer instance
+    for (String streamFilePrefix : StreamUtils.getWriterFilePrefixes(cConf)) {
       Location eventLocation = StreamUtils.createStreamLocation(partitionLocation, streamFilePrefix,
                                                                 0, StreamFileType.EVENT);
       fileOffsets.add(new StreamFileOffset(eventLocation, 0, generation));
@@ -148,6 +144,37 @@ public abstract class AbstractStreamFileConsumerFactory implements StreamConsume
                         String.format("%s.%s.%s", tablePrefix, streamId.getEntityName(), namespace));
   }
 
+  /**
+   * Adds file offsets for writer file prefixes that are not in the given list of offsets, which happens when the
+   * offsets were stored before the number of writer instances or shards was changed. The new offsets start from the
+   * earliest partition of the existing offsets, so that no event written with the new prefixes is missed. Offsets of
+   * prefixes that are no longer used by any writer are kept, so that events already written with them are still read.
+   */
+  private void addMissingFileOffsets(Location streamLocation, long partitionDuration,
+                                     List<StreamFileOffset> fileOffsets, int generation) throws IOException {
+    Set<String> prefixes = Sets.newHashSet();
+    long partitionStart = Long.MAX_VALUE;
+    for (StreamFileOffset offset : fileOffsets) {
+      prefixes.add(offset.getNamePrefix());
+      partitionStart = Math.min(partitionStart, offset.getPartitionStart());
+    }
+
+    Location partitionLocation = null;
+    for (String prefix : StreamUtils.getWriterFilePrefixes(cConf)) {
+      if (prefixes.contains(prefix)) {
+        continue;
+      }
+      if (partitionLocation == null) {
+        partitionLocation = StreamUtils.createPartitionLocation(streamLocation, partitionStart, partitionDuration);
+      }
+      StreamFileOffset offset = new StreamFileOffset(StreamUtils.createStreamLocation(partitionLocation, prefix, 0,
+                                                                                      StreamFileType.EVENT),
+                                                     0, generation);
+      LOG.info("Add file offset for new stream writer file prefix {}: {}", prefix, offset);
+      fileOffsets.add(offset);
+    }
+  }
+
   private MultiLiveStreamFileReader createReader(final StreamConfig streamConfig,
                                                  StreamConsumerState consumerState) throws IOException {
     Location streamLocation = streamConfig.getLocation();
@@ -173,7 +200,9 @@ public abstract class AbstractStreamFileConsumerFactory implements StreamConsume
       if (useStoredStates) {
         LOG.info("Create file reader with consumer state: {}", consumerState);
         // Has existing offsets, just resume from there.
-        MultiLiveStreamFileReader reader = new MultiLiveStreamFileReader(streamConfig, consumerState.getState());
+        List<StreamFileOffset> fileOffsets = Lists.newArrayList(consumerState.getState());
+        addMissingFileOffsets(streamLocation, streamConfig.getPartitionDuration(), fileOffsets, generation);
+        MultiLiveStreamFileReader reader = new MultiLiveStreamFileReader(streamConfig, fileOffsets);
         reader.initialize();
         return reader;
       }
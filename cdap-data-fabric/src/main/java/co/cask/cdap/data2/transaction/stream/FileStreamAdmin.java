@@ -27,6 +27,7 @@ import co.cask.cdap.common.namespace.NamespacedLocationFactory;
 import co.cask.cdap.common.utils.OSDetector;
 import co.cask.cdap.data.stream.CoordinatorStreamProperties;
 import co.cask.cdap.data.stream.StreamCoordinatorClient;
+import co.cask.cdap.data.stream.StreamFileCodec;
 import co.cask.cdap.data.stream.StreamFileOffset;
 import co.cask.cdap.data.stream.StreamUtils;
 import co.cask.cdap.data.stream.service.StreamMetaStore;
@@ -300,7 +301,8 @@ public class FileStreamAdmin implements StreamAdmin {
           }
 
           return new StreamConfig(streamId, config.getPartitionDuration(), config.getIndexInterval(),
-                                  config.getTTL(), getStreamLocation(streamId), config.getFormat(), threshold);
+                                  config.getTTL(), getStreamLocation(streamId), config.getFormat(), threshold,
+                                  config.getCompressionCodec());
         }
       });
     } catch (Exception ex) {
@@ -559,6 +561,8 @@ public class FileStreamAdmin implements StreamAdmin {
             Constants.Stream.TTL, cConf.get(Constants.Stream.TTL)));
           int threshold = Integer.parseInt(properties.getProperty(
             Constants.Stream.NOTIFICATION_THRESHOLD, cConf.get(Constants.Stream.NOTIFICATION_THRESHOLD)));
+          String compressionCodec = StreamFileCodec.fromName(properties.getProperty(
+            Constants.Stream.COMPRESSION_CODEC, cConf.get(Constants.Stream.COMPRESSION_CODEC))).getName();
           String description = properties.getProperty(Constants.Stream.DESCRIPTION);
           FormatSpecification formatSpec = null;
           if (properties.containsKey(Constants.Stream.FORMAT_SPECIFICATION)) {
@@ -567,7 +571,7 @@ public class FileStreamAdmin implements StreamAdmin {
           }
 
           final StreamConfig config = new StreamConfig(streamId, partitionDuration, indexInterval,
-                                                       ttl, streamLocation, formatSpec, threshold);
+                                                       ttl, streamLocation, formatSpec, threshold, compressionCodec);
           impersonator.doAs(streamId, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
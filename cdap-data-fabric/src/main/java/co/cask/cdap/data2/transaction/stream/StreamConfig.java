@@ -18,11 +18,13 @@ package co.cask.cdap.data2.transaction.stream;
 import co.cask.cdap.api.data.format.FormatSpecification;
 import co.cask.cdap.api.data.format.Formats;
 import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.data.stream.StreamFileCodec;
 import co.cask.cdap.proto.id.StreamId;
 import com.google.common.base.Objects;
 import org.apache.twill.filesystem.Location;
 
 import java.util.Collections;
+import javax.annotation.Nullable;
 
 /**
  * Represents the configuration of a stream. This class needs to be GSON serializable.
@@ -41,11 +43,18 @@ public final class StreamConfig {
   private final long ttl;
   private final FormatSpecification format;
   private final int notificationThresholdMB;
+  private final String compressionCodec;
 
   private final transient Location location;
 
   public StreamConfig(StreamId streamId, long partitionDuration, long indexInterval, long ttl,
                       Location location, FormatSpecification format, int notificationThresholdMB) {
+    this(streamId, partitionDuration, indexInterval, ttl, location, format, notificationThresholdMB, null);
+  }
+
+  public StreamConfig(StreamId streamId, long partitionDuration, long indexInterval, long ttl,
+                      Location location, FormatSpecification format, int notificationThresholdMB,
+                      @Nullable String compressionCodec) {
     this.streamId = streamId;
     this.partitionDuration = partitionDuration;
     this.indexInterval = indexInterval;
@@ -53,6 +62,7 @@ public final class StreamConfig {
     this.location = location;
     this.notificationThresholdMB = notificationThresholdMB;
     this.format = format;
+    this.compressionCodec = compressionCodec;
   }
 
   /**
@@ -76,6 +86,13 @@ public final class StreamConfig {
     return indexInterval;
   }
 
+  /**
+   * @return The name of the {@link StreamFileCodec} that the data blocks of new stream files are compressed with.
+   */
+  public String getCompressionCodec() {
+    return Objects.firstNonNull(compressionCodec, StreamFileCodec.NONE.getName());
+  }
+
   /**
    * @return The time to live in milliseconds for events in this stream.
    */
@@ -114,6 +131,7 @@ public final class StreamConfig {
       .add("location", location)
       .add("format", format)
       .add("notificationThresholdMB", notificationThresholdMB)
+      .add("compressionCodec", compressionCodec)
       .toString();
   }
 
@@ -152,7 +170,8 @@ public final class StreamConfig {
                               Objects.firstNonNull(ttl, config.getTTL()),
                               config.getLocation(),
                               Objects.firstNonNull(formatSpec, config.getFormat()),
-                              Objects.firstNonNull(notificationThreshold, config.getNotificationThresholdMB()));
+                              Objects.firstNonNull(notificationThreshold, config.getNotificationThresholdMB()),
+                              config.getCompressionCodec());
     }
   }
 }
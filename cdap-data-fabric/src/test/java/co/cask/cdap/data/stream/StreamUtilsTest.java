@@ -16,20 +16,30 @@
 
 package co.cask.cdap.data.stream;
 
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.data2.util.TableId;
 import co.cask.cdap.proto.id.NamespaceId;
 import co.cask.cdap.proto.id.StreamId;
 import org.apache.twill.filesystem.LocalLocationFactory;
 import org.apache.twill.filesystem.Location;
 import org.apache.twill.filesystem.LocationFactory;
+import com.google.common.collect.ImmutableList;
 import org.junit.Assert;
+import org.junit.ClassRule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
 
 /**
  * Unit tests for {@link StreamUtils}.
  */
 public class StreamUtilsTest {
 
+  @ClassRule
+  public static final TemporaryFolder TMP_FOLDER = new TemporaryFolder();
+
   @Test
   public void testValidPartition() {
     Assert.assertTrue(StreamUtils.isPartition("00012345.00345"));
@@ -65,4 +75,31 @@ public class StreamUtilsTest {
     TableId expected = TableId.from("foonamespace", "system.stream.state.store");
     Assert.assertEquals(expected, StreamUtils.getStateStoreTableId(namespace));
   }
+
+  @Test
+  public void testShardFilePrefix() throws IOException {
+    // Shard 0 keeps the writer instance file prefix
+    Assert.assertEquals("file.0", StreamUtils.getShardFilePrefix("file.0", 0));
+    Assert.assertEquals("file.0_2", StreamUtils.getShardFilePrefix("file.0", 2));
+
+    CConfiguration cConf = CConfiguration.create();
+    cConf.set(Constants.Stream.FILE_PREFIX, "file");
+    cConf.setInt(Constants.Stream.CONTAINER_INSTANCES, 2);
+    cConf.setInt(Constants.Stream.WRITER_SHARDS, 2);
+    Assert.assertEquals(ImmutableList.of("file.0", "file.0_1", "file.1", "file.1_1"),
+                        StreamUtils.getWriterFilePrefixes(cConf));
+
+    // The prefix of shard file names should be recovered from the file name
+    LocationFactory locationFactory = new LocalLocationFactory(TMP_FOLDER.newFolder());
+    Location partitionLocation = locationFactory.create("1000.1000");
+    Location shardFile = StreamUtils.createStreamLocation(partitionLocation, "file.0_1", 3, StreamFileType.EVENT);
+    Assert.assertEquals("file.0_1", StreamUtils.getNamePrefix(shardFile.getName()));
+    Assert.assertEquals(3, StreamUtils.getSequenceId(shardFile.getName()));
+
+    // Files of other shards shouldn't affect the sequence id of a shard
+    partitionLocation.mkdirs();
+    shardFile.createNew();
+    Assert.assertEquals(0, StreamUtils.getNextSequenceId(partitionLocation, "file.0"));
+    Assert.assertEquals(4, StreamUtils.getNextSequenceId(partitionLocation, "file.0_1"));
+  }
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data.stream.service.upload;
+
+import co.cask.cdap.api.flow.flowlet.StreamEvent;
+import co.cask.cdap.api.stream.StreamEventData;
+import co.cask.cdap.common.io.BinaryDecoder;
+import co.cask.cdap.common.io.BinaryEncoder;
+import co.cask.cdap.common.stream.StreamEventDataCodec;
+import co.cask.cdap.proto.id.StreamId;
+import co.cask.common.io.ByteBufferInputStream;
+import co.cask.http.AbstractHttpResponder;
+import co.cask.http.BodyConsumer;
+import co.cask.http.BodyProducer;
+import co.cask.http.ChunkResponder;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit test for {@link EncodedStreamBodyConsumer}.
+ */
+public class EncodedStreamBodyConsumerTest {
+
+  @Test
+  public void testChunkedContent() throws Exception {
+    int eventCount = 1000;
+    byte[] content = encodeEvents(eventCount);
+
+    TestContentWriter contentWriter = new TestContentWriter();
+    TestHttpResponder responder = new TestHttpResponder();
+    BodyConsumer bodyConsumer = new EncodedStreamBodyConsumer(createFactory(contentWriter));
+
+    // Feed the content in small chunks so that events are split across chunks
+    for (int i = 0; i < content.length; i += 7) {
+      bodyConsumer.chunk(ChannelBuffers.copiedBuffer(content, i, Math.min(7, content.length - i)), responder);
+    }
+    bodyConsumer.finished(responder);
+
+    Assert.assertEquals(HttpResponseStatus.OK, responder.getResponseStatus());
+    Assert.assertTrue(contentWriter.isClosed());
+    Assert.assertEquals(eventCount, contentWriter.getEvents());
+
+    // The content written should be the same as the uploaded one
+    ByteBuffer written = contentWriter.getContent();
+    Assert.assertEquals(ByteBuffer.wrap(content), written);
+
+    BinaryDecoder decoder = new BinaryDecoder(new ByteBufferInputStream(written));
+    for (int i = 0; i < eventCount; i++) {
+      StreamEventData event = StreamEventDataCodec.decode(decoder);
+      Assert.assertEquals("Message " + i, Charsets.UTF_8.decode(event.getBody()).toString());
+      Assert.assertEquals(ImmutableMap.of("k" + i, "v" + i), event.getHeaders());
+    }
+  }
+
+  @Test
+  public void testBodiesOnly() throws Exception {
+    int eventCount = 1000;
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    BinaryEncoder encoder = new BinaryEncoder(os);
+    for (int i = 0; i < eventCount; i++) {
+      encoder.writeBytes(Charsets.UTF_8.encode("Body " + i));
+    }
+    byte[] content = os.toByteArray();
+
+    TestContentWriter contentWriter = new TestContentWriter();
+    TestHttpResponder responder = new TestHttpResponder();
+    BodyConsumer bodyConsumer = new EncodedStreamBodyConsumer(createFactory(contentWriter), true);
+
+    for (int i = 0; i < content.length; i += 5) {
+      bodyConsumer.chunk(ChannelBuffers.copiedBuffer(content, i, Math.min(5, content.length - i)), responder);
+    }
+    bodyConsumer.finished(responder);
+
+    Assert.assertEquals(HttpResponseStatus.OK, responder.getResponseStatus());
+    Assert.assertTrue(contentWriter.isClosed());
+    Assert.assertEquals(eventCount, contentWriter.getEvents());
+
+    // The content written should be events without headers
+    ByteBuffer written = contentWriter.getContent();
+    Assert.assertEquals(content.length + eventCount, written.remaining());
+    BinaryDecoder decoder = new BinaryDecoder(new ByteBufferInputStream(written));
+    for (int i = 0; i < eventCount; i++) {
+      StreamEventData event = StreamEventDataCodec.decode(decoder);
+      Assert.assertEquals("Body " + i, Charsets.UTF_8.decode(event.getBody()).toString());
+      Assert.assertTrue(event.getHeaders().isEmpty());
+    }
+    Assert.assertFalse(written.hasRemaining());
+  }
+
+  @Test
+  public void testIncompleteContent() throws Exception {
+    byte[] content = encodeEvents(10);
+
+    TestContentWriter contentWriter = new TestContentWriter();
+    TestHttpResponder responder = new TestHttpResponder();
+    BodyConsumer bodyConsumer = new EncodedStreamBodyConsumer(createFactory(contentWriter));
+
+    // Drop the last byte, which leaves the last event incomplete
+    bodyConsumer.chunk(ChannelBuffers.copiedBuffer(content, 0, content.length - 1), responder);
+    bodyConsumer.finished(responder);
+
+    Assert.assertEquals(HttpResponseStatus.BAD_REQUEST, responder.getResponseStatus());
+    Assert.assertTrue(contentWriter.isCancelled());
+  }
+
+  @Test
+  public void testInvalidContent() throws Exception {
+    TestContentWriter contentWriter = new TestContentWriter();
+    TestHttpResponder responder = new TestHttpResponder();
+    BodyConsumer bodyConsumer = new EncodedStreamBodyConsumer(createFactory(contentWriter));
+
+    // A negative body length
+    try {
+      bodyConsumer.chunk(ChannelBuffers.wrappedBuffer(new byte[] { 1, 0, 0 }), responder);
+      Assert.fail("Expected failure on invalid content");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    Assert.assertEquals(HttpResponseStatus.BAD_REQUEST, responder.getResponseStatus());
+  }
+
+  private byte[] encodeEvents(int eventCount) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    BinaryEncoder encoder = new BinaryEncoder(os);
+    for (int i = 0; i < eventCount; i++) {
+      StreamEventDataCodec.encode(new StreamEvent(ImmutableMap.of("k" + i, "v" + i),
+                                                  Charsets.UTF_8.encode("Message " + i)), encoder);
+    }
+    return os.toByteArray();
+  }
+
+  private ContentWriterFactory createFactory(final ContentWriter contentWriter) {
+    return new ContentWriterFactory() {
+      @Override
+      public StreamId getStream() {
+        return new StreamId("test_namespace", "test-stream");
+      }
+
+      @Override
+      public ContentWriter create(Map<String, String> headers) throws IOException {
+        return contentWriter;
+      }
+    };
+  }
+
+  /**
+   * A {@link EncodedContentWriter} for testing. It keeps all encoded content written in memory.
+   */
+  private static final class TestContentWriter implements EncodedContentWriter {
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private int events;
+    private boolean closed;
+    private boolean cancelled;
+
+    @Override
+    public void appendEncoded(ByteBuffer encodedEvents, int eventCount) throws IOException {
+      while (encodedEvents.hasRemaining()) {
+        content.write(encodedEvents.get());
+      }
+      events += eventCount;
+    }
+
+    @Override
+    public void append(ByteBuffer body, boolean immutable) throws IOException {
+      throw new UnsupportedOperationException("Only encoded events are expected");
+    }
+
+    @Override
+    public void appendAll(Iterator<ByteBuffer> bodies, boolean immutable) throws IOException {
+      throw new UnsupportedOperationException("Only encoded events are expected");
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+    }
+
+    ByteBuffer getContent() {
+      return ByteBuffer.wrap(content.toByteArray());
+    }
+
+    int getEvents() {
+      return events;
+    }
+
+    boolean isClosed() {
+      return closed;
+    }
+
+    boolean isCancelled() {
+      return cancelled;
+    }
+  }
+
+  /**
+   * A {@link co.cask.http.HttpResponder} for testing. It only saved the first response status event sent.
+   */
+  private static final class TestHttpResponder extends AbstractHttpResponder {
+    private final AtomicReference<HttpResponseStatus> responseStatus = new AtomicReference<>();
+
+    @Override
+    public ChunkResponder sendChunkStart(HttpResponseStatus status, Multimap<String, String> headers) {
+      // Not used in test
+      return null;
+    }
+
+    @Override
+    public void sendContent(HttpResponseStatus status, ChannelBuffer content,
+                            String contentType, Multimap<String, String> headers) {
+      responseStatus.compareAndSet(null, status);
+    }
+
+    @Override
+    public void sendFile(File file, Multimap<String, String> headers) {
+      // Not used in test
+    }
+
+    @Override
+    public void sendContent(HttpResponseStatus httpResponseStatus,
+                            BodyProducer bodyProducer, Multimap<String, String> multimap) {
+      // Not used in test
+    }
+
+    HttpResponseStatus getResponseStatus() {
+      return responseStatus.get();
+    }
+  }
+}
@@ -19,8 +19,10 @@ package co.cask.cdap.data2.dataset2.lib.cube;
 import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
 import co.cask.cdap.api.dataset.lib.cube.Cube;
 import co.cask.cdap.api.dataset.lib.cube.CubeDeleteQuery;
+import co.cask.cdap.api.dataset.lib.cube.CubeExploreQuery;
 import co.cask.cdap.api.dataset.lib.cube.CubeFact;
 import co.cask.cdap.api.dataset.lib.cube.CubeQuery;
+import co.cask.cdap.api.dataset.lib.cube.DimensionValue;
 import co.cask.cdap.api.dataset.lib.cube.Interpolator;
 import co.cask.cdap.api.dataset.lib.cube.Interpolators;
 import co.cask.cdap.api.dataset.lib.cube.MeasureType;
@@ -247,6 +249,85 @@ public abstract class AbstractCubeTest {
 
   }
 
+  @Test
+  public void testCoalescedAdd() throws Exception {
+    Aggregation agg1 = new DefaultAggregation(ImmutableList.of("dim1"));
+    int res1 = 1;
+    Cube cube = getCube("myCoalescedCube", new int[] {res1}, ImmutableMap.of("agg1", agg1));
+
+    // facts for the same timestamp and dimensions in a single batch are combined before writing:
+    // counters are summed and the last gauge wins
+    cube.add(ImmutableList.of(getFact("metric1", 1, 1, MeasureType.COUNTER, "1"),
+                              getFact("metric1", 1, 2, MeasureType.COUNTER, "1"),
+                              getFact("metric1", 1, 4, MeasureType.COUNTER, "2"),
+                              getFact("metric1", 2, 8, MeasureType.COUNTER, "1"),
+                              getFact("gauge1", 1, 5, MeasureType.GAUGE, "1"),
+                              getFact("gauge1", 1, 3, MeasureType.GAUGE, "1")));
+
+    verifyCountQuery(cube, "agg1", 0, 10, res1, "metric1", AggregationFunction.SUM,
+                     ImmutableMap.of("dim1", "1"), new ArrayList<String>(),
+                     ImmutableList.of(
+                       new TimeSeries("metric1", new HashMap<String, String>(), timeValues(1, 3, 2, 8))));
+
+    verifyCountQuery(cube, "agg1", 0, 10, res1, "metric1", AggregationFunction.SUM,
+                     ImmutableMap.of("dim1", "2"), new ArrayList<String>(),
+                     ImmutableList.of(
+                       new TimeSeries("metric1", new HashMap<String, String>(), timeValues(1, 4))));
+
+    verifyCountQuery(cube, "agg1", 0, 10, res1, "gauge1", AggregationFunction.LATEST,
+                     ImmutableMap.of("dim1", "1"), new ArrayList<String>(),
+                     ImmutableList.of(
+                       new TimeSeries("gauge1", new HashMap<String, String>(), timeValues(1, 3))));
+  }
+
+  @Test
+  public void testResolutionRollup() throws Exception {
+    Aggregation agg1 = new DefaultAggregation(ImmutableList.of("dim1"));
+    int res1 = 1;
+    int res60 = 60;
+    Cube cube = getCube("myRollupCube", new int[] {res1, res60}, ImmutableMap.of("agg1", agg1));
+
+    writeInc(cube, "metric1", 1, 1, "1");
+    writeInc(cube, "metric1", 2, 2, "1");
+    writeInc(cube, "metric1", 59, 4, "1");
+    writeInc(cube, "metric1", 61, 8, "1");
+    writeInc(cube, "metric1", 130, 16, "1");
+    writeGauge(cube, "gauge1", 61, 5, "1");
+    writeGauge(cube, "gauge1", 119, 3, "1");
+    writeGauge(cube, "gauge1", 130, 7, "1");
+
+    // resolution 120 is not aggregated, the coarsest resolution that divides it (60) is used
+    verifyCountQuery(cube, "agg1", 0, 200, 120, "metric1", AggregationFunction.SUM,
+                     ImmutableMap.of("dim1", "1"), new ArrayList<String>(),
+                     ImmutableList.of(
+                       new TimeSeries("metric1", new HashMap<String, String>(), timeValues(0, 15, 120, 16))));
+
+    // resolution 10 is not aggregated, resolution 1 is used
+    verifyCountQuery(cube, "agg1", 0, 200, 10, "metric1", AggregationFunction.SUM,
+                     ImmutableMap.of("dim1", "1"), new ArrayList<String>(),
+                     ImmutableList.of(
+                       new TimeSeries("metric1", new HashMap<String, String>(),
+                                      timeValues(0, 3, 50, 4, 60, 8, 130, 16))));
+
+    // the latest value in each time slot wins
+    verifyCountQuery(cube, "agg1", 0, 200, 120, "gauge1", AggregationFunction.LATEST,
+                     ImmutableMap.of("dim1", "1"), new ArrayList<String>(),
+                     ImmutableList.of(
+                       new TimeSeries("gauge1", new HashMap<String, String>(), timeValues(0, 3, 120, 7))));
+
+    // max of the values aggregated in resolution 60: 7 at 0 and 8 at 60
+    verifyCountQuery(cube, "agg1", 0, 200, 120, "metric1", AggregationFunction.MAX,
+                     ImmutableMap.of("dim1", "1"), new ArrayList<String>(),
+                     ImmutableList.of(
+                       new TimeSeries("metric1", new HashMap<String, String>(), timeValues(0, 8, 120, 16))));
+
+    // search with a resolution that is not aggregated also uses the coarsest resolution that divides it
+    CubeExploreQuery exploreQuery = new CubeExploreQuery(0, 200, 120, -1, new ArrayList<DimensionValue>());
+    Assert.assertEquals(ImmutableList.of(new DimensionValue("dim1", "1")),
+                        new ArrayList<>(cube.findDimensionValues(exploreQuery)));
+    Assert.assertEquals(ImmutableList.of("gauge1", "metric1"), new ArrayList<>(cube.findMeasureNames(exploreQuery)));
+  }
+
   @Test
   public void testInterpolate() throws Exception {
     Aggregation agg1 = new DefaultAggregation(ImmutableList.of("dim1", "dim2", "dim3"),
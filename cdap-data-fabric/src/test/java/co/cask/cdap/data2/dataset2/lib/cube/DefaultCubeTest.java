@@ -16,13 +16,21 @@
 
 package co.cask.cdap.data2.dataset2.lib.cube;
 
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
 import co.cask.cdap.api.dataset.lib.cube.Cube;
+import co.cask.cdap.api.dataset.lib.cube.TimeSeries;
+import co.cask.cdap.api.dataset.lib.cube.TimeValue;
 import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryMetricsTable;
 import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryTableService;
 import co.cask.cdap.data2.dataset2.lib.timeseries.EntityTable;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -32,6 +40,54 @@ public class DefaultCubeTest extends AbstractCubeTest {
 
   @Override
   protected Cube getCube(final String name, int[] resolutions, Map<String, ? extends Aggregation> aggregations) {
+    return getCube(name, resolutions, aggregations, 1);
+  }
+
+  @Test
+  public void testParallelQuery() throws Exception {
+    Aggregation agg1 = new DefaultAggregation(ImmutableList.of("dim1", "dim2"));
+    int res1 = 1;
+    Cube cube = getCube("myParallelCube", new int[] {res1}, ImmutableMap.of("agg1", agg1), 4);
+
+    // write data over ten hours, which is ten rows (timebases) of each time series
+    long expectedSum = 0;
+    List<TimeValue> expected = Lists.newArrayList();
+    for (long ts = 100; ts < 10 * 3600; ts += 1000) {
+      writeInc(cube, "metric1", ts, ts, "1", "1");
+      writeInc(cube, "metric1", ts, 1, "1", "2");
+      writeInc(cube, "metric1", ts, 2, "2", "1");
+      expected.add(new TimeValue(ts, ts + 1));
+      expectedSum += ts + 1;
+    }
+
+    verifyCountQuery(cube, 0, 10 * 3600, res1, "metric1", AggregationFunction.SUM,
+                     ImmutableMap.of("dim1", "1"), ImmutableList.<String>of(),
+                     ImmutableList.of(new TimeSeries("metric1", new HashMap<String, String>(), expected)));
+
+    // query resolution of one day is served from resolution 1 across all rows
+    verifyCountQuery(cube, 0, 10 * 3600, 86400, "metric1", AggregationFunction.SUM,
+                     ImmutableMap.of("dim1", "1"), ImmutableList.<String>of(),
+                     ImmutableList.of(new TimeSeries("metric1", new HashMap<String, String>(),
+                                                     timeValues(0, expectedSum))));
+
+    // time range that starts and ends in the middle of rows
+    verifyCountQuery(cube, 5000, 20000, res1, "metric1", AggregationFunction.SUM,
+                     ImmutableMap.of("dim1", "1"), ImmutableList.<String>of(),
+                     ImmutableList.of(new TimeSeries("metric1", new HashMap<String, String>(),
+                                                     expected.subList(5, 20))));
+
+    // group by across all the rows
+    int count = expected.size();
+    verifyCountQuery(cube, 0, 86400, 86400, "metric1", AggregationFunction.SUM,
+                     ImmutableMap.<String, String>of(), ImmutableList.of("dim1"),
+                     ImmutableList.of(new TimeSeries("metric1", ImmutableMap.of("dim1", "1"),
+                                                     timeValues(0, expectedSum)),
+                                      new TimeSeries("metric1", ImmutableMap.of("dim1", "2"),
+                                                     timeValues(0, 2 * count))));
+  }
+
+  private Cube getCube(final String name, int[] resolutions, Map<String, ? extends Aggregation> aggregations,
+                       int queryParallelism) {
     FactTableSupplier supplier = new FactTableSupplier() {
       @Override
       public FactTable get(int resolution, int rollTime) {
@@ -46,6 +102,7 @@ public class DefaultCubeTest extends AbstractCubeTest {
       }
     };
 
-    return new DefaultCube(resolutions, supplier, aggregations, ImmutableMap.<String, AggregationAlias>of());
+    return new DefaultCube(resolutions, supplier, aggregations, ImmutableMap.<String, AggregationAlias>of(),
+                           queryParallelism);
   }
 }
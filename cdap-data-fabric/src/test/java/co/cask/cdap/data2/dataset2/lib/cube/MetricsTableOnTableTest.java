@@ -62,6 +62,11 @@ public class MetricsTableOnTableTest extends MetricsTableTest {
     // Do not test: MetricsTableOnTable is not thread-safe
   }
 
+  @Override
+  public void testConcurrentMultiRowIncrement() throws Exception {
+    // Do not test: MetricsTableOnTable is not thread-safe
+  }
+
   private static final class MetricsTableTxnlWrapper implements MetricsTable {
     private final MetricsTable delegate;
     private final TransactionExecutor txnl;
@@ -21,6 +21,10 @@ import com.google.common.collect.Lists;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class PartitionConsumerStateTest {
 
   @Test
@@ -30,6 +34,46 @@ public class PartitionConsumerStateTest {
     testSerDe(new PartitionConsumerState(Long.MAX_VALUE, Lists.<Long>newArrayList()));
   }
 
+  @Test
+  public void testCompactByteSerialization() {
+    testCompactSerDe(new PartitionConsumerState(2L, Lists.newArrayList(1L, 2L, 3L), true));
+    testCompactSerDe(new PartitionConsumerState(0L, Lists.newArrayList(3L, 5L, 100L, 61L, 12L), true));
+    testCompactSerDe(new PartitionConsumerState(Long.MAX_VALUE, Lists.<Long>newArrayList(), true));
+    testCompactSerDe(new PartitionConsumerState(Long.MAX_VALUE, Lists.newArrayList(Long.MIN_VALUE, -1L, 0L), true));
+    testCompactSerDe(PartitionConsumerState.COMPACT_FROM_BEGINNING);
+
+    // the versions of a compact state are sorted and unique
+    PartitionConsumerState state = new PartitionConsumerState(10L, Lists.newArrayList(7L, 3L, 7L, 5L), true);
+    Assert.assertEquals(Lists.newArrayList(3L, 5L, 7L), state.getVersionsToCheck());
+
+    // transaction ids that are close to each other take a few bytes each, rather than eight
+    long startVersion = 1500000000000000000L;
+    List<Long> versions = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      versions.add(startVersion - 1000000000L + i * 1000L);
+    }
+    PartitionConsumerState compactState = new PartitionConsumerState(startVersion, versions, true);
+    PartitionConsumerState listState = compactState.withCompact(false);
+    Assert.assertEquals(listState, PartitionConsumerState.fromBytes(listState.toBytes()));
+    Assert.assertEquals(compactState, PartitionConsumerState.fromBytes(compactState.toBytes()));
+    Assert.assertTrue(compactState.toBytes().length * 3 < listState.toBytes().length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTruncatedCompactBytes() {
+    byte[] bytes = new PartitionConsumerState(100L, Lists.newArrayList(1L, 2L), true).toBytes();
+    PartitionConsumerState.fromBytes(Arrays.copyOf(bytes, bytes.length - 1));
+  }
+
+  private void testCompactSerDe(PartitionConsumerState stateToSerialize) {
+    byte[] bytes = stateToSerialize.toBytes();
+    // Assert that the serialization format version is 1
+    Assert.assertEquals(1, bytes[0]);
+    PartitionConsumerState deserializedState = PartitionConsumerState.fromBytes(bytes);
+    Assert.assertEquals(stateToSerialize, deserializedState);
+    Assert.assertTrue(deserializedState.isCompact());
+  }
+
   private void testSerDe(PartitionConsumerState stateToSerialize) {
     byte[] bytes = stateToSerialize.toBytes();
     // Assert that the serialization format version is 0
@@ -18,6 +18,7 @@ package co.cask.cdap.data2.dataset2.lib.partitioned;
 
 import co.cask.cdap.api.Predicate;
 import co.cask.cdap.api.dataset.lib.Partition;
+import co.cask.cdap.api.dataset.lib.PartitionConsumerState;
 import co.cask.cdap.api.dataset.lib.PartitionDetail;
 import co.cask.cdap.api.dataset.lib.PartitionFilter;
 import co.cask.cdap.api.dataset.lib.PartitionKey;
@@ -39,6 +40,7 @@ import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import org.apache.tephra.Transaction;
 import org.apache.tephra.TransactionAware;
 import org.apache.tephra.TransactionContext;
 import org.apache.tephra.TransactionExecutor;
@@ -54,6 +56,7 @@ import org.junit.rules.TemporaryFolder;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -150,6 +153,143 @@ public class PartitionConsumerTest {
     txContext2.finish();
   }
 
+  @Test
+  public void testCompactState() throws Exception {
+    // same as testPartitionConsumer, but with a consumer that keeps its state as a compact cursor
+    PartitionedFileSet dataset1 = dsFrameworkUtil.getInstance(pfsInstance);
+    PartitionedFileSet dataset2 = dsFrameworkUtil.getInstance(pfsInstance);
+    TransactionManager txManager = dsFrameworkUtil.getTxManager();
+    InMemoryTxSystemClient txClient = new InMemoryTxSystemClient(txManager);
+
+    TransactionContext txContext1 = new TransactionContext(txClient, (TransactionAware) dataset1);
+    txContext1.start();
+    PartitionKey partitionKey1 = generateUniqueKey();
+    dataset1.getPartitionOutput(partitionKey1).addPartition();
+    txContext1.finish();
+
+    InMemoryStatePersistor persistor = new InMemoryStatePersistor();
+    ConsumerConfiguration configuration = ConsumerConfiguration.builder().setCompactState(true).build();
+    PartitionConsumer partitionConsumer = new ConcurrentPartitionConsumer(dataset2, persistor, configuration);
+
+    TransactionContext txContext2 = new TransactionContext(txClient, (TransactionAware) dataset2);
+    txContext2.start();
+    List<? extends PartitionDetail> partitionIterator = partitionConsumer.consumePartitions().getPartitions();
+    Assert.assertEquals(1, partitionIterator.size());
+    Assert.assertEquals(partitionKey1, partitionIterator.get(0).getPartitionKey());
+    txContext2.finish();
+
+    // producer adds a second partition, but does not yet commit the transaction
+    txContext1.start();
+    PartitionKey partitionKey2 = generateUniqueKey();
+    dataset1.getPartitionOutput(partitionKey2).addPartition();
+
+    txContext2.start();
+    Assert.assertTrue(partitionConsumer.consumePartitions().getPartitions().isEmpty());
+    txContext2.finish();
+
+    // the in-progress transaction is excluded by the compact state
+    PartitionConsumerState state = getPartitionConsumerState(persistor);
+    Assert.assertTrue(state.isCompact());
+    Assert.assertEquals(1, state.getVersionsToCheck().size());
+
+    txContext1.finish();
+
+    txContext2.start();
+    partitionIterator = partitionConsumer.consumePartitions().getPartitions();
+    Assert.assertEquals(1, partitionIterator.size());
+    Assert.assertEquals(partitionKey2, partitionIterator.get(0).getPartitionKey());
+    txContext2.finish();
+
+    state = getPartitionConsumerState(persistor);
+    Assert.assertTrue(state.isCompact());
+    Assert.assertTrue(state.getVersionsToCheck().isEmpty());
+
+    // a consumer that is reconfigured to not use a compact state converts the state on its next poll
+    partitionConsumer = new ConcurrentPartitionConsumer(dataset2, persistor);
+    txContext2.start();
+    Assert.assertTrue(partitionConsumer.consumePartitions().getPartitions().isEmpty());
+    txContext2.finish();
+    Assert.assertFalse(getPartitionConsumerState(persistor).isCompact());
+  }
+
+  @Test
+  public void testCompactStateWithLongRunningTransactions() throws Exception {
+    // both kinds of state should consume every partition, while the compact state stays smaller
+    int listStateSize = pollWithLongRunningTransactions(false, 5, 5, 20);
+    int compactStateSize = pollWithLongRunningTransactions(true, 5, 5, 20);
+    Assert.assertTrue(compactStateSize < listStateSize);
+  }
+
+  /**
+   * Polls a dataset that receives partitions in many short transactions, while long-running transactions
+   * are in progress, and verifies that every partition is consumed.
+   *
+   * @return the maximum size of the persisted consumer state
+   */
+  private int pollWithLongRunningTransactions(boolean compactState, int numPolls, int partitionsPerPoll,
+                                              int numLongRunning) throws Exception {
+    final PartitionedFileSet dataset = dsFrameworkUtil.getInstance(pfsInstance);
+    TransactionAware txAwareDataset = (TransactionAware) dataset;
+    InMemoryTxSystemClient txClient = new InMemoryTxSystemClient(dsFrameworkUtil.getTxManager());
+
+    InMemoryStatePersistor persistor = new InMemoryStatePersistor();
+    ConsumerConfiguration configuration = ConsumerConfiguration.builder()
+      .setCompactState(compactState)
+      .setMaxWorkingSetSize(Integer.MAX_VALUE)
+      .build();
+    final PartitionConsumer partitionConsumer = new ConcurrentPartitionConsumer(dataset, persistor, configuration);
+
+    // transactions that stay in progress, and some of which finish during each poll interval
+    List<Transaction> longRunning = new LinkedList<>();
+    for (int i = 0; i < numLongRunning; i++) {
+      longRunning.add(txClient.startLong());
+    }
+
+    final Set<PartitionKey> consumed = new HashSet<>();
+    int maxStateSize = 0;
+    for (int poll = 0; poll < numPolls; poll++) {
+      for (int i = 0; i < partitionsPerPoll; i++) {
+        final PartitionKey key = generateUniqueKey();
+        dsFrameworkUtil.newInMemoryTransactionExecutor(txAwareDataset).execute(new TransactionExecutor.Subroutine() {
+          @Override
+          public void apply() throws Exception {
+            dataset.getPartitionOutput(key).addPartition();
+          }
+        });
+      }
+      // replace some of the long-running transactions
+      for (int i = 0; i < numLongRunning / numPolls; i++) {
+        txClient.abort(longRunning.remove(0));
+        longRunning.add(txClient.startLong());
+      }
+
+      dsFrameworkUtil.newInMemoryTransactionExecutor(txAwareDataset).execute(new TransactionExecutor.Subroutine() {
+        @Override
+        public void apply() throws Exception {
+          List<? extends Partition> partitions = partitionConsumer.consumePartitions().getPartitions();
+          partitionConsumer.onFinish(partitions, true);
+          consumed.addAll(toKeys(partitions));
+        }
+      });
+      maxStateSize = Math.max(maxStateSize, persistor.readState().length);
+    }
+    for (Transaction tx : longRunning) {
+      txClient.abort(tx);
+    }
+
+    Assert.assertEquals(numPolls * partitionsPerPoll, consumed.size());
+    Assert.assertEquals(compactState, getPartitionConsumerState(persistor).isCompact());
+    dsFrameworkUtil.deleteInstance(pfsInstance);
+    before();
+    return maxStateSize;
+  }
+
+  private PartitionConsumerState getPartitionConsumerState(InMemoryStatePersistor persistor) {
+    byte[] state = persistor.readState();
+    Assert.assertNotNull(state);
+    return ConsumerWorkingSet.fromBytes(state).getPartitionConsumerState();
+  }
+
   @Test
   public void testSimplePartitionConsuming() throws Exception {
     final PartitionedFileSet dataset = dsFrameworkUtil.getInstance(pfsInstance);
@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.partitioned;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.lib.PartitionFilter;
+import co.cask.cdap.api.dataset.lib.PartitionKey;
+import co.cask.cdap.api.dataset.lib.Partitioning;
+import co.cask.cdap.data2.dataset2.lib.table.FuzzyRowFilter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link PartitionScanPlanner}.
+ */
+public class PartitionScanPlannerTest {
+
+  private static final Partitioning PARTITIONING = Partitioning.builder()
+    .addIntField("i")
+    .addStringField("s")
+    .addLongField("l")
+    .build();
+
+  @Test
+  public void testIndexSelection() {
+    PartitionScanPlanner planner = new PartitionScanPlanner(PARTITIONING, ImmutableSet.of("s", "l"));
+
+    Assert.assertNull(planner.getIndexedField(null));
+    // no condition on an indexed field
+    Assert.assertNull(planner.getIndexedField(PartitionFilter.builder().addRangeCondition("i", 1, 5).build()));
+    // equality on the first field is always answered by the row key range
+    Assert.assertNull(planner.getIndexedField(PartitionFilter.builder()
+                                                .addValueCondition("i", 1)
+                                                .addValueCondition("s", "x")
+                                                .build()));
+    // bounded range on a non-leading field, also across zero
+    Assert.assertEquals("l", planner.getIndexedField(PartitionFilter.builder()
+                                                       .addRangeCondition("l", 10L, 20L)
+                                                       .build()));
+    Assert.assertEquals("l", planner.getIndexedField(PartitionFilter.builder()
+                                                       .addRangeCondition("l", -10L, 10L)
+                                                       .build()));
+    // a range with only one bound is never answered by an index
+    Assert.assertNull(planner.getIndexedField(PartitionFilter.builder().addRangeCondition("l", 10L, null).build()));
+    Assert.assertNull(planner.getIndexedField(PartitionFilter.builder()
+                                                .addRangeCondition("s", null, "x")
+                                                .addRangeCondition("l", 10L, null)
+                                                .build()));
+    // equality is preferred over a range
+    Assert.assertEquals("s", planner.getIndexedField(PartitionFilter.builder()
+                                                       .addRangeCondition("l", 10L, 20L)
+                                                       .addValueCondition("s", "x")
+                                                       .build()));
+    // bounded range is preferred over a half-open range
+    Assert.assertEquals("l", planner.getIndexedField(PartitionFilter.builder()
+                                                       .addRangeCondition("s", "a", null)
+                                                       .addRangeCondition("l", 10L, 20L)
+                                                       .build()));
+    // range on the first field is only replaced by a more selective index
+    Assert.assertNull(planner.getIndexedField(PartitionFilter.builder()
+                                                .addRangeCondition("i", 1, 5)
+                                                .addRangeCondition("l", 10L, 20L)
+                                                .build()));
+    Assert.assertEquals("s", planner.getIndexedField(PartitionFilter.builder()
+                                                       .addRangeCondition("i", 1, 5)
+                                                       .addValueCondition("s", "x")
+                                                       .build()));
+
+    // without indexes, the partitions table is always scanned
+    planner = new PartitionScanPlanner(PARTITIONING, ImmutableSet.<String>of());
+    Assert.assertNull(planner.getIndexedField(PartitionFilter.builder().addValueCondition("s", "x").build()));
+  }
+
+  @Test
+  public void testIndexValueOrder() {
+    // index values are compared as bytes, hence their encoding must preserve the order of negative values
+    int[] ints = { Integer.MIN_VALUE, -100, -1, 0, 1, 100, Integer.MAX_VALUE };
+    for (int i = 1; i < ints.length; i++) {
+      Assert.assertTrue(Bytes.compareTo(FieldTypes.toBytes(ints[i - 1], Partitioning.FieldType.INT),
+                                        FieldTypes.toBytes(ints[i], Partitioning.FieldType.INT)) < 0);
+    }
+    long[] longs = { Long.MIN_VALUE, -100L, -1L, 0L, 1L, 100L, Long.MAX_VALUE };
+    for (int i = 1; i < longs.length; i++) {
+      Assert.assertTrue(Bytes.compareTo(FieldTypes.toBytes(longs[i - 1], Partitioning.FieldType.LONG),
+                                        FieldTypes.toBytes(longs[i], Partitioning.FieldType.LONG)) < 0);
+    }
+  }
+
+  @Test
+  public void testFuzzyRowFilter() {
+    PartitionScanPlanner planner = new PartitionScanPlanner(PARTITIONING, ImmutableSet.<String>of());
+
+    // no filter needed if there are no equality conditions after an unfixed field
+    Assert.assertNull(planner.createFuzzyRowFilter(null));
+    Assert.assertNull(planner.createFuzzyRowFilter(PartitionFilter.builder().addValueCondition("i", 1).build()));
+    Assert.assertNull(planner.createFuzzyRowFilter(PartitionFilter.builder().addRangeCondition("i", 1, 5).build()));
+    Assert.assertNull(planner.createFuzzyRowFilter(PartitionFilter.builder()
+                                                     .addValueCondition("i", 1)
+                                                     .addValueCondition("s", "x")
+                                                     .addValueCondition("l", 1L)
+                                                     .build()));
+    // the position of l is unknown, since s is not fixed
+    Assert.assertNull(planner.createFuzzyRowFilter(PartitionFilter.builder().addValueCondition("l", 1L).build()));
+
+    List<PartitionFilter> filters = ImmutableList.of(
+      PartitionFilter.builder().addValueCondition("s", "b").build(),
+      PartitionFilter.builder().addRangeCondition("i", 1, 3).addValueCondition("s", "bc").build(),
+      PartitionFilter.builder().addValueCondition("s", "").addValueCondition("l", 2L).build(),
+      PartitionFilter.builder().addValueCondition("s", "b").addValueCondition("l", 2L).build(),
+      PartitionFilter.builder().addRangeCondition("i", 0, 3).addValueCondition("s", "b").addValueCondition("l", 2L)
+        .build()
+    );
+
+    List<PartitionKey> keys = new ArrayList<>();
+    for (int i = -1; i < 4; i++) {
+      for (String s : new String[] { "", "b", "bc", "c" }) {
+        for (long l = -1L; l < 4L; l++) {
+          keys.add(PartitionKey.builder().addIntField("i", i).addStringField("s", s).addLongField("l", l).build());
+        }
+      }
+    }
+
+    for (PartitionFilter filter : filters) {
+      FuzzyRowFilter fuzzyRowFilter = planner.createFuzzyRowFilter(filter);
+      Assert.assertNotNull("Expected fuzzy row filter for " + filter, fuzzyRowFilter);
+      int included = 0;
+      for (PartitionKey key : keys) {
+        byte[] rowKey = PartitionedFileSetDataset.generateRowKey(key, PARTITIONING);
+        boolean include = fuzzyRowFilter.filterRow(rowKey) == FuzzyRowFilter.ReturnCode.INCLUDE;
+        // the fuzzy row filter must never exclude a matching partition
+        if (filter.match(key)) {
+          Assert.assertTrue("Partition " + key + " excluded for " + filter, include);
+        }
+        if (include) {
+          included++;
+        }
+      }
+      Assert.assertTrue("Fuzzy row filter for " + filter + " does not exclude any partition", included < keys.size());
+    }
+  }
+}
@@ -106,6 +106,7 @@ public class PartitionedFileSetTest {
 
   private static final DatasetId pfsInstance = DatasetFrameworkTestUtil.NAMESPACE_ID.dataset("pfs");
   private static final DatasetId pfsExternalInstance = DatasetFrameworkTestUtil.NAMESPACE_ID.dataset("ext");
+  private static final DatasetId pfsIndexedInstance = DatasetFrameworkTestUtil.NAMESPACE_ID.dataset("indexed");
   private static Location pfsBaseLocation;
 
   private static Map<String, String> tablePermissions;
@@ -915,9 +916,69 @@ public class PartitionedFileSetTest {
   @Test
   @Category(SlowTests.class)
   public void testAddRemoveGetPartitions() throws Exception {
+    testAddRemoveGetPartitions((PartitionedFileSet) dsFrameworkUtil.getInstance(pfsInstance));
+  }
 
-    final PartitionedFileSet dataset = dsFrameworkUtil.getInstance(pfsInstance);
+  @Test
+  @Category(SlowTests.class)
+  public void testAddRemoveGetPartitionsWithIndexes() throws Exception {
+    // the same partitions and filters, answered with secondary indexes on the non-leading fields
+    dsFrameworkUtil.createInstance("partitionedFileSet", pfsIndexedInstance, PartitionedFileSetProperties.builder()
+      .setPartitioning(PARTITIONING_1)
+      .setIndexedFields("i", "l")
+      .setBasePath("indexedDir")
+      .build());
+    try {
+      testAddRemoveGetPartitions((PartitionedFileSet) dsFrameworkUtil.getInstance(pfsIndexedInstance));
+    } finally {
+      dsFrameworkUtil.deleteInstance(pfsIndexedInstance);
+    }
+  }
+
+  @Test
+  public void testIndexedRangeAcrossZero() throws Exception {
+    dsFrameworkUtil.createInstance("partitionedFileSet", pfsIndexedInstance, PartitionedFileSetProperties.builder()
+      .setPartitioning(PARTITIONING_1)
+      .setIndexedFields("i", "l")
+      .setBasePath("indexedDir")
+      .build());
+    try {
+      final PartitionedFileSet dataset = dsFrameworkUtil.getInstance(pfsIndexedInstance);
+      final Set<BasicPartition> allPartitionDetails = Sets.newHashSet();
+      for (int i = -2; i <= 2; i++) {
+        final PartitionKey key = PartitionKey.builder()
+          .addField("s", "x")
+          .addField("i", i * 100)
+          .addField("l", i * -100L)
+          .build();
+        allPartitionDetails.add(dsFrameworkUtil.newTransactionExecutor((TransactionAware) dataset)
+          .execute(new Callable<BasicPartition>() {
+            @Override
+            public BasicPartition call() throws Exception {
+              PartitionOutput p = dataset.getPartitionOutput(key);
+              p.addPartition();
+              return new BasicPartition((PartitionedFileSetDataset) dataset, p.getRelativePath(), p.getPartitionKey());
+            }
+          }));
+      }
+
+      // the bounded ranges from negative to positive values are answered by the indexes, and must include the
+      // partitions with negative values
+      PartitionScanPlanner planner = new PartitionScanPlanner(PARTITIONING_1, ImmutableSet.of("i", "l"));
+      PartitionFilter intFilter = PartitionFilter.builder().addRangeCondition("i", -150, 150).build();
+      PartitionFilter longFilter = PartitionFilter.builder().addRangeCondition("l", -250L, 50L).build();
+      Assert.assertEquals("i", planner.getIndexedField(intFilter));
+      Assert.assertEquals("l", planner.getIndexedField(longFilter));
+      // matches i = -100, 0, 100
+      testFilter(dataset, allPartitionDetails, intFilter);
+      // matches l = -200, -100, 0
+      testFilter(dataset, allPartitionDetails, longFilter);
+    } finally {
+      dsFrameworkUtil.deleteInstance(pfsIndexedInstance);
+    }
+  }
 
+  private void testAddRemoveGetPartitions(final PartitionedFileSet dataset) throws Exception {
     final PartitionKey[][][] keys = new PartitionKey[4][4][4];
     final String[][][] paths = new String[4][4][4];
     final Set<BasicPartition> allPartitionDetails = Sets.newHashSet();
@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.table;
+
+import co.cask.cdap.api.common.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+
+/**
+ * Tests for {@link ArenaWriteBuffer}.
+ */
+public class ArenaWriteBufferTest {
+
+  private static final byte[] R1 = Bytes.toBytes("r1");
+  private static final byte[] R2 = Bytes.toBytes("r2");
+  private static final byte[] C1 = Bytes.toBytes("c1");
+  private static final byte[] C2 = Bytes.toBytes("c2");
+
+  @Test
+  public void testSameAsMapBuffer() {
+    Random random = new Random(0);
+    WriteBuffer expected = new MapWriteBuffer();
+    WriteBuffer actual = new ArenaWriteBuffer();
+
+    for (int i = 0; i < 20000; i++) {
+      byte[] row = Bytes.toBytes("row" + random.nextInt(50));
+      byte[][] columns = { Bytes.toBytes("col" + random.nextInt(10)) };
+      int op = random.nextInt(10);
+      if (op < 4) {
+        byte[][] values = { random.nextInt(4) == 0 ? new byte[random.nextInt(12)] : Bytes.toBytes(random.nextLong()) };
+        random.nextBytes(values[0]);
+        expected.put(row, columns, values);
+        actual.put(row, columns, values);
+      } else if (op < 5) {
+        expected.put(row, columns, new byte[1][]);
+        actual.put(row, columns, new byte[1][]);
+      } else {
+        long[] amounts = { random.nextInt(100) };
+        boolean failed = false;
+        try {
+          expected.increment(row, columns, amounts);
+        } catch (NumberFormatException e) {
+          failed = true;
+        }
+        try {
+          actual.increment(row, columns, amounts);
+          Assert.assertFalse(failed);
+        } catch (NumberFormatException e) {
+          Assert.assertTrue(failed);
+        }
+      }
+
+      if (i % 100 == 0) {
+        byte[] lookup = Bytes.toBytes("row" + random.nextInt(50));
+        Assert.assertEquals(toStrings(expected.getRow(lookup)), toStrings(actual.getRow(lookup)));
+      }
+      if (i % 300 == 0) {
+        List<byte[]> lookups = new ArrayList<>();
+        for (int j = 0; j < 10; j++) {
+          lookups.add(Bytes.toBytes("row" + random.nextInt(60)));
+        }
+        List<NavigableMap<byte[], Update>> expectedRows = expected.getRows(lookups);
+        List<NavigableMap<byte[], Update>> actualRows = actual.getRows(lookups);
+        Assert.assertEquals(lookups.size(), actualRows.size());
+        for (int j = 0; j < lookups.size(); j++) {
+          Assert.assertEquals(toStrings(expectedRows.get(j)), toStrings(actualRows.get(j)));
+        }
+      }
+      if (i % 1000 == 0) {
+        Assert.assertEquals(toStrings(expected.getRows(null, null)), toStrings(actual.getRows(null, null)));
+        byte[] start = Bytes.toBytes("row1");
+        byte[] stop = Bytes.toBytes("row3");
+        Assert.assertEquals(toStrings(expected.getRows(start, stop)), toStrings(actual.getRows(start, stop)));
+        Assert.assertEquals(toStrings(expected.getRows(null, stop)), toStrings(actual.getRows(null, stop)));
+        Assert.assertEquals(toStrings(expected.getRows(start, null)), toStrings(actual.getRows(start, null)));
+      }
+    }
+
+    Assert.assertEquals(toStrings(expected.drain().entrySet().iterator()),
+                        toStrings(actual.drain().entrySet().iterator()));
+    Assert.assertTrue(actual.isEmpty());
+    Assert.assertNull(actual.getRow(R1));
+  }
+
+  @Test
+  public void testIncrementNonLong() {
+    WriteBuffer buffer = new ArenaWriteBuffer();
+    buffer.put(R1, new byte[][] { C1, C2 }, new byte[][] { Bytes.toBytes("a"), Bytes.toBytes(1L) });
+    try {
+      buffer.increment(R1, new byte[][] { C2, C1 }, new long[] { 1L, 1L });
+      Assert.fail("increment should have failed with NumberFormatException");
+    } catch (NumberFormatException e) {
+      // Expected
+    }
+    // none of the increments should be buffered
+    NavigableMap<byte[], Update> row = buffer.getRow(R1);
+    Assert.assertArrayEquals(Bytes.toBytes("a"), row.get(C1).getBytes());
+    Assert.assertArrayEquals(Bytes.toBytes(1L), row.get(C2).getBytes());
+
+    // increments of deleted columns start from zero
+    buffer.put(R1, new byte[][] { C1 }, new byte[1][]);
+    buffer.increment(R1, new byte[][] { C1 }, new long[] { 5L });
+    Assert.assertArrayEquals(Bytes.toBytes(5L), buffer.getRow(R1).get(C1).getBytes());
+  }
+
+  @Test
+  public void testIteratorNotAffectedByWrites() {
+    WriteBuffer buffer = new ArenaWriteBuffer();
+    buffer.put(R1, new byte[][] { C1 }, new byte[][] { Bytes.toBytes("v1") });
+    buffer.put(R2, new byte[][] { C1 }, new byte[][] { Bytes.toBytes("v2") });
+
+    Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rows = buffer.getRows(null, null);
+    Map.Entry<byte[], NavigableMap<byte[], Update>> first = rows.next();
+    for (int i = 0; i < 10000; i++) {
+      buffer.put(R2, new byte[][] { C1, C2 }, new byte[][] { Bytes.toBytes("v" + i), Bytes.toBytes("v" + i) });
+    }
+    Map.Entry<byte[], NavigableMap<byte[], Update>> second = rows.next();
+    Assert.assertFalse(rows.hasNext());
+
+    Assert.assertArrayEquals(R1, first.getKey());
+    Assert.assertArrayEquals(R2, second.getKey());
+    Assert.assertEquals(1, second.getValue().size());
+    Assert.assertArrayEquals(Bytes.toBytes("v2"), second.getValue().get(C1).getBytes());
+    Assert.assertArrayEquals(Bytes.toBytes("v9999"), buffer.getRow(R2).get(C2).getBytes());
+  }
+
+  @Test
+  public void testReplacedCellsAreCompacted() {
+    ArenaWriteBuffer buffer = new ArenaWriteBuffer();
+    byte[][] columns = new byte[10][];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = Bytes.toBytes("c" + i);
+    }
+    long[] amounts = new long[] { 1L };
+    for (int i = 0; i < 200000; i++) {
+      buffer.increment(R1, new byte[][] { columns[i % columns.length] }, amounts);
+    }
+    // without compaction, the increments take more than 4MB
+    Assert.assertTrue(buffer.getArenaBytes() < 2 * 1024 * 1024);
+
+    NavigableMap<byte[], Update> row = buffer.getRow(R1);
+    Assert.assertEquals(columns.length, row.size());
+    for (Update update : row.values()) {
+      Assert.assertEquals(20000L, ((IncrementValue) update).getValue().longValue());
+    }
+  }
+
+  private static List<String> toStrings(Iterator<Map.Entry<byte[], NavigableMap<byte[], Update>>> rows) {
+    List<String> result = new ArrayList<>();
+    while (rows.hasNext()) {
+      Map.Entry<byte[], NavigableMap<byte[], Update>> row = rows.next();
+      result.add(Bytes.toStringBinary(row.getKey()) + "=" + toStrings(row.getValue()));
+    }
+    return result;
+  }
+
+  private static Map<String, String> toStrings(NavigableMap<byte[], Update> columns) {
+    if (columns == null) {
+      return null;
+    }
+    Map<String, String> result = new LinkedHashMap<>();
+    for (Map.Entry<byte[], Update> column : columns.entrySet()) {
+      Update update = column.getValue();
+      String value;
+      if (update instanceof IncrementValue) {
+        value = "increment " + update.getValue();
+      } else if (update.getBytes() == null) {
+        value = "delete";
+      } else {
+        value = "put " + Bytes.toStringBinary(update.getBytes());
+      }
+      result.put(Bytes.toStringBinary(column.getKey()), value);
+    }
+    return result;
+  }
+}
@@ -19,6 +19,7 @@ package co.cask.cdap.data2.dataset2.lib.table;
 import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.dataset.DatasetAdmin;
 import co.cask.cdap.api.dataset.DatasetProperties;
+import co.cask.cdap.api.dataset.table.ConflictDetection;
 import co.cask.cdap.api.dataset.table.Get;
 import co.cask.cdap.api.dataset.table.Row;
 import co.cask.cdap.api.dataset.table.Scan;
@@ -502,6 +503,102 @@ public abstract class BufferingTableTest<T extends BufferingTable> extends Table
     }
   }
 
+  @Test
+  public void testFlushBeforeCommit() throws Exception {
+    DatasetProperties props = TableProperties.builder()
+      .setConflictDetection(ConflictDetection.NONE)
+      .setWriteBufferFlushSize(100)
+      .build();
+    DatasetAdmin admin = getTableAdmin(CONTEXT1, MY_TABLE, props);
+    admin.create();
+    try {
+      Transaction tx1 = txClient.startShort();
+      BufferingTable table = getTable(CONTEXT1, MY_TABLE, props);
+      table.startTx(tx1);
+      for (int i = 0; i < 100; i++) {
+        table.put(Bytes.toBytes("row" + i), a(C1), a(V1));
+      }
+      // most of the writes should be persisted already, and all of them visible in the transaction
+      Assert.assertTrue(countRows(table.scanPersisted(new Scan(null, null))) > 50);
+      Assert.assertEquals(100, countRows(table.scan(null, null)));
+      TableAssert.assertRow(a(C1, V1), table.get(Bytes.toBytes("row0"), a(C1)));
+
+      // the persisted writes should not be visible to other transactions
+      Transaction tx2 = txClient.startShort();
+      BufferingTable table2 = getTable(CONTEXT1, MY_TABLE, props);
+      table2.startTx(tx2);
+      Assert.assertEquals(0, countRows(table2.scan(null, null)));
+      txClient.commitOrThrow(tx2);
+
+      // rolling back should undo the persisted writes, too
+      Assert.assertTrue(table.rollbackTx());
+      txClient.abort(tx1);
+
+      Transaction tx3 = txClient.startShort();
+      table.startTx(tx3);
+      Assert.assertEquals(0, countRows(table.scan(null, null)));
+      for (int i = 0; i < 100; i++) {
+        table.put(Bytes.toBytes("row" + i), a(C1), a(V2));
+      }
+      Assert.assertTrue(table.getTxChanges().isEmpty());
+      Assert.assertTrue(table.commitTx());
+      txClient.commitOrThrow(tx3);
+      table.postTxCommit();
+
+      Transaction tx4 = txClient.startShort();
+      table2.startTx(tx4);
+      Assert.assertEquals(100, countRows(table2.scan(null, null)));
+      TableAssert.assertRow(a(C1, V2), table2.get(Bytes.toBytes("row99"), a(C1)));
+      txClient.commitOrThrow(tx4);
+
+      // rolling back should undo flushed deletes, too
+      Transaction tx5 = txClient.startShort();
+      table.startTx(tx5);
+      for (int i = 0; i < 100; i++) {
+        table.delete(Bytes.toBytes("row" + i), a(C1));
+      }
+      Assert.assertEquals(0, countRows(table.scan(null, null)));
+      Assert.assertTrue(table.rollbackTx());
+      txClient.abort(tx5);
+
+      Transaction tx6 = txClient.startShort();
+      table2.startTx(tx6);
+      Assert.assertEquals(100, countRows(table2.scan(null, null)));
+      TableAssert.assertRow(a(C1, V2), table2.get(Bytes.toBytes("row0"), a(C1)));
+      txClient.commitOrThrow(tx6);
+
+      // rolling back should only undo the cells written by the transaction, not others in the flushed row ranges
+      Transaction tx7 = txClient.startShort();
+      table.startTx(tx7);
+      for (int i = 0; i < 100; i += 2) {
+        table.put(Bytes.toBytes("row" + i), a(C2), a(V3));
+      }
+      Assert.assertTrue(table.rollbackTx());
+      txClient.abort(tx7);
+
+      Transaction tx8 = txClient.startShort();
+      table2.startTx(tx8);
+      for (int i = 0; i < 100; i++) {
+        TableAssert.assertRow(a(C1, V2), table2.get(Bytes.toBytes("row" + i)));
+      }
+      txClient.commitOrThrow(tx8);
+    } finally {
+      admin.drop();
+    }
+  }
+
+  private static int countRows(Scanner scanner) {
+    try {
+      int count = 0;
+      while (scanner.next() != null) {
+        count++;
+      }
+      return count;
+    } finally {
+      scanner.close();
+    }
+  }
+
   private void verify123(BufferingTable table) throws Exception {
     byte[] row = new byte[] {1};
     byte[] col = new byte[] {2};
@@ -188,6 +188,70 @@ public abstract class MetricsTableTest {
     Assert.assertEquals(9 * rounds, table.incrementAndGet(A, Z, 0L));
   }
 
+  protected class MultiRowIncThread extends Thread implements Closeable {
+    final MetricsTable table;
+    final NavigableMap<byte[], NavigableMap<byte[], Long>> updates;
+    int rounds;
+
+    public MultiRowIncThread(MetricsTable table, NavigableMap<byte[], NavigableMap<byte[], Long>> updates,
+                             int rounds) {
+      this.table = table;
+      this.updates = updates;
+      this.rounds = rounds;
+    }
+
+    public void run() {
+      while (rounds-- > 0) {
+        try {
+          table.increment(updates);
+        } catch (Exception e) {
+          System.err.println("exception for multi-row increment #" + rounds + ": " + e.getMessage());
+          e.printStackTrace();
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      table.close();
+    }
+  }
+
+  @Test
+  public void testConcurrentMultiRowIncrement() throws Exception {
+    String tableName = "testConcurrentMultiRowIncrement";
+    final int rounds = 500;
+    // each thread uses its own table instance; rows A, B and C are incremented by two threads each, row X by one
+    Collection<? extends Thread> threads = ImmutableList.of(
+      new MultiRowIncThread(getTable(tableName), rowsOf(A, B), rounds),
+      new MultiRowIncThread(getTable(tableName), rowsOf(B, C), rounds),
+      new MultiRowIncThread(getTable(tableName), rowsOf(C, A), rounds),
+      new MultiRowIncThread(getTable(tableName), rowsOf(X), rounds));
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+      ((Closeable) t).close();
+    }
+
+    MetricsTable table = getTable(tableName);
+    Assert.assertEquals(2 * rounds, table.incrementAndGet(A, P, 0L));
+    Assert.assertEquals(2 * rounds, table.incrementAndGet(B, P, 0L));
+    Assert.assertEquals(2 * rounds, table.incrementAndGet(C, P, 0L));
+    Assert.assertEquals(rounds, table.incrementAndGet(X, P, 0L));
+  }
+
+  private NavigableMap<byte[], NavigableMap<byte[], Long>> rowsOf(byte[]... rows) {
+    NavigableMap<byte[], NavigableMap<byte[], Long>> updates = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    for (byte[] row : rows) {
+      NavigableMap<byte[], Long> increments = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+      increments.put(P, 1L);
+      updates.put(row, increments);
+    }
+    return updates;
+  }
+
   class SwapThread extends Thread {
     private final MetricsTable table;
     private final byte[] row;
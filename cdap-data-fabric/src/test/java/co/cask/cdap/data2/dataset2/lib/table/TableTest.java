@@ -1194,6 +1194,48 @@ public abstract class TableTest<T extends Table> {
     }
   }
 
+  @Test
+  public void testMultiGetUnsortedAndRepeatedRows() throws Exception {
+    DatasetAdmin admin = getTableAdmin(CONTEXT1, MY_TABLE);
+    admin.create();
+    try {
+      Transaction tx1 = txClient.startShort();
+      Table table = getTable(CONTEXT1, MY_TABLE);
+      ((TransactionAware) table).startTx(tx1);
+      table.put(R1, a(C1, C2), a(V1, V2));
+      table.put(R3, a(C1), a(V3));
+      table.put(R5, a(C2), a(V5));
+      txClient.canCommitOrThrow(tx1, ((TransactionAware) table).getTxChanges());
+      Assert.assertTrue(((TransactionAware) table).commitTx());
+      txClient.commitOrThrow(tx1);
+
+      // delete a row in another transaction that does not commit, that should not be visible
+      Transaction tx2 = txClient.startShort();
+      Table table2 = getTable(CONTEXT1, MY_TABLE);
+      ((TransactionAware) table2).startTx(tx2);
+      table2.delete(R3);
+      Assert.assertTrue(((TransactionAware) table2).commitTx());
+
+      Transaction tx3 = txClient.startShort();
+      ((TransactionAware) table).startTx(tx3);
+      // rows are not sorted, are repeated, and some do not exist
+      List<Row> rows = table.get(ImmutableList.of(new Get(R5), new Get(R4), new Get(R1, C2), new Get(R3),
+                                                  new Get(R1), new Get(R2), new Get(R5, C1)));
+      Assert.assertEquals(7, rows.size());
+      TableAssert.assertRow(rows.get(0), R5, a(C2), a(V5));
+      Assert.assertTrue(rows.get(1).isEmpty());
+      TableAssert.assertRow(rows.get(2), R1, a(C2), a(V2));
+      TableAssert.assertRow(rows.get(3), R3, a(C1), a(V3));
+      TableAssert.assertRow(rows.get(4), R1, a(C1, C2), a(V1, V2));
+      Assert.assertTrue(rows.get(5).isEmpty());
+      Assert.assertTrue(rows.get(6).isEmpty());
+      txClient.abort(tx3);
+      txClient.abort(tx2);
+    } finally {
+      admin.drop();
+    }
+  }
+
   @Test
   public void testScanAndDelete() throws Exception {
     DatasetAdmin admin = getTableAdmin(CONTEXT1, MY_TABLE);
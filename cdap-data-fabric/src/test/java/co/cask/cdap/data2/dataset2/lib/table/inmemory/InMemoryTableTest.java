@@ -50,4 +50,9 @@ public class InMemoryTableTest extends BufferingTableTest<InMemoryTable> {
   protected boolean isReadlessIncrementSupported() {
     return false;
   }
+
+  @Override
+  public void testFlushBeforeCommit() throws Exception {
+    // Do not test: tables of this test are created without the dataset properties, so they never flush
+  }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.table.leveldb;
+
+import co.cask.cdap.api.dataset.DatasetContext;
+import co.cask.cdap.api.dataset.DatasetProperties;
+import co.cask.cdap.api.dataset.table.TableProperties;
+
+import java.util.Map;
+
+/**
+ * Runs the LevelDB table tests with the compact write buffer.
+ */
+public class LevelDBCompactBufferTableTest extends LevelDBTableTest {
+
+  @Override
+  protected LevelDBTable getTable(DatasetContext datasetContext, String name,
+                                  DatasetProperties props, Map<String, String> runtimeArguments) throws Exception {
+    DatasetProperties compactProps = TableProperties.builder()
+      .setCompactWriteBuffer(true)
+      .addAll(props.getProperties())
+      .build();
+    return super.getTable(datasetContext, name, compactProps, runtimeArguments);
+  }
+}
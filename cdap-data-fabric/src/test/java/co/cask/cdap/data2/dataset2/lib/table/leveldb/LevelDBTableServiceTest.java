@@ -31,6 +31,7 @@ import co.cask.cdap.security.authorization.AuthorizationEnforcementModule;
 import co.cask.cdap.security.authorization.AuthorizationTestModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import org.apache.tephra.Transaction;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
@@ -38,6 +39,7 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.util.NavigableMap;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
@@ -112,6 +114,54 @@ public class LevelDBTableServiceTest {
     Assert.assertEquals(table2Size, service.getTableStats().get(tableId2).getDiskSizeBytes());
   }
 
+  @Test
+  public void testPruneVersions() throws Exception {
+    String tableName = "cdap_default.prune";
+    service.ensureTableExists(tableName);
+    LevelDBTableCore table = new LevelDBTableCore(tableName, service);
+    byte[] row = Bytes.toBytes("row");
+    byte[] colA = Bytes.toBytes("a");
+    byte[] colB = Bytes.toBytes("b");
+    byte[] colC = Bytes.toBytes("c");
+
+    // column a: versions 1, 2, 4, 5 and version 10 of an in-progress transaction
+    for (long version : new long[] { 1L, 2L, 4L, 5L, 10L }) {
+      table.put(row, colA, Bytes.toBytes("a" + version), version);
+    }
+    // column b: deleted at version 6
+    table.put(row, colB, Bytes.toBytes("b5"), 5L);
+    table.put(row, colB, new byte[0], 6L);
+    // column c: version 3 of an invalid transaction
+    for (long version : new long[] { 1L, 2L, 3L }) {
+      table.put(row, colC, Bytes.toBytes("c" + version), version);
+    }
+
+    Transaction tx = new Transaction(8L, 20L, new long[] { 3L }, new long[] { 10L }, 10L);
+    NavigableMap<byte[], byte[]> before = table.getRow(row, null, null, null, -1, tx);
+
+    LevelDBTableService.PruneStats stats = service.pruneVersions(tableName, tx);
+    // a1, a2, a4, b5, the delete marker of b, and c1
+    Assert.assertEquals(6L, stats.getVersions());
+    Assert.assertTrue(stats.getBytes() > 0);
+
+    // the result for the transaction is the same
+    NavigableMap<byte[], byte[]> after = table.getRow(row, null, null, null, -1, tx);
+    Assert.assertEquals(2, after.size());
+    Assert.assertEquals(before.keySet(), after.keySet());
+    Assert.assertArrayEquals(Bytes.toBytes("a5"), after.get(colA));
+    Assert.assertArrayEquals(Bytes.toBytes("c2"), after.get(colC));
+
+    // the versions of the in-progress and invalid transactions are kept
+    Transaction allVisible = new Transaction(20L, 21L, new long[0], new long[0], Transaction.NO_TX_IN_PROGRESS);
+    NavigableMap<byte[], byte[]> latest = table.getRow(row, null, null, null, -1, allVisible);
+    Assert.assertArrayEquals(Bytes.toBytes("a10"), latest.get(colA));
+    Assert.assertArrayEquals(Bytes.toBytes("c3"), latest.get(colC));
+
+    // nothing more to prune
+    Assert.assertEquals(0L, service.pruneVersions(tableName, tx).getVersions());
+    service.dropTable(tableName);
+  }
+
   private void writeSome(String tableName) throws IOException {
     LevelDBTableCore table = new LevelDBTableCore(tableName, service);
     Random r = new Random();
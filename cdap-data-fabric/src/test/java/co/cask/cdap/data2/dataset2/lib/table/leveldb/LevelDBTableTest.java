@@ -16,9 +16,13 @@
 
 package co.cask.cdap.data2.dataset2.lib.table.leveldb;
 
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.data.batch.Split;
 import co.cask.cdap.api.dataset.DatasetContext;
 import co.cask.cdap.api.dataset.DatasetProperties;
 import co.cask.cdap.api.dataset.DatasetSpecification;
+import co.cask.cdap.api.dataset.table.Scanner;
+import co.cask.cdap.api.dataset.table.TableSplit;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.guice.ConfigModule;
@@ -33,6 +37,7 @@ import co.cask.cdap.security.authorization.AuthorizationEnforcementModule;
 import co.cask.cdap.security.authorization.AuthorizationTestModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import org.apache.tephra.Transaction;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
@@ -40,7 +45,11 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * test for LevelDB tables.
@@ -93,6 +102,53 @@ public class LevelDBTableTest extends BufferingTableTest<LevelDBTable> {
     return false;
   }
 
+  @Test
+  public void testSplitsAreBalanced() throws Exception {
+    String tableName = "splitsTable";
+    LevelDBTableAdmin admin = getTableAdmin(CONTEXT1, tableName, DatasetProperties.EMPTY);
+    admin.create();
+    try {
+      // write enough data for LevelDB to write most of it to files. All rows have the same prefix, so that splitting
+      // the key space evenly would put all of them into the same split.
+      int numRows = 20000;
+      List<Integer> ids = new ArrayList<>();
+      for (int i = 0; i < numRows; i++) {
+        ids.add(i);
+      }
+      Collections.shuffle(ids, new Random(0));
+      byte[] value = new byte[1024];
+      LevelDBTable table = getTable(CONTEXT1, tableName);
+      Transaction tx = txClient.startShort();
+      table.startTx(tx);
+      for (int id : ids) {
+        table.put(Bytes.toBytes(String.format("row%08d", id)), Bytes.toBytes("c"), value);
+      }
+      Assert.assertTrue(table.commitTx());
+      txClient.commitOrThrow(tx);
+
+      tx = txClient.startShort();
+      table.startTx(tx);
+      List<Split> splits = table.getSplits(4, null, null);
+      Assert.assertEquals(4, splits.size());
+      int total = 0;
+      for (Split split : splits) {
+        TableSplit tableSplit = (TableSplit) split;
+        int count = 0;
+        try (Scanner scanner = table.scan(tableSplit.getStart(), tableSplit.getStop())) {
+          while (scanner.next() != null) {
+            count++;
+          }
+        }
+        Assert.assertTrue("Split has " + count + " rows", count > numRows / 8 && count < numRows / 2);
+        total += count;
+      }
+      Assert.assertEquals(numRows, total);
+      txClient.abort(tx);
+    } finally {
+      admin.drop();
+    }
+  }
+
   @Test
   public void testTablesSurviveAcrossRestart() throws Exception {
     // todo make this test run for hbase, too - requires refactoring of their injection
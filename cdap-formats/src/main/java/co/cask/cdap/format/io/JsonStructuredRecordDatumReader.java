@@ -133,7 +133,7 @@ public class JsonStructuredRecordDatumReader extends StructuredRecordDatumReader
         continue;
       }
 
-      builder.set(field.getName(), decode(decoder, field.getSchema()));
+      decodeField(decoder, field.getSchema(), builder, schema.getFieldIndex(field.getName()));
     }
     jsonReader.endObject();
 
@@ -79,9 +79,10 @@ public final class JsonStructuredRecordDatumWriter extends StructuredRecordDatum
   }
 
   @Override
-  protected void encodeRecordField(Encoder encoder, Schema.Field field, Object value) throws IOException {
+  protected void encodeRecordField(Encoder encoder, Schema.Field field,
+                                   StructuredRecord record, int position) throws IOException {
     getJsonWriter(encoder).name(field.getName());
-    encode(encoder, field.getSchema(), value);
+    encodeField(encoder, field, record, position);
   }
 
   @Override
@@ -160,12 +160,47 @@ public class StructuredRecordDatumReader implements DatumReader<StructuredRecord
    */
   protected StructuredRecord decodeRecord(Decoder decoder, Schema schema) throws IOException {
     StructuredRecord.Builder builder = StructuredRecord.builder(schema);
-    for (Schema.Field field : schema.getFields()) {
-      builder.set(field.getName(), decode(decoder, field.getSchema()));
+    List<Schema.Field> fields = schema.getFields();
+    for (int i = 0; i < fields.size(); i++) {
+      decodeField(decoder, fields.get(i).getSchema(), builder, i);
     }
     return builder.build();
   }
 
+  /**
+   * Decodes the value of a record field based on the field schema and sets it to the given builder.
+   * Values of primitive fields are set to the builder without boxing, while other values are decoded by calling
+   * the {@link #decode(Decoder, Schema)} method.
+   *
+   * @param decoder The decoder to decode value from
+   * @param schema The {@link Schema} of the field
+   * @param builder The {@link StructuredRecord.Builder} to set the field value to
+   * @param position The position of the field in the record schema
+   * @throws IOException If failed to decode
+   */
+  protected final void decodeField(Decoder decoder, Schema schema,
+                                   StructuredRecord.Builder builder, int position) throws IOException {
+    switch (schema.getType()) {
+      case BOOLEAN:
+        builder.setBoolean(position, decoder.readBool());
+        break;
+      case INT:
+        builder.setInt(position, decoder.readInt());
+        break;
+      case LONG:
+        builder.setLong(position, decoder.readLong());
+        break;
+      case FLOAT:
+        builder.setFloat(position, decoder.readFloat());
+        break;
+      case DOUBLE:
+        builder.setDouble(position, decoder.readDouble());
+        break;
+      default:
+        builder.set(position, decode(decoder, schema));
+    }
+  }
+
   /**
    * Decodes a value from a union. This method first decode an integer as the index in the union schema for the
    * value schema, followed decoding the value using that schema.
@@ -28,6 +28,7 @@ import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
 
@@ -54,6 +55,13 @@ public class StructuredRecordDatumWriter implements DatumWriter<StructuredRecord
       .build()
   );
 
+  // Whether a sub-class overrides the deprecated value based encodeRecordField method, which then has to be called
+  private final boolean encodeFieldByValue;
+
+  public StructuredRecordDatumWriter() {
+    this.encodeFieldByValue = overridesEncodeRecordFieldByValue(getClass());
+  }
+
   @Override
   public void encode(StructuredRecord data, Encoder encoder) throws IOException {
     encode(encoder, data.getSchema(), data);
@@ -112,6 +120,40 @@ public class StructuredRecordDatumWriter implements DatumWriter<StructuredRecord
     }
   }
 
+  /**
+   * Encodes the value of a record field based on the field schema. Values of primitive fields are
+   * encoded directly from the record without boxing, while other values are encoded by calling the
+   * {@link #encode(Encoder, Schema, Object)} method.
+   *
+   * @param encoder the encoder to use
+   * @param field the {@link Schema.Field} to encode
+   * @param record the record containing the field
+   * @param position the position of the field in the record schema
+   * @throws IOException If failed to encode
+   */
+  protected final void encodeField(Encoder encoder, Schema.Field field,
+                                   StructuredRecord record, int position) throws IOException {
+    switch (field.getSchema().getType()) {
+      case BOOLEAN:
+        encoder.writeBool(record.getBoolean(position));
+        break;
+      case INT:
+        encoder.writeInt(record.getInt(position));
+        break;
+      case LONG:
+        encoder.writeLong(record.getLong(position));
+        break;
+      case FLOAT:
+        encoder.writeFloat(record.getFloat(position));
+        break;
+      case DOUBLE:
+        encoder.writeDouble(record.getDouble(position));
+        break;
+      default:
+        encode(encoder, field.getSchema(), record.get(position));
+    }
+  }
+
   /**
    * Encodes a enum value. This method will encode with the enum index of the enum value according to the Schema.
    * Sub-class can override this to have different behavior.
@@ -224,14 +266,37 @@ public class StructuredRecordDatumWriter implements DatumWriter<StructuredRecord
 
   /**
    * Encodes a record field. This method will encode the field based on the field schema by calling the
-   * {@link #encode(Encoder, Schema, Object)} method.
+   * {@link #encodeField(Encoder, Schema.Field, StructuredRecord, int)} method, unless the sub-class overrides the
+   * deprecated {@link #encodeRecordField(Encoder, Schema.Field, Object)} method, in which case that method is called
+   * with the field value.
    * Sub-class can override this to have different behavior.
    *
    * @param encoder The encoder to use
    * @param field The {@link Schema.Field} to encode
+   * @param record the record containing the field
+   * @param position the position of the field in the record schema
+   * @throws IOException If failed to encode
+   */
+  protected void encodeRecordField(Encoder encoder, Schema.Field field,
+                                   StructuredRecord record, int position) throws IOException {
+    if (encodeFieldByValue) {
+      encodeRecordField(encoder, field, record.get(position));
+    } else {
+      encodeField(encoder, field, record, position);
+    }
+  }
+
+  /**
+   * Encodes a record field with the given value. This method will encode the value based on the field schema.
+   * It is only called if a sub-class overrides it, as the fields are otherwise encoded by their position in the record.
+   *
+   * @param encoder The encoder to use
+   * @param field The {@link Schema.Field} to encode
    * @param value the field value to encode
    * @throws IOException If failed to encode
+   * @deprecated use {@link #encodeRecordField(Encoder, Schema.Field, StructuredRecord, int)} instead
    */
+  @Deprecated
   protected void encodeRecordField(Encoder encoder, Schema.Field field, Object value) throws IOException {
     encode(encoder, field.getSchema(), value);
   }
@@ -303,12 +368,25 @@ public class StructuredRecordDatumWriter implements DatumWriter<StructuredRecord
     }
 
     encodeRecordBegin(encoder, recordSchema);
-    for (Schema.Field field : recordSchema.getFields()) {
-      encodeRecordField(encoder, field, ((StructuredRecord) record).get(field.getName()));
+    List<Schema.Field> fields = recordSchema.getFields();
+    for (int i = 0; i < fields.size(); i++) {
+      encodeRecordField(encoder, fields.get(i), (StructuredRecord) record, i);
     }
     encodeRecordEnd(encoder, recordSchema);
   }
 
+  private static boolean overridesEncodeRecordFieldByValue(Class<?> cls) {
+    for (Class<?> c = cls; c != StructuredRecordDatumWriter.class; c = c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod("encodeRecordField", Encoder.class, Schema.Field.class, Object.class);
+        return true;
+      } catch (NoSuchMethodException e) {
+        // Not declared by this class, check the super class
+      }
+    }
+    return false;
+  }
+
   private int findUnionSchema(Schema unionSchema, @Nullable Object value) throws IOException {
     Schema.Type type = getSchemaType(value);
 
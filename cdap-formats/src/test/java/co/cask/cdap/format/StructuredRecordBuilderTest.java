@@ -17,6 +17,7 @@
 package co.cask.cdap.format;
 
 import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.format.UnexpectedFormatException;
 import co.cask.cdap.api.data.schema.Schema;
 import org.junit.Assert;
 import org.junit.Test;
@@ -72,4 +73,95 @@ public class StructuredRecordBuilderTest {
 
     Assert.assertEquals(expected, actual);
   }
+
+  @Test
+  public void testPositionalAccess() {
+    Schema schema = Schema.recordOf("x",
+                                    Schema.Field.of("b", Schema.of(Schema.Type.BOOLEAN)),
+                                    Schema.Field.of("i", Schema.of(Schema.Type.INT)),
+                                    Schema.Field.of("l", Schema.of(Schema.Type.LONG)),
+                                    Schema.Field.of("f", Schema.of(Schema.Type.FLOAT)),
+                                    Schema.Field.of("d", Schema.of(Schema.Type.DOUBLE)),
+                                    Schema.Field.of("s", Schema.of(Schema.Type.STRING)),
+                                    Schema.Field.of("ni", Schema.nullableOf(Schema.of(Schema.Type.INT))));
+
+    StructuredRecord byPosition = StructuredRecord.builder(schema)
+      .setBoolean(0, true)
+      .setInt(1, 10)
+      .setLong(2, 20L)
+      .setFloat(3, 1.5f)
+      .setDouble(4, 2.5d)
+      .set(5, "str")
+      .setInt(6, 30)
+      .build();
+
+    StructuredRecord byName = StructuredRecord.builder(schema)
+      .set("b", true)
+      .set("i", 10)
+      .set("l", 20L)
+      .set("f", 1.5f)
+      .set("d", 2.5d)
+      .set("s", "str")
+      .set("ni", 30)
+      .build();
+
+    for (StructuredRecord record : new StructuredRecord[] { byPosition, byName }) {
+      Assert.assertTrue(record.getBoolean(0));
+      Assert.assertEquals(10, record.getInt(1));
+      Assert.assertEquals(20L, record.getLong(2));
+      Assert.assertEquals(1.5f, record.getFloat(3), 0.0f);
+      Assert.assertEquals(2.5d, record.getDouble(4), 0.0d);
+      Assert.assertEquals("str", record.get(5));
+      Assert.assertEquals(30, record.getInt(6));
+
+      Assert.assertEquals(Boolean.TRUE, record.get("b"));
+      Assert.assertEquals(Integer.valueOf(10), record.get("i"));
+      Assert.assertEquals(Long.valueOf(20L), record.get("l"));
+      Assert.assertEquals(Float.valueOf(1.5f), record.get("f"));
+      Assert.assertEquals(Double.valueOf(2.5d), record.get("d"));
+      Assert.assertEquals("str", record.get("s"));
+      Assert.assertEquals(Integer.valueOf(30), record.get("ni"));
+      Assert.assertNull(record.get("unknown"));
+    }
+    Assert.assertEquals(byName, byPosition);
+    Assert.assertEquals(byName.hashCode(), byPosition.hashCode());
+
+    // Nullable field not set is null
+    StructuredRecord record = StructuredRecord.builder(schema)
+      .setBoolean(0, false).setInt(1, 0).setLong(2, 0L).setFloat(3, 0f).setDouble(4, 0d).set(5, "")
+      .build();
+    Assert.assertNull(record.get(6));
+    Assert.assertNull(record.get("ni"));
+    Assert.assertFalse(byName.equals(record));
+  }
+
+  @Test
+  public void testBuilderReuse() {
+    Schema schema = Schema.recordOf("x",
+                                    Schema.Field.of("i", Schema.of(Schema.Type.INT)),
+                                    Schema.Field.of("s", Schema.of(Schema.Type.STRING)));
+    StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+    StructuredRecord first = builder.setInt(0, 1).set(1, "a").build();
+    StructuredRecord second = builder.setInt(0, 2).set(1, "b").build();
+
+    // Records built before should not be affected by later changes to the builder
+    Assert.assertEquals(1, first.getInt(0));
+    Assert.assertEquals("a", first.get(1));
+    Assert.assertEquals(2, second.getInt(0));
+    Assert.assertEquals("b", second.get(1));
+  }
+
+  @Test(expected = UnexpectedFormatException.class)
+  public void testMissingPrimitive() {
+    Schema schema = Schema.recordOf("x",
+                                    Schema.Field.of("i", Schema.of(Schema.Type.INT)),
+                                    Schema.Field.of("l", Schema.of(Schema.Type.LONG)));
+    StructuredRecord.builder(schema).setInt(0, 1).build();
+  }
+
+  @Test(expected = UnexpectedFormatException.class)
+  public void testInvalidPosition() {
+    Schema schema = Schema.recordOf("x", Schema.Field.of("i", Schema.of(Schema.Type.INT)));
+    StructuredRecord.builder(schema).setInt(1, 1);
+  }
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.format.io;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.common.io.Encoder;
+import com.google.gson.stream.JsonWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link StructuredRecordDatumWriter}.
+ */
+public class StructuredRecordDatumWriterTest {
+
+  private static final Schema SCHEMA = Schema.recordOf(
+    "record",
+    Schema.Field.of("int", Schema.of(Schema.Type.INT)),
+    Schema.Field.of("long", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("string", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  @Test
+  public void testEncodeRecordFieldByValue() throws IOException {
+    StructuredRecord record = StructuredRecord.builder(SCHEMA)
+      .set("int", 1)
+      .set("long", 2L)
+      .set("string", "three")
+      .build();
+
+    // A sub-class overriding the value based encodeRecordField should still be called for every field
+    final List<Object> values = new ArrayList<>();
+    StructuredRecordDatumWriter valueWriter = new StructuredRecordDatumWriter() {
+      @Override
+      protected void encodeRecordField(Encoder encoder, Schema.Field field, Object value) throws IOException {
+        values.add(value);
+        super.encodeRecordField(encoder, field, value);
+      }
+    };
+
+    String expected = encode(new StructuredRecordDatumWriter(), record);
+    Assert.assertEquals(expected, encode(valueWriter, record));
+    Assert.assertEquals(Arrays.<Object>asList(1, 2L, "three"), values);
+  }
+
+  private String encode(StructuredRecordDatumWriter datumWriter, StructuredRecord record) throws IOException {
+    StringWriter strWriter = new StringWriter();
+    try (JsonWriter writer = new JsonWriter(strWriter)) {
+      // The base writer writes the field values without names, hence wrap them in an array
+      writer.beginArray();
+      datumWriter.encode(record, new JsonEncoder(writer));
+      writer.endArray();
+    }
+    return strWriter.toString();
+  }
+}
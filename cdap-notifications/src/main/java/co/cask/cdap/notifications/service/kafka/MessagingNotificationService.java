@@ -135,6 +135,11 @@ public class MessagingNotificationService extends AbstractNotificationService {
 
       @Override
       public void run() {
+        // If there is no message, the fetch waits for new messages for up to the back-off delay.
+        // Exponential strategy doesn't use the time component, so doesn't matter what we passed in
+        emptyFetchCount++;
+        long delay = scheduleStrategy.nextRetry(emptyFetchCount, startTime);
+        long fetchStartTime = System.currentTimeMillis();
         try {
           MessageFetcher fetcher = messagingService.prepareFetch(notificationTopic);
           if (messageId == null) {
@@ -142,8 +147,8 @@ public class MessagingNotificationService extends AbstractNotificationService {
           } else {
             fetcher.setStartMessage(messageId, false);
           }
+          fetcher.setPollTimeout(delay, TimeUnit.MILLISECONDS);
 
-          emptyFetchCount++;
           try (CloseableIterator<RawMessage> iterator = fetcher.fetch()) {
             while (iterator.hasNext()) {
               emptyFetchCount = 0;
@@ -163,12 +168,10 @@ public class MessagingNotificationService extends AbstractNotificationService {
           LOG.error("Failed to get notification", e);
         }
 
-        // Back-off if it was empty fetch.
+        // Back-off if it was empty fetch. The time already spent in waiting for new messages is deducted.
         if (emptyFetchCount > 0) {
-          // Schedule the next fetch. Exponential strategy doesn't use the time component,
-          // so doesn't matter what we passed in
-          subscribeExecutor.schedule(this,
-                                     scheduleStrategy.nextRetry(emptyFetchCount, startTime), TimeUnit.MILLISECONDS);
+          subscribeExecutor.schedule(this, Math.max(0L, delay - (System.currentTimeMillis() - fetchStartTime)),
+                                     TimeUnit.MILLISECONDS);
         } else {
           subscribeExecutor.execute(this);
         }
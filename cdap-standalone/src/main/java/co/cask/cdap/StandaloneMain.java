@@ -47,6 +47,7 @@ import co.cask.cdap.data.stream.service.StreamServiceRuntimeModule;
 import co.cask.cdap.data.view.ViewAdminModules;
 import co.cask.cdap.data2.audit.AuditModule;
 import co.cask.cdap.data2.datafabric.dataset.service.DatasetService;
+import co.cask.cdap.data2.dataset2.lib.table.leveldb.LevelDBVersionPruningService;
 import co.cask.cdap.explore.client.ExploreClient;
 import co.cask.cdap.explore.executor.ExploreExecutorService;
 import co.cask.cdap.explore.guice.ExploreClientModule;
@@ -135,6 +136,7 @@ public class StandaloneMain {
 
   private ExternalAuthenticationServer externalAuthenticationServer;
   private ExploreExecutorService exploreExecutorService;
+  private LevelDBVersionPruningService versionPruningService;
 
 
   private StandaloneMain(List<Module> modules, CConfiguration cConf) {
@@ -182,6 +184,10 @@ public class StandaloneMain {
       exploreExecutorService = injector.getInstance(ExploreExecutorService.class);
     }
 
+    if (cConf.getLong(Constants.CFG_DATA_LEVELDB_PRUNE_INTERVAL, Constants.DEFAULT_DATA_LEVELDB_PRUNE_INTERVAL) > 0) {
+      versionPruningService = injector.getInstance(LevelDBVersionPruningService.class);
+    }
+
     exploreClient = injector.getInstance(ExploreClient.class);
     metadataService = injector.getInstance(MetadataService.class);
     remoteSystemOperationsService = injector.getInstance(RemoteSystemOperationsService.class);
@@ -229,6 +235,9 @@ public class StandaloneMain {
     txService.startAndWait();
     metricsCollectionService.startAndWait();
     datasetService.startAndWait();
+    if (versionPruningService != null) {
+      versionPruningService.startAndWait();
+    }
     serviceStore.startAndWait();
     streamService.startAndWait();
 
@@ -311,6 +320,9 @@ public class StandaloneMain {
       // app fabric will also stop all programs
       appFabricServer.stopAndWait();
       // all programs are stopped: dataset service, metrics, transactions can stop now
+      if (versionPruningService != null) {
+        versionPruningService.stopAndWait();
+      }
       datasetService.stopAndWait();
       metricsQueryService.stopAndWait();
       txService.stopAndWait();
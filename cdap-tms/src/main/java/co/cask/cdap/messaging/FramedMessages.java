@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging;
+
+/**
+ * Constants for the binary framed messages format, which is an alternative to the avro format for sending back
+ * fetched messages. The format of the response body is:
+ *
+ * <pre>
+ * {@code
+ *
+ * body = <frame>* <end_of_messages>
+ * frame = <id_length> <id> <payload_length> <payload>
+ * id_length = 4 bytes int for the length of the message id
+ * id = bytes of the raw message id
+ * payload_length = 4 bytes int for the length of the message payload
+ * payload = bytes of the message payload
+ * end_of_messages = 4 bytes int with value -1
+ * }
+ * </pre>
+ *
+ * The client asks for this format by setting the {@code Accept} header of the poll request to {@link #CONTENT_TYPE}.
+ * The server responds with the same content type if the format is supported; otherwise the response is in avro.
+ */
+public final class FramedMessages {
+
+  /**
+   * The content type of the framed messages format.
+   */
+  public static final String CONTENT_TYPE = "application/x-cdap-messages";
+
+  /**
+   * The value of the id length that marks the end of the messages.
+   */
+  public static final int END_OF_MESSAGES = -1;
+
+  private FramedMessages() {
+    // no-op
+  }
+}
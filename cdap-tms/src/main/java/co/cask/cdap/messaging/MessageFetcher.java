@@ -19,9 +19,12 @@ package co.cask.cdap.messaging;
 import co.cask.cdap.api.dataset.lib.CloseableIterator;
 import co.cask.cdap.api.messaging.TopicNotFoundException;
 import co.cask.cdap.messaging.data.RawMessage;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.tephra.Transaction;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
@@ -39,6 +42,9 @@ public abstract class MessageFetcher {
   // by default there is virtually no limit
   private int limit = Integer.MAX_VALUE;
 
+  // by default fetch returns immediately if there is no message
+  private long pollTimeoutMillis;
+
   /**
    * Setup the message fetching starting point based on the given message id. Calling this method
    * will clear the start time set by the {@link #setStartTime(long)} method.
@@ -96,6 +102,23 @@ public abstract class MessageFetcher {
     return this;
   }
 
+  /**
+   * Sets the maximum time for the {@link #fetch()} call to wait for new messages to be published if there is
+   * no message available when the call is made. The call returns as soon as there are messages available.
+   * By default, this is set to {@code 0}, meaning the {@link #fetch()} call never waits.
+   *
+   * @param timeout the maximum time to wait for; {@code 0} to not wait
+   * @param unit the unit for the timeout
+   * @return this instance
+   */
+  public MessageFetcher setPollTimeout(long timeout, TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Invalid message fetching poll timeout. Timeout must be >= 0");
+    }
+    this.pollTimeoutMillis = unit.toMillis(timeout);
+    return this;
+  }
+
   @Nullable
   protected byte[] getStartOffset() {
     return startOffset;
@@ -119,6 +142,10 @@ public abstract class MessageFetcher {
     return limit;
   }
 
+  protected long getPollTimeoutMillis() {
+    return pollTimeoutMillis;
+  }
+
   /**
    * Returns a {@link CloseableIterator} that iterates over messages fetched from the messaging system.
    *
@@ -126,4 +153,17 @@ public abstract class MessageFetcher {
    * @throws IOException if it fails to create the iterator
    */
   public abstract CloseableIterator<RawMessage> fetch() throws TopicNotFoundException, IOException;
+
+  /**
+   * Returns a {@link ListenableFuture} that completes with a {@link CloseableIterator} that iterates over messages
+   * fetched from the messaging system. If a poll timeout is set and there is no message available, implementations
+   * may complete the future later without blocking the calling thread while waiting for new messages.
+   * By default, this method calls {@link #fetch()} and returns a completed future.
+   *
+   * @throws TopicNotFoundException if the topic does not exist
+   * @throws IOException if it fails to create the iterator
+   */
+  public ListenableFuture<CloseableIterator<RawMessage>> fetchAsync() throws TopicNotFoundException, IOException {
+    return Futures.immediateFuture(fetch());
+  }
 }
@@ -108,6 +108,19 @@ public interface MessagingService {
   @Nullable
   RollbackDetail publish(StoreRequest request) throws TopicNotFoundException, IOException;
 
+  /**
+   * Publishes messages to multiple topics in one call. Requests to different topics are published in parallel,
+   * while requests to the same topic are published in the order as they appear in the given list.
+   * Failure in publishing one request doesn't affect other requests.
+   *
+   * @param requests the list of {@link StoreRequest} containing messages to be published
+   * @return a {@link List} of {@link PublishResult}, one for each of the given {@link StoreRequest},
+   *         in the same order as the requests
+   * @throws IOException if failed to publish messages
+   * @throws ServiceUnavailableException if the messaging service is not available
+   */
+  List<PublishResult> publish(List<StoreRequest> requests) throws IOException;
+
   /**
    * Stores a list of messages to the messaging system. It is for long / distributed transactional publishing use case.
    *
@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging;
+
+import co.cask.cdap.proto.id.TopicId;
+
+import javax.annotation.Nullable;
+
+/**
+ * Result of publishing one {@link StoreRequest} in a batch publish call through the
+ * {@link MessagingService#publish(java.util.List)} method.
+ */
+public final class PublishResult {
+
+  private final TopicId topicId;
+  private final RollbackDetail rollbackDetail;
+  private final Exception failure;
+
+  /**
+   * Creates a {@link PublishResult} for a successful publish.
+   *
+   * @param topicId the topic that the messages were published to
+   * @param rollbackDetail the {@link RollbackDetail} if the publish was transactional; otherwise {@code null}
+   */
+  public static PublishResult success(TopicId topicId, @Nullable RollbackDetail rollbackDetail) {
+    return new PublishResult(topicId, rollbackDetail, null);
+  }
+
+  /**
+   * Creates a {@link PublishResult} for a failed publish.
+   *
+   * @param topicId the topic that the messages were published to
+   * @param failure the reason of the failure
+   */
+  public static PublishResult failure(TopicId topicId, Exception failure) {
+    return new PublishResult(topicId, null, failure);
+  }
+
+  private PublishResult(TopicId topicId, @Nullable RollbackDetail rollbackDetail, @Nullable Exception failure) {
+    this.topicId = topicId;
+    this.rollbackDetail = rollbackDetail;
+    this.failure = failure;
+  }
+
+  /**
+   * Returns the topic that the messages were published to.
+   */
+  public TopicId getTopicId() {
+    return topicId;
+  }
+
+  /**
+   * Returns {@code true} if the messages were published successfully.
+   */
+  public boolean isSuccess() {
+    return failure == null;
+  }
+
+  /**
+   * Returns the {@link RollbackDetail} of a successful transactional publish, or {@code null} if the
+   * publish was not transactional or was not successful.
+   */
+  @Nullable
+  public RollbackDetail getRollbackDetail() {
+    return rollbackDetail;
+  }
+
+  /**
+   * Returns the reason of the failure, or {@code null} if the publish was successful.
+   * The failure is a {@link co.cask.cdap.api.messaging.TopicNotFoundException} if the topic doesn't exist.
+   */
+  @Nullable
+  public Exception getFailure() {
+    return failure;
+  }
+
+  @Override
+  public String toString() {
+    return "PublishResult{" +
+      "topicId=" + topicId +
+      ", rollbackDetail=" + rollbackDetail +
+      ", failure=" + failure +
+      '}';
+  }
+}
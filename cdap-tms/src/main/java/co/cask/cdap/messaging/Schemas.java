@@ -51,6 +51,21 @@ public final class Schemas {
       public static final Schema SCHEMA = loadSchema(PublishResponse.class);
     }
 
+    /**
+     * Contains schema for batch publish request to multiple topics.
+     */
+    public static final class BatchPublishRequest {
+      public static final Schema SCHEMA = loadSchema(BatchPublishRequest.class);
+    }
+
+    /**
+     * Contains schema for batch publish response. The rollback detail of each result is
+     * encoded with the {@link PublishResponse#SCHEMA}.
+     */
+    public static final class BatchPublishResponse {
+      public static final Schema SCHEMA = loadSchema(BatchPublishResponse.class);
+    }
+
     /**
      * Contains schema for consume request.
      */
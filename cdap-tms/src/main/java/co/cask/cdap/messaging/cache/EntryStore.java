@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.cache;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import javax.annotation.Nullable;
+
+/**
+ * Storage of the ordered entries inside a {@link MessageCache}. The {@link MessageCache} is responsible for
+ * maintaining the cache weight and for guarding access to the store, such that:
+ *
+ * - The {@link #add(Object, int)} method is only called by a single thread, but can be called concurrently with
+ *   all other methods.
+ * - The {@link #first()}, {@link #last()} and {@link #tailIterator(Object, boolean)} methods can be called
+ *   concurrently by multiple threads.
+ * - All other methods are only called while no other thread is reading from the store.
+ *
+ * All ordering done by the store must be consistent with the {@link Comparator} given to the {@link MessageCache}.
+ *
+ * @param <T> type of entry stored
+ */
+public interface EntryStore<T> {
+
+  /**
+   * Adds an entry to the store. The entry must be larger than all existing entries in the store.
+   *
+   * @param entry the entry to add
+   * @param weight the weight of the entry as computed by the {@link MessageCache.Weigher}
+   */
+  void add(T entry, int weight);
+
+  /**
+   * Returns the smallest entry in the store or {@code null} if the store is empty.
+   */
+  @Nullable
+  T first();
+
+  /**
+   * Returns the largest entry in the store or {@code null} if the store is empty.
+   */
+  @Nullable
+  T last();
+
+  /**
+   * Returns the largest entry that is strictly smaller than the given entry or {@code null} if there is none.
+   */
+  @Nullable
+  T lower(T entry);
+
+  /**
+   * Returns the smallest entry that is strictly larger than the given entry or {@code null} if there is none.
+   */
+  @Nullable
+  T higher(T entry);
+
+  /**
+   * Returns an {@link Iterator} of entries in ascending order, starting from the given entry.
+   *
+   * @param fromEntry the entry to start from
+   * @param inclusive {@code true} to include the given entry if it exists in the store
+   */
+  Iterator<T> tailIterator(T fromEntry, boolean inclusive);
+
+  /**
+   * Returns an {@link Iterator} of entries in ascending order, in the range between the given entries, inclusively.
+   */
+  Iterator<T> subIterator(T fromEntry, T toEntry);
+
+  /**
+   * Persists changes made to the given entry, which was returned by this store. The change must not alter the
+   * ordering of the entry.
+   */
+  void update(T entry);
+
+  /**
+   * Returns the weight of the smallest entry in the store or {@code -1} if the store is empty.
+   */
+  int getFirstWeight();
+
+  /**
+   * Removes the smallest entry in the store. It is a no-op if the store is empty.
+   */
+  void removeFirst();
+}
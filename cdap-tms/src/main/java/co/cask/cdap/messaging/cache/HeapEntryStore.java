@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.cache;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import javax.annotation.Nullable;
+
+/**
+ * An {@link EntryStore} that keeps entries on heap in a {@link ConcurrentSkipListSet}.
+ * Updates to entries are done in place, hence the {@link #update(Object)} method is a no-op.
+ *
+ * @param <T> type of entry stored
+ */
+final class HeapEntryStore<T> implements EntryStore<T> {
+
+  private final NavigableSet<CacheEntry<T>> cache;
+
+  HeapEntryStore(Comparator<T> comparator) {
+    this.cache = new ConcurrentSkipListSet<>(new CacheEntryComparator<>(comparator));
+  }
+
+  @Override
+  public void add(T entry, int weight) {
+    cache.add(new CacheEntry<>(entry, weight));
+  }
+
+  @Nullable
+  @Override
+  public T first() {
+    // Use iterator instead of first() to avoid NoSuchElementException due to concurrent removal
+    Iterator<CacheEntry<T>> iterator = cache.iterator();
+    return iterator.hasNext() ? iterator.next().getEntry() : null;
+  }
+
+  @Nullable
+  @Override
+  public T last() {
+    Iterator<CacheEntry<T>> iterator = cache.descendingIterator();
+    return iterator.hasNext() ? iterator.next().getEntry() : null;
+  }
+
+  @Nullable
+  @Override
+  public T lower(T entry) {
+    return getEntry(cache.lower(new CacheEntry<>(entry, 0)));
+  }
+
+  @Nullable
+  @Override
+  public T higher(T entry) {
+    return getEntry(cache.higher(new CacheEntry<>(entry, 0)));
+  }
+
+  @Override
+  public Iterator<T> tailIterator(T fromEntry, boolean inclusive) {
+    return toEntries(cache.tailSet(new CacheEntry<>(fromEntry, 0), inclusive).iterator());
+  }
+
+  @Override
+  public Iterator<T> subIterator(T fromEntry, T toEntry) {
+    return toEntries(cache.subSet(new CacheEntry<>(fromEntry, 0), true,
+                                  new CacheEntry<>(toEntry, 0), true).iterator());
+  }
+
+  @Override
+  public void update(T entry) {
+    // No-op since entries are updated in place
+  }
+
+  @Override
+  public int getFirstWeight() {
+    Iterator<CacheEntry<T>> iterator = cache.iterator();
+    return iterator.hasNext() ? iterator.next().getWeight() : -1;
+  }
+
+  @Override
+  public void removeFirst() {
+    cache.pollFirst();
+  }
+
+  @Nullable
+  private T getEntry(@Nullable CacheEntry<T> cacheEntry) {
+    return cacheEntry == null ? null : cacheEntry.getEntry();
+  }
+
+  private Iterator<T> toEntries(Iterator<CacheEntry<T>> iterator) {
+    return Iterators.transform(iterator, new Function<CacheEntry<T>, T>() {
+      @Override
+      public T apply(CacheEntry<T> cacheEntry) {
+        return cacheEntry.getEntry();
+      }
+    });
+  }
+
+  /**
+   * A private class that wraps a user provided entry of type {@code T} with an associated weight.
+   *
+   * @param <T> type of the entry
+   */
+  private static final class CacheEntry<T> {
+    private final T entry;
+    private final int weight;
+
+    private CacheEntry(T entry, int weight) {
+      this.entry = entry;
+      this.weight = weight;
+    }
+
+    T getEntry() {
+      return entry;
+    }
+
+    int getWeight() {
+      return weight;
+    }
+
+    @Override
+    public String toString() {
+      return "CacheEntry{" +
+        "entry=" + entry +
+        ", weight=" + weight +
+        '}';
+    }
+  }
+
+  /**
+   * A {@link Comparator} for {@link CacheEntry} that only compares with the user entry of type {@code T},
+   * using the provided {@link Comparator}.
+   *
+   * @param <T> type of the user entry
+   */
+  private static final class CacheEntryComparator<T> implements Comparator<CacheEntry<T>> {
+
+    private final Comparator<T> comparator;
+
+    private CacheEntryComparator(Comparator<T> comparator) {
+      this.comparator = comparator;
+    }
+
+    @Override
+    public int compare(CacheEntry<T> entry1, CacheEntry<T> entry2) {
+      return comparator.compare(entry1.getEntry(), entry2.getEntry());
+    }
+  }
+}
@@ -28,8 +28,6 @@ import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.NavigableSet;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -61,6 +59,9 @@ import javax.annotation.Nullable;
  *     it if needed. This essentially is to amortize the cost of the blocking weight reduction operations among all
  *     fetchers (which typically has multiple of them), without blocking the single publish as much as possible.
  *
+ * Entries are kept in an {@link EntryStore}. By default, it is a {@link HeapEntryStore} that keeps entries on heap.
+ * An {@link OffHeapEntryStore} can be used for keeping entries outside of the Java heap.
+ *
  * @param <T> type of entry stored in the cache
  */
 public class MessageCache<T> {
@@ -73,7 +74,7 @@ public class MessageCache<T> {
   private static final String METRICS_SCAN_REQUESTS = "cache.scan.requests";
   private static final String METRICS_SCAN_REDUCE_WEIGHT = "cache.scan.reduce.weight";
 
-  private final NavigableSet<CacheEntry<T>> cache;
+  private final EntryStore<T> cache;
   private final Comparator<T> comparator;
   private final AtomicReference<Limits> limits;
   private final MetricsContext metricsContext;
@@ -92,7 +93,22 @@ public class MessageCache<T> {
    * @param metricsContext a {@link MetricsContext} for emitting metrics about this cache.
    */
   public MessageCache(Comparator<T> comparator, Weigher<T> weigher, Limits limits, MetricsContext metricsContext) {
-    this.cache = new ConcurrentSkipListSet<>(new CacheEntryComparator<>(comparator));
+    this(new HeapEntryStore<>(comparator), comparator, weigher, limits, metricsContext);
+  }
+
+  /**
+   * Creates a new instance of the cache that uses the given {@link EntryStore} for storing entries.
+   *
+   * @param entryStore the {@link EntryStore} for storing entries; it must be empty
+   * @param comparator a {@link Comparator} for ordering cache entries, which must be consistent with the
+   *                   ordering of the {@link EntryStore}
+   * @param weigher a {@link Weigher} for computing the weight of each cache entry
+   * @param limits the limits for maintaining cache weight; see class description for more detail
+   * @param metricsContext a {@link MetricsContext} for emitting metrics about this cache.
+   */
+  public MessageCache(EntryStore<T> entryStore, Comparator<T> comparator, Weigher<T> weigher,
+                      Limits limits, MetricsContext metricsContext) {
+    this.cache = entryStore;
     this.comparator = comparator;
     this.limits = new AtomicReference<>(limits);
     this.metricsContext = metricsContext;
@@ -128,13 +144,13 @@ public class MessageCache<T> {
 
     try {
       long newWeight = 0L;
-      CacheEntry<T> largestCacheEntry = null;
+      T largestEntry = null;
 
       int entriesAdded = 0;
       while (entries.hasNext()) {
         T entry = entries.next();
-        CacheEntry<T> cacheEntry = new CacheEntry<>(entry, weigher.weight(entry));
-        newWeight = currentWeight.addAndGet(cacheEntry.getWeight());
+        int weight = weigher.weight(entry);
+        newWeight = currentWeight.addAndGet(weight);
         if (newWeight > limits.get().getHardLimit()) {
           reduceWeight();
           metricsContext.increment(METRICS_ADD_REDUCE_WEIGHT, 1L);
@@ -143,26 +159,25 @@ public class MessageCache<T> {
 
         // Make sure new entries are also in increasing order.
         // For the first entry from the provided iterator, it must be larger than everything in the cache, hence
-        // the ceiling call must be returning null.
+        // it must be larger than the last entry in the cache.
         // For sub-sequence entries in the iterator, they must be in strictly increasing order
-        largestCacheEntry = largestCacheEntry == null ? cache.ceiling(cacheEntry) : largestCacheEntry;
-        if (largestCacheEntry != null && comparator.compare(largestCacheEntry.getEntry(), cacheEntry.getEntry()) >= 0) {
+        largestEntry = largestEntry == null ? cache.last() : largestEntry;
+        if (largestEntry != null && comparator.compare(largestEntry, entry) >= 0) {
           // Entries must be in strictly increasing order
           // Clear the cache to reset state. This is just for precaution, as this shouldn't happen,
           // unless there is bug in the TMS system (from the caller side).
-          currentWeight.addAndGet(-1 * cacheEntry.getWeight());
+          currentWeight.addAndGet(-1 * weight);
           clear();
           throw new IllegalArgumentException("Cache entry must be in strictly increasing order. " +
-                                               "Entry " + entry + " is smaller than or equal to " +
-                                               largestCacheEntry.getEntry());
+                                               "Entry " + entry + " is smaller than or equal to " + largestEntry);
         }
 
         // It's ok to "leak" this to reader even if the new weight is larger than the hard limit
         // The entry will get removed eventually and the read/write operations as a whole still give valid
         // results
-        cache.add(cacheEntry);
+        cache.add(entry, weight);
         entriesAdded++;
-        largestCacheEntry = cacheEntry;
+        largestEntry = entry;
       }
 
       metricsContext.increment(METRICS_ADD_REQUESTS, 1L);
@@ -197,15 +212,17 @@ public class MessageCache<T> {
     cacheLock.readLock().lock();
     T firstInCache;
     try {
-      firstInCache = cache.isEmpty() ? null : cache.first().getEntry();
-      for (CacheEntry<T> cacheEntry : cache.tailSet(new CacheEntry<>(startEntry, 0), includeStart)) {
+      firstInCache = cache.first();
+      Iterator<T> iterator = cache.tailIterator(startEntry, includeStart);
+      while (iterator.hasNext()) {
         if (entries.size() >= limit) {
           break;
         }
 
-        MessageFilter.Result result = filter.apply(cacheEntry.getEntry());
+        T entry = iterator.next();
+        MessageFilter.Result result = filter.apply(entry);
         if (result == MessageFilter.Result.ACCEPT) {
-          entries.add(cacheEntry.getEntry());
+          entries.add(entry);
         } else if (result == MessageFilter.Result.HOLD) {
           // Hold means not to scan more, so just break
           break;
@@ -239,20 +256,17 @@ public class MessageCache<T> {
    * @param updater a {@link EntryUpdater} to update the content of a entry
    */
   public void updateEntries(T startEntry, T endEntry, EntryUpdater<T> updater) {
-    CacheEntry<T> startCacheEntry = new CacheEntry<>(startEntry, 0);
-
     cacheLock.writeLock().lock();
     try {
-      CacheEntry<T> lower = cache.lower(startCacheEntry);
-      Iterator<CacheEntry<T>> iterator = cache.subSet(startCacheEntry, true,
-                                                      new CacheEntry<>(endEntry, 0), true).iterator();
-      CacheEntry<T> cacheEntry = iterator.hasNext() ? iterator.next() : null;
-      while (cacheEntry != null) {
-        CacheEntry<T> nextCacheEntry = iterator.hasNext() ? iterator.next() : null;
-        CacheEntry<T> higher = nextCacheEntry == null ? cache.higher(cacheEntry) : nextCacheEntry;
+      T lower = cache.lower(startEntry);
+      Iterator<T> iterator = cache.subIterator(startEntry, endEntry);
+      T entry = iterator.hasNext() ? iterator.next() : null;
+      while (entry != null) {
+        T nextEntry = iterator.hasNext() ? iterator.next() : null;
+        T higher = nextEntry == null ? cache.higher(entry) : nextEntry;
 
         try {
-          updater.updateEntry(cacheEntry.getEntry());
+          updater.updateEntry(entry);
         } catch (RuntimeException e) {
           clear();
           throw e;
@@ -260,15 +274,22 @@ public class MessageCache<T> {
 
         // A quick check that the ordering hasn't been altered.
         // It doesn't cover all possible case though. This is just a quick catch for bug in the caller.
-        if ((lower != null && comparator.compare(lower.getEntry(), cacheEntry.getEntry()) >= 0)
-            || (higher != null && comparator.compare(higher.getEntry(), cacheEntry.getEntry()) <= 0)) {
+        if ((lower != null && comparator.compare(lower, entry) >= 0)
+            || (higher != null && comparator.compare(higher, entry) <= 0)) {
           // This shouldn't happen, unless there is bug in the caller.
           clear();
           throw new IllegalStateException("Entry order should not be altered after update.");
         }
 
-        lower = cacheEntry;
-        cacheEntry = nextCacheEntry;
+        try {
+          cache.update(entry);
+        } catch (RuntimeException e) {
+          clear();
+          throw e;
+        }
+
+        lower = entry;
+        entry = nextEntry;
       }
 
     } finally {
@@ -325,16 +346,16 @@ public class MessageCache<T> {
     cacheLock.writeLock().lock();
     try {
       long newWeight = currentWeight.get();
-      Iterator<CacheEntry<T>> iterator = cache.iterator();
-      while (iterator.hasNext()) {
-        CacheEntry<T> cacheEntry = iterator.next();
+      int weight = cache.getFirstWeight();
+      while (weight >= 0) {
         // If removing the next entry is smaller than the min weight, we are done with the reduce logic
-        if (newWeight - cacheEntry.getWeight() < limits.get().getMinRetain()) {
+        if (newWeight - weight < limits.get().getMinRetain()) {
           break;
         }
-        iterator.remove();
+        cache.removeFirst();
         entriesRemoved++;
-        newWeight = currentWeight.addAndGet(-1 * cacheEntry.getWeight());
+        newWeight = currentWeight.addAndGet(-1 * weight);
+        weight = cache.getFirstWeight();
       }
     } finally {
       cacheLock.writeLock().unlock();
@@ -459,55 +480,4 @@ public class MessageCache<T> {
      */
     abstract void doClose();
   }
-
-  /**
-   * A private class that wraps a user provided entry of type {@code T} with an associated weight.
-   *
-   * @param <T> type of the entry
-   */
-  private static class CacheEntry<T> {
-    private final T entry;
-    private final int weight;
-
-    private CacheEntry(T entry, int weight) {
-      this.entry = entry;
-      this.weight = weight;
-    }
-
-    T getEntry() {
-      return entry;
-    }
-
-    int getWeight() {
-      return weight;
-    }
-
-    @Override
-    public String toString() {
-      return "CacheEntry{" +
-        "entry=" + entry +
-        ", weight=" + weight +
-        '}';
-    }
-  }
-
-  /**
-   * A {@link Comparator} for {@link CacheEntry} that only compares with the user entry of type {@code T},
-   * using the provided {@link Comparator}.
-   *
-   * @param <T> type of the user entry
-   */
-  private static final class CacheEntryComparator<T> implements Comparator<CacheEntry<T>> {
-
-    private final Comparator<T> comparator;
-
-    private CacheEntryComparator(Comparator<T> comparator) {
-      this.comparator = comparator;
-    }
-
-    @Override
-    public int compare(CacheEntry<T> entry1, CacheEntry<T> entry2) {
-      return comparator.compare(entry1.getEntry(), entry2.getEntry());
-    }
-  }
 }
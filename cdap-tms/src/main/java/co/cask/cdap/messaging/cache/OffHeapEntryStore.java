@@ -0,0 +1,364 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.annotation.Nullable;
+
+/**
+ * An {@link EntryStore} that keeps encoded entries in direct {@link ByteBuffer} slabs outside of the Java heap.
+ *
+ * Since entries are always added in increasing order and removed from the smallest one, entries are appended to
+ * the current slab sequentially, and a slab is released once all entries in it were removed. Entries are located
+ * through an ordered index, which is a ring of addresses (slab id and offset) in primitive arrays. Lookup is done by
+ * binary search on the index, comparing directly with the encoded entries through the {@link Codec}.
+ *
+ * Each encoded entry is stored in the slab as:
+ *
+ * <pre>
+ * {@code
+ *
+ * entry = <length> <encoded_entry>
+ * length = 4 bytes int for the length of the encoded entry
+ * encoded_entry = bytes as encoded by the Codec
+ * }
+ * </pre>
+ *
+ * Entries returned by this store are decoded copies, hence changes made to them need to be written back through
+ * the {@link #update(Object)} method.
+ *
+ * @param <T> type of entry stored
+ */
+public final class OffHeapEntryStore<T> implements EntryStore<T> {
+
+  private static final int LENGTH_SIZE = 4;
+  private static final int INITIAL_INDEX_SIZE = 1024;
+  private static final int INITIAL_SLABS_SIZE = 16;
+  private static final int MAX_FREE_SLABS = 2;
+
+  private final Codec<T> codec;
+  private final int slabSize;
+  private final Queue<ByteBuffer> freeSlabs;
+
+  // Ring of entry addresses and weights, indexed by the entry position.
+  // Positions in [start, end) are valid entries. The start only changes through removeFirst
+  // and the end only changes through add.
+  private volatile long[] addresses;
+  private volatile int[] weights;
+  private volatile long start;
+  private volatile long end;
+
+  // Ring of slabs, indexed by the slab id. Slab ids in [firstSlabId, currentSlabId] are valid slabs.
+  private volatile ByteBuffer[] slabs;
+  private volatile int firstSlabId;
+  private volatile int currentSlabId;
+
+  // Only accessed by the thread calling add
+  private int currentOffset;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param codec the {@link Codec} for encoding and decoding entries
+   * @param slabSize size in bytes of each slab
+   */
+  public OffHeapEntryStore(Codec<T> codec, int slabSize) {
+    Preconditions.checkArgument(slabSize > LENGTH_SIZE, "Slab size must be larger than %s bytes", LENGTH_SIZE);
+    this.codec = codec;
+    this.slabSize = slabSize;
+    this.freeSlabs = new ConcurrentLinkedQueue<>();
+    this.addresses = new long[INITIAL_INDEX_SIZE];
+    this.weights = new int[INITIAL_INDEX_SIZE];
+    this.slabs = new ByteBuffer[INITIAL_SLABS_SIZE];
+    this.firstSlabId = 0;
+    this.currentSlabId = -1;
+  }
+
+  @Override
+  public void add(T entry, int weight) {
+    int size = codec.getEncodedSize(entry);
+    int slabId = currentSlabId;
+    if (slabId < 0 || currentOffset + LENGTH_SIZE + size > getSlab(slabId).capacity()) {
+      slabId = allocateSlab(LENGTH_SIZE + size);
+    }
+
+    ByteBuffer slab = getSlab(slabId);
+    slab.putInt(currentOffset, size);
+    codec.encode(entry, slab, currentOffset + LENGTH_SIZE);
+    long address = ((long) slabId << 32) | currentOffset;
+    currentOffset += LENGTH_SIZE + size;
+
+    long position = end;
+    long[] addresses = this.addresses;
+    int[] weights = this.weights;
+    if (position - start >= addresses.length) {
+      // Grow the index ring. Copying positions that are concurrently being removed is harmless.
+      long startPosition = start;
+      long[] newAddresses = new long[addresses.length * 2];
+      int[] newWeights = new int[weights.length * 2];
+      for (long pos = startPosition; pos < position; pos++) {
+        newAddresses[index(pos, newAddresses.length)] = addresses[index(pos, addresses.length)];
+        newWeights[index(pos, newWeights.length)] = weights[index(pos, weights.length)];
+      }
+      addresses = newAddresses;
+      weights = newWeights;
+      this.weights = newWeights;
+      this.addresses = newAddresses;
+    }
+    addresses[index(position, addresses.length)] = address;
+    weights[index(position, weights.length)] = weight;
+
+    // Publish the new entry
+    end = position + 1;
+  }
+
+  @Nullable
+  @Override
+  public T first() {
+    long endPosition = end;
+    long startPosition = start;
+    return startPosition < endPosition ? decode(startPosition) : null;
+  }
+
+  @Nullable
+  @Override
+  public T last() {
+    long endPosition = end;
+    return start < endPosition ? decode(endPosition - 1) : null;
+  }
+
+  @Nullable
+  @Override
+  public T lower(T entry) {
+    long position = search(entry, false) - 1;
+    return position >= start ? decode(position) : null;
+  }
+
+  @Nullable
+  @Override
+  public T higher(T entry) {
+    long endPosition = end;
+    long position = search(entry, true);
+    return position < endPosition ? decode(position) : null;
+  }
+
+  @Override
+  public Iterator<T> tailIterator(T fromEntry, boolean inclusive) {
+    long endPosition = end;
+    return new EntryIterator(search(fromEntry, !inclusive), endPosition);
+  }
+
+  @Override
+  public Iterator<T> subIterator(T fromEntry, T toEntry) {
+    return new EntryIterator(search(fromEntry, false), search(toEntry, true));
+  }
+
+  @Override
+  public void update(T entry) {
+    long position = search(entry, false);
+    if (position >= end || codec.compare(entry, getSlab(position), getOffset(position) + LENGTH_SIZE) != 0) {
+      throw new IllegalStateException("Entry " + entry + " not found in the store. Entry order might be altered.");
+    }
+    ByteBuffer slab = getSlab(position);
+    int offset = getOffset(position);
+    int size = codec.getEncodedSize(entry);
+    if (size != slab.getInt(offset)) {
+      throw new IllegalStateException("Encoded size of entry " + entry + " should not be altered after update.");
+    }
+    codec.encode(entry, slab, offset + LENGTH_SIZE);
+  }
+
+  @Override
+  public int getFirstWeight() {
+    long endPosition = end;
+    long startPosition = start;
+    if (startPosition >= endPosition) {
+      return -1;
+    }
+    int[] weights = this.weights;
+    return weights[index(startPosition, weights.length)];
+  }
+
+  @Override
+  public void removeFirst() {
+    long endPosition = end;
+    long startPosition = start;
+    if (startPosition >= endPosition) {
+      return;
+    }
+    start = ++startPosition;
+
+    // Release all slabs before the one that contains the new first entry.
+    // If the store is empty, release all slabs except the current one.
+    int keepSlabId = startPosition < endPosition ? getSlabId(startPosition) : currentSlabId;
+    while (firstSlabId < keepSlabId) {
+      ByteBuffer[] slabs = this.slabs;
+      int idx = index(firstSlabId, slabs.length);
+      ByteBuffer slab = slabs[idx];
+      slabs[idx] = null;
+      firstSlabId++;
+      if (slab != null && slab.capacity() == slabSize && freeSlabs.size() < MAX_FREE_SLABS) {
+        freeSlabs.add(slab);
+      }
+    }
+  }
+
+  /**
+   * Allocates a new slab that can hold at least the given number of bytes and makes it the current slab.
+   *
+   * @return the id of the new slab
+   */
+  private int allocateSlab(int minSize) {
+    int slabId = currentSlabId + 1;
+    ByteBuffer[] slabs = this.slabs;
+    int firstId = firstSlabId;
+    if (slabId - firstId >= slabs.length) {
+      ByteBuffer[] newSlabs = new ByteBuffer[slabs.length * 2];
+      for (int id = firstId; id < slabId; id++) {
+        newSlabs[index(id, newSlabs.length)] = slabs[index(id, slabs.length)];
+      }
+      slabs = newSlabs;
+      this.slabs = newSlabs;
+    }
+
+    ByteBuffer slab = null;
+    if (minSize <= slabSize) {
+      slab = freeSlabs.poll();
+    }
+    if (slab == null) {
+      slab = ByteBuffer.allocateDirect(Math.max(minSize, slabSize));
+    }
+    slabs[index(slabId, slabs.length)] = slab;
+    currentOffset = 0;
+    currentSlabId = slabId;
+    return slabId;
+  }
+
+  /**
+   * Returns the position of the first entry that is larger than or equal to the given entry if {@code exclusive} is
+   * {@code false}; or strictly larger than the given entry if {@code exclusive} is {@code true}.
+   */
+  private long search(T entry, boolean exclusive) {
+    long endPosition = end;
+    long low = start;
+    long high = endPosition;
+    while (low < high) {
+      long mid = (low + high) >>> 1;
+      int cmp = codec.compare(entry, getSlab(mid), getOffset(mid) + LENGTH_SIZE);
+      if (cmp > 0 || (exclusive && cmp == 0)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private T decode(long position) {
+    return codec.decode(getSlab(position), getOffset(position) + LENGTH_SIZE);
+  }
+
+  private long getAddress(long position) {
+    long[] addresses = this.addresses;
+    return addresses[index(position, addresses.length)];
+  }
+
+  private int getSlabId(long position) {
+    return (int) (getAddress(position) >>> 32);
+  }
+
+  private int getOffset(long position) {
+    return (int) getAddress(position);
+  }
+
+  private ByteBuffer getSlab(long position) {
+    return getSlab(getSlabId(position));
+  }
+
+  private ByteBuffer getSlab(int slabId) {
+    ByteBuffer[] slabs = this.slabs;
+    return slabs[index(slabId, slabs.length)];
+  }
+
+  /**
+   * Returns the array index in a ring of the given size for the given position. The size must be a power of 2.
+   */
+  private static int index(long position, int size) {
+    return (int) (position & (size - 1));
+  }
+
+  /**
+   * An {@link Iterator} that decodes entries in a range of positions.
+   */
+  private final class EntryIterator extends AbstractIterator<T> {
+
+    private final long endPosition;
+    private long position;
+
+    EntryIterator(long startPosition, long endPosition) {
+      this.position = startPosition;
+      this.endPosition = endPosition;
+    }
+
+    @Override
+    protected T computeNext() {
+      if (position >= endPosition) {
+        return endOfData();
+      }
+      return decode(position++);
+    }
+  }
+
+  /**
+   * Encodes and decodes entries to and from {@link ByteBuffer}. All methods must only use absolute
+   * get and put operations on the {@link ByteBuffer}, since the same buffer is shared by multiple threads.
+   *
+   * @param <T> type of entry
+   */
+  public interface Codec<T> {
+
+    /**
+     * Returns the number of bytes needed to encode the given entry.
+     */
+    int getEncodedSize(T entry);
+
+    /**
+     * Encodes the given entry into the buffer, starting at the given offset.
+     */
+    void encode(T entry, ByteBuffer buffer, int offset);
+
+    /**
+     * Decodes an entry from the buffer, starting at the given offset.
+     */
+    T decode(ByteBuffer buffer, int offset);
+
+    /**
+     * Compares the given entry with the encoded entry in the buffer, starting at the given offset. The ordering
+     * must be consistent with the {@link java.util.Comparator} used by the {@link MessageCache}.
+     *
+     * @return a negative integer, zero, or a positive integer if the given entry is less than, equal to, or greater
+     *         than the encoded entry
+     */
+    int compare(T entry, ByteBuffer buffer, int offset);
+  }
+}
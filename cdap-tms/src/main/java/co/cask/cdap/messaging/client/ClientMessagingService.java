@@ -22,11 +22,14 @@ import co.cask.cdap.api.dataset.lib.CloseableIterator;
 import co.cask.cdap.api.messaging.TopicAlreadyExistsException;
 import co.cask.cdap.api.messaging.TopicNotFoundException;
 import co.cask.cdap.common.ServiceUnavailableException;
+import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.http.DefaultHttpRequestConfig;
 import co.cask.cdap.common.internal.remote.RemoteClient;
+import co.cask.cdap.messaging.FramedMessages;
 import co.cask.cdap.messaging.MessageFetcher;
 import co.cask.cdap.messaging.MessagingService;
+import co.cask.cdap.messaging.PublishResult;
 import co.cask.cdap.messaging.RollbackDetail;
 import co.cask.cdap.messaging.Schemas;
 import co.cask.cdap.messaging.StoreRequest;
@@ -62,7 +65,9 @@ import org.apache.avro.io.EncoderFactory;
 import org.apache.tephra.TransactionCodec;
 import org.apache.twill.discovery.DiscoveryServiceClient;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Type;
@@ -71,8 +76,10 @@ import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -92,13 +99,27 @@ public final class ClientMessagingService implements MessagingService {
   private static final Type TOPIC_PROPERTY_TYPE = new TypeToken<Map<String, String>>() { }.getType();
   private static final Type TOPIC_LIST_TYPE = new TypeToken<List<String>>() { }.getType();
 
+  // Size of the buffer for reading framed messages from the fetch response
+  private static final int FETCH_BUFFER_SIZE = 65536;
+
   private final RemoteClient remoteClient;
+  private final boolean binaryFetch;
 
-  @VisibleForTesting
   @Inject
-  public ClientMessagingService(final DiscoveryServiceClient discoveryServiceClient) {
+  ClientMessagingService(CConfiguration cConf, DiscoveryServiceClient discoveryServiceClient) {
+    this(discoveryServiceClient, cConf.getBoolean(Constants.MessagingSystem.CLIENT_BINARY_FETCH_ENABLED, false));
+  }
+
+  @VisibleForTesting
+  public ClientMessagingService(DiscoveryServiceClient discoveryServiceClient) {
+    this(discoveryServiceClient, false);
+  }
+
+  @VisibleForTesting
+  public ClientMessagingService(DiscoveryServiceClient discoveryServiceClient, boolean binaryFetch) {
     this.remoteClient = new RemoteClient(discoveryServiceClient, Constants.Service.MESSAGING_SERVICE,
                                          HTTP_REQUEST_CONFIG, "/v1/namespaces/");
+    this.binaryFetch = binaryFetch;
   }
 
   @Override
@@ -191,6 +212,27 @@ public final class ClientMessagingService implements MessagingService {
     return new ClientRollbackDetail(body);
   }
 
+  @Override
+  public List<PublishResult> publish(List<StoreRequest> requests) throws IOException {
+    // The batch publish endpoint is per namespace, hence group the requests by namespace
+    Map<NamespaceId, List<Integer>> namespaceRequests = new LinkedHashMap<>();
+    for (int i = 0; i < requests.size(); i++) {
+      NamespaceId namespaceId = new NamespaceId(requests.get(i).getTopicId().getNamespace());
+      List<Integer> indices = namespaceRequests.get(namespaceId);
+      if (indices == null) {
+        indices = new ArrayList<>();
+        namespaceRequests.put(namespaceId, indices);
+      }
+      indices.add(i);
+    }
+
+    PublishResult[] results = new PublishResult[requests.size()];
+    for (Map.Entry<NamespaceId, List<Integer>> entry : namespaceRequests.entrySet()) {
+      performBatchPublish(entry.getKey(), requests, entry.getValue(), results);
+    }
+    return Arrays.asList(results);
+  }
+
   @Override
   public void storePayload(StoreRequest request) throws TopicNotFoundException, IOException {
     performWriteRequest(request, false);
@@ -257,6 +299,87 @@ public final class ClientMessagingService implements MessagingService {
     return response;
   }
 
+  /**
+   * Makes a batch publish call for the {@link StoreRequest}s at the given indices, which must all be in the
+   * given namespace. The {@link PublishResult}s are set into the results array at the same indices.
+   */
+  private void performBatchPublish(NamespaceId namespaceId, List<StoreRequest> requests,
+                                   List<Integer> indices, PublishResult[] results) throws IOException {
+    Schema schema = Schemas.V1.BatchPublishRequest.SCHEMA;
+    Schema requestSchema = schema.getField("requests").schema().getElementType();
+
+    List<GenericRecord> requestRecords = new ArrayList<>(indices.size());
+    for (int idx : indices) {
+      StoreRequest request = requests.get(idx);
+      GenericRecord record = new GenericData.Record(requestSchema);
+      record.put("topic", request.getTopicId().getTopic());
+      if (request.isTransactional()) {
+        record.put("transactionWritePointer", request.getTransactionWritePointer());
+      }
+      record.put("messages", convertPayloads(request));
+      requestRecords.add(record);
+    }
+    GenericRecord batchRecord = new GenericData.Record(schema);
+    batchRecord.put("requests", requestRecords);
+
+    // Encode the request as avro
+    ExposedByteArrayOutputStream os = new ExposedByteArrayOutputStream();
+    Encoder encoder = EncoderFactory.get().directBinaryEncoder(os, null);
+    DatumWriter<GenericRecord> datumWriter = new GenericDatumWriter<>(schema);
+    datumWriter.write(batchRecord, encoder);
+
+    HttpRequest httpRequest = remoteClient.requestBuilder(HttpMethod.POST, namespaceId.getNamespace() + "/publish")
+      .addHeader(HttpHeaders.CONTENT_TYPE, "avro/binary")
+      .withBody(os.toByteBuffer())
+      .build();
+
+    HttpResponse response = remoteClient.execute(httpRequest);
+    handleError(response, "Failed to publish messages to namespace " + namespaceId);
+    verifyContentType(response.getHeaders().asMap(), "avro/binary");
+
+    // Decode the response and create the PublishResult for each request
+    Decoder decoder = DecoderFactory.get().binaryDecoder(response.getResponseBody(), null);
+    DatumReader<GenericRecord> datumReader = new GenericDatumReader<>(Schemas.V1.BatchPublishResponse.SCHEMA);
+    @SuppressWarnings("unchecked")
+    List<GenericRecord> resultRecords = (List<GenericRecord>) datumReader.read(null, decoder).get("results");
+    if (resultRecords.size() != indices.size()) {
+      throw new IOException("Expected " + indices.size() + " publish results from namespace " + namespaceId
+                              + ", but got " + resultRecords.size());
+    }
+
+    for (int i = 0; i < indices.size(); i++) {
+      TopicId topicId = requests.get(indices.get(i)).getTopicId();
+      GenericRecord record = resultRecords.get(i);
+      int status = (Integer) record.get("status");
+      PublishResult result;
+      if (status == HttpURLConnection.HTTP_OK) {
+        ByteBuffer rollbackDetail = (ByteBuffer) record.get("rollbackDetail");
+        result = PublishResult.success(topicId, rollbackDetail == null
+          ? null : new ClientRollbackDetail(Bytes.toBytes(rollbackDetail)));
+      } else {
+        result = PublishResult.failure(topicId, createPublishFailure(topicId, status, record.get("error")));
+      }
+      results[indices.get(i)] = result;
+    }
+  }
+
+  /**
+   * Creates an {@link Exception} from the failure status and error message in a batch publish result.
+   */
+  private Exception createPublishFailure(TopicId topicId, int status, @Nullable Object error) {
+    String message = "Failed to publish messages to topic " + topicId + ". Reason: " + error;
+    switch (status) {
+      case HttpURLConnection.HTTP_NOT_FOUND:
+        return new TopicNotFoundException(topicId.getNamespace(), topicId.getTopic());
+      case HttpURLConnection.HTTP_BAD_REQUEST:
+        return new IllegalArgumentException(message);
+      case HttpURLConnection.HTTP_UNAVAILABLE:
+        return new ServiceUnavailableException(Constants.Service.MESSAGING_SERVICE);
+      default:
+        return new IOException(message);
+    }
+  }
+
   /**
    * Creates the URL path for making HTTP requests for the given topic.
    */
@@ -397,12 +520,27 @@ public final class ClientMessagingService implements MessagingService {
 
       // The cask common http library doesn't support read streaming, and we don't want to buffer all messages
       // in memory, hence we use the HttpURLConnection directly instead.
-      URL url = remoteClient.resolve(createTopicPath(topicId) + "/poll");
+      // If poll timeout is set, the server may block until there are messages, hence extend the read timeout
+      long pollTimeoutMillis = getPollTimeoutMillis();
+      String path = createTopicPath(topicId) + "/poll";
+      int readTimeout = HTTP_REQUEST_CONFIG.getReadTimeout();
+      if (pollTimeoutMillis > 0) {
+        path += "?timeout=" + pollTimeoutMillis;
+        // Read timeout of 0 means infinite
+        if (readTimeout > 0) {
+          readTimeout = (int) Math.min(Integer.MAX_VALUE, readTimeout + pollTimeoutMillis);
+        }
+      }
+
+      URL url = remoteClient.resolve(path);
       final HttpURLConnection urlConn = (HttpURLConnection)  url.openConnection();
       urlConn.setConnectTimeout(HTTP_REQUEST_CONFIG.getConnectTimeout());
-      urlConn.setReadTimeout(HTTP_REQUEST_CONFIG.getReadTimeout());
+      urlConn.setReadTimeout(readTimeout);
       urlConn.setRequestMethod("POST");
       urlConn.setRequestProperty(HttpHeaders.CONTENT_TYPE, "avro/binary");
+      if (binaryFetch) {
+        urlConn.setRequestProperty(HttpHeaders.ACCEPT, FramedMessages.CONTENT_TYPE + ", avro/binary");
+      }
       urlConn.setDoInput(true);
       urlConn.setDoOutput(true);
 
@@ -430,6 +568,11 @@ public final class ClientMessagingService implements MessagingService {
           }
         }
       }, "Failed to update topic " + topicId);
+
+      // The server may not support the framed format, in which case the response is in avro
+      if (binaryFetch && FramedMessages.CONTENT_TYPE.equals(urlConn.getContentType())) {
+        return createFramedMessagesIterator(urlConn);
+      }
       verifyContentType(urlConn.getHeaderFields(), "avro/binary");
 
       // Decode the avro array manually instead of using DatumReader in order to support streaming decode.
@@ -476,5 +619,40 @@ public final class ClientMessagingService implements MessagingService {
         }
       };
     }
+
+    /**
+     * Creates a {@link CloseableIterator} that reads messages in the {@link FramedMessages} format
+     * from the response body. Each message id and payload is read directly into a byte array of the exact size.
+     */
+    private CloseableIterator<RawMessage> createFramedMessagesIterator(final HttpURLConnection urlConn)
+      throws IOException {
+      final DataInputStream input = new DataInputStream(new BufferedInputStream(urlConn.getInputStream(),
+                                                                                FETCH_BUFFER_SIZE));
+      return new AbstractCloseableIterator<RawMessage>() {
+
+        @Override
+        protected RawMessage computeNext() {
+          try {
+            int idLength = input.readInt();
+            if (idLength == FramedMessages.END_OF_MESSAGES) {
+              return endOfData();
+            }
+            byte[] id = new byte[idLength];
+            input.readFully(id);
+            byte[] payload = new byte[input.readInt()];
+            input.readFully(payload);
+            return new RawMessage(id, payload);
+          } catch (IOException e) {
+            throw Throwables.propagate(e);
+          }
+        }
+
+        @Override
+        public void close() {
+          Closeables.closeQuietly(input);
+          urlConn.disconnect();
+        }
+      };
+    }
   }
 }
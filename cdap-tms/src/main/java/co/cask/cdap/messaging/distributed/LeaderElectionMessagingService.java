@@ -23,6 +23,7 @@ import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.messaging.MessageFetcher;
 import co.cask.cdap.messaging.MessagingService;
+import co.cask.cdap.messaging.PublishResult;
 import co.cask.cdap.messaging.RollbackDetail;
 import co.cask.cdap.messaging.StoreRequest;
 import co.cask.cdap.messaging.TopicMetadata;
@@ -165,6 +166,11 @@ public class LeaderElectionMessagingService extends AbstractIdleService implemen
     return getMessagingService().publish(request);
   }
 
+  @Override
+  public List<PublishResult> publish(List<StoreRequest> requests) throws IOException {
+    return getMessagingService().publish(requests);
+  }
+
   @Override
   public void storePayload(StoreRequest request) throws TopicNotFoundException, IOException {
     getMessagingService().storePayload(request);
@@ -25,6 +25,7 @@ import co.cask.cdap.gateway.handlers.CommonHandlers;
 import co.cask.cdap.messaging.MessagingService;
 import co.cask.cdap.messaging.cache.MessageCache;
 import co.cask.cdap.messaging.distributed.LeaderElectionMessagingService;
+import co.cask.cdap.messaging.server.BatchStoreHandler;
 import co.cask.cdap.messaging.server.FetchHandler;
 import co.cask.cdap.messaging.server.MessagingHttpService;
 import co.cask.cdap.messaging.server.MetadataHandler;
@@ -96,6 +97,7 @@ public class MessagingServerRuntimeModule extends RuntimeModule {
 
     handlerBinder.addBinding().to(MetadataHandler.class);
     handlerBinder.addBinding().to(StoreHandler.class);
+    handlerBinder.addBinding().to(BatchStoreHandler.class);
     handlerBinder.addBinding().to(FetchHandler.class);
     CommonHandlers.add(handlerBinder);
   }
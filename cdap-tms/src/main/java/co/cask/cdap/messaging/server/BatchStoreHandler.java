@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.server;
+
+import co.cask.cdap.api.common.HttpErrorStatusProvider;
+import co.cask.cdap.api.messaging.TopicNotFoundException;
+import co.cask.cdap.common.BadRequestException;
+import co.cask.cdap.common.ServiceUnavailableException;
+import co.cask.cdap.messaging.MessagingService;
+import co.cask.cdap.messaging.PublishResult;
+import co.cask.cdap.messaging.Schemas;
+import co.cask.cdap.messaging.StoreRequest;
+import co.cask.cdap.proto.id.NamespaceId;
+import co.cask.http.AbstractHttpHandler;
+import co.cask.http.HttpResponder;
+import com.google.inject.Inject;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+
+/**
+ * A netty http handler for handling batch message publishing to multiple topics in the same namespace.
+ */
+@Path("/v1/namespaces/{namespace}")
+public final class BatchStoreHandler extends AbstractHttpHandler {
+
+  private final MessagingService messagingService;
+
+  @Inject
+  BatchStoreHandler(MessagingService messagingService) {
+    this.messagingService = messagingService;
+  }
+
+  @POST
+  @Path("/publish")
+  public void publish(HttpRequest request, HttpResponder responder,
+                      @PathParam("namespace") String namespace) throws Exception {
+    StoreHandler.validateContentType(request);
+
+    NamespaceId namespaceId = new NamespaceId(namespace);
+    Decoder decoder = DecoderFactory.get().directBinaryDecoder(new ChannelBufferInputStream(request.getContent()),
+                                                               null);
+    DatumReader<GenericRecord> datumReader = new GenericDatumReader<>(Schemas.V1.BatchPublishRequest.SCHEMA);
+    @SuppressWarnings("unchecked")
+    List<GenericRecord> requestRecords = (List<GenericRecord>) datumReader.read(null, decoder).get("requests");
+
+    // Validate the requests. Invalid requests are not published and are responded with failure.
+    PublishResult[] results = new PublishResult[requestRecords.size()];
+    List<StoreRequest> storeRequests = new ArrayList<>(requestRecords.size());
+    List<Integer> indices = new ArrayList<>(requestRecords.size());
+    for (int i = 0; i < requestRecords.size(); i++) {
+      GenericRecord record = requestRecords.get(i);
+      StoreRequest storeRequest = new StoreHandler.GenericRecordStoreRequest(
+        namespaceId.topic(record.get("topic").toString()), record);
+
+      try {
+        StoreHandler.validatePublishRequest(storeRequest);
+        storeRequests.add(storeRequest);
+        indices.add(i);
+      } catch (BadRequestException e) {
+        results[i] = PublishResult.failure(storeRequest.getTopicId(), e);
+      }
+    }
+
+    List<PublishResult> publishResults = messagingService.publish(storeRequests);
+    for (int i = 0; i < indices.size(); i++) {
+      results[indices.get(i)] = publishResults.get(i);
+    }
+
+    responder.sendContent(HttpResponseStatus.OK, encodePublishResults(results), "avro/binary", null);
+  }
+
+  /**
+   * Encodes the given {@link PublishResult}s as avro record based on the
+   * {@link Schemas.V1.BatchPublishResponse#SCHEMA}.
+   */
+  private ChannelBuffer encodePublishResults(PublishResult[] results) throws IOException {
+    Schema schema = Schemas.V1.BatchPublishResponse.SCHEMA;
+    Schema resultSchema = schema.getField("results").schema().getElementType();
+
+    List<GenericRecord> resultRecords = new ArrayList<>(results.length);
+    for (PublishResult result : results) {
+      GenericRecord record = new GenericData.Record(resultSchema);
+      Exception failure = result.getFailure();
+      if (failure == null) {
+        record.put("status", HttpResponseStatus.OK.getCode());
+        if (result.getRollbackDetail() != null) {
+          record.put("rollbackDetail",
+                     StoreHandler.encodeRollbackDetail(result.getRollbackDetail()).toByteBuffer());
+        }
+      } else {
+        record.put("status", getStatusCode(failure));
+        record.put("error", String.valueOf(failure.getMessage()));
+      }
+      resultRecords.add(record);
+    }
+
+    GenericRecord response = new GenericData.Record(schema);
+    response.put("results", resultRecords);
+
+    ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+    Encoder encoder = EncoderFactory.get().directBinaryEncoder(new ChannelBufferOutputStream(buffer), null);
+    DatumWriter<GenericRecord> datumWriter = new GenericDatumWriter<>(schema);
+    datumWriter.write(response, encoder);
+    return buffer;
+  }
+
+  /**
+   * Returns the HTTP status code that represents the given publish failure.
+   */
+  private int getStatusCode(Exception failure) {
+    if (failure instanceof TopicNotFoundException) {
+      return HttpResponseStatus.NOT_FOUND.getCode();
+    }
+    if (failure instanceof ServiceUnavailableException) {
+      return HttpResponseStatus.SERVICE_UNAVAILABLE.getCode();
+    }
+    if (failure instanceof HttpErrorStatusProvider) {
+      return ((HttpErrorStatusProvider) failure).getStatusCode();
+    }
+    if (failure instanceof IllegalArgumentException) {
+      return HttpResponseStatus.BAD_REQUEST.getCode();
+    }
+    return HttpResponseStatus.INTERNAL_SERVER_ERROR.getCode();
+  }
+}
@@ -25,6 +25,7 @@ import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.io.ByteBuffers;
 import co.cask.cdap.common.logging.LogSamplers;
 import co.cask.cdap.common.logging.Loggers;
+import co.cask.cdap.messaging.FramedMessages;
 import co.cask.cdap.messaging.MessageFetcher;
 import co.cask.cdap.messaging.MessagingService;
 import co.cask.cdap.messaging.Schemas;
@@ -36,6 +37,9 @@ import co.cask.http.BodyProducer;
 import co.cask.http.HttpResponder;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericDatumReader;
@@ -65,10 +69,13 @@ import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 
 /**
  * A netty http handler for handling message fetching REST API for the messaging system.
@@ -86,19 +93,24 @@ public final class FetchHandler extends AbstractHttpHandler {
   );
 
   private final MessagingService messagingService;
+  private final long maxPollTimeoutMillis;
+  private final MessagingHttpExceptionHandler exceptionHandler;
   private int messageChunkSize;
 
   @Inject
   FetchHandler(CConfiguration cConf, MessagingService messagingService) {
     this.messagingService = messagingService;
     this.messageChunkSize = cConf.getInt(Constants.MessagingSystem.HTTP_SERVER_CONSUME_CHUNK_SIZE);
+    this.maxPollTimeoutMillis = cConf.getLong(Constants.MessagingSystem.HTTP_SERVER_MAX_POLL_TIMEOUT_MS);
+    this.exceptionHandler = new MessagingHttpExceptionHandler();
   }
 
   @POST
   @Path("poll")
-  public void poll(HttpRequest request, HttpResponder responder,
+  public void poll(final HttpRequest request, final HttpResponder responder,
                    @PathParam("namespace") String namespace,
-                   @PathParam("topic") String topic) throws Exception {
+                   @PathParam("topic") String topic,
+                   @QueryParam("timeout") @DefaultValue("0") long pollTimeoutMillis) throws Exception {
 
     TopicId topicId = new NamespaceId(namespace).topic(topic);
 
@@ -106,28 +118,58 @@ public final class FetchHandler extends AbstractHttpHandler {
     if (!"avro/binary".equals(request.getHeader(HttpHeaders.Names.CONTENT_TYPE))) {
       throw new BadRequestException("Only avro/binary content type is supported.");
     }
+    if (pollTimeoutMillis < 0) {
+      throw new BadRequestException("Poll timeout must be >= 0.");
+    }
 
     // Decode the poll request
     Decoder decoder = DecoderFactory.get().directBinaryDecoder(new ChannelBufferInputStream(request.getContent()),
                                                                null);
     DatumReader<GenericRecord> datumReader = new GenericDatumReader<>(Schemas.V1.ConsumeRequest.SCHEMA);
 
-    // Fetch the messages
-    CloseableIterator<RawMessage> iterator = fetchMessages(datumReader.read(null, decoder), topicId);
-    try {
+    // Fetch the messages. If there is no message available, the future completes when new messages are published
+    // or when the poll timeout is reached, without holding on to the request handling thread while waiting.
+    ListenableFuture<CloseableIterator<RawMessage>> future =
+      fetchMessages(datumReader.read(null, decoder), topicId, Math.min(pollTimeoutMillis, maxPollTimeoutMillis));
+    Futures.addCallback(future, new FutureCallback<CloseableIterator<RawMessage>>() {
+      @Override
+      public void onSuccess(CloseableIterator<RawMessage> iterator) {
+        try {
+          sendMessages(request, responder, iterator);
+        } catch (Throwable t) {
+          iterator.close();
+          handleSendError(t);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        exceptionHandler.handle(t, request, responder);
+      }
+    });
+  }
+
+  /**
+   * Sends the messages from the given iterator as the response.
+   */
+  private void sendMessages(HttpRequest request, HttpResponder responder, CloseableIterator<RawMessage> iterator) {
+    // Respond with the framed messages format if the client accepts it; otherwise use avro
+    String accept = request.getHeader(HttpHeaders.Names.ACCEPT);
+    if (accept != null && accept.contains(FramedMessages.CONTENT_TYPE)) {
+      responder.sendContent(HttpResponseStatus.OK, new FramedMessagesBodyProducer(iterator, messageChunkSize),
+                            ImmutableMultimap.of(HttpHeaders.Names.CONTENT_TYPE, FramedMessages.CONTENT_TYPE));
+    } else {
       responder.sendContent(HttpResponseStatus.OK, new MessagesBodyProducer(iterator, messageChunkSize),
                             ImmutableMultimap.of(HttpHeaders.Names.CONTENT_TYPE, "avro/binary"));
-    } catch (Throwable t) {
-      iterator.close();
-      throw t;
     }
   }
 
   /**
-   * Creates a {@link CloseableIterator} of {@link RawMessage} based on the given fetch request.
+   * Fetches {@link RawMessage}s asynchronously based on the given fetch request.
    */
-  private CloseableIterator<RawMessage> fetchMessages(GenericRecord fetchRequest,
-                                                      TopicId topicId) throws IOException, TopicNotFoundException {
+  private ListenableFuture<CloseableIterator<RawMessage>> fetchMessages(GenericRecord fetchRequest, TopicId topicId,
+                                                      long pollTimeoutMillis)
+    throws IOException, TopicNotFoundException {
     MessageFetcher fetcher = messagingService.prepareFetch(topicId);
 
     Object startFrom = fetchRequest.get("startFrom");
@@ -153,8 +195,27 @@ public final class FetchHandler extends AbstractHttpHandler {
     if (encodedTx != null) {
       fetcher.setTransaction(TRANSACTION_CODEC.decode(ByteBuffers.getByteArray(encodedTx)));
     }
+    fetcher.setPollTimeout(pollTimeoutMillis, TimeUnit.MILLISECONDS);
 
-    return fetcher.fetch();
+    return fetcher.fetchAsync();
+  }
+
+  /**
+   * Handles error raised while sending messages back to client.
+   */
+  private static void handleSendError(@Nullable Throwable cause) {
+    // Since response header is already sent, there is nothing we can send back to client. Simply log the failure
+    if (cause instanceof SocketException
+      || cause instanceof ClosedChannelException
+      || (cause instanceof IOException && KNOWN_IO_EXCEPTION_MESSAGES.contains(cause.getMessage()))) {
+      // This can easily caused by client close connection prematurely. Don't want to flood the log.
+      LOG.trace("Connection closed by client prematurely while sending messages back to client", cause);
+    } else {
+      // Use sampling logger to log to avoid flooding the log if there is any systematic failure
+      SAMPLING_LOG.warn("Exception raised when sending messages back to client", cause);
+      // Also log a trace to provide a way to see every error if needed
+      LOG.trace("Exception raised when sending messages back to client", cause);
+    }
   }
 
   /**
@@ -250,18 +311,86 @@ public final class FetchHandler extends AbstractHttpHandler {
     @Override
     public void handleError(@Nullable Throwable cause) {
       iterator.close();
-      // Since response header is already sent, there is nothing we can send back to client. Simply log the failure
-      if (cause instanceof SocketException
-        || cause instanceof ClosedChannelException
-        || (cause instanceof IOException && KNOWN_IO_EXCEPTION_MESSAGES.contains(cause.getMessage()))) {
-        // This can easily caused by client close connection prematurely. Don't want to flood the log.
-        LOG.trace("Connection closed by client prematurely while sending messages back to client", cause);
-      } else {
-        // Use sampling logger to log to avoid flooding the log if there is any systematic failure
-        SAMPLING_LOG.warn("Exception raised when sending messages back to client", cause);
-        // Also log a trace to provide a way to see every error if needed
-        LOG.trace("Exception raised when sending messages back to client", cause);
+      handleSendError(cause);
+    }
+  }
+
+  /**
+   * A {@link BodyProducer} to send back messages in the {@link FramedMessages} format.
+   * Message payloads that are large enough are sent directly from the byte arrays of the {@link RawMessage}
+   * without copying; smaller ones are copied together with the frame headers to avoid having too many
+   * small buffers in one chunk.
+   */
+  private static class FramedMessagesBodyProducer extends BodyProducer {
+
+    // Payloads with size smaller than this value will be copied
+    private static final int MIN_WRAP_PAYLOAD_SIZE = 256;
+
+    private final CloseableIterator<RawMessage> iterator;
+    private final int messageChunkSize;
+    private final ChannelBuffer headers;
+    private final List<ChannelBuffer> buffers;
+    private boolean ended;
+
+    FramedMessagesBodyProducer(CloseableIterator<RawMessage> iterator, int messageChunkSize) {
+      this.iterator = iterator;
+      this.messageChunkSize = messageChunkSize;
+      this.headers = ChannelBuffers.dynamicBuffer(Math.min(messageChunkSize, 65536));
+      this.buffers = new ArrayList<>();
+    }
+
+    @Override
+    public ChannelBuffer nextChunk() throws Exception {
+      // Already sent all messages, return empty to signal the end of response
+      if (ended) {
+        return ChannelBuffers.EMPTY_BUFFER;
+      }
+
+      // The headers buffer can be reused since the previous chunk was already sent
+      headers.clear();
+      buffers.clear();
+
+      int size = 0;
+      int startIndex = 0;
+      while (iterator.hasNext() && size < messageChunkSize) {
+        RawMessage message = iterator.next();
+        byte[] id = message.getId();
+        byte[] payload = message.getPayload();
+
+        headers.writeInt(id.length);
+        headers.writeBytes(id);
+        headers.writeInt(payload.length);
+
+        if (payload.length < MIN_WRAP_PAYLOAD_SIZE) {
+          headers.writeBytes(payload);
+        } else {
+          buffers.add(headers.slice(startIndex, headers.writerIndex() - startIndex));
+          buffers.add(ChannelBuffers.wrappedBuffer(payload));
+          startIndex = headers.writerIndex();
+        }
+        size += id.length + payload.length + 8;
+      }
+
+      if (!iterator.hasNext()) {
+        ended = true;
+        headers.writeInt(FramedMessages.END_OF_MESSAGES);
       }
+      if (headers.writerIndex() > startIndex) {
+        buffers.add(headers.slice(startIndex, headers.writerIndex() - startIndex));
+      }
+
+      return ChannelBuffers.wrappedBuffer(buffers.toArray(new ChannelBuffer[buffers.size()]));
+    }
+
+    @Override
+    public void finished() throws Exception {
+      iterator.close();
+    }
+
+    @Override
+    public void handleError(@Nullable Throwable cause) {
+      iterator.close();
+      handleSendError(cause);
     }
   }
 }
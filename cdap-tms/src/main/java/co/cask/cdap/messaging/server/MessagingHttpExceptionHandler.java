@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.server;
+
+import co.cask.cdap.common.HttpExceptionHandler;
+import co.cask.cdap.security.spi.authentication.SecurityRequestContext;
+import co.cask.http.HttpResponder;
+import com.google.common.base.Objects;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link HttpExceptionHandler} for the messaging http service. It is also used for responding to
+ * requests that fail after being handled asynchronously.
+ */
+final class MessagingHttpExceptionHandler extends HttpExceptionHandler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MessagingHttpExceptionHandler.class);
+
+  @Override
+  public void handle(Throwable t, HttpRequest request, HttpResponder responder) {
+    // TODO: CDAP-7688. Override the handling to return 400 on IllegalArgumentException
+    if (t instanceof IllegalArgumentException) {
+      logWithTrace(request, t);
+      responder.sendString(HttpResponseStatus.BAD_REQUEST, t.getMessage());
+    } else {
+      super.handle(t, request, responder);
+    }
+  }
+
+  private void logWithTrace(HttpRequest request, Throwable t) {
+    LOG.trace("Error in handling request={} {} for user={}:", request.getMethod().getName(), request.getUri(),
+              Objects.firstNonNull(SecurityRequestContext.getUserId(), "<null>"), t);
+  }
+}
@@ -17,17 +17,13 @@
 package co.cask.cdap.messaging.server;
 
 import co.cask.cdap.api.metrics.MetricsCollectionService;
-import co.cask.cdap.common.HttpExceptionHandler;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.http.CommonNettyHttpServiceBuilder;
 import co.cask.cdap.common.metrics.MetricsReporterHook;
 import co.cask.cdap.messaging.MessagingService;
-import co.cask.cdap.security.spi.authentication.SecurityRequestContext;
 import co.cask.http.HttpHandler;
-import co.cask.http.HttpResponder;
 import co.cask.http.NettyHttpService;
-import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.inject.Inject;
@@ -35,8 +31,6 @@ import com.google.inject.name.Named;
 import org.apache.twill.common.Cancellable;
 import org.apache.twill.discovery.Discoverable;
 import org.apache.twill.discovery.DiscoveryService;
-import org.jboss.netty.handler.codec.http.HttpRequest;
-import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,23 +70,7 @@ public class MessagingHttpService extends AbstractIdleService {
       .setWorkerThreadPoolSize(cConf.getInt(Constants.MessagingSystem.HTTP_SERVER_WORKER_THREADS))
       .setExecThreadPoolSize(cConf.getInt(Constants.MessagingSystem.HTTP_SERVER_EXECUTOR_THREADS))
       .setHttpChunkLimit(cConf.getInt(Constants.MessagingSystem.HTTP_SERVER_MAX_REQUEST_SIZE_MB) * 1024 * 1024)
-      .setExceptionHandler(new HttpExceptionHandler() {
-        @Override
-        public void handle(Throwable t, HttpRequest request, HttpResponder responder) {
-          // TODO: CDAP-7688. Override the handling to return 400 on IllegalArgumentException
-          if (t instanceof IllegalArgumentException) {
-            logWithTrace(request, t);
-            responder.sendString(HttpResponseStatus.BAD_REQUEST, t.getMessage());
-          } else {
-            super.handle(t, request, responder);
-          }
-        }
-
-        private void logWithTrace(HttpRequest request, Throwable t) {
-          LOG.trace("Error in handling request={} {} for user={}:", request.getMethod().getName(), request.getUri(),
-                    Objects.firstNonNull(SecurityRequestContext.getUserId(), "<null>"), t);
-        }
-      })
+      .setExceptionHandler(new MessagingHttpExceptionHandler())
       .addHttpHandlers(handlers)
       .build();
     httpService.startAndWait();
@@ -76,12 +76,7 @@ public final class StoreHandler extends AbstractHttpHandler {
 
     TopicId topicId = new NamespaceId(namespace).topic(topic);
     StoreRequest storeRequest = createStoreRequest(topicId, request);
-
-    // Empty payload is only allowed for transactional publish
-    if (!storeRequest.isTransactional() && !storeRequest.hasNext()) {
-      throw new BadRequestException("Empty payload is only allowed for publishing transactional message. Topic: "
-                                      + topicId);
-    }
+    validatePublishRequest(storeRequest);
 
     // Publish the message and response with the rollback information
     RollbackDetail rollbackInfo = messagingService.publish(storeRequest);
@@ -130,10 +125,7 @@ public final class StoreHandler extends AbstractHttpHandler {
    * Creates a {@link StoreRequest} instance based on the given {@link HttpRequest}.
    */
   private StoreRequest createStoreRequest(TopicId topicId, HttpRequest request) throws Exception {
-    // Currently only support avro
-    if (!"avro/binary".equals(request.getHeader(HttpHeaders.Names.CONTENT_TYPE))) {
-      throw new BadRequestException("Only avro/binary content type is supported.");
-    }
+    validateContentType(request);
 
     Decoder decoder = DecoderFactory.get().directBinaryDecoder(new ChannelBufferInputStream(request.getContent()),
                                                                null);
@@ -141,10 +133,35 @@ public final class StoreHandler extends AbstractHttpHandler {
     return new GenericRecordStoreRequest(topicId, datumReader.read(null, decoder));
   }
 
+  /**
+   * Validates the content type of the given {@link HttpRequest} for publishing or storing messages.
+   *
+   * @throws BadRequestException if the content type is not supported
+   */
+  static void validateContentType(HttpRequest request) throws BadRequestException {
+    // Currently only support avro
+    if (!"avro/binary".equals(request.getHeader(HttpHeaders.Names.CONTENT_TYPE))) {
+      throw new BadRequestException("Only avro/binary content type is supported.");
+    }
+  }
+
+  /**
+   * Validates the given {@link StoreRequest} for publishing.
+   *
+   * @throws BadRequestException if the request is not valid for publishing
+   */
+  static void validatePublishRequest(StoreRequest storeRequest) throws BadRequestException {
+    // Empty payload is only allowed for transactional publish
+    if (!storeRequest.isTransactional() && !storeRequest.hasNext()) {
+      throw new BadRequestException("Empty payload is only allowed for publishing transactional message. Topic: "
+                                      + storeRequest.getTopicId());
+    }
+  }
+
   /**
    * Encodes the {@link RollbackDetail} object as avro record based on the {@link Schemas.V1.PublishResponse#SCHEMA}.
    */
-  private ChannelBuffer encodeRollbackDetail(RollbackDetail rollbackDetail) throws IOException {
+  static ChannelBuffer encodeRollbackDetail(RollbackDetail rollbackDetail) throws IOException {
     Schema schema = Schemas.V1.PublishResponse.SCHEMA;
 
     // Constructs the response object as GenericRecord
@@ -172,7 +189,7 @@ public final class StoreHandler extends AbstractHttpHandler {
   /**
    * A {@link StoreRequest} that gets the request information from {@link GenericRecord}.
    */
-  private static final class GenericRecordStoreRequest extends StoreRequest {
+  static final class GenericRecordStoreRequest extends StoreRequest {
 
     private final Iterator<ByteBuffer> payloadIterator;
 
@@ -25,6 +25,8 @@ import co.cask.cdap.messaging.store.MessageTable;
 import co.cask.cdap.messaging.store.PayloadTable;
 import co.cask.cdap.proto.id.TopicId;
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,17 +46,100 @@ final class CoreMessageFetcher extends MessageFetcher {
   private final TopicMetadata topicMetadata;
   private final TableProvider<MessageTable> messageTableProvider;
   private final TableProvider<PayloadTable> payloadTableProvider;
+  private final TopicPublishNotifier publishNotifier;
 
   CoreMessageFetcher(TopicMetadata topicMetadata,
                      TableProvider<MessageTable> messageTableProvider,
-                     TableProvider<PayloadTable> payloadTableProvider) {
+                     TableProvider<PayloadTable> payloadTableProvider,
+                     TopicPublishNotifier publishNotifier) {
     this.topicMetadata = topicMetadata;
     this.messageTableProvider = messageTableProvider;
     this.payloadTableProvider = payloadTableProvider;
+    this.publishNotifier = publishNotifier;
   }
 
   @Override
   public CloseableIterator<RawMessage> fetch() throws IOException {
+    long pollTimeoutMillis = getPollTimeoutMillis();
+    if (pollTimeoutMillis <= 0) {
+      return fetchMessages();
+    }
+
+    // Keep fetching until there are messages or the poll timeout is reached.
+    // The publish sequence is captured before the fetch so that messages published after the fetch started
+    // won't get missed.
+    TopicId topicId = topicMetadata.getTopicId();
+    long deadline = System.currentTimeMillis() + pollTimeoutMillis;
+    while (true) {
+      long sequence = publishNotifier.getSequence(topicId);
+      CloseableIterator<RawMessage> iterator = fetchMessages();
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0 || iterator.hasNext()) {
+        return iterator;
+      }
+      iterator.close();
+
+      try {
+        publishNotifier.await(topicId, sequence, remaining, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        // Reset the interrupt flag and do a final fetch without waiting
+        Thread.currentThread().interrupt();
+        return fetchMessages();
+      }
+    }
+  }
+
+  @Override
+  public ListenableFuture<CloseableIterator<RawMessage>> fetchAsync() throws IOException {
+    long pollTimeoutMillis = getPollTimeoutMillis();
+    if (pollTimeoutMillis <= 0) {
+      return super.fetchAsync();
+    }
+
+    // Same as the fetch() method, except that instead of blocking the current thread while waiting for new messages,
+    // a callback is registered to the publish notifier to fetch again.
+    SettableFuture<CloseableIterator<RawMessage>> result = SettableFuture.create();
+    poll(result, System.currentTimeMillis() + pollTimeoutMillis);
+    return result;
+  }
+
+  /**
+   * Fetches messages and completes the given future if there are messages or the deadline is reached. Otherwise,
+   * registers a callback to the publish notifier to call this method again when there are new messages published.
+   */
+  private void poll(final SettableFuture<CloseableIterator<RawMessage>> result,
+                    final long deadline) throws IOException {
+    TopicId topicId = topicMetadata.getTopicId();
+    long sequence = publishNotifier.getSequence(topicId);
+    CloseableIterator<RawMessage> iterator = fetchMessages();
+    long remaining = deadline - System.currentTimeMillis();
+    if (remaining <= 0 || iterator.hasNext()) {
+      if (!result.set(iterator)) {
+        iterator.close();
+      }
+      return;
+    }
+    iterator.close();
+
+    publishNotifier.listen(topicId, sequence, remaining, TimeUnit.MILLISECONDS, new Runnable() {
+      @Override
+      public void run() {
+        if (result.isDone()) {
+          return;
+        }
+        try {
+          poll(result, deadline);
+        } catch (Throwable t) {
+          result.setException(t);
+        }
+      }
+    });
+  }
+
+  /**
+   * Creates a {@link CloseableIterator} to fetch messages from the tables.
+   */
+  private CloseableIterator<RawMessage> fetchMessages() throws IOException {
     MessageTable messageTable = messageTableProvider.get();
     try {
       return new MessageCloseableIterator(messageTable);
@@ -27,6 +27,7 @@ import co.cask.cdap.messaging.MessageFetcher;
 import co.cask.cdap.messaging.MessagingService;
 import co.cask.cdap.messaging.MessagingServiceUtils;
 import co.cask.cdap.messaging.MessagingUtils;
+import co.cask.cdap.messaging.PublishResult;
 import co.cask.cdap.messaging.RollbackDetail;
 import co.cask.cdap.messaging.StoreRequest;
 import co.cask.cdap.messaging.TopicMetadata;
@@ -46,6 +47,7 @@ import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.Inject;
 import org.apache.tephra.TxConstants;
 import org.apache.tephra.util.TxUtils;
@@ -54,16 +56,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
@@ -80,11 +91,13 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
   private final CConfiguration cConf;
   private final TableFactory tableFactory;
   private final LoadingCache<TopicId, TopicMetadata> topicCache;
-  private final LoadingCache<TopicId, ConcurrentMessageWriter> messageTableWriterCache;
-  private final LoadingCache<TopicId, ConcurrentMessageWriter> payloadTableWriterCache;
+  private final LoadingCache<TopicId, MessageWriter> messageTableWriterCache;
+  private final LoadingCache<TopicId, MessageWriter> payloadTableWriterCache;
   private final TimeProvider timeProvider;
   private final MetricsCollectionService metricsCollectionService;
   private final long txMaxLifeTimeInMillis;
+  private final TopicPublishNotifier publishNotifier;
+  private final ExecutorService batchPublishExecutor;
 
   @Inject
   CoreMessagingService(CConfiguration cConf, TableFactory tableFactory,
@@ -114,6 +127,16 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
     this.metricsCollectionService = metricsCollectionService;
     this.txMaxLifeTimeInMillis = TimeUnit.SECONDS.toMillis(cConf.getLong(TxConstants.Manager.CFG_TX_MAX_LIFETIME,
                                                                          TxConstants.Manager.DEFAULT_TX_MAX_LIFETIME));
+    this.publishNotifier = new TopicPublishNotifier(cConf.getInt(Constants.MessagingSystem.POLL_EXECUTOR_THREADS));
+
+    // Use a bounded pool without queue, so that when all threads are busy, the publish is rejected and gets
+    // performed by the caller thread instead. This throttles the batch publish callers under load.
+    int batchPublishThreads = cConf.getInt(Constants.MessagingSystem.BATCH_PUBLISH_THREADS);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+      batchPublishThreads, batchPublishThreads, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+      Threads.createDaemonThreadFactory("messaging-batch-publish-%d"), new ThreadPoolExecutor.AbortPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    this.batchPublishExecutor = executor;
   }
 
   @Override
@@ -142,6 +165,7 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
       topicCache.invalidate(topicId);
       messageTableWriterCache.invalidate(topicId);
       payloadTableWriterCache.invalidate(topicId);
+      publishNotifier.remove(topicId);
     }
   }
 
@@ -176,7 +200,7 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
       public PayloadTable get() throws IOException {
         return createPayloadTable(metadata);
       }
-    });
+    }, publishNotifier);
   }
 
   @Nullable
@@ -187,7 +211,10 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
       if (request.isTransactional()) {
         ensureValidTxLifetime(request.getTransactionWritePointer());
       }
-      return messageTableWriterCache.get(request.getTopicId()).persist(request, metadata);
+      RollbackDetail rollbackDetail = messageTableWriterCache.get(request.getTopicId()).persist(request, metadata);
+      // Wake up fetchers that are waiting for new messages
+      publishNotifier.notifyPublished(request.getTopicId());
+      return rollbackDetail;
     } catch (ExecutionException e) {
       Throwable cause = Objects.firstNonNull(e.getCause(), e);
       Throwables.propagateIfPossible(cause, TopicNotFoundException.class, IOException.class);
@@ -195,6 +222,57 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
     }
   }
 
+  @Override
+  public List<PublishResult> publish(final List<StoreRequest> requests) throws IOException {
+    if (requests.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    // Group the requests by topic. Requests to the same topic are published sequentially to preserve ordering.
+    Map<TopicId, List<Integer>> topicRequests = new LinkedHashMap<>();
+    for (int i = 0; i < requests.size(); i++) {
+      TopicId topicId = requests.get(i).getTopicId();
+      List<Integer> indices = topicRequests.get(topicId);
+      if (indices == null) {
+        indices = new ArrayList<>();
+        topicRequests.put(topicId, indices);
+      }
+      indices.add(i);
+    }
+
+    // Publish to each topic in parallel. The first topic is published from the caller thread.
+    final PublishResult[] results = new PublishResult[requests.size()];
+    List<Future<?>> futures = new ArrayList<>();
+    Iterator<List<Integer>> iterator = topicRequests.values().iterator();
+    List<Integer> callerIndices = iterator.next();
+    while (iterator.hasNext()) {
+      final List<Integer> indices = iterator.next();
+      Runnable task = new Runnable() {
+        @Override
+        public void run() {
+          publish(requests, indices, results);
+        }
+      };
+      try {
+        futures.add(batchPublishExecutor.submit(task));
+      } catch (RejectedExecutionException e) {
+        // All threads are busy or the executor is shutdown, just publish from the caller thread
+        task.run();
+      }
+    }
+    publish(requests, callerIndices, results);
+
+    for (Future<?> future : futures) {
+      try {
+        Uninterruptibles.getUninterruptibly(future);
+      } catch (ExecutionException e) {
+        // Shouldn't happen since the task never throws
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+    return Arrays.asList(results);
+  }
+
   @Override
   public void storePayload(StoreRequest request) throws TopicNotFoundException, IOException {
     try {
@@ -260,9 +338,26 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
     messageTableWriterCache.invalidateAll();
     messageTableWriterCache.invalidateAll();
     payloadTableWriterCache.invalidateAll();
+    batchPublishExecutor.shutdownNow();
+    publishNotifier.close();
     LOG.info("Core Messaging Service stopped");
   }
 
+  /**
+   * Publishes the {@link StoreRequest}s at the given indices sequentially and sets the {@link PublishResult}s
+   * into the results array at the same indices.
+   */
+  private void publish(List<StoreRequest> requests, List<Integer> indices, PublishResult[] results) {
+    for (int idx : indices) {
+      StoreRequest request = requests.get(idx);
+      try {
+        results[idx] = PublishResult.success(request.getTopicId(), publish(request));
+      } catch (Exception e) {
+        results[idx] = PublishResult.failure(request.getTopicId(), e);
+      }
+    }
+  }
+
   private void ensureValidTxLifetime(long transactionWritePointer) throws IOException {
     long txTimestamp = TxUtils.getTimestamp(transactionWritePointer);
     boolean validLifetime = (txTimestamp + txMaxLifeTimeInMillis) > System.currentTimeMillis();
@@ -331,24 +426,26 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
   }
 
   /**
-   * Creates a {@link LoadingCache} for {@link ConcurrentMessageWriter}
-   * for writing to {@link MessageTable} or {@link PayloadTable}.
+   * Creates a {@link LoadingCache} for {@link MessageWriter}
+   * for writing to {@link MessageTable} or {@link PayloadTable}. Depending on the configuration, it is either
+   * a {@link ConcurrentMessageWriter} or a {@link GroupCommitMessageWriter}.
    *
    * @param messageTable {@code true} for building a cache for the {@link MessageTable};
    *                     {@code false} for the {@link PayloadTable}
    * @param cConf the system configuration
    * @return a {@link LoadingCache} for
    */
-  private LoadingCache<TopicId, ConcurrentMessageWriter> createTableWriterCache(final boolean messageTable,
-                                                                                final CConfiguration cConf) {
+  private LoadingCache<TopicId, MessageWriter> createTableWriterCache(final boolean messageTable,
+                                                                      final CConfiguration cConf) {
     long expireSecs = cConf.getLong(Constants.MessagingSystem.TABLE_CACHE_EXPIRATION_SECONDS);
+    final boolean groupCommit = cConf.getBoolean(Constants.MessagingSystem.WRITER_GROUP_COMMIT_ENABLED);
 
     return CacheBuilder.newBuilder()
       .expireAfterAccess(expireSecs, TimeUnit.SECONDS)
-      .removalListener(new RemovalListener<TopicId, ConcurrentMessageWriter>() {
+      .removalListener(new RemovalListener<TopicId, MessageWriter>() {
         @Override
-        public void onRemoval(RemovalNotification<TopicId, ConcurrentMessageWriter> notification) {
-          ConcurrentMessageWriter writer = notification.getValue();
+        public void onRemoval(RemovalNotification<TopicId, MessageWriter> notification) {
+          MessageWriter writer = notification.getValue();
           if (writer != null) {
             try {
               writer.close();
@@ -358,9 +455,9 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
           }
         }
       })
-      .build(new CacheLoader<TopicId, ConcurrentMessageWriter>() {
+      .build(new CacheLoader<TopicId, MessageWriter>() {
         @Override
-        public ConcurrentMessageWriter load(TopicId topicId) throws Exception {
+        public MessageWriter load(TopicId topicId) throws Exception {
           TopicMetadata metadata = getTopic(topicId);
           StoreRequestWriter<?> messagesWriter = messageTable
             ? new MessageTableStoreRequestWriter(createMessageTable(metadata), timeProvider)
@@ -373,7 +470,14 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
             Constants.Metrics.Tag.TABLE, messageTable ? "message" : "payload"
           ));
 
-          return new ConcurrentMessageWriter(messagesWriter, metricsContext);
+          if (!groupCommit) {
+            return new ConcurrentMessageWriter(messagesWriter, metricsContext);
+          }
+          return new GroupCommitMessageWriter(
+            topicId, messagesWriter, metricsContext,
+            cConf.getInt(Constants.MessagingSystem.WRITER_GROUP_COMMIT_MAX_BATCH_SIZE),
+            cConf.getLong(Constants.MessagingSystem.WRITER_GROUP_COMMIT_MAX_BATCH_BYTES),
+            cConf.getLong(Constants.MessagingSystem.WRITER_GROUP_COMMIT_MAX_LATENCY_MS));
         }
       });
   }
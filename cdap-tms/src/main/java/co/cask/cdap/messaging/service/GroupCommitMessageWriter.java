@@ -0,0 +1,419 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.service;
+
+import co.cask.cdap.api.metrics.MetricsCollector;
+import co.cask.cdap.messaging.RollbackDetail;
+import co.cask.cdap.messaging.StoreRequest;
+import co.cask.cdap.messaging.TopicMetadata;
+import co.cask.cdap.proto.id.TopicId;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link MessageWriter} that uses group commit to batch writes from concurrent threads.
+ *
+ * Unlike the {@link ConcurrentMessageWriter}, publishing threads never perform the write themselves. Instead:
+ *
+ * <pre>
+ * 1. The publishing thread reads all payloads of the {@link StoreRequest} into memory, enqueues it
+ *    to a {@link BlockingQueue} and blocks on a future for the completion of the write.
+ * 2. A dedicated writer thread waits for the first request to arrive, then keeps collecting more requests
+ *    until either the maximum number of requests, the maximum number of bytes or the maximum latency is reached.
+ * 3. The writer thread persists the collected batch with the {@link StoreRequestWriter} and completes the future
+ *    of every request in the batch.
+ * </pre>
+ *
+ * This avoids having publishing threads spinning while waiting for the writer flag, at the cost of the extra
+ * latency bounded by the configured maximum latency.
+ */
+@ThreadSafe
+final class GroupCommitMessageWriter implements MessageWriter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GroupCommitMessageWriter.class);
+
+  // A special request to signal the writer thread to stop
+  private static final GroupCommitRequest END_REQUEST = new GroupCommitRequest(null, 0L);
+
+  // Upper bounds of the buckets for the batch size histogram
+  private static final int[] BATCH_SIZE_BUCKETS = { 1, 10, 100, 1000 };
+
+  private final StoreRequestWriter<?> messagesWriter;
+  private final MetricsCollector metricsCollector;
+  private final int maxBatchSize;
+  private final long maxBatchBytes;
+  private final long maxLatencyNanos;
+  private final BlockingQueue<GroupCommitRequest> writeQueue;
+  private final ReadWriteLock closeLock;
+  private final Thread writerThread;
+  private boolean closed;
+  // The failure that terminated the writer thread, after which no more request can be persisted
+  private Throwable writerFailure;
+
+  /**
+   * Constructor.
+   *
+   * @param topicId the {@link TopicId} that this writer is writing to. It is only used for naming the writer thread
+   * @param messagesWriter the {@link StoreRequestWriter} for persisting {@link StoreRequest}.
+   * @param metricsCollector the {@link MetricsCollector} for collecting metrics emitted by this class.
+   * @param maxBatchSize maximum number of requests in one batch write
+   * @param maxBatchBytes maximum number of payload bytes in one batch write
+   * @param maxLatencyMillis maximum time in milliseconds to wait for more requests after the first request in a
+   *                         batch arrived
+   */
+  GroupCommitMessageWriter(TopicId topicId, StoreRequestWriter<?> messagesWriter, MetricsCollector metricsCollector,
+                           int maxBatchSize, long maxBatchBytes, long maxLatencyMillis) {
+    this.messagesWriter = messagesWriter;
+    this.metricsCollector = metricsCollector;
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+    this.maxBatchBytes = Math.max(1L, maxBatchBytes);
+    this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, maxLatencyMillis));
+    this.writeQueue = new LinkedBlockingQueue<>();
+    this.closeLock = new ReentrantReadWriteLock();
+    this.writerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runWriter();
+      }
+    }, "message-writer-" + topicId.getNamespace() + "-" + topicId.getTopic());
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+  }
+
+  @Nullable
+  @Override
+  public RollbackDetail persist(StoreRequest storeRequest, TopicMetadata metadata) throws IOException {
+    // Read all payloads in the caller thread so that the size of the request is known and the
+    // writer thread only need to generate the table entries.
+    BufferedStoreRequest bufferedRequest;
+    try {
+      bufferedRequest = new BufferedStoreRequest(storeRequest);
+    } catch (IllegalStateException e) {
+      metricsCollector.increment("persist.failure", 1L);
+      throw new IOException("Unable to write message to " + storeRequest.getTopicId(), e);
+    }
+
+    PendingStoreRequest pendingStoreRequest = new PendingStoreRequest(bufferedRequest, metadata);
+    GroupCommitRequest request = new GroupCommitRequest(pendingStoreRequest, bufferedRequest.getSize());
+
+    Lock lock = closeLock.readLock();
+    lock.lock();
+    try {
+      if (closed) {
+        throw new IOException("Message writer is already closed");
+      }
+      if (writerFailure != null) {
+        throw new IOException("Message writer for " + storeRequest.getTopicId() + " has failed", writerFailure);
+      }
+      writeQueue.add(request);
+    } finally {
+      lock.unlock();
+    }
+
+    metricsCollector.increment("persist.requested", 1L);
+
+    try {
+      Uninterruptibles.getUninterruptibly(request.getCompletion());
+    } catch (ExecutionException e) {
+      // The completion future only fails if the writer thread failed
+      metricsCollector.increment("persist.failure", 1L);
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw new IOException("Unable to write message to " + storeRequest.getTopicId(), e.getCause());
+    }
+
+    if (pendingStoreRequest.isSuccess()) {
+      metricsCollector.increment("persist.success", 1L);
+      return pendingStoreRequest.getRollbackDetail();
+    } else {
+      metricsCollector.increment("persist.failure", 1L);
+      Throwables.propagateIfInstanceOf(pendingStoreRequest.getFailureCause(), IOException.class);
+      throw new IOException("Unable to write message to " + storeRequest.getTopicId(),
+                            pendingStoreRequest.getFailureCause());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    Lock lock = closeLock.writeLock();
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      // Since the closed flag is set, no more request can be added after this end request.
+      writeQueue.add(END_REQUEST);
+    } finally {
+      lock.unlock();
+    }
+
+    // Wait for the writer thread to flush everything in the queue
+    Uninterruptibles.joinUninterruptibly(writerThread);
+    messagesWriter.close();
+  }
+
+  /**
+   * Runs the write loop in the writer thread until the {@link #END_REQUEST} is received. If the loop fails,
+   * all requests that are not completed yet are failed, and no more request can be persisted.
+   */
+  private void runWriter() {
+    List<GroupCommitRequest> requests = new ArrayList<>();
+    try {
+      runWriteLoop(requests);
+    } catch (Throwable t) {
+      LOG.error("Message writer thread {} failed", Thread.currentThread().getName(), t);
+      failRequests(requests, t);
+    }
+  }
+
+  /**
+   * Runs the write loop.
+   *
+   * @param requests a list for holding the requests of the current batch
+   */
+  private void runWriteLoop(List<GroupCommitRequest> requests) {
+    List<PendingStoreRequest> batch = new ArrayList<>();
+    boolean running = true;
+
+    while (running) {
+      GroupCommitRequest request;
+      try {
+        request = writeQueue.take();
+      } catch (InterruptedException e) {
+        // The writer thread is never interrupted intentionally. The interrupt flag is cleared, just keep waiting.
+        continue;
+      }
+      if (request == END_REQUEST) {
+        break;
+      }
+
+      long deadline = System.nanoTime() + maxLatencyNanos;
+      long batchBytes = 0L;
+      long totalWaitNanos = 0L;
+      long maxWaitNanos = 0L;
+      requests.clear();
+      batch.clear();
+
+      // Collects requests until one of the budgets is exhausted
+      while (request != null) {
+        long waitNanos = System.nanoTime() - request.getEnqueueTime();
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+        batchBytes += request.getSize();
+        requests.add(request);
+        batch.add(request.getPendingStoreRequest());
+
+        if (requests.size() >= maxBatchSize || batchBytes >= maxBatchBytes) {
+          break;
+        }
+
+        long remainingNanos = deadline - System.nanoTime();
+        try {
+          request = remainingNanos > 0 ? writeQueue.poll(remainingNanos, TimeUnit.NANOSECONDS) : writeQueue.poll();
+        } catch (InterruptedException e) {
+          // The writer thread is never interrupted intentionally. Just commit whatever collected so far.
+          // The interrupt flag is cleared, so that the following batches are not affected.
+          request = null;
+        }
+
+        if (request == END_REQUEST) {
+          // No more request can be enqueued after the END_REQUEST. Commit the current batch and stop.
+          running = false;
+          request = null;
+        }
+      }
+
+      commit(batch, batchBytes);
+      for (GroupCommitRequest committed : requests) {
+        committed.getCompletion().set(null);
+      }
+      emitBatchMetrics(requests.size(), batchBytes, totalWaitNanos, maxWaitNanos);
+    }
+
+    // The END_REQUEST is always the last request in the queue, hence the queue should be empty at this point.
+    if (!writeQueue.isEmpty()) {
+      LOG.warn("Unexpected pending requests after message writer is closed");
+    }
+  }
+
+  /**
+   * Fails the given requests and all requests in the write queue with the given cause, and stops accepting
+   * new requests.
+   */
+  private void failRequests(List<GroupCommitRequest> requests, Throwable cause) {
+    Lock lock = closeLock.writeLock();
+    lock.lock();
+    try {
+      writerFailure = cause;
+    } finally {
+      lock.unlock();
+    }
+
+    // Since the writer failure is set, no more request can be added to the queue.
+    // Setting the exception is a no-op for requests that are already completed.
+    for (GroupCommitRequest request : requests) {
+      request.getCompletion().setException(cause);
+    }
+    GroupCommitRequest request = writeQueue.poll();
+    while (request != null) {
+      request.getCompletion().setException(cause);
+      request = writeQueue.poll();
+    }
+  }
+
+  /**
+   * Persists the given batch of {@link PendingStoreRequest} and marks all of them as completed.
+   */
+  private void commit(List<PendingStoreRequest> batch, long batchBytes) {
+    Throwable failureCause = null;
+    try {
+      messagesWriter.write(batch.iterator());
+    } catch (Throwable t) {
+      LOG.debug("Failed to persist batch of {} requests with {} bytes", batch.size(), batchBytes, t);
+      failureCause = t;
+    }
+    for (PendingStoreRequest pendingStoreRequest : batch) {
+      pendingStoreRequest.completed(failureCause);
+    }
+  }
+
+  private void emitBatchMetrics(int batchSize, long batchBytes, long totalWaitNanos, long maxWaitNanos) {
+    metricsCollector.increment("persist.batch.count", 1L);
+    metricsCollector.increment("persist.batch.requests", batchSize);
+    metricsCollector.gauge("persist.batch.size", batchSize);
+    metricsCollector.gauge("persist.batch.bytes", batchBytes);
+    metricsCollector.increment(getBatchSizeBucket(batchSize), 1L);
+    metricsCollector.increment("persist.queue.wait.us", TimeUnit.NANOSECONDS.toMicros(totalWaitNanos));
+    metricsCollector.gauge("persist.queue.wait.max.us", TimeUnit.NANOSECONDS.toMicros(maxWaitNanos));
+  }
+
+  /**
+   * Returns the metric name of the batch size histogram bucket that the given batch size falls into.
+   */
+  private static String getBatchSizeBucket(int batchSize) {
+    for (int bucket : BATCH_SIZE_BUCKETS) {
+      if (batchSize <= bucket) {
+        return "persist.batch.size.le." + bucket;
+      }
+    }
+    return "persist.batch.size.gt." + BATCH_SIZE_BUCKETS[BATCH_SIZE_BUCKETS.length - 1];
+  }
+
+  /**
+   * A request in the write queue, containing the {@link PendingStoreRequest} and a future for signaling
+   * the completion of the write.
+   */
+  private static final class GroupCommitRequest {
+
+    private final PendingStoreRequest pendingStoreRequest;
+    private final long size;
+    private final long enqueueTime;
+    private final SettableFuture<Void> completion;
+
+    GroupCommitRequest(@Nullable PendingStoreRequest pendingStoreRequest, long size) {
+      this.pendingStoreRequest = pendingStoreRequest;
+      this.size = size;
+      this.enqueueTime = System.nanoTime();
+      this.completion = SettableFuture.create();
+    }
+
+    PendingStoreRequest getPendingStoreRequest() {
+      return pendingStoreRequest;
+    }
+
+    long getSize() {
+      return size;
+    }
+
+    long getEnqueueTime() {
+      return enqueueTime;
+    }
+
+    SettableFuture<Void> getCompletion() {
+      return completion;
+    }
+  }
+
+  /**
+   * A {@link StoreRequest} that has all the payloads from another {@link StoreRequest} read into memory.
+   */
+  private static final class BufferedStoreRequest extends StoreRequest {
+
+    private final List<byte[]> payloads;
+    private final Iterator<byte[]> iterator;
+    private final long size;
+
+    /**
+     * Creates an instance by reading all payloads from the given {@link StoreRequest}.
+     *
+     * @throws IllegalStateException if the given request is invalid
+     */
+    BufferedStoreRequest(StoreRequest request) {
+      super(request.getTopicId(), request.isTransactional(), request.getTransactionWritePointer());
+      List<byte[]> payloads = Collections.emptyList();
+      long size = 0L;
+      if (request.hasNext()) {
+        payloads = new ArrayList<>();
+        while (request.hasNext()) {
+          byte[] payload = request.next();
+          payloads.add(payload);
+          size += payload.length;
+        }
+      }
+      this.payloads = payloads;
+      this.iterator = payloads.iterator();
+      this.size = size;
+    }
+
+    long getSize() {
+      return size;
+    }
+
+    @Nullable
+    @Override
+    protected byte[] doComputeNext() {
+      return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    public String toString() {
+      return "BufferedStoreRequest{" +
+        "topicId=" + getTopicId() +
+        ", payloads=" + payloads.size() +
+        ", size=" + size +
+        '}';
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.service;
+
+import co.cask.cdap.messaging.RollbackDetail;
+import co.cask.cdap.messaging.StoreRequest;
+import co.cask.cdap.messaging.TopicMetadata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/**
+ * Persists {@link StoreRequest} for a single topic to the underlying storage table.
+ * Implementations must be safe to be called concurrently from multiple threads.
+ */
+interface MessageWriter extends Closeable {
+
+  /**
+   * Persists the given {@link StoreRequest}.
+   *
+   * @param storeRequest contains information about payload to be store
+   * @param metadata {@link TopicMetadata} for the topic in the {@link StoreRequest}
+   * @return if the store request is transactional, then returns a {@link RollbackDetail} containing
+   *         information for rollback; otherwise {@code null} will be returned.
+   * @throws IOException if failed to persist the data
+   */
+  @Nullable
+  RollbackDetail persist(StoreRequest storeRequest, TopicMetadata metadata) throws IOException;
+}
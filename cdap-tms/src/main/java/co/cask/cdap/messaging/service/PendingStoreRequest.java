@@ -16,6 +16,7 @@
 
 package co.cask.cdap.messaging.service;
 
+import co.cask.cdap.messaging.RollbackDetail;
 import co.cask.cdap.messaging.StoreRequest;
 import co.cask.cdap.messaging.TopicMetadata;
 
@@ -100,6 +101,19 @@ final class PendingStoreRequest extends StoreRequest {
     return endSequenceId;
   }
 
+  /**
+   * Returns a {@link RollbackDetail} for this request if it is transactional; otherwise {@code null}.
+   * This method should only be called after the request was completed successfully.
+   */
+  @Nullable
+  RollbackDetail getRollbackDetail() {
+    if (!isTransactional()) {
+      return null;
+    }
+    return new SimpleRollbackDetail(getTransactionWritePointer(), startTimestamp, startSequenceId,
+                                    endTimestamp, endSequenceId);
+  }
+
   @Nullable
   @Override
   protected byte[] doComputeNext() {
@@ -0,0 +1,251 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.service;
+
+import co.cask.cdap.proto.id.TopicId;
+import org.apache.twill.common.Threads;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Keeps track of message publishing to topics so that fetchers can block until new messages are available.
+ * Each topic has a sequence number that gets incremented every time messages are published to the topic.
+ * A fetcher records the sequence number before fetching and, if there is no new message, waits for the
+ * sequence number to change, either by blocking in {@link #await(TopicId, long, long, TimeUnit)} or by
+ * registering a callback with {@link #listen(TopicId, long, long, TimeUnit, Runnable)}. Callbacks are executed
+ * by a bounded pool of threads, so that waiting fetchers don't hold on to any thread.
+ */
+@ThreadSafe
+final class TopicPublishNotifier {
+
+  private final ConcurrentMap<TopicId, Sequence> sequences = new ConcurrentHashMap<>();
+  private final ScheduledThreadPoolExecutor executor;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param threads number of threads for executing callbacks registered through the
+   *                {@link #listen(TopicId, long, long, TimeUnit, Runnable)} method
+   */
+  TopicPublishNotifier(int threads) {
+    this.executor = new ScheduledThreadPoolExecutor(threads, Threads.createDaemonThreadFactory("messaging-poll-%d"));
+    this.executor.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Returns the current publish sequence number of the given topic.
+   */
+  long getSequence(TopicId topicId) {
+    return getOrCreate(topicId).get();
+  }
+
+  /**
+   * Notifies that messages were published to the given topic. All threads blocked
+   * in the {@link #await(TopicId, long, long, TimeUnit)} method for the topic will be woken up and all
+   * callbacks registered for the topic will be executed.
+   */
+  void notifyPublished(TopicId topicId) {
+    // Only notify if someone has been interested in the topic, to avoid creating entries for unwatched topics
+    Sequence sequence = sequences.get(topicId);
+    if (sequence != null) {
+      sequence.increment();
+    }
+  }
+
+  /**
+   * Removes the given topic. All threads blocked and all callbacks registered for the topic will be notified.
+   */
+  void remove(TopicId topicId) {
+    Sequence sequence = sequences.remove(topicId);
+    if (sequence != null) {
+      sequence.increment();
+    }
+  }
+
+  /**
+   * Waits for the publish sequence number of the given topic to be different than the given one.
+   *
+   * @param topicId the topic to wait for
+   * @param sequence the sequence number as returned by {@link #getSequence(TopicId)}
+   * @param timeout the maximum time to wait
+   * @param unit the unit for the timeout
+   * @return {@code true} if the sequence number has changed; {@code false} if the wait timed out
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   */
+  boolean await(TopicId topicId, long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+    return getOrCreate(topicId).await(sequence, unit.toNanos(timeout));
+  }
+
+  /**
+   * Registers a callback to be executed once when the publish sequence number of the given topic is different
+   * than the given one, or when the given timeout is reached, whichever comes first. The callback is executed
+   * immediately if the sequence number has already changed.
+   *
+   * @param topicId the topic to listen to
+   * @param sequence the sequence number as returned by {@link #getSequence(TopicId)}
+   * @param timeout the maximum time to wait before executing the callback
+   * @param unit the unit for the timeout
+   * @param callback the callback to execute
+   */
+  void listen(TopicId topicId, long sequence, long timeout, TimeUnit unit, Runnable callback) {
+    Sequence seq = getOrCreate(topicId);
+    Waiter waiter = new Waiter(seq, callback);
+    if (!seq.addWaiter(sequence, waiter)) {
+      waiter.fire();
+      return;
+    }
+    try {
+      waiter.setTimeout(executor.schedule(waiter, timeout, unit));
+    } catch (RejectedExecutionException e) {
+      // The notifier is closed
+      waiter.fire();
+    }
+  }
+
+  /**
+   * Releases resources used by this notifier. All registered callbacks will be executed in the calling thread.
+   */
+  void close() {
+    executor.shutdownNow();
+    for (Sequence sequence : sequences.values()) {
+      sequence.increment();
+    }
+  }
+
+  private Sequence getOrCreate(TopicId topicId) {
+    Sequence sequence = sequences.get(topicId);
+    if (sequence != null) {
+      return sequence;
+    }
+    sequence = new Sequence();
+    Sequence existing = sequences.putIfAbsent(topicId, sequence);
+    return existing == null ? sequence : existing;
+  }
+
+  /**
+   * A monotonically increasing sequence number that supports waiting for changes.
+   */
+  private final class Sequence {
+
+    private final Set<Waiter> waiters = new LinkedHashSet<>();
+    private long value;
+
+    synchronized long get() {
+      return value;
+    }
+
+    void increment() {
+      List<Waiter> fired;
+      synchronized (this) {
+        value++;
+        notifyAll();
+        if (waiters.isEmpty()) {
+          return;
+        }
+        fired = new ArrayList<>(waiters);
+        waiters.clear();
+      }
+      // Execute the callbacks outside of the lock
+      for (Waiter waiter : fired) {
+        try {
+          executor.execute(waiter);
+        } catch (RejectedExecutionException e) {
+          // The notifier is closed
+          waiter.fire();
+        }
+      }
+    }
+
+    /**
+     * Adds a {@link Waiter} to be fired on the next increment.
+     *
+     * @return {@code true} if the waiter is added; {@code false} if the sequence number has already changed
+     */
+    synchronized boolean addWaiter(long sequence, Waiter waiter) {
+      if (value != sequence) {
+        return false;
+      }
+      waiters.add(waiter);
+      return true;
+    }
+
+    synchronized void removeWaiter(Waiter waiter) {
+      waiters.remove(waiter);
+    }
+
+    synchronized boolean await(long sequence, long timeoutNanos) throws InterruptedException {
+      long deadline = System.nanoTime() + timeoutNanos;
+      long remaining = timeoutNanos;
+      while (value == sequence && remaining > 0) {
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        remaining = deadline - System.nanoTime();
+      }
+      return value != sequence;
+    }
+  }
+
+  /**
+   * A one time callback that is fired either by a publish notification or by timeout.
+   */
+  private static final class Waiter implements Runnable {
+
+    private final Sequence sequence;
+    private final Runnable callback;
+    private final AtomicBoolean fired = new AtomicBoolean();
+    private volatile ScheduledFuture<?> timeout;
+
+    Waiter(Sequence sequence, Runnable callback) {
+      this.sequence = sequence;
+      this.callback = callback;
+    }
+
+    void setTimeout(ScheduledFuture<?> timeout) {
+      this.timeout = timeout;
+      if (fired.get()) {
+        timeout.cancel(false);
+      }
+    }
+
+    @Override
+    public void run() {
+      fire();
+    }
+
+    void fire() {
+      if (!fired.compareAndSet(false, true)) {
+        return;
+      }
+      ScheduledFuture<?> timeout = this.timeout;
+      if (timeout != null) {
+        timeout.cancel(false);
+      }
+      sequence.removeWaiter(this);
+      callback.run();
+    }
+  }
+}
@@ -22,6 +22,7 @@ import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.messaging.MessagingServiceUtils;
 import co.cask.cdap.messaging.cache.MessageCache;
+import co.cask.cdap.messaging.cache.OffHeapEntryStore;
 import co.cask.cdap.messaging.store.MessageTable;
 import co.cask.cdap.proto.id.TopicId;
 import com.google.common.collect.ImmutableMap;
@@ -60,7 +61,9 @@ public class DefaultMessageTableCacheProvider implements MessageTableCacheProvid
         if (!initialized) {
           Map<TopicId, MessageCache<MessageTable.Entry>> caches = new HashMap<>();
 
-          long cacheSize = cConf.getInt(Constants.MessagingSystem.CACHE_SIZE_MB) * 1024 * 1024;
+          long cacheSize = cConf.getLong(Constants.MessagingSystem.CACHE_SIZE_MB) * 1024 * 1024;
+          boolean offHeap = cConf.getBoolean(Constants.MessagingSystem.CACHE_OFF_HEAP_ENABLED);
+          int slabSize = cConf.getInt(Constants.MessagingSystem.CACHE_OFF_HEAP_SLAB_SIZE_KB) * 1024;
           Set<TopicId> systemTopics = MessagingServiceUtils.getSystemTopics(cConf, true);
           if (cacheSize > 0 && !systemTopics.isEmpty()) {
             MessageTableEntryWeigher weigher = new MessageTableEntryWeigher();
@@ -76,8 +79,12 @@ public class DefaultMessageTableCacheProvider implements MessageTableCacheProvid
               // In future, it can be adjusted dynamically based on metrics
               MessageCache.Limits limits = new MessageCache.Limits(hardLimit / 2, hardLimit * 7 / 10, hardLimit);
               for (TopicId topic : systemTopics) {
-                caches.put(topic, new MessageCache<>(comparator, weigher, limits,
-                                                     createMetricsContext(cConf, topic, metricsCollectionService)));
+                MetricsContext metricsContext = createMetricsContext(cConf, topic, metricsCollectionService);
+                MessageCache<MessageTable.Entry> cache = offHeap
+                  ? new MessageCache<>(new OffHeapEntryStore<>(new MessageTableEntryCodec(topic), slabSize),
+                                       comparator, weigher, limits, metricsContext)
+                  : new MessageCache<>(comparator, weigher, limits, metricsContext);
+                caches.put(topic, cache);
               }
             }
           }
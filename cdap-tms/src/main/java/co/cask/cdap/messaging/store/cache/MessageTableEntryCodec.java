@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.store.cache;
+
+import co.cask.cdap.messaging.cache.OffHeapEntryStore;
+import co.cask.cdap.messaging.store.MessageTable;
+import co.cask.cdap.proto.id.TopicId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link OffHeapEntryStore.Codec} for {@link MessageTable.Entry} of a given topic. Entries are encoded as:
+ *
+ * <pre>
+ * {@code
+ *
+ * entry = <generation> <publish_timestamp> <sequence_id> <flags> <tx_write_pointer> <payload_length> <payload>
+ * generation = 4 bytes int
+ * publish_timestamp = 8 bytes long
+ * sequence_id = 2 bytes short
+ * flags = 1 byte, with bit 0 for transactional and bit 1 for rollback
+ * tx_write_pointer = 8 bytes long
+ * payload_length = 4 bytes int, with -1 for null payload
+ * payload = bytes of the payload
+ * }
+ * </pre>
+ *
+ * The ordering of {@link #compare(MessageTable.Entry, ByteBuffer, int)} is the same as the
+ * {@link MessageTableEntryComparator}. Entries decoded are of type {@link CachingMessageTable.CacheMessageTableEntry}.
+ */
+final class MessageTableEntryCodec implements OffHeapEntryStore.Codec<MessageTable.Entry> {
+
+  private static final int GENERATION_OFFSET = 0;
+  private static final int PUBLISH_TIMESTAMP_OFFSET = GENERATION_OFFSET + 4;
+  private static final int SEQUENCE_ID_OFFSET = PUBLISH_TIMESTAMP_OFFSET + 8;
+  private static final int FLAGS_OFFSET = SEQUENCE_ID_OFFSET + 2;
+  private static final int TX_WRITE_POINTER_OFFSET = FLAGS_OFFSET + 1;
+  private static final int PAYLOAD_LENGTH_OFFSET = TX_WRITE_POINTER_OFFSET + 8;
+  private static final int PAYLOAD_OFFSET = PAYLOAD_LENGTH_OFFSET + 4;
+
+  private static final byte TRANSACTIONAL_FLAG = 0x01;
+  private static final byte ROLLBACK_FLAG = 0x02;
+
+  private final TopicId topicId;
+
+  MessageTableEntryCodec(TopicId topicId) {
+    this.topicId = topicId;
+  }
+
+  @Override
+  public int getEncodedSize(MessageTable.Entry entry) {
+    byte[] payload = entry.getPayload();
+    return PAYLOAD_OFFSET + (payload == null ? 0 : payload.length);
+  }
+
+  @Override
+  public void encode(MessageTable.Entry entry, ByteBuffer buffer, int offset) {
+    byte flags = 0;
+    if (entry.isTransactional()) {
+      flags |= TRANSACTIONAL_FLAG;
+    }
+    if (entry instanceof CachingMessageTable.CacheMessageTableEntry
+      && ((CachingMessageTable.CacheMessageTableEntry) entry).isRollback()) {
+      flags |= ROLLBACK_FLAG;
+    }
+    byte[] payload = entry.getPayload();
+
+    buffer.putInt(offset + GENERATION_OFFSET, entry.getGeneration());
+    buffer.putLong(offset + PUBLISH_TIMESTAMP_OFFSET, entry.getPublishTimestamp());
+    buffer.putShort(offset + SEQUENCE_ID_OFFSET, entry.getSequenceId());
+    buffer.put(offset + FLAGS_OFFSET, flags);
+    buffer.putLong(offset + TX_WRITE_POINTER_OFFSET, entry.getTransactionWritePointer());
+    buffer.putInt(offset + PAYLOAD_LENGTH_OFFSET, payload == null ? -1 : payload.length);
+
+    if (payload != null) {
+      // Use a duplicate so that the position of the shared buffer is not altered
+      ByteBuffer duplicate = buffer.duplicate();
+      duplicate.position(offset + PAYLOAD_OFFSET);
+      duplicate.put(payload);
+    }
+  }
+
+  @Override
+  public MessageTable.Entry decode(ByteBuffer buffer, int offset) {
+    byte flags = buffer.get(offset + FLAGS_OFFSET);
+    int payloadLength = buffer.getInt(offset + PAYLOAD_LENGTH_OFFSET);
+    byte[] payload = null;
+    if (payloadLength >= 0) {
+      payload = new byte[payloadLength];
+      ByteBuffer duplicate = buffer.duplicate();
+      duplicate.position(offset + PAYLOAD_OFFSET);
+      duplicate.get(payload);
+    }
+
+    return new CachingMessageTable.CacheMessageTableEntry(topicId,
+                                                          buffer.getInt(offset + GENERATION_OFFSET),
+                                                          (flags & TRANSACTIONAL_FLAG) != 0,
+                                                          buffer.getLong(offset + TX_WRITE_POINTER_OFFSET),
+                                                          payload,
+                                                          buffer.getLong(offset + PUBLISH_TIMESTAMP_OFFSET),
+                                                          buffer.getShort(offset + SEQUENCE_ID_OFFSET),
+                                                          (flags & ROLLBACK_FLAG) != 0);
+  }
+
+  @Override
+  public int compare(MessageTable.Entry entry, ByteBuffer buffer, int offset) {
+    int cmp = Integer.compare(entry.getGeneration(), buffer.getInt(offset + GENERATION_OFFSET));
+    if (cmp != 0) {
+      return cmp;
+    }
+    cmp = Long.compare(entry.getPublishTimestamp(), buffer.getLong(offset + PUBLISH_TIMESTAMP_OFFSET));
+    if (cmp != 0) {
+      return cmp;
+    }
+    return Integer.compare(entry.getSequenceId() & 0xFFFF, buffer.getShort(offset + SEQUENCE_ID_OFFSET) & 0xFFFF);
+  }
+}
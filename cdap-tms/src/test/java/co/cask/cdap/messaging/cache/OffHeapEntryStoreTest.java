@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.cache;
+
+import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.api.metrics.NoopMetricsContext;
+import co.cask.cdap.messaging.store.MessageFilter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Unit test for {@link MessageCache} backed by {@link OffHeapEntryStore}.
+ */
+public class OffHeapEntryStoreTest {
+
+  private static final MetricsContext NOOP_METRICS = new NoopMetricsContext();
+
+  // Each entry takes 8 bytes (4 bytes length + 4 bytes int), hence two entries per slab
+  private static final int SLAB_SIZE = 16;
+
+  @Test
+  public void testBasic() {
+    MessageCache<Integer> cache = createCache(new MessageCache.Limits(10, 14, 20));
+    cache.addAll(Arrays.asList(1, 2, 3, 4, 5, 11, 12, 13, 14, 15).iterator());
+
+    MessageFilter<Integer> filter = MessageFilter.alwaysAccept();
+
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(0, true, 10, filter)) {
+      Assert.assertEquals(Integer.valueOf(1), scanner.getFirstInCache());
+      Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 11, 12, 13, 14, 15), Lists.newArrayList(scanner));
+    }
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(3, true, 5, filter)) {
+      Assert.assertEquals(Arrays.asList(3, 4, 5, 11, 12), Lists.newArrayList(scanner));
+    }
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(3, false, 5, filter)) {
+      Assert.assertEquals(Arrays.asList(4, 5, 11, 12, 13), Lists.newArrayList(scanner));
+    }
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(9, true, 5, filter)) {
+      Assert.assertEquals(Arrays.asList(11, 12, 13, 14, 15), Lists.newArrayList(scanner));
+    }
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(16, true, 5, filter)) {
+      Assert.assertEquals(Integer.valueOf(1), scanner.getFirstInCache());
+      Assert.assertFalse(scanner.hasNext());
+    }
+
+    // Adding entries that are not larger than existing ones should fail
+    try {
+      cache.addAll(Arrays.asList(15, 16).iterator());
+      Assert.fail("Expected failure when adding entry not in increasing order");
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals(0, cache.getCurrentWeight());
+    }
+  }
+
+  @Test
+  public void testCacheReduction() {
+    MessageCache<Integer> cache = createCache(new MessageCache.Limits(5, 7, 10));
+    MessageFilter<Integer> filter = MessageFilter.alwaysAccept();
+
+    // Keep adding entries so that the index and slabs ring need to grow and slabs get released
+    List<Integer> expected = ImmutableList.of();
+    for (int i = 0; i < 5000; i += 5) {
+      cache.addAll(Arrays.asList(i, i + 1, i + 2, i + 3, i + 4).iterator());
+      try (MessageCache.Scanner<Integer> scanner = cache.scan(0, true, 100, filter)) {
+        List<Integer> entries = Lists.newArrayList(scanner);
+        Assert.assertFalse(entries.isEmpty());
+        Assert.assertEquals(Integer.valueOf(i + 4), entries.get(entries.size() - 1));
+        Assert.assertEquals(scanner.getFirstInCache(), entries.get(0));
+        Assert.assertTrue(entries.size() <= 10);
+        expected = entries;
+      }
+    }
+    Assert.assertEquals(expected.size(), cache.getCurrentWeight());
+
+    cache.clear();
+    Assert.assertEquals(0, cache.getCurrentWeight());
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(0, true, 100, filter)) {
+      Assert.assertNull(scanner.getFirstInCache());
+      Assert.assertFalse(scanner.hasNext());
+    }
+
+    // The cache can be used again after clear
+    cache.addAll(Arrays.asList(6000, 6001).iterator());
+    try (MessageCache.Scanner<Integer> scanner = cache.scan(0, true, 100, filter)) {
+      Assert.assertEquals(Arrays.asList(6000, 6001), Lists.newArrayList(scanner));
+    }
+  }
+
+  @Test
+  public void testUpdate() {
+    OffHeapEntryStore<Integer> store = new OffHeapEntryStore<>(new IntCodec(), SLAB_SIZE);
+    store.add(1, 1);
+    store.add(2, 1);
+    store.add(3, 1);
+
+    // Update with the same value is ok
+    store.update(2);
+    Assert.assertEquals(Arrays.asList(1, 2, 3), Lists.newArrayList(store.subIterator(1, 3)));
+
+    // Update an entry that is not in the store should fail
+    try {
+      store.update(4);
+      Assert.fail("Expected failure when updating non-existing entry");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    Assert.assertEquals(Integer.valueOf(1), store.lower(2));
+    Assert.assertEquals(Integer.valueOf(3), store.higher(2));
+    Assert.assertNull(store.lower(1));
+    Assert.assertNull(store.higher(3));
+
+    store.removeFirst();
+    Assert.assertEquals(Integer.valueOf(2), store.first());
+    Assert.assertEquals(Integer.valueOf(3), store.last());
+    Assert.assertEquals(1, store.getFirstWeight());
+    store.removeFirst();
+    store.removeFirst();
+    Assert.assertNull(store.first());
+    Assert.assertEquals(-1, store.getFirstWeight());
+  }
+
+  private MessageCache<Integer> createCache(MessageCache.Limits limits) {
+    return new MessageCache<>(new OffHeapEntryStore<>(new IntCodec(), SLAB_SIZE), new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return o1.compareTo(o2);
+      }
+    }, new MessageCache.Weigher<Integer>() {
+      @Override
+      public int weight(Integer entry) {
+        return 1;
+      }
+    }, limits, NOOP_METRICS);
+  }
+
+  /**
+   * A {@link OffHeapEntryStore.Codec} for {@link Integer}.
+   */
+  private static final class IntCodec implements OffHeapEntryStore.Codec<Integer> {
+
+    @Override
+    public int getEncodedSize(Integer entry) {
+      return 4;
+    }
+
+    @Override
+    public void encode(Integer entry, ByteBuffer buffer, int offset) {
+      buffer.putInt(offset, entry);
+    }
+
+    @Override
+    public Integer decode(ByteBuffer buffer, int offset) {
+      return buffer.getInt(offset);
+    }
+
+    @Override
+    public int compare(Integer entry, ByteBuffer buffer, int offset) {
+      return Integer.compare(entry, buffer.getInt(offset));
+    }
+  }
+}
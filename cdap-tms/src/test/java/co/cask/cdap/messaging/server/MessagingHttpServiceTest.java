@@ -27,6 +27,7 @@ import co.cask.cdap.common.guice.ConfigModule;
 import co.cask.cdap.common.guice.DiscoveryRuntimeModule;
 import co.cask.cdap.common.metrics.NoOpMetricsCollectionService;
 import co.cask.cdap.messaging.MessagingService;
+import co.cask.cdap.messaging.PublishResult;
 import co.cask.cdap.messaging.RollbackDetail;
 import co.cask.cdap.messaging.TopicMetadata;
 import co.cask.cdap.messaging.client.ClientMessagingService;
@@ -57,6 +58,11 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests for {@link MessagingHttpService}.
@@ -69,12 +75,15 @@ public class MessagingHttpServiceTest {
   private static CConfiguration cConf;
   private static MessagingHttpService httpService;
   private static MessagingService client;
+  private static MessagingService binaryClient;
 
   @BeforeClass
   public static void init() throws IOException {
     cConf = CConfiguration.create();
     cConf.set(Constants.CFG_LOCAL_DATA_DIR, TEMP_FOLDER.newFolder().getAbsolutePath());
     cConf.setInt(Constants.MessagingSystem.HTTP_SERVER_CONSUME_CHUNK_SIZE, 128);
+    // Use a small number of threads to verify that long polling doesn't hold on to request handling threads
+    cConf.setInt(Constants.MessagingSystem.HTTP_SERVER_WORKER_THREADS, 4);
     // Set max life time to a high value so that dummy tx ids that we create in the tests still work
     cConf.setLong(TxConstants.Manager.CFG_TX_MAX_LIFETIME, 10000000000L);
 
@@ -94,6 +103,7 @@ public class MessagingHttpServiceTest {
     httpService.startAndWait();
 
     client = new ClientMessagingService(injector.getInstance(DiscoveryServiceClient.class));
+    binaryClient = new ClientMessagingService(injector.getInstance(DiscoveryServiceClient.class), true);
   }
 
   @AfterClass
@@ -437,6 +447,186 @@ public class MessagingHttpServiceTest {
     client.deleteTopic(topicId);
   }
 
+  @Test
+  public void testBinaryFetch() throws Exception {
+    // This test is to verify the framed messages format returns the same messages as the avro format
+    TopicId topicId = new NamespaceId("ns1").topic("testBinaryFetch");
+
+    client.createTopic(new TopicMetadata(topicId));
+
+    // Publish messages with payloads of different sizes, from empty to multiple times of the chunk size
+    int chunkSize = cConf.getInt(Constants.MessagingSystem.HTTP_SERVER_CONSUME_CHUNK_SIZE);
+    List<String> payloads = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      payloads.add(Strings.repeat(Integer.toString(i % 10), (i * chunkSize) / 4));
+    }
+    client.publish(StoreRequestBuilder.of(topicId).addPayloads(payloads.toArray(new String[payloads.size()])).build());
+
+    // Fetch all messages with both clients. They should be the same.
+    List<RawMessage> messages = new ArrayList<>();
+    try (CloseableIterator<RawMessage> iterator = binaryClient.prepareFetch(topicId).fetch()) {
+      Iterators.addAll(messages, iterator);
+    }
+    Assert.assertEquals(payloads.size(), messages.size());
+
+    List<RawMessage> avroMessages = new ArrayList<>();
+    try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topicId).fetch()) {
+      Iterators.addAll(avroMessages, iterator);
+    }
+    Assert.assertEquals(avroMessages.size(), messages.size());
+
+    for (int i = 0; i < payloads.size(); i++) {
+      Assert.assertEquals(payloads.get(i), Bytes.toString(messages.get(i).getPayload()));
+      Assert.assertArrayEquals(avroMessages.get(i).getId(), messages.get(i).getId());
+    }
+
+    // Fetch with a start offset and limit
+    messages.clear();
+    try (CloseableIterator<RawMessage> iterator = binaryClient.prepareFetch(topicId)
+                                                              .setStartMessage(avroMessages.get(4).getId(), false)
+                                                              .setLimit(5)
+                                                              .fetch()) {
+      Iterators.addAll(messages, iterator);
+    }
+    Assert.assertEquals(5, messages.size());
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(payloads.get(i + 5), Bytes.toString(messages.get(i).getPayload()));
+    }
+
+    // Fetch from the end should get no message
+    try (CloseableIterator<RawMessage> iterator = binaryClient.prepareFetch(topicId)
+                                                              .setStartMessage(avroMessages.get(19).getId(), false)
+                                                              .fetch()) {
+      Assert.assertFalse(iterator.hasNext());
+    }
+
+    client.deleteTopic(topicId);
+  }
+
+  @Test
+  public void testLongPoll() throws Exception {
+    final TopicId topicId = new NamespaceId("ns1").topic("testLongPoll");
+
+    client.createTopic(new TopicMetadata(topicId));
+
+    // Fetch with poll timeout on empty topic should return no message after the timeout
+    long startTime = System.currentTimeMillis();
+    try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topicId)
+                                                        .setPollTimeout(200, TimeUnit.MILLISECONDS)
+                                                        .fetch()) {
+      Assert.assertFalse(iterator.hasNext());
+    }
+    Assert.assertTrue(System.currentTimeMillis() - startTime >= 100);
+
+    // Fetch with a long poll timeout in separate threads, they should return as soon as a message is published.
+    // Waiting fetches don't hold on to any request handling thread, hence there can be more of them than the
+    // number of http server threads.
+    int pollers = cConf.getInt(Constants.MessagingSystem.HTTP_SERVER_WORKER_THREADS) * 2;
+    ExecutorService executor = Executors.newFixedThreadPool(pollers);
+    try {
+      List<Future<List<RawMessage>>> futures = new ArrayList<>();
+      for (int i = 0; i < pollers; i++) {
+        futures.add(executor.submit(new Callable<List<RawMessage>>() {
+          @Override
+          public List<RawMessage> call() throws Exception {
+            List<RawMessage> messages = new ArrayList<>();
+            try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topicId)
+                                                                .setPollTimeout(60, TimeUnit.SECONDS)
+                                                                .fetch()) {
+              Iterators.addAll(messages, iterator);
+            }
+            return messages;
+          }
+        }));
+      }
+
+      // Other requests should still get served while the fetches are waiting
+      TimeUnit.MILLISECONDS.sleep(500);
+      try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topicId).fetch()) {
+        Assert.assertFalse(iterator.hasNext());
+      }
+
+      client.publish(StoreRequestBuilder.of(topicId).addPayloads("m1").build());
+      for (Future<List<RawMessage>> future : futures) {
+        List<RawMessage> messages = future.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals("m1", Bytes.toString(messages.get(0).getPayload()));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    client.deleteTopic(topicId);
+  }
+
+  @Test
+  public void testBatchPublish() throws Exception {
+    NamespaceId nsId = new NamespaceId("ns1");
+    TopicId topic1 = nsId.topic("testBatchPublish1");
+    TopicId topic2 = nsId.topic("testBatchPublish2");
+    TopicId topic3 = new NamespaceId("ns2").topic("testBatchPublish3");
+    TopicId notExistTopic = nsId.topic("testBatchPublishNotExist");
+
+    client.createTopic(new TopicMetadata(topic1));
+    client.createTopic(new TopicMetadata(topic2));
+    client.createTopic(new TopicMetadata(topic3));
+
+    // Publish to multiple topics across namespaces in one batch, with some failures
+    List<PublishResult> results = client.publish(Arrays.asList(
+      StoreRequestBuilder.of(topic1).addPayloads("a1", "a2").build(),
+      StoreRequestBuilder.of(notExistTopic).addPayloads("x").build(),
+      StoreRequestBuilder.of(topic2).addPayloads("b1").build(),
+      StoreRequestBuilder.of(topic3).setTransaction(1L).addPayloads("c1").build(),
+      StoreRequestBuilder.of(topic1).addPayloads("a3").build(),
+      StoreRequestBuilder.of(topic2).build()
+    ));
+
+    Assert.assertEquals(6, results.size());
+    Assert.assertTrue(results.get(0).isSuccess());
+    Assert.assertNull(results.get(0).getRollbackDetail());
+    Assert.assertFalse(results.get(1).isSuccess());
+    Assert.assertTrue(results.get(1).getFailure() instanceof TopicNotFoundException);
+    Assert.assertTrue(results.get(2).isSuccess());
+    Assert.assertTrue(results.get(3).isSuccess());
+    Assert.assertEquals(1L, results.get(3).getRollbackDetail().getTransactionWritePointer());
+    Assert.assertTrue(results.get(4).isSuccess());
+    // Empty payload for non-transactional publish is not allowed
+    Assert.assertFalse(results.get(5).isSuccess());
+    Assert.assertTrue(results.get(5).getFailure() instanceof IllegalArgumentException);
+
+    // Messages to the same topic should be in the same order as in the batch
+    List<String> payloads = new ArrayList<>();
+    try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topic1).fetch()) {
+      while (iterator.hasNext()) {
+        payloads.add(Bytes.toString(iterator.next().getPayload()));
+      }
+    }
+    Assert.assertEquals(Arrays.asList("a1", "a2", "a3"), payloads);
+
+    payloads.clear();
+    try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topic2).fetch()) {
+      while (iterator.hasNext()) {
+        payloads.add(Bytes.toString(iterator.next().getPayload()));
+      }
+    }
+    Assert.assertEquals(Arrays.asList("b1"), payloads);
+
+    payloads.clear();
+    try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topic3).fetch()) {
+      while (iterator.hasNext()) {
+        payloads.add(Bytes.toString(iterator.next().getPayload()));
+      }
+    }
+    Assert.assertEquals(Arrays.asList("c1"), payloads);
+
+    // The rollback detail returned from the batch publish should be usable for rollback
+    client.rollback(topic3, results.get(3).getRollbackDetail());
+
+    client.deleteTopic(topic1);
+    client.deleteTopic(topic2);
+    client.deleteTopic(topic3);
+  }
+
   @Test
   public void testPayloadTable() throws Exception {
     // This test is to verify storing transaction messages to the payload table
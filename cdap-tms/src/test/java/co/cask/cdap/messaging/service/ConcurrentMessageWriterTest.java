@@ -18,7 +18,9 @@ package co.cask.cdap.messaging.service;
 
 import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.metrics.MetricsCollector;
+import co.cask.cdap.api.metrics.NoopMetricsContext;
 import co.cask.cdap.common.utils.TimeProvider;
+import co.cask.cdap.messaging.RollbackDetail;
 import co.cask.cdap.messaging.StoreRequest;
 import co.cask.cdap.messaging.TopicMetadata;
 import co.cask.cdap.messaging.data.MessageId;
@@ -37,6 +39,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -268,6 +271,164 @@ public class ConcurrentMessageWriterTest {
     }
   }
 
+  @Test
+  public void testGroupCommit() throws IOException {
+    TopicId topicId = new NamespaceId("ns1").topic("t1");
+    TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider());
+    try (MessageWriter writer = new GroupCommitMessageWriter(topicId, testWriter, new NoopMetricsContext(),
+                                                             100, 1024 * 1024, 1L)) {
+      writer.persist(new TestStoreRequest(topicId, Arrays.asList("1", "2", "3")), metadata);
+
+      List<RawMessage> messages = testWriter.getMessages().get(topicId);
+      Assert.assertEquals(3, messages.size());
+
+      List<String> payloads = new ArrayList<>();
+      for (RawMessage message : messages) {
+        payloads.add(Bytes.toString(message.getPayload()));
+      }
+      Assert.assertEquals(Arrays.asList("1", "2", "3"), payloads);
+
+      // Transactional publish should return a rollback detail
+      RollbackDetail rollbackDetail = writer.persist(
+        new TestStoreRequest(topicId, true, 1234L, Arrays.asList("4", "5").iterator()), metadata);
+      Assert.assertNotNull(rollbackDetail);
+      Assert.assertEquals(1234L, rollbackDetail.getTransactionWritePointer());
+      Assert.assertEquals(5, testWriter.getMessages().get(topicId).size());
+
+      // Empty payload for non-transactional request is invalid
+      try {
+        writer.persist(new TestStoreRequest(topicId, Collections.<String>emptyList()), metadata);
+        Assert.fail("Expected failure for empty non-transactional request");
+      } catch (IOException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void testGroupCommitConcurrentWrites() throws Exception {
+    int payloadsPerRequest = 200;
+    int threadCount = 20;
+    final int requestPerThread = 20;
+
+    final TopicId topicId = NamespaceId.DEFAULT.topic("t");
+    final TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider(), 10L);
+
+    // Use a small batch size to make sure there are multiple batches
+    final List<Long> batchSizes = Collections.synchronizedList(new ArrayList<Long>());
+    final MessageWriter writer = new GroupCommitMessageWriter(topicId, testWriter, new MetricsCollector() {
+      @Override
+      public void increment(String metricName, long value) {
+        if ("persist.batch.requests".equals(metricName)) {
+          batchSizes.add(value);
+        }
+      }
+
+      @Override
+      public void gauge(String metricName, long value) {
+        // No-op
+      }
+    }, 5, 1024 * 1024, 5L);
+
+    final List<String> payload = new ArrayList<>(payloadsPerRequest);
+    for (int i = 0; i < payloadsPerRequest; i++) {
+      payload.add(Integer.toString(i));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            barrier.await();
+            for (int i = 0; i < requestPerThread; i++) {
+              writer.persist(new TestStoreRequest(topicId, payload), metadata);
+            }
+          } catch (Exception e) {
+            LOG.error("Exception raised when persisting.", e);
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+    writer.close();
+
+    // Validate that the total number of messages written is correct
+    List<RawMessage> messages = testWriter.getMessages().get(topicId);
+    Assert.assertEquals(payloadsPerRequest * threadCount * requestPerThread, messages.size());
+
+    // The message id must be sorted
+    RawMessage lastMessage = null;
+    for (RawMessage message : messages) {
+      if (lastMessage != null) {
+        Assert.assertTrue(Bytes.compareTo(lastMessage.getId(), message.getId()) < 0);
+      }
+      lastMessage = message;
+    }
+
+    // Batch size should never exceed the limit
+    long totalRequests = 0L;
+    for (long size : batchSizes) {
+      Assert.assertTrue(size <= 5);
+      totalRequests += size;
+    }
+    Assert.assertEquals(threadCount * requestPerThread, totalRequests);
+
+    // Writing after close should fail
+    try {
+      writer.persist(new TestStoreRequest(topicId, payload), metadata);
+      Assert.fail("Expected failure when writing to a closed writer");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testGroupCommitWriterFailure() throws IOException {
+    TopicId topicId = new NamespaceId("ns1").topic("t1");
+    TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+
+    // Fails the writer thread after the first batch is committed
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider());
+    MessageWriter writer = new GroupCommitMessageWriter(topicId, testWriter, new MetricsCollector() {
+      @Override
+      public void increment(String metricName, long value) {
+        if ("persist.batch.count".equals(metricName)) {
+          throw new IllegalStateException("Failure in emitting metrics");
+        }
+      }
+
+      @Override
+      public void gauge(String metricName, long value) {
+        // No-op
+      }
+    }, 100, 1024 * 1024, 1L);
+
+    try {
+      writer.persist(new TestStoreRequest(topicId, Arrays.asList("1", "2", "3")), metadata);
+      Assert.assertEquals(3, testWriter.getMessages().get(topicId).size());
+
+      // Requests after the writer thread failed should fail instead of blocking forever
+      for (int i = 0; i < 2; i++) {
+        try {
+          writer.persist(new TestStoreRequest(topicId, Arrays.asList("4", "5")), metadata);
+          Assert.fail("Expected failure when writing to a failed writer");
+        } catch (IOException e) {
+          // Expected
+        }
+      }
+      Assert.assertEquals(3, testWriter.getMessages().get(topicId).size());
+    } finally {
+      writer.close();
+    }
+  }
+
   /**
    * A {@link StoreRequestWriter} that turns all payloads to {@link RawMessage} and stores it in a List.
    */
@@ -0,0 +1,239 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.api.metrics;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * A mergeable distribution of non-negative long values, such as latencies, for the
+ * {@link MetricType#DISTRIBUTION} metric type.
+ *
+ * Values are counted in log-linear buckets: values smaller than {@code 8} have a bucket of their own,
+ * and each larger power of two range is split into {@code 8} equal width buckets, hence the bucket a value falls
+ * into is at most 12.5% wider than the value itself. The bucket layout is fixed, so distributions collected at
+ * different places and times can be merged by summing the counts of the same bucket.
+ *
+ * Only non-empty buckets are kept, with bucket indices in ascending order. This class is not thread safe.
+ */
+public final class Distribution {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Total number of buckets needed to cover all non-negative long values.
+   */
+  public static final int NUM_BUCKETS = getBucketIndex(Long.MAX_VALUE) + 1;
+
+  /**
+   * Separator between the metric name and the bucket index in the name of a bucket counter.
+   */
+  public static final String BUCKET_SEPARATOR = ":b";
+
+  private int[] buckets;
+  private long[] counts;
+
+  /**
+   * Creates an empty {@link Distribution}.
+   */
+  public Distribution() {
+    this(new int[0], new long[0]);
+  }
+
+  /**
+   * Creates a {@link Distribution} with the given buckets.
+   *
+   * @param buckets bucket indices in ascending order
+   * @param counts number of values in each of the buckets
+   */
+  public Distribution(int[] buckets, long[] counts) {
+    Preconditions.checkArgument(buckets.length == counts.length,
+                                "Number of buckets %s is different from number of counts %s",
+                                buckets.length, counts.length);
+    this.buckets = buckets;
+    this.counts = counts;
+  }
+
+  /**
+   * Adds a value to this distribution. Negative values are counted as zero.
+   */
+  public void add(long value) {
+    add(getBucketIndex(value), 1L);
+  }
+
+  /**
+   * Adds the given number of values to a bucket.
+   *
+   * @param bucket index of the bucket
+   * @param count number of values to add
+   */
+  public void add(int bucket, long count) {
+    Preconditions.checkArgument(bucket >= 0 && bucket < NUM_BUCKETS, "Invalid bucket index %s", bucket);
+    int idx = Arrays.binarySearch(buckets, bucket);
+    if (idx >= 0) {
+      counts[idx] += count;
+      return;
+    }
+
+    int insertPos = -idx - 1;
+    int[] newBuckets = new int[buckets.length + 1];
+    long[] newCounts = new long[counts.length + 1];
+    System.arraycopy(buckets, 0, newBuckets, 0, insertPos);
+    System.arraycopy(counts, 0, newCounts, 0, insertPos);
+    newBuckets[insertPos] = bucket;
+    newCounts[insertPos] = count;
+    System.arraycopy(buckets, insertPos, newBuckets, insertPos + 1, buckets.length - insertPos);
+    System.arraycopy(counts, insertPos, newCounts, insertPos + 1, counts.length - insertPos);
+    buckets = newBuckets;
+    counts = newCounts;
+  }
+
+  /**
+   * Merges the given distribution into this one.
+   */
+  public void merge(Distribution other) {
+    int[] otherBuckets = other.buckets;
+    long[] otherCounts = other.counts;
+    int[] newBuckets = new int[buckets.length + otherBuckets.length];
+    long[] newCounts = new long[newBuckets.length];
+
+    int i = 0;
+    int j = 0;
+    int size = 0;
+    while (i < buckets.length || j < otherBuckets.length) {
+      if (j == otherBuckets.length || (i < buckets.length && buckets[i] < otherBuckets[j])) {
+        newBuckets[size] = buckets[i];
+        newCounts[size++] = counts[i++];
+      } else if (i == buckets.length || otherBuckets[j] < buckets[i]) {
+        newBuckets[size] = otherBuckets[j];
+        newCounts[size++] = otherCounts[j++];
+      } else {
+        newBuckets[size] = buckets[i];
+        newCounts[size++] = counts[i++] + otherCounts[j++];
+      }
+    }
+
+    buckets = size == newBuckets.length ? newBuckets : Arrays.copyOf(newBuckets, size);
+    counts = size == newCounts.length ? newCounts : Arrays.copyOf(newCounts, size);
+  }
+
+  /**
+   * Returns the indices of the non-empty buckets in ascending order. The returned array must not be modified.
+   */
+  public int[] getBuckets() {
+    return buckets;
+  }
+
+  /**
+   * Returns the number of values in each of the buckets as returned by {@link #getBuckets()}.
+   * The returned array must not be modified.
+   */
+  public long[] getCounts() {
+    return counts;
+  }
+
+  /**
+   * Returns the total number of values in this distribution.
+   */
+  public long getCount() {
+    long total = 0L;
+    for (long count : counts) {
+      total += count;
+    }
+    return total;
+  }
+
+  /**
+   * Returns an estimate of the given percentile of the values in this distribution, or {@code 0} if this
+   * distribution is empty. The estimate is interpolated linearly within the bucket that contains the percentile.
+   *
+   * @param percentile the percentile, in the range of {@code (0, 100]}
+   */
+  public long getPercentile(double percentile) {
+    Preconditions.checkArgument(percentile > 0 && percentile <= 100, "Percentile must be in (0, 100]: %s",
+                                percentile);
+    long total = getCount();
+    if (total == 0) {
+      return 0L;
+    }
+
+    // The rank of the value at the given percentile, starting from 1
+    long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100));
+    long seen = 0L;
+    for (int i = 0; i < buckets.length; i++) {
+      if (seen + counts[i] >= rank) {
+        long lower = getBucketLowerBound(buckets[i]);
+        long width = getBucketUpperBound(buckets[i]) - lower;
+        return lower + Math.min(width - 1, (long) (width * ((double) (rank - seen) / counts[i])));
+      }
+      seen += counts[i];
+    }
+    // Shouldn't happen as rank <= total
+    return getBucketLowerBound(buckets[buckets.length - 1]);
+  }
+
+  /**
+   * Returns the index of the bucket that the given value falls into. Negative values fall into the bucket of zero.
+   */
+  public static int getBucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) Math.max(0L, value);
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  /**
+   * Returns the smallest value that falls into the given bucket.
+   */
+  public static long getBucketLowerBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    return ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS)) << shift;
+  }
+
+  /**
+   * Returns the smallest value that is larger than all values in the given bucket, capped at
+   * {@link Long#MAX_VALUE} for the last bucket.
+   */
+  public static long getBucketUpperBound(int bucket) {
+    return bucket + 1 >= NUM_BUCKETS ? Long.MAX_VALUE : getBucketLowerBound(bucket + 1);
+  }
+
+  /**
+   * Returns the name of the counter metric that carries the count of the given bucket of a distribution metric.
+   * A distribution is transported and stored as a counter of its number of values under the metric name,
+   * plus one such counter for each of its non-empty buckets.
+   */
+  public static String getBucketMetricName(String metricName, int bucket) {
+    return metricName + BUCKET_SEPARATOR + bucket;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("buckets", Arrays.toString(buckets))
+      .add("counts", Arrays.toString(counts))
+      .toString();
+  }
+}
@@ -17,14 +17,22 @@ package co.cask.cdap.api.metrics;
 
 import com.google.common.base.Objects;
 
+import javax.annotation.Nullable;
+
 /**
- * Carries the "raw" emitted metric data point: metric name, type, and value
+ * Carries the "raw" emitted metric data point: metric name, type, and value. For the
+ * {@link MetricType#DISTRIBUTION} type, the value is the number of values in the {@link Distribution}.
+ *
+ * The {@link Distribution} is not part of the serialized form, so that the schema of this class stays compatible
+ * with existing metrics payloads. Distributions are serialized as counters of their buckets instead, as named by
+ * {@link Distribution#getBucketMetricName(String, int)}.
  */
 public class MetricValue {
 
   String name;
   MetricType type;
   long value;
+  transient Distribution distribution;
 
   public MetricValue (String name, MetricType type, long value) {
     this.name = name;
@@ -32,6 +40,11 @@ public class MetricValue {
     this.value = value;
   }
 
+  public MetricValue(String name, Distribution distribution) {
+    this(name, MetricType.DISTRIBUTION, distribution.getCount());
+    this.distribution = distribution;
+  }
+
   public String getName() {
     return name;
   }
@@ -44,12 +57,21 @@ public class MetricValue {
     return value;
   }
 
+  /**
+   * Returns the {@link Distribution} if the type is {@link MetricType#DISTRIBUTION}, otherwise {@code null}.
+   */
+  @Nullable
+  public Distribution getDistribution() {
+    return distribution;
+  }
+
   @Override
   public String toString() {
     return Objects.toStringHelper(this)
       .add("name", name)
       .add("type", type)
       .add("value", value)
+      .add("distribution", distribution)
       .toString();
   }
 }
@@ -38,4 +38,23 @@ public interface MetricsContext extends MetricsCollector {
    * @return tags that identify the context.
    */
   Map<String, String> getTags();
+
+  /**
+   * Returns a {@link MetricsCounter} for incrementing the given metric in this context.
+   * The returned {@link MetricsCounter} can be kept and used repeatedly.
+   *
+   * @param metricName name of the metric
+   * @return a {@link MetricsCounter} bound to this context and the given metric name
+   */
+  MetricsCounter counter(String metricName);
+
+  /**
+   * Records a value to the {@link MetricType#DISTRIBUTION} metric of the given name in this context.
+   * Values recorded between two emits are merged into one {@link Distribution}.
+   *
+   * @param metricName name of the metric
+   * @param value value to record, such as the latency of an operation
+   * @throws IllegalArgumentException if the metric of the given name is already used as a gauge in this context
+   */
+  void distribution(String metricName, long value);
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.api.metrics;
+
+/**
+ * A counter metric that is bound to a {@link MetricsContext} and a metric name. Incrementing through a
+ * {@link MetricsCounter} is the same as calling {@link MetricsContext#increment(String, long)} with the bound
+ * metric name, but without the overhead of looking up the metric on every call.
+ * It is suitable for metrics that are updated frequently, such as per record metrics.
+ */
+public interface MetricsCounter {
+
+  /**
+   * Increments the counter at the current time.
+   *
+   * @param value value to increment by
+   */
+  void increment(long value);
+}
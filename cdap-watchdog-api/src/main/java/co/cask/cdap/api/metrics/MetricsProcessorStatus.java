@@ -33,4 +33,11 @@ public class MetricsProcessorStatus {
     this.lastProcessedTimestamp = lastProcessedTimestamp;
     this.messagesProcessed = messagesProcessed;
   }
+
+  /**
+   * Returns the latest timestamp in seconds among the metrics processed from the topic.
+   */
+  public long getLatestMetricsTimestamp() {
+    return latestMetricsTimestamp;
+  }
 }
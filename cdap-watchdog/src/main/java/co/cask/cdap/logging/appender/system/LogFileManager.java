@@ -19,6 +19,7 @@ package co.cask.cdap.logging.appender.system;
 import co.cask.cdap.common.io.Locations;
 import co.cask.cdap.common.io.Syncable;
 import co.cask.cdap.logging.meta.FileMetaDataWriter;
+import co.cask.cdap.logging.meta.LogBlockIndex;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.Closeables;
 import com.google.common.util.concurrent.Uninterruptibles;
@@ -27,7 +28,6 @@ import org.apache.twill.filesystem.LocationFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Closeable;
 import java.io.Flushable;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
@@ -89,13 +89,23 @@ final class LogFileManager implements Flushable, Syncable {
   }
 
   private LogFileOutputStream createOutputStream(final LogPathIdentifier identifier,
-                                                 long timestamp) throws IOException {
-    TimeStampLocation location = createLocation(identifier);
+                                                 final long timestamp) throws IOException {
+    final TimeStampLocation location = createLocation(identifier);
     LogFileOutputStream logFileOutputStream = new LogFileOutputStream(
-      location.getLocation(), filePermissions, syncIntervalBytes, location.getTimeStamp(), new Closeable() {
+      location.getLocation(), filePermissions, syncIntervalBytes, location.getTimeStamp(),
+      new LogFileOutputStream.CloseListener() {
       @Override
-      public void close() throws IOException {
+      public void closed(@Nullable LogBlockIndex blockIndex) throws IOException {
         outputStreamMap.remove(identifier);
+        if (blockIndex == null || blockIndex.size() == 0) {
+          return;
+        }
+        // The block index is only used to speed up reads, hence failure to write it is not fatal
+        try {
+          fileMetaDataWriter.writeBlockIndex(identifier, timestamp, location.getTimeStamp(), blockIndex);
+        } catch (Exception e) {
+          LOG.warn("Failed to write block index for log file {}", location.getLocation(), e);
+        }
       }
     });
     logFileOutputStream.flush();
@@ -19,9 +19,11 @@ package co.cask.cdap.logging.appender.system;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import co.cask.cdap.common.io.ByteBuffers;
 import co.cask.cdap.common.io.Syncable;
+import co.cask.cdap.logging.meta.LogBlockIndex;
 import co.cask.cdap.logging.serialize.LoggingEvent;
 import co.cask.cdap.logging.serialize.LoggingEventSerializer;
 import com.google.common.io.Closeables;
+import com.google.common.io.CountingOutputStream;
 import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.generic.GenericDatumWriter;
@@ -35,12 +37,17 @@ import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
 
 /**
  * Represents output stream for a log file.
  *
  * Since there is no way to check the state of the underlying file on an exception,
  * all methods of this class assume that the file state is bad on any exception and close the file.
+ *
+ * While writing, the file is divided into blocks of roughly {@code syncIntervalBytes} bytes, each starting at
+ * an Avro sync position. The time range and the highest log level of the events in each block are recorded
+ * in a {@link LogBlockIndex}, which is handed to the {@link CloseListener} when the file is closed.
  */
 
 class LogFileOutputStream implements Closeable, Flushable, Syncable {
@@ -48,28 +55,42 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
 
   private final Location location;
   private final long createTime;
-  private final Closeable closeable;
+  private final int syncIntervalBytes;
+  private final CloseListener closeListener;
   private final LoggingEventSerializer serializer;
+  private final LogBlockIndex.Builder blockIndexBuilder;
 
   private OutputStream outputStream;
+  private CountingOutputStream countingOutputStream;
   private DataFileWriter<GenericRecord> dataFileWriter;
   private long fileSize;
 
-  LogFileOutputStream(Location location, String filePermissions,
-                      int syncIntervalBytes, long createTime, Closeable closeable) throws IOException {
+  // States of the current block
+  private long blockPosition;
+  private int blockEvents;
+  private long blockMinTimestamp;
+  private long blockMaxTimestamp;
+  private int blockMaxLevel;
+
+  LogFileOutputStream(Location location, String filePermissions, int syncIntervalBytes,
+                      long createTime, CloseListener closeListener) throws IOException {
     this.location = location;
-    this.closeable = closeable;
+    this.syncIntervalBytes = syncIntervalBytes;
+    this.closeListener = closeListener;
     this.serializer = new LoggingEventSerializer();
+    this.blockIndexBuilder = new LogBlockIndex.Builder();
 
     Schema schema = serializer.getAvroSchema();
     try {
       this.outputStream =
         filePermissions.isEmpty() ? location.getOutputStream() : location.getOutputStream(filePermissions);
       this.dataFileWriter = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(schema));
-      this.dataFileWriter.create(schema, outputStream);
+      this.countingOutputStream = new CountingOutputStream(outputStream);
+      this.dataFileWriter.create(schema, countingOutputStream);
       this.dataFileWriter.setSyncInterval(syncIntervalBytes);
       this.createTime = createTime;
       this.fileSize = 0;
+      this.blockPosition = dataFileWriter.sync();
     } catch (IOException e) {
       Closeables.closeQuietly(outputStream);
       Closeables.closeQuietly(dataFileWriter);
@@ -91,9 +112,10 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
       } else {
         dataFileWriter.append(((LoggingEvent) event).getRecord());
       }
-      return;
+    } else {
+      dataFileWriter.append(serializer.toGenericRecord(event));
     }
-    dataFileWriter.append(serializer.toGenericRecord(event));
+    updateBlock(event);
   }
 
   /**
@@ -130,10 +152,62 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
   @Override
   public void close() throws IOException {
     LOG.trace("Closing file {}", location);
+    LogBlockIndex blockIndex = null;
     try {
       dataFileWriter.close();
+      // The last block extends to the end of the file
+      finishBlock(countingOutputStream.getCount());
+      blockIndex = blockIndexBuilder.build();
     } finally {
-      closeable.close();
+      closeListener.closed(blockIndex);
+    }
+  }
+
+  /**
+   * Updates the states of the current block with the given event that was just appended. If the bytes written to
+   * the file since the beginning of the block have reached the sync interval, the block is finished and
+   * a new block is started at the next sync position.
+   */
+  private void updateBlock(ILoggingEvent event) throws IOException {
+    long timestamp = event.getTimeStamp();
+    int level = event.getLevel().toInt();
+    if (blockEvents == 0) {
+      blockMinTimestamp = timestamp;
+      blockMaxTimestamp = timestamp;
+      blockMaxLevel = level;
+    } else {
+      blockMinTimestamp = Math.min(blockMinTimestamp, timestamp);
+      blockMaxTimestamp = Math.max(blockMaxTimestamp, timestamp);
+      blockMaxLevel = Math.max(blockMaxLevel, level);
+    }
+    blockEvents++;
+
+    if (countingOutputStream.getCount() - blockPosition >= syncIntervalBytes) {
+      finishBlock(dataFileWriter.sync());
+    }
+  }
+
+  /**
+   * Adds the current block to the block index if it is not empty and starts a new block at the given sync position.
+   */
+  private void finishBlock(long nextBlockPosition) {
+    if (blockEvents > 0) {
+      blockIndexBuilder.add(blockPosition, blockMinTimestamp, blockMaxTimestamp, blockMaxLevel);
+      blockEvents = 0;
+      blockPosition = nextBlockPosition;
     }
   }
+
+  /**
+   * Listener to get notified when a {@link LogFileOutputStream} is closed.
+   */
+  interface CloseListener {
+
+    /**
+     * Invoked when the file is closed.
+     *
+     * @param blockIndex the {@link LogBlockIndex} of the file or {@code null} if the file failed to close properly
+     */
+    void closed(@Nullable LogBlockIndex blockIndex) throws IOException;
+  }
 }
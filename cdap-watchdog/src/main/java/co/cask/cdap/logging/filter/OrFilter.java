@@ -32,6 +32,13 @@ public class OrFilter implements Filter {
     this.expressions = ImmutableList.copyOf(expressions);
   }
 
+  /**
+   * Returns the sub expressions of this filter.
+   */
+  public List<? extends Filter> getExpressions() {
+    return expressions;
+  }
+
   @Override
   public boolean match(ILoggingEvent event) {
     for (Filter expression : expressions) {
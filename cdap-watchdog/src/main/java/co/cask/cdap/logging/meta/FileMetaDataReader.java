@@ -53,6 +53,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import javax.annotation.Nullable;
 
 /**
  * class to read log meta data table
@@ -188,13 +189,34 @@ public class FileMetaDataReader {
                                   Bytes.toLong(row.getRow(), prefixLength + Bytes.SIZEOF_LONG, Bytes.SIZEOF_LONG),
                                   // we store path in new format
                                   Locations.getLocationFromAbsolutePath(locationFactory, (Bytes.toString(value))),
-                                  logPathIdentifier.getNamespaceId(), impersonator));
+                                  logPathIdentifier.getNamespaceId(), impersonator,
+                                  getBlockIndex(row)));
 
       }
     }
     return files;
   }
 
+  /**
+   * Returns the {@link LogBlockIndex} stored in the given row or {@code null} if the row doesn't have a valid index,
+   * which is the case for files that are still being written to.
+   */
+  @Nullable
+  private LogBlockIndex getBlockIndex(Row row) {
+    byte[] value = row.get(LoggingStoreTableUtil.META_TABLE_BLOCK_INDEX_COLUMN_KEY);
+    if (value == null) {
+      return null;
+    }
+    try {
+      return LogBlockIndex.fromBytes(value);
+    } catch (IllegalArgumentException e) {
+      // The index is only an optimization, hence just read the file without it
+      LOG.warn("Ignoring invalid block index for log file {}",
+               Bytes.toString(row.get(LoggingStoreTableUtil.META_TABLE_COLUMN_KEY)), e);
+      return null;
+    }
+  }
+
   private byte[] getOldRowKey(LogPathIdentifier logPathIdentifier) {
     return Bytes.add(LoggingStoreTableUtil.OLD_FILE_META_ROW_KEY_PREFIX, logPathIdentifier.getOldRowkey().getBytes());
   }
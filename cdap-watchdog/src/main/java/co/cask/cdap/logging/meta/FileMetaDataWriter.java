@@ -69,6 +69,33 @@ public class FileMetaDataWriter {
     }, Exception.class);
   }
 
+  /**
+   * Persists the {@link LogBlockIndex} of a log file. The index is only written if the meta data of the file
+   * still exists, so that the index won't recreate the meta data of a file that was already cleaned up.
+   *
+   * @param identifier logging context identifier.
+   * @param eventTimeMs start log time associated with the file.
+   * @param currentTimeMs current time during file creation.
+   * @param index block index of the file.
+   */
+  public void writeBlockIndex(final LogPathIdentifier identifier,
+                              final long eventTimeMs,
+                              final long currentTimeMs,
+                              final LogBlockIndex index) throws Exception {
+    LOG.debug("Writing block index with {} blocks for logging context {} with startTimeMs {} sequence Id {}",
+              index.size(), identifier.getRowkey(), eventTimeMs, currentTimeMs);
+    Transactionals.execute(transactional, new TxRunnable() {
+      @Override
+      public void run(DatasetContext context) throws Exception {
+        Table table = LoggingStoreTableUtil.getMetadataTable(context, datasetManager);
+        byte[] rowKey = getRowKey(identifier, eventTimeMs, currentTimeMs);
+        if (table.get(rowKey, LoggingStoreTableUtil.META_TABLE_COLUMN_KEY) != null) {
+          table.put(rowKey, LoggingStoreTableUtil.META_TABLE_BLOCK_INDEX_COLUMN_KEY, index.toBytes());
+        }
+      }
+    }, Exception.class);
+  }
+
   private byte[] getRowKey(LogPathIdentifier identifier, long eventTime, long currentTime) {
     return Bytes.concat(LoggingStoreTableUtil.NEW_FILE_META_ROW_KEY_PREFIX,
                         identifier.getRowkey().getBytes(StandardCharsets.UTF_8),
@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.logging.meta;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An index of the blocks in a log file. Each block starts at an Avro sync position and ends at the starting
+ * position of the next block, or at the end of the file for the last block. For each block, the index records
+ * the minimum and maximum event timestamps and the highest log level of the events in the block, so that
+ * readers can skip blocks that cannot contain events matching the time range or log level being queried.
+ */
+public final class LogBlockIndex {
+
+  private static final byte VERSION = 1;
+  private static final int ENTRY_SIZE = 3 * Long.SIZE / Byte.SIZE + Integer.SIZE / Byte.SIZE;
+
+  private final long[] positions;
+  private final long[] minTimestamps;
+  private final long[] maxTimestamps;
+  private final int[] maxLevels;
+
+  /**
+   * Decodes a {@link LogBlockIndex} from the bytes produced by {@link #toBytes()}.
+   *
+   * @throws IllegalArgumentException if the bytes are not a valid encoded index
+   */
+  public static LogBlockIndex fromBytes(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    Preconditions.checkArgument(buffer.remaining() >= 5, "Invalid log block index of length %s", bytes.length);
+    byte version = buffer.get();
+    Preconditions.checkArgument(version == VERSION, "Unsupported log block index version %s", version);
+
+    int size = buffer.getInt();
+    Preconditions.checkArgument(size >= 0 && buffer.remaining() == size * ENTRY_SIZE,
+                                "Invalid log block index of size %s and length %s", size, bytes.length);
+    Builder builder = new Builder();
+    for (int i = 0; i < size; i++) {
+      builder.add(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getInt());
+    }
+    return builder.build();
+  }
+
+  private LogBlockIndex(long[] positions, long[] minTimestamps, long[] maxTimestamps, int[] maxLevels) {
+    this.positions = positions;
+    this.minTimestamps = minTimestamps;
+    this.maxTimestamps = maxTimestamps;
+    this.maxLevels = maxLevels;
+  }
+
+  /**
+   * Returns the number of blocks in the index.
+   */
+  public int size() {
+    return positions.length;
+  }
+
+  /**
+   * Returns the sync position in the file that the given block starts at.
+   */
+  public long getPosition(int block) {
+    return positions[block];
+  }
+
+  /**
+   * Returns the position in the file that the given block ends at (exclusive),
+   * or {@code -1} if the block extends to the end of the file.
+   */
+  public long getEndPosition(int block) {
+    return block + 1 < positions.length ? positions[block + 1] : -1L;
+  }
+
+  /**
+   * Returns the smallest event timestamp in the given block.
+   */
+  public long getMinTimestamp(int block) {
+    return minTimestamps[block];
+  }
+
+  /**
+   * Returns the largest event timestamp in the given block.
+   */
+  public long getMaxTimestamp(int block) {
+    return maxTimestamps[block];
+  }
+
+  /**
+   * Returns the integer value of the highest log level of the events in the given block,
+   * as returned by {@link ch.qos.logback.classic.Level#toInt()}.
+   */
+  public int getMaxLevel(int block) {
+    return maxLevels[block];
+  }
+
+  /**
+   * Encodes this index to bytes.
+   */
+  public byte[] toBytes() {
+    ByteBuffer buffer = ByteBuffer.allocate(5 + positions.length * ENTRY_SIZE);
+    buffer.put(VERSION).putInt(positions.length);
+    for (int i = 0; i < positions.length; i++) {
+      buffer.putLong(positions[i]).putLong(minTimestamps[i]).putLong(maxTimestamps[i]).putInt(maxLevels[i]);
+    }
+    return buffer.array();
+  }
+
+  @Override
+  public String toString() {
+    return "LogBlockIndex{" +
+      "positions=" + Arrays.toString(positions) +
+      ", minTimestamps=" + Arrays.toString(minTimestamps) +
+      ", maxTimestamps=" + Arrays.toString(maxTimestamps) +
+      ", maxLevels=" + Arrays.toString(maxLevels) +
+      '}';
+  }
+
+  /**
+   * Builder for {@link LogBlockIndex}. Blocks must be added in increasing order of position.
+   */
+  public static final class Builder {
+
+    private long[] positions = new long[16];
+    private long[] minTimestamps = new long[16];
+    private long[] maxTimestamps = new long[16];
+    private int[] maxLevels = new int[16];
+    private int size;
+
+    /**
+     * Adds a block to the index.
+     *
+     * @param position the sync position that the block starts at
+     * @param minTimestamp the smallest event timestamp in the block
+     * @param maxTimestamp the largest event timestamp in the block
+     * @param maxLevel the integer value of the highest log level in the block
+     * @return this builder
+     */
+    public Builder add(long position, long minTimestamp, long maxTimestamp, int maxLevel) {
+      Preconditions.checkArgument(size == 0 || position > positions[size - 1],
+                                  "Block position %s must be larger than the previous block position %s",
+                                  position, size == 0 ? -1 : positions[size - 1]);
+      Preconditions.checkArgument(minTimestamp <= maxTimestamp,
+                                  "Min timestamp %s must not be larger than max timestamp %s",
+                                  minTimestamp, maxTimestamp);
+      if (size == positions.length) {
+        int capacity = size * 2;
+        positions = Arrays.copyOf(positions, capacity);
+        minTimestamps = Arrays.copyOf(minTimestamps, capacity);
+        maxTimestamps = Arrays.copyOf(maxTimestamps, capacity);
+        maxLevels = Arrays.copyOf(maxLevels, capacity);
+      }
+      positions[size] = position;
+      minTimestamps[size] = minTimestamp;
+      maxTimestamps[size] = maxTimestamp;
+      maxLevels[size] = maxLevel;
+      size++;
+      return this;
+    }
+
+    /**
+     * Returns the number of blocks added so far.
+     */
+    public int size() {
+      return size;
+    }
+
+    public LogBlockIndex build() {
+      return new LogBlockIndex(Arrays.copyOf(positions, size), Arrays.copyOf(minTimestamps, size),
+                               Arrays.copyOf(maxTimestamps, size), Arrays.copyOf(maxLevels, size));
+    }
+  }
+}
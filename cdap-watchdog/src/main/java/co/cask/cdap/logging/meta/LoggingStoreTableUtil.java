@@ -41,6 +41,8 @@ public final class LoggingStoreTableUtil {
   public static final byte[] OLD_FILE_META_ROW_KEY_PREFIX = Bytes.toBytes(200);
   public static final byte[] NEW_FILE_META_ROW_KEY_PREFIX = Bytes.toBytes(300);
   public static final byte[] META_TABLE_COLUMN_KEY = Bytes.toBytes("file");
+  // The column that stores the block index of a closed log file, see LogBlockIndex
+  public static final byte[] META_TABLE_BLOCK_INDEX_COLUMN_KEY = Bytes.toBytes("blocks");
   private static final DatasetId META_TABLE_DATASET_ID = NamespaceId.SYSTEM.dataset(Constants.Logging.META_TABLE);
 
   /**
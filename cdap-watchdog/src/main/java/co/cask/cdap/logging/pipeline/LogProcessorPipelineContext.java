@@ -21,6 +21,7 @@ import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Appender;
 import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.api.metrics.MetricsCounter;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.io.Syncable;
@@ -189,8 +190,18 @@ public class LogProcessorPipelineContext implements Flushable, Syncable, Metrics
     metricsContext.increment(String.format("%s.%s", metricsPrefix, metricName), value);
   }
 
+  @Override
+  public MetricsCounter counter(String metricName) {
+    return metricsContext.counter(String.format("%s.%s", metricsPrefix, metricName));
+  }
+
   @Override
   public void gauge(String metricName, long value) {
     metricsContext.gauge(String.format("%s.%s", metricsPrefix, metricName), value);
   }
+
+  @Override
+  public void distribution(String metricName, long value) {
+    metricsContext.distribution(String.format("%s.%s", metricsPrefix, metricName), value);
+  }
 }
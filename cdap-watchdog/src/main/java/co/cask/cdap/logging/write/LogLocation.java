@@ -16,13 +16,18 @@
 
 package co.cask.cdap.logging.write;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import co.cask.cdap.api.dataset.lib.CloseableIterator;
 import co.cask.cdap.common.io.Locations;
 import co.cask.cdap.common.io.SeekableInputStream;
 import co.cask.cdap.common.logging.LogSamplers;
 import co.cask.cdap.common.logging.Loggers;
+import co.cask.cdap.logging.filter.AndFilter;
 import co.cask.cdap.logging.filter.Filter;
+import co.cask.cdap.logging.filter.LogLevelExpression;
+import co.cask.cdap.logging.filter.OrFilter;
+import co.cask.cdap.logging.meta.LogBlockIndex;
 import co.cask.cdap.logging.read.Callback;
 import co.cask.cdap.logging.read.LogEvent;
 import co.cask.cdap.logging.read.LogOffset;
@@ -50,6 +55,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.Callable;
+import javax.annotation.Nullable;
 
 /**
  * LogLocation representing a log file and methods to read the file's contents.
@@ -69,15 +75,26 @@ public class LogLocation {
   private final Location location;
   private final NamespaceId namespaceId;
   private final Impersonator impersonator;
+  private final LogBlockIndex blockIndex;
 
   public LogLocation(String frameworkVersion, long eventTimeMs, long fileCreationTimeMs, Location location,
                      String namespaceId, Impersonator impersonator) {
+    this(frameworkVersion, eventTimeMs, fileCreationTimeMs, location, namespaceId, impersonator, null);
+  }
+
+  /**
+   * Creates a LogLocation with an optional {@link LogBlockIndex}. When the index is provided, reads skip
+   * the blocks in the file that cannot contain events matching the time range or the log level filter.
+   */
+  public LogLocation(String frameworkVersion, long eventTimeMs, long fileCreationTimeMs, Location location,
+                     String namespaceId, Impersonator impersonator, @Nullable LogBlockIndex blockIndex) {
     this.frameworkVersion = frameworkVersion;
     this.eventTimeMs = eventTimeMs;
     this.fileCreationTimeMs = fileCreationTimeMs;
     this.location = location;
     this.namespaceId = new NamespaceId(namespaceId);
     this.impersonator = impersonator;
+    this.blockIndex = blockIndex;
   }
 
   /**
@@ -112,6 +129,15 @@ public class LogLocation {
     return fileCreationTimeMs;
   }
 
+  /**
+   * get the block index of the log file
+   * @return the {@link LogBlockIndex} or {@code null} if it is not available
+   */
+  @Nullable
+  public LogBlockIndex getBlockIndex() {
+    return blockIndex;
+  }
+
   /**
    * Return closeable iterator of {@link LogEvent}
    * @param logFilter filter for filtering log events
@@ -159,43 +185,47 @@ public class LogLocation {
           return ImmutableList.of();
         }
 
-        // Calculate skipLen based on fileLength
-        long length = location.length();
-        LOG.trace("File length {} {}", location, length);
-        long skipLen = length / 10;
-        if (skipLen > DEFAULT_SKIP_LEN || skipLen <= 0) {
-          skipLen = DEFAULT_SKIP_LEN;
-        }
-
-        // For open file, endPosition sync marker is unknown so start from file length and read up to the actual EOF
-        dataFileReader.sync(length);
-        long finalSync = dataFileReader.previousSync();
-        List<LogEvent> logSegment = readToEndSyncPosition(dataFileReader, logFilter, fromTimeMs, -1);
-
-        if (!logSegment.isEmpty()) {
-          logSegments.addFirst(logSegment);
-          count = count + logSegment.size();
-        }
-
-        LOG.trace("Read log events {} from position {}", count, finalSync);
-
-        long startPosition = finalSync;
-        long endPosition = startPosition;
-        long currentSync;
+        if (blockIndex != null) {
+          count = readBlocksPrev(dataFileReader, logFilter, fromTimeMs, maxEvents, logSegments);
+        } else {
+          // Calculate skipLen based on fileLength
+          long length = location.length();
+          LOG.trace("File length {} {}", location, length);
+          long skipLen = length / 10;
+          if (skipLen > DEFAULT_SKIP_LEN || skipLen <= 0) {
+            skipLen = DEFAULT_SKIP_LEN;
+          }
 
-        while (startPosition > 0 && count < maxEvents) {
-          // Skip to sync position less than current sync position
-          startPosition = skipToPosition(dataFileReader, startPosition, endPosition, skipLen);
-          currentSync = dataFileReader.previousSync();
-          logSegment = readToEndSyncPosition(dataFileReader, logFilter, fromTimeMs, endPosition);
+          // For open file, endPosition sync marker is unknown so start from file length and read up to the actual EOF
+          dataFileReader.sync(length);
+          long finalSync = dataFileReader.previousSync();
+          List<LogEvent> logSegment = readToEndSyncPosition(dataFileReader, logFilter, fromTimeMs, -1);
 
           if (!logSegment.isEmpty()) {
             logSegments.addFirst(logSegment);
             count = count + logSegment.size();
           }
-          LOG.trace("Read log events {} from position {} to endPosition {}", count, currentSync, endPosition);
 
-          endPosition = currentSync;
+          LOG.trace("Read log events {} from position {}", count, finalSync);
+
+          long startPosition = finalSync;
+          long endPosition = startPosition;
+          long currentSync;
+
+          while (startPosition > 0 && count < maxEvents) {
+            // Skip to sync position less than current sync position
+            startPosition = skipToPosition(dataFileReader, startPosition, endPosition, skipLen);
+            currentSync = dataFileReader.previousSync();
+            logSegment = readToEndSyncPosition(dataFileReader, logFilter, fromTimeMs, endPosition);
+
+            if (!logSegment.isEmpty()) {
+              logSegments.addFirst(logSegment);
+              count = count + logSegment.size();
+            }
+            LOG.trace("Read log events {} from position {} to endPosition {}", count, currentSync, endPosition);
+
+            endPosition = currentSync;
+          }
         }
       }
     } catch (IOException e) {
@@ -206,6 +236,64 @@ public class LogLocation {
     return Lists.newArrayList(Iterables.skip(Iterables.concat(logSegments), skip));
   }
 
+  /**
+   * Reads the blocks in the {@link LogBlockIndex} backward, starting from the last block, until maxEvents events
+   * are read. Blocks that start after fromTimeMs or don't have events with log level high enough to match the filter
+   * are skipped without reading.
+   *
+   * @return the number of events read
+   */
+  private int readBlocksPrev(DataFileReader<GenericRecord> dataFileReader, Filter logFilter, long fromTimeMs,
+                             int maxEvents, Deque<Collection<LogEvent>> logSegments) throws IOException {
+    int minLevel = getMinLevel(logFilter);
+    int count = 0;
+    for (int block = blockIndex.size() - 1; block >= 0 && count < maxEvents; block--) {
+      if (blockIndex.getMinTimestamp(block) > fromTimeMs || blockIndex.getMaxLevel(block) < minLevel) {
+        continue;
+      }
+      dataFileReader.seek(blockIndex.getPosition(block));
+      List<LogEvent> logSegment = readToEndSyncPosition(dataFileReader, logFilter, fromTimeMs,
+                                                        blockIndex.getEndPosition(block));
+      if (!logSegment.isEmpty()) {
+        logSegments.addFirst(logSegment);
+        count = count + logSegment.size();
+      }
+      LOG.trace("Read log events {} from block {} at position {}", count, block, blockIndex.getPosition(block));
+    }
+    return count;
+  }
+
+  /**
+   * Returns the integer value of the lowest log level that an event must have in order to match the given filter,
+   * as returned by {@link Level#toInt()}.
+   */
+  private static int getMinLevel(Filter filter) {
+    if (filter instanceof LogLevelExpression) {
+      return ((LogLevelExpression) filter).getLevel().toInt();
+    }
+    if (filter instanceof AndFilter) {
+      // An event must match all expressions
+      int level = Level.ALL_INT;
+      for (Filter expression : ((AndFilter) filter).getExpressions()) {
+        level = Math.max(level, getMinLevel(expression));
+      }
+      return level;
+    }
+    if (filter instanceof OrFilter) {
+      // An event needs to match any of the expressions
+      List<? extends Filter> expressions = ((OrFilter) filter).getExpressions();
+      if (expressions.isEmpty()) {
+        return Level.ALL_INT;
+      }
+      int level = Integer.MAX_VALUE;
+      for (Filter expression : expressions) {
+        level = Math.min(level, getMinLevel(expression));
+      }
+      return level;
+    }
+    return Level.ALL_INT;
+  }
+
   /**
    *  Read current block in Avro file from current block sync marker to next block sync marker
    */
@@ -266,6 +354,12 @@ public class LogLocation {
     private int count = 0;
     private long prevTimestamp = -1;
 
+    // States for reading with the block index
+    private int minLevel;
+    private int block = -1;
+    private long blockEnd;
+    private boolean blocksExhausted;
+
     private LogEvent next;
 
     LogEventIterator(Filter logFilter, long fromTimeMs, long toTimeMs, long maxEvents) {
@@ -276,7 +370,10 @@ public class LogLocation {
 
       try {
         dataFileReader = createReader();
-        if (dataFileReader.hasNext()) {
+        if (blockIndex != null) {
+          minLevel = getMinLevel(logFilter);
+          blocksExhausted = !seekToNextBlock();
+        } else if (dataFileReader.hasNext()) {
           datum = dataFileReader.next();
           loggingEvent = new LoggingEvent(datum);
           loggingEvent.prepareForDeferredProcessing();
@@ -315,7 +412,7 @@ public class LogLocation {
     private void computeNext() {
       try {
         // read events from file
-        while (next == null && dataFileReader.hasNext()) {
+        while (next == null && hasNextEvent()) {
           loggingEvent = new LoggingEvent(dataFileReader.next(datum));
           loggingEvent.prepareForDeferredProcessing();
 
@@ -338,6 +435,55 @@ public class LogLocation {
       }
     }
 
+    /**
+     * Returns whether there are more events to read. When reading with the block index, this moves the reader to
+     * the next block that may contain matching events once the current block is fully read.
+     */
+    private boolean hasNextEvent() throws IOException {
+      if (blockIndex == null) {
+        return dataFileReader.hasNext();
+      }
+      while (!blocksExhausted) {
+        if ((blockEnd < 0 || dataFileReader.previousSync() < blockEnd) && dataFileReader.hasNext()) {
+          return true;
+        }
+        blocksExhausted = !seekToNextBlock();
+      }
+      return false;
+    }
+
+    /**
+     * Moves the reader to the next block in the block index that may contain events matching the time range
+     * and the log level filter.
+     *
+     * @return {@code false} if there is no more block to read
+     */
+    private boolean seekToNextBlock() throws IOException {
+      block++;
+      while (block < blockIndex.size()
+        && (blockIndex.getMaxTimestamp(block) < fromTimeMs || blockIndex.getMaxLevel(block) < minLevel)) {
+        // None of the events in the skipped block is returned, hence only the timestamp ordering matters
+        prevTimestamp = blockIndex.getMaxTimestamp(block);
+        block++;
+      }
+      if (block >= blockIndex.size()) {
+        return false;
+      }
+      // Stop if all events in the block are at or beyond toTimeMs,
+      // unless they may have the same timestamp as the last event read
+      long minTimestamp = blockIndex.getMinTimestamp(block);
+      if (minTimestamp >= toTimeMs && minTimestamp != prevTimestamp) {
+        return false;
+      }
+      long position = blockIndex.getPosition(block);
+      if (dataFileReader.previousSync() != position) {
+        LOG.trace("Seeking to block {} at position {}", block, position);
+        dataFileReader.seek(position);
+      }
+      blockEnd = blockIndex.getEndPosition(block);
+      return true;
+    }
+
     @Override
     public void close() {
       try {
@@ -20,23 +20,29 @@ import co.cask.cdap.api.metrics.MetricValue;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.api.metrics.MetricsCollectionService;
 import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.api.metrics.MetricsCounter;
 import co.cask.cdap.common.conf.Constants;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
  * Base class for {@link MetricsCollectionService} which collect metrics through a set of cached
@@ -49,32 +55,17 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
   private static final long CACHE_EXPIRE_MINUTES = 1;
 
   private final LoadingCache<Map<String, String>, MetricsContext> collectors;
-  private final LoadingCache<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>> emitters;
+  // Emitters are removed by the publishing thread when there is no update to them for CACHE_EXPIRE_MINUTES.
+  // Since MetricsContext and MetricsCounter hold on to emitters, updates to an emitter that was removed
+  // are transferred to the new emitter of the same metric.
+  private final ConcurrentMap<Map<String, String>, EmitterGroup> emitterGroups;
   private Thread runThread;
 
   public AggregatedMetricsCollectionService() {
     this.collectors = CacheBuilder.newBuilder()
       .expireAfterAccess(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
       .build(createCollectorLoader());
-
-    this.emitters = CacheBuilder.newBuilder()
-      // NOTE : we don't need to have removalListener to  emit metrics, as we have expireAfterAccess set for a minute,
-      // emitters.get() is used to increment/gauge and that would reset the access time,
-      // and since runOneIteration() emits all the metrics for the scheduled duration (every 1 second)
-      // there wont be any loss of emitter entries.
-      .expireAfterAccess(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
-      .build(new CacheLoader<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>>() {
-        @Override
-        public LoadingCache<String, AggregatedMetricsEmitter> load(Map<String, String> tags) throws Exception {
-          return CacheBuilder.newBuilder().expireAfterAccess(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES).
-            build(new CacheLoader<String, AggregatedMetricsEmitter>() {
-              @Override
-              public AggregatedMetricsEmitter load(String metricName) throws Exception {
-                return new AggregatedMetricsEmitter(metricName);
-              }
-            });
-        }
-      });
+    this.emitterGroups = new ConcurrentHashMap<>();
   }
 
   /**
@@ -102,6 +93,25 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
     return TimeUnit.SECONDS.toMillis(Constants.MetricsCollector.DEFAULT_FREQUENCY_SECONDS);
   }
 
+  /**
+   * Returns the time in milliseconds without any update before the emitter of a metric is removed.
+   */
+  protected long getEmitterExpireMillis() {
+    return TimeUnit.MINUTES.toMillis(CACHE_EXPIRE_MINUTES);
+  }
+
+  /**
+   * Returns the number of metric emitters currently active.
+   */
+  @VisibleForTesting
+  int getEmitterCount() {
+    int count = 0;
+    for (EmitterGroup group : emitterGroups.values()) {
+      count += group.emitters.size();
+    }
+    return count;
+  }
+
   @Override
   protected void startUp() throws Exception {
     runThread = Thread.currentThread();
@@ -176,25 +186,38 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
   }
 
   private Iterator<MetricValues> getMetrics(final long timestamp) {
-    // NOTE : emitters.asMap does not reset the access time in cache,
-    // so it's the preferred way to access the cache entries. as we access and emit metrics every second.
-    final Iterator<Map.Entry<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>>> iterator =
-      emitters.asMap().entrySet().iterator();
+    // Number of publish periods without any update before an emitter is removed
+    final long maxIdleCount = Math.max(1L, getEmitterExpireMillis() / getPeriodMillis());
+    final Iterator<EmitterGroup> iterator = emitterGroups.values().iterator();
+
     return new AbstractIterator<MetricValues>() {
       @Override
       protected MetricValues computeNext() {
         while (iterator.hasNext()) {
-          Map.Entry<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>> entry = iterator.next();
-          Map<String, AggregatedMetricsEmitter> metricEmitters = entry.getValue().asMap();
-          // +1 because we add extra metric about how many metric values did we emit in this context (see below)
-          List<MetricValue> metricValues = Lists.newArrayListWithCapacity(metricEmitters.size() + 1);
-          for (Map.Entry<String, AggregatedMetricsEmitter> emitterEntry : metricEmitters.entrySet()) {
-            MetricValue metricValue = emitterEntry.getValue().emit();
-            // skip increment by 0
-            if (metricValue.getType() == MetricType.COUNTER && metricValue.getValue() == 0) {
-              continue;
+          EmitterGroup group = iterator.next();
+          List<MetricValue> metricValues = group.emitBuffer;
+          metricValues.clear();
+          for (AggregatedMetricsEmitter emitter : group.emitters.values()) {
+            MetricValue metricValue = emitter.emit();
+            if (metricValue != null) {
+              metricValues.add(metricValue);
+            } else if (emitter.getIdleCount() >= maxIdleCount
+              && group.emitters.remove(emitter.getName(), emitter)) {
+              // The emitter has to be removed from the group before it is marked as removed, so that no update
+              // can go to it after the final emit below without seeing it as removed.
+              emitter.markRemoved();
+              addIfNotNull(metricValues, emitter.emit());
+            }
+          }
+
+          if (group.emitters.isEmpty() && emitterGroups.remove(group.tags, group)) {
+            // Remove the group if there is no more emitter. Emitters can still be added to the group concurrently
+            // until it is marked as removed, hence emit all of them after marking.
+            group.markRemoved();
+            for (AggregatedMetricsEmitter emitter : group.emitters.values()) {
+              emitter.markRemoved();
+              addIfNotNull(metricValues, emitter.emit());
             }
-            metricValues.add(metricValue);
           }
 
           if (metricValues.isEmpty()) {
@@ -203,16 +226,35 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
           }
 
           // number of emitted metrics
-          metricValues.add(new MetricValue("metrics.emitted.count", MetricType.COUNTER, metricValues.size() + 1));
+          metricValues.add(group.getEmittedCount(metricValues.size() + 1));
 
           LOG.trace("Emit metric {}", metricValues);
-          return new MetricValues(entry.getKey(), timestamp, metricValues);
+          return new MetricValues(group.tags, timestamp, group.getEmittedValues(metricValues));
         }
         return endOfData();
       }
     };
   }
 
+  private void addIfNotNull(List<MetricValue> metricValues, @Nullable MetricValue metricValue) {
+    if (metricValue != null) {
+      metricValues.add(metricValue);
+    }
+  }
+
+  /**
+   * Returns the {@link EmitterGroup} for the given set of tags.
+   */
+  private EmitterGroup getEmitterGroup(Map<String, String> tags) {
+    EmitterGroup group = emitterGroups.get(tags);
+    if (group != null) {
+      return group;
+    }
+    group = new EmitterGroup(tags);
+    EmitterGroup existing = emitterGroups.putIfAbsent(tags, group);
+    return existing == null ? group : existing;
+  }
+
   private CacheLoader<Map<String, String>, MetricsContext> createCollectorLoader() {
     return new CacheLoader<Map<String, String>, MetricsContext>() {
       @Override
@@ -225,6 +267,7 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
   private final class MetricsContextImpl implements MetricsContext {
 
     private final Map<String, String> tags;
+    private volatile EmitterGroup emitterGroup;
 
     private MetricsContextImpl(final Map<String, String> tags) {
       this.tags = ImmutableMap.copyOf(tags);
@@ -232,12 +275,28 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
 
     @Override
     public void increment(String metricName, long value) {
-      emitters.getUnchecked(tags).getUnchecked(metricName).increment(value);
+      AggregatedMetricsEmitter emitter = getEmitter(metricName);
+      emitter.increment(value);
+      transferIfRemoved(emitter);
     }
 
     @Override
     public void gauge(String metricName, long value) {
-      emitters.getUnchecked(tags).getUnchecked(metricName).gauge(value);
+      AggregatedMetricsEmitter emitter = getEmitter(metricName);
+      emitter.gauge(value);
+      transferIfRemoved(emitter);
+    }
+
+    @Override
+    public void distribution(String metricName, long value) {
+      AggregatedMetricsEmitter emitter = getEmitter(metricName);
+      emitter.distribution(value);
+      transferIfRemoved(emitter);
+    }
+
+    @Override
+    public MetricsCounter counter(String metricName) {
+      return new BoundMetricsCounter(this, metricName);
     }
 
     @Override
@@ -263,5 +322,136 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
       allTags.putAll(tags);
       return collectors.getUnchecked(allTags);
     }
+
+    /**
+     * Returns the {@link AggregatedMetricsEmitter} for the given metric in this context.
+     */
+    AggregatedMetricsEmitter getEmitter(String metricName) {
+      EmitterGroup group = emitterGroup;
+      if (group == null || group.isRemoved()) {
+        group = getEmitterGroup(tags);
+        emitterGroup = group;
+      }
+      return group.getEmitter(metricName);
+    }
+
+    /**
+     * Transfers the value in the given {@link AggregatedMetricsEmitter} to the current emitter of the same metric
+     * if it was removed.
+     *
+     * @return the current emitter of the metric
+     */
+    AggregatedMetricsEmitter transferIfRemoved(AggregatedMetricsEmitter emitter) {
+      while (emitter.isRemoved()) {
+        AggregatedMetricsEmitter current = getEmitter(emitter.getName());
+        emitter.transferTo(current);
+        emitter = current;
+      }
+      return emitter;
+    }
+  }
+
+  /**
+   * A {@link MetricsCounter} that holds on to the {@link AggregatedMetricsEmitter} of the metric, so that
+   * increments don't need to look up the emitter.
+   */
+  private static final class BoundMetricsCounter implements MetricsCounter {
+
+    private final MetricsContextImpl context;
+    private volatile AggregatedMetricsEmitter emitter;
+
+    private BoundMetricsCounter(MetricsContextImpl context, String metricName) {
+      this.context = context;
+      this.emitter = context.getEmitter(metricName);
+    }
+
+    @Override
+    public void increment(long value) {
+      AggregatedMetricsEmitter emitter = this.emitter;
+      emitter.increment(value);
+      if (emitter.isRemoved()) {
+        this.emitter = context.transferIfRemoved(emitter);
+      }
+    }
+  }
+
+  /**
+   * The set of {@link AggregatedMetricsEmitter} that share the same set of tags.
+   */
+  private static final class EmitterGroup {
+
+    private final Map<String, String> tags;
+    private final ConcurrentMap<String, AggregatedMetricsEmitter> emitters;
+    private volatile boolean removed;
+    // the last emitted count metric, only accessed by the publishing thread
+    private MetricValue emittedCount;
+    // buffer for collecting the values to emit, only accessed by the publishing thread
+    private final List<MetricValue> emitBuffer;
+    // the last emitted list of values, only accessed by the publishing thread
+    private List<MetricValue> emittedValues;
+
+    private EmitterGroup(Map<String, String> tags) {
+      this.tags = tags;
+      this.emitters = new ConcurrentHashMap<>();
+      this.emitBuffer = new ArrayList<>();
+      this.emittedValues = Collections.emptyList();
+    }
+
+    /**
+     * Returns the {@link AggregatedMetricsEmitter} for the given metric. If this group has been removed,
+     * the returned emitter is marked as removed as well.
+     */
+    AggregatedMetricsEmitter getEmitter(String metricName) {
+      AggregatedMetricsEmitter emitter = emitters.get(metricName);
+      if (emitter == null) {
+        emitter = new AggregatedMetricsEmitter(metricName);
+        AggregatedMetricsEmitter existing = emitters.putIfAbsent(metricName, emitter);
+        emitter = existing == null ? emitter : existing;
+      }
+      // If the group was removed concurrently, the publishing thread may not see the emitter
+      if (removed) {
+        emitter.markRemoved();
+      }
+      return emitter;
+    }
+
+    void markRemoved() {
+      removed = true;
+    }
+
+    boolean isRemoved() {
+      return removed;
+    }
+
+    /**
+     * Returns the {@link MetricValue} for the number of emitted metrics, reusing the last one if the count is
+     * the same.
+     */
+    MetricValue getEmittedCount(int count) {
+      MetricValue metricValue = emittedCount;
+      if (metricValue == null || metricValue.getValue() != count) {
+        metricValue = new MetricValue("metrics.emitted.count", MetricType.COUNTER, count);
+        emittedCount = metricValue;
+      }
+      return metricValue;
+    }
+
+    /**
+     * Returns an immutable list of the given values, reusing the last emitted list if it has the same
+     * {@link MetricValue} instances. Since the emitters reuse unchanged {@link MetricValue}, this avoids
+     * copying the values of a group that has nothing new to emit.
+     */
+    List<MetricValue> getEmittedValues(List<MetricValue> values) {
+      List<MetricValue> emitted = emittedValues;
+      boolean same = emitted.size() == values.size();
+      for (int i = 0; same && i < values.size(); i++) {
+        same = emitted.get(i) == values.get(i);
+      }
+      if (!same) {
+        emitted = Collections.unmodifiableList(new ArrayList<>(values));
+        emittedValues = emitted;
+      }
+      return emitted;
+    }
   }
 }
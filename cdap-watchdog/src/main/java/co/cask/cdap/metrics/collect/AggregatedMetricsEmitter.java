@@ -15,26 +15,64 @@
  */
 package co.cask.cdap.metrics.collect;
 
+import co.cask.cdap.api.metrics.Distribution;
 import co.cask.cdap.api.metrics.MetricType;
 import co.cask.cdap.api.metrics.MetricValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.Nullable;
 
 /**
  * {@link MetricsEmitter} that aggregates  values for a metric
  * during collection and emit the aggregated value when emit.
+ *
+ * Counter increments first go to a single {@link AtomicLong}. When there is contention on it, increments are
+ * spread over a set of cells, with each thread picking a cell based on its id, so that concurrent updates from
+ * multiple threads don't keep failing on the same CAS.
+ *
+ * Distribution values are counted in an array of {@link Distribution#NUM_BUCKETS} cells, which is only created
+ * when the first distribution value is recorded. A metric name is expected to be used with one type only, and
+ * using the same name as both a gauge and a distribution is rejected.
+ *
+ * Values are aggregated in primitive cells and a {@link MetricValue} is only created by {@link #emit()} when
+ * there is something to emit. Since {@link MetricValue} is immutable, the last emitted instance is returned
+ * again if the type and value haven't changed, which is common for gauges and for counters with steady rate.
  */
 final class AggregatedMetricsEmitter implements MetricsEmitter {
   private static final Logger LOG = LoggerFactory.getLogger(AggregatedMetricsEmitter.class);
 
+  // Number of cells for the counter value when there is contention. It is the smallest power of two that is
+  // not smaller than number of processors, capped at 16.
+  private static final int NUM_CELLS =
+    Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+  // Cells are spaced by this many longs so that each cell takes a separate cache line
+  private static final int CELL_SPACING = 8;
+
   private final String name;
-  // metric value
-  private final AtomicLong value;
-  // specifies if the metric type is gauge or counter
-  private final AtomicBoolean gaugeUsed;
+  // counter value when there is no contention
+  private final AtomicLong base;
+  // counter value cells, created on the first contention
+  private volatile AtomicLongArray cells;
+
+  // bucket counts of distribution values, created on the first distribution value
+  private volatile AtomicLongArray distributionCounts;
+
+  // gauge value and whether gauge is used since the last emit, both guarded by this
+  private long gaugeValue;
+  private boolean gaugeUsed;
+  // whether gauge has ever been used, guarded by this
+  private boolean isGauge;
+
+  // set to true when this emitter is no longer being emitted
+  private volatile boolean removed;
+  // number of consecutive emit calls that have nothing to emit, only accessed by the emitting thread
+  private int idleCount;
+  // the last emitted counter or gauge value, only accessed by the emitting thread
+  private MetricValue lastValue;
 
   AggregatedMetricsEmitter(String name) {
     if (name == null || name.isEmpty()) {
@@ -42,25 +80,230 @@ final class AggregatedMetricsEmitter implements MetricsEmitter {
     }
 
     this.name = name;
-    this.value = new AtomicLong();
-    this.gaugeUsed = new AtomicBoolean(false);
+    this.base = new AtomicLong();
+  }
+
+  String getName() {
+    return name;
   }
 
   void increment(long value) {
-    this.value.addAndGet(value);
+    AtomicLongArray cells = this.cells;
+    if (cells == null) {
+      long current = base.get();
+      if (base.compareAndSet(current, current + value)) {
+        return;
+      }
+      cells = createCells();
+    }
+    // Spread the thread id so that threads with consecutive ids use different cells
+    int idx = (int) ((Thread.currentThread().getId() * 0x9E3779B9L) >>> 16) & (NUM_CELLS - 1);
+    cells.addAndGet(idx * CELL_SPACING, value);
   }
 
+  /**
+   * Sets the gauge value. If gauge is used between two emits, the gauge value is emitted and increments
+   * made in between are discarded.
+   *
+   * @throws IllegalArgumentException if this metric is already used as a distribution
+   */
+  synchronized void gauge(long value) {
+    if (distributionCounts != null) {
+      throw new IllegalArgumentException("Metric '" + name + "' is a distribution and cannot be used as a gauge");
+    }
+    setGauge(value);
+  }
+
+  /**
+   * Records a value to the distribution.
+   *
+   * @throws IllegalArgumentException if this metric is already used as a gauge
+   */
+  void distribution(long value) {
+    AtomicLongArray counts = distributionCounts;
+    if (counts == null) {
+      counts = initDistribution();
+    }
+    counts.incrementAndGet(Distribution.getBucketIndex(value));
+  }
 
+  /**
+   * Returns the metric value aggregated since the last emit, or {@code null} if there is no increment,
+   * gauge nor distribution value since the last emit. If both gauge and increments are used between two emits,
+   * gauge takes precedence. Increments made to a distribution metric are discarded.
+   */
+  @Nullable
   @Override
   public MetricValue emit() {
-    // todo CDAP-2195 - potential race condition , reseting value and type has to be done together
-    long value = this.value.getAndSet(0);
-    MetricType type = gaugeUsed.getAndSet(false) ? MetricType.GAUGE : MetricType.COUNTER;
-    return new MetricValue(name, type, value);
+    long count = resetCount();
+    Distribution distribution = resetDistribution();
+
+    // Gauge value and type are read and reset together, hence they are always consistent with each other
+    synchronized (this) {
+      if (gaugeUsed) {
+        gaugeUsed = false;
+        idleCount = 0;
+        return toMetricValue(MetricType.GAUGE, gaugeValue);
+      }
+    }
+
+    if (distribution != null) {
+      idleCount = 0;
+      return new MetricValue(name, distribution);
+    }
+
+    // skip increment by 0
+    if (count == 0) {
+      idleCount++;
+      return null;
+    }
+    idleCount = 0;
+    return toMetricValue(MetricType.COUNTER, count);
   }
 
-  public void gauge(long value) {
-    this.value.set(value);
-    this.gaugeUsed.set(true);
+  /**
+   * Returns the number of consecutive {@link #emit()} calls that have nothing to emit.
+   */
+  int getIdleCount() {
+    return idleCount;
+  }
+
+  /**
+   * Marks this emitter as removed. Once removed, updates to this emitter should be moved to the new
+   * emitter of the same metric through the {@link #transferTo(AggregatedMetricsEmitter)} method.
+   */
+  void markRemoved() {
+    removed = true;
+  }
+
+  boolean isRemoved() {
+    return removed;
+  }
+
+  /**
+   * Moves the value in this emitter to the given emitter.
+   */
+  void transferTo(AggregatedMetricsEmitter emitter) {
+    long count = resetCount();
+    if (count != 0) {
+      emitter.increment(count);
+    }
+    Distribution distribution = resetDistribution();
+    if (distribution != null) {
+      AtomicLongArray counts = emitter.createDistributionCounts();
+      int[] buckets = distribution.getBuckets();
+      long[] bucketCounts = distribution.getCounts();
+      for (int i = 0; i < buckets.length; i++) {
+        counts.addAndGet(buckets[i], bucketCounts[i]);
+      }
+    }
+    long gauge;
+    synchronized (this) {
+      if (!gaugeUsed) {
+        return;
+      }
+      gauge = gaugeValue;
+      gaugeUsed = false;
+    }
+    emitter.setGauge(gauge);
+  }
+
+  /**
+   * Returns a {@link MetricValue} of the given type and value, reusing the last emitted one if it is the same.
+   */
+  private MetricValue toMetricValue(MetricType type, long value) {
+    MetricValue metricValue = lastValue;
+    if (metricValue == null || metricValue.getType() != type || metricValue.getValue() != value) {
+      metricValue = new MetricValue(name, type, value);
+      lastValue = metricValue;
+    }
+    return metricValue;
+  }
+
+  /**
+   * Resets the counter value to zero and returns the value before the reset.
+   */
+  private long resetCount() {
+    long count = base.getAndSet(0L);
+    AtomicLongArray cells = this.cells;
+    if (cells != null) {
+      for (int i = 0; i < NUM_CELLS; i++) {
+        count += cells.getAndSet(i * CELL_SPACING, 0L);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Resets the distribution to empty and returns the {@link Distribution} before the reset, or {@code null}
+   * if the distribution was empty.
+   */
+  @Nullable
+  private Distribution resetDistribution() {
+    AtomicLongArray counts = distributionCounts;
+    if (counts == null) {
+      return null;
+    }
+    // Count the non-empty buckets first, so that nothing is allocated if the distribution is empty
+    int size = 0;
+    for (int i = 0; i < Distribution.NUM_BUCKETS; i++) {
+      if (counts.get(i) != 0L) {
+        size++;
+      }
+    }
+    if (size == 0) {
+      return null;
+    }
+
+    // Only reset non-empty buckets to avoid writing to every cell. Buckets that become non-empty after the
+    // counting above are left for the next reset.
+    int[] buckets = new int[size];
+    long[] bucketCounts = new long[size];
+    int idx = 0;
+    for (int i = 0; i < Distribution.NUM_BUCKETS && idx < size; i++) {
+      if (counts.get(i) != 0L) {
+        long count = counts.getAndSet(i, 0L);
+        if (count != 0L) {
+          buckets[idx] = i;
+          bucketCounts[idx++] = count;
+        }
+      }
+    }
+    if (idx == 0) {
+      return null;
+    }
+    return idx == size ? new Distribution(buckets, bucketCounts)
+                       : new Distribution(Arrays.copyOf(buckets, idx), Arrays.copyOf(bucketCounts, idx));
+  }
+
+  private synchronized void setGauge(long value) {
+    gaugeValue = value;
+    gaugeUsed = true;
+    isGauge = true;
+  }
+
+  private synchronized AtomicLongArray initDistribution() {
+    if (isGauge) {
+      throw new IllegalArgumentException("Metric '" + name + "' is a gauge and cannot be used as a distribution");
+    }
+    return createDistributionCounts();
+  }
+
+  private synchronized AtomicLongArray createDistributionCounts() {
+    AtomicLongArray counts = distributionCounts;
+    if (counts == null) {
+      counts = new AtomicLongArray(Distribution.NUM_BUCKETS);
+      distributionCounts = counts;
+    }
+    return counts;
+  }
+
+  private synchronized AtomicLongArray createCells() {
+    AtomicLongArray cells = this.cells;
+    if (cells == null) {
+      cells = new AtomicLongArray(NUM_CELLS * CELL_SPACING);
+      this.cells = cells;
+    }
+    return cells;
   }
 }
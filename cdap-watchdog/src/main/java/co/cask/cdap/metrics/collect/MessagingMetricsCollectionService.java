@@ -17,6 +17,9 @@
 package co.cask.cdap.metrics.collect;
 
 import co.cask.cdap.api.messaging.TopicNotFoundException;
+import co.cask.cdap.api.metrics.Distribution;
+import co.cask.cdap.api.metrics.MetricType;
+import co.cask.cdap.api.metrics.MetricValue;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.common.ServiceUnavailableException;
 import co.cask.cdap.common.conf.CConfiguration;
@@ -88,7 +91,7 @@ public class MessagingMetricsCollectionService extends AggregatedMetricsCollecti
     int size = topicPayloads.size();
     while (metrics.hasNext()) {
       encoderOutputStream.reset();
-      MetricValues metricValues = metrics.next();
+      MetricValues metricValues = toCounters(metrics.next());
       // Encode MetricValues into bytes
       recordWriter.encode(metricValues, encoder);
       TopicPayload topicPayload = topicPayloads.get(Math.abs(metricValues.getTags().hashCode() % size));
@@ -100,6 +103,43 @@ public class MessagingMetricsCollectionService extends AggregatedMetricsCollecti
     publishMetric(topicPayloads.values());
   }
 
+  /**
+   * Replaces the distribution metrics in the given {@link MetricValues} with counters of their number of values
+   * and of their non-empty buckets, which is how distributions are stored by the metrics processor. This keeps
+   * the serialized {@link MetricValues} in the schema that existing metrics processors can read.
+   */
+  private MetricValues toCounters(MetricValues metricValues) {
+    List<MetricValue> counters = null;
+    for (MetricValue metric : metricValues.getMetrics()) {
+      if (metric.getType() == MetricType.DISTRIBUTION) {
+        counters = new ArrayList<>();
+        break;
+      }
+    }
+    if (counters == null) {
+      return metricValues;
+    }
+
+    for (MetricValue metric : metricValues.getMetrics()) {
+      if (metric.getType() != MetricType.DISTRIBUTION) {
+        counters.add(metric);
+        continue;
+      }
+      counters.add(new MetricValue(metric.getName(), MetricType.COUNTER, metric.getValue()));
+      Distribution distribution = metric.getDistribution();
+      if (distribution == null) {
+        continue;
+      }
+      int[] buckets = distribution.getBuckets();
+      long[] counts = distribution.getCounts();
+      for (int i = 0; i < buckets.length; i++) {
+        counters.add(new MetricValue(Distribution.getBucketMetricName(metric.getName(), buckets[i]),
+                                     MetricType.COUNTER, counts[i]));
+      }
+    }
+    return new MetricValues(metricValues.getTags(), metricValues.getTimestamp(), counters);
+  }
+
   private void publishMetric(Iterable<TopicPayload> topicPayloads) throws IOException {
     for (TopicPayload topicPayload : topicPayloads) {
       topicPayload.publish(messagingService);
@@ -17,6 +17,8 @@ package co.cask.cdap.metrics.collect;
 
 import co.cask.cdap.api.metrics.MetricValue;
 
+import javax.annotation.Nullable;
+
 /**
  * A MetricsEmitter is a class that emits a {@link co.cask.cdap.api.metrics.MetricValue}.
  */
@@ -24,7 +26,9 @@ public interface MetricsEmitter {
 
   /**
    * Emits metric
-   * @return A {@link co.cask.cdap.api.metrics.MetricValue} representing metrics for the given timestamp
+   * @return A {@link co.cask.cdap.api.metrics.MetricValue} representing metrics for the given timestamp,
+   *         or {@code null} if there is nothing to emit
    */
+  @Nullable
   MetricValue emit();
 }
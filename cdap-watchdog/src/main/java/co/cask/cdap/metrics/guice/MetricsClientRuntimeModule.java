@@ -21,7 +21,7 @@ import co.cask.cdap.api.metrics.MetricsCollectionService;
 import co.cask.cdap.common.runtime.RuntimeModule;
 import co.cask.cdap.metrics.collect.AggregatedMetricsCollectionService;
 import co.cask.cdap.metrics.collect.LocalMetricsCollectionService;
-import co.cask.cdap.metrics.store.DefaultMetricStore;
+import co.cask.cdap.metrics.store.CachingMetricStore;
 import co.cask.cdap.metrics.store.LocalMetricsDatasetFactory;
 import co.cask.cdap.metrics.store.MetricDatasetFactory;
 import com.google.inject.AbstractModule;
@@ -44,7 +44,7 @@ public final class MetricsClientRuntimeModule extends RuntimeModule {
         // Install the MetricsStoreModule as private bindings and expose the MetricStore.
         // Both LocalMetricsCollectionService and the AppFabricService needs it
         bind(MetricDatasetFactory.class).to(LocalMetricsDatasetFactory.class).in(Scopes.SINGLETON);
-        bind(MetricStore.class).to(DefaultMetricStore.class);
+        bind(MetricStore.class).to(CachingMetricStore.class).in(Scopes.SINGLETON);
         expose(MetricStore.class);
 
         bind(MetricsCollectionService.class).to(LocalMetricsCollectionService.class).in(Scopes.SINGLETON);
@@ -62,7 +62,7 @@ public final class MetricsClientRuntimeModule extends RuntimeModule {
         // Install the MetricsStoreModule as private bindings and expose the MetricStore.
         // Both LocalMetricsCollectionService and the AppFabricService needs it
         bind(MetricDatasetFactory.class).to(LocalMetricsDatasetFactory.class).in(Scopes.SINGLETON);
-        bind(MetricStore.class).to(DefaultMetricStore.class);
+        bind(MetricStore.class).to(CachingMetricStore.class).in(Scopes.SINGLETON);
         expose(MetricStore.class);
 
         bind(MetricsCollectionService.class).to(LocalMetricsCollectionService.class).in(Scopes.SINGLETON);
@@ -17,8 +17,8 @@
 package co.cask.cdap.metrics.guice;
 
 import co.cask.cdap.api.metrics.MetricStore;
+import co.cask.cdap.metrics.store.CachingMetricStore;
 import co.cask.cdap.metrics.store.DefaultMetricDatasetFactory;
-import co.cask.cdap.metrics.store.DefaultMetricStore;
 import co.cask.cdap.metrics.store.MetricDatasetFactory;
 import com.google.inject.PrivateModule;
 import com.google.inject.Scopes;
@@ -31,7 +31,7 @@ public final class MetricsStoreModule extends PrivateModule {
   @Override
   protected void configure() {
     bind(MetricDatasetFactory.class).to(DefaultMetricDatasetFactory.class).in(Scopes.SINGLETON);
-    bind(MetricStore.class).to(DefaultMetricStore.class);
+    bind(MetricStore.class).to(CachingMetricStore.class).in(Scopes.SINGLETON);
     expose(MetricStore.class);
   }
 }
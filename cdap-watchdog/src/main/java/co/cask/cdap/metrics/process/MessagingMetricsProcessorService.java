@@ -22,6 +22,7 @@ import co.cask.cdap.api.data.schema.UnsupportedTypeException;
 import co.cask.cdap.api.dataset.DatasetManagementException;
 import co.cask.cdap.api.dataset.DatasetSpecification;
 import co.cask.cdap.api.dataset.lib.CloseableIterator;
+import co.cask.cdap.api.metrics.Distribution;
 import co.cask.cdap.api.metrics.MetricStore;
 import co.cask.cdap.api.metrics.MetricType;
 import co.cask.cdap.api.metrics.MetricValue;
@@ -60,9 +61,11 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -102,12 +105,20 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
   private final int metricsProcessIntervalMillis;
   private final List<ProcessMetricsThread> processMetricsThreads;
   private final String processMetricName;
+  private final String coalesceInputMetricName;
+  private final String coalesceOutputMetricName;
+  private final String persistLatencyMetricName;
+  // minimum number of milliseconds between two persists, unless there are enough metrics to persist
+  private final long persistIntervalMillis;
   private final int instanceId;
   private final CConfiguration cConfiguration;
   private final boolean skipMigration;
   private final DatasetFramework datasetFramework;
   private final String metricsPrefixForDelayMetrics;
   private long metricsProcessedCount;
+  private volatile long lastPersistTime;
+  // latency of persists since the last emit, only accessed by the thread that is persisting
+  private Distribution persistLatency = new Distribution();
 
   private MetricsConsumerMetaTable metaTable;
   private ScheduledExecutorService metricsTableDeleterExecutor;
@@ -177,6 +188,10 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
     this.instanceId = instanceId;
     this.cConfiguration = cConf;
     processMetricName = String.format("metrics.%s.process.count", instanceId);
+    coalesceInputMetricName = String.format("metrics.%s.coalesce.input.count", instanceId);
+    coalesceOutputMetricName = String.format("metrics.%s.coalesce.output.count", instanceId);
+    persistLatencyMetricName = String.format("metrics.%s.persist.latency.ms", instanceId);
+    this.persistIntervalMillis = cConf.getLong(Constants.Metrics.PROCESSOR_PERSIST_INTERVAL_MS);
     this.datasetFramework = datasetFramework;
     // Validate metrics table splits after creation.
     // TODO CDAP-12366 Make metrics table splits configurable
@@ -397,13 +412,180 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
     List<MetricValue> processorMetrics = new ArrayList<>(topicLevelDelays);
     processorMetrics.add(new MetricValue(processMetricName, MetricType.COUNTER, metricValues.size()));
 
-    metricValues.add(new MetricValues(metricsContextMap, TimeUnit.MILLISECONDS.toSeconds(now), processorMetrics));
-    metricStore.add(metricValues);
+    // Coalesce metrics of the same cell so that each cell is only written once per persist
+    List<MetricValues> coalesced = coalesce(mergeDistributions(metricValues));
+    processorMetrics.add(new MetricValue(coalesceInputMetricName, MetricType.COUNTER, countMetrics(metricValues)));
+    processorMetrics.add(new MetricValue(coalesceOutputMetricName, MetricType.COUNTER, countMetrics(coalesced)));
+    if (persistLatency.getBuckets().length > 0) {
+      processorMetrics.add(new MetricValue(persistLatencyMetricName, persistLatency));
+      persistLatency = new Distribution();
+    }
+
+    MetricValues processorMetricValues =
+      new MetricValues(metricsContextMap, TimeUnit.MILLISECONDS.toSeconds(now), processorMetrics);
+    metricValues.add(processorMetricValues);
+    coalesced.add(processorMetricValues);
+
+    long startTime = System.currentTimeMillis();
+    metricStore.add(coalesced);
+    persistLatency.add(System.currentTimeMillis() - startTime);
     metricsProcessedCount += metricValues.size();
     PROGRESS_LOG.debug("{} metrics persisted. Last metric's timestamp: {}",
                        metricsProcessedCount, lastMetricTime);
   }
 
+  private static int countMetrics(Collection<MetricValues> metricValues) {
+    int count = 0;
+    for (MetricValues values : metricValues) {
+      count += values.getMetrics().size();
+    }
+    return count;
+  }
+
+  /**
+   * Merges {@link MetricType#DISTRIBUTION} metrics with the same tags, timestamp and name into one, so that
+   * the buckets of the same distribution are only written once to the metric store.
+   * Other types of metrics are returned as is.
+   */
+  @VisibleForTesting
+  static Collection<MetricValues> mergeDistributions(Collection<MetricValues> metricValues) {
+    List<MetricValues> result = new ArrayList<>(metricValues.size());
+    // Map from tags to timestamp to metric name to the merged distribution
+    Map<Map<String, String>, Map<Long, Map<String, Distribution>>> distributions = new HashMap<>();
+
+    for (MetricValues values : metricValues) {
+      List<MetricValue> others = null;
+      for (MetricValue metric : values.getMetrics()) {
+        Distribution distribution = metric.getDistribution();
+        if (metric.getType() != MetricType.DISTRIBUTION || distribution == null) {
+          if (others != null) {
+            others.add(metric);
+          }
+          continue;
+        }
+        if (others == null) {
+          // Copy the metrics seen so far, which are all non-distribution metrics
+          others = new ArrayList<>();
+          for (MetricValue other : values.getMetrics()) {
+            if (other == metric) {
+              break;
+            }
+            others.add(other);
+          }
+        }
+
+        Map<Long, Map<String, Distribution>> timeDistributions = distributions.get(values.getTags());
+        if (timeDistributions == null) {
+          timeDistributions = new HashMap<>();
+          distributions.put(values.getTags(), timeDistributions);
+        }
+        Map<String, Distribution> nameDistributions = timeDistributions.get(values.getTimestamp());
+        if (nameDistributions == null) {
+          nameDistributions = new HashMap<>();
+          timeDistributions.put(values.getTimestamp(), nameDistributions);
+        }
+        Distribution merged = nameDistributions.get(metric.getName());
+        if (merged == null) {
+          merged = new Distribution();
+          nameDistributions.put(metric.getName(), merged);
+        }
+        merged.merge(distribution);
+      }
+
+      if (others == null) {
+        result.add(values);
+      } else if (!others.isEmpty()) {
+        result.add(new MetricValues(values.getTags(), values.getTimestamp(), others));
+      }
+    }
+
+    for (Map.Entry<Map<String, String>, Map<Long, Map<String, Distribution>>> tagsEntry : distributions.entrySet()) {
+      for (Map.Entry<Long, Map<String, Distribution>> timeEntry : tagsEntry.getValue().entrySet()) {
+        List<MetricValue> merged = new ArrayList<>(timeEntry.getValue().size());
+        for (Map.Entry<String, Distribution> entry : timeEntry.getValue().entrySet()) {
+          merged.add(new MetricValue(entry.getKey(), entry.getValue()));
+        }
+        result.add(new MetricValues(tagsEntry.getKey(), timeEntry.getKey(), merged));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Coalesces metrics with the same tags, timestamp, name and type into one, so that each cell in the metric store
+   * is only written once per persist. Counters are summed and the latest gauge wins. Distributions are kept as is,
+   * as they are merged by {@link #mergeDistributions(Collection)}.
+   * Metrics of the same tags and timestamp are returned in one {@link MetricValues}.
+   */
+  @VisibleForTesting
+  static List<MetricValues> coalesce(Collection<MetricValues> metricValues) {
+    // Map from tags to timestamp to the coalesced metrics
+    Map<Map<String, String>, Map<Long, CoalescedMetrics>> coalesced = new LinkedHashMap<>();
+    for (MetricValues values : metricValues) {
+      Map<Long, CoalescedMetrics> timeMetrics = coalesced.get(values.getTags());
+      if (timeMetrics == null) {
+        timeMetrics = new LinkedHashMap<>();
+        coalesced.put(values.getTags(), timeMetrics);
+      }
+      CoalescedMetrics metrics = timeMetrics.get(values.getTimestamp());
+      if (metrics == null) {
+        metrics = new CoalescedMetrics();
+        timeMetrics.put(values.getTimestamp(), metrics);
+      }
+      for (MetricValue metric : values.getMetrics()) {
+        metrics.add(metric);
+      }
+    }
+
+    List<MetricValues> result = new ArrayList<>();
+    for (Map.Entry<Map<String, String>, Map<Long, CoalescedMetrics>> tagsEntry : coalesced.entrySet()) {
+      for (Map.Entry<Long, CoalescedMetrics> timeEntry : tagsEntry.getValue().entrySet()) {
+        result.add(new MetricValues(tagsEntry.getKey(), timeEntry.getKey(), timeEntry.getValue().getMetrics()));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Coalesced metrics of the same tags and timestamp.
+   */
+  private static final class CoalescedMetrics {
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private final Map<String, Long> gauges = new LinkedHashMap<>();
+    private final List<MetricValue> distributions = new ArrayList<>();
+
+    void add(MetricValue metric) {
+      String name = metric.getName();
+      switch (metric.getType()) {
+        case COUNTER:
+          Long count = counters.get(name);
+          counters.put(name, count == null ? metric.getValue() : count + metric.getValue());
+          break;
+        case GAUGE:
+          gauges.put(name, metric.getValue());
+          break;
+        case DISTRIBUTION:
+          distributions.add(metric);
+          break;
+        default:
+          // Shouldn't happen
+          throw new IllegalArgumentException("Unsupported metric type " + metric.getType());
+      }
+    }
+
+    List<MetricValue> getMetrics() {
+      List<MetricValue> result = new ArrayList<>(counters.size() + gauges.size() + distributions.size());
+      for (Map.Entry<String, Long> entry : counters.entrySet()) {
+        result.add(new MetricValue(entry.getKey(), MetricType.COUNTER, entry.getValue()));
+      }
+      for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+        result.add(new MetricValue(entry.getKey(), MetricType.GAUGE, entry.getValue()));
+      }
+      result.addAll(distributions);
+      return result;
+    }
+  }
+
   private class ProcessMetricsThread extends Thread {
     private final TopicIdMetaKey topicIdMetaKey;
     private final PayloadInputStream payloadInput;
@@ -464,6 +646,9 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
       try {
         MessageFetcher fetcher = messagingService.prepareFetch(topicIdMetaKey.getTopicId());
         fetcher.setLimit(fetcherLimit);
+        // If there is no new metrics, wait for up to the process interval so that metrics get processed as soon as
+        // they are published. The time spent in waiting is deducted from the sleep time before the next fetch.
+        fetcher.setPollTimeout(metricsProcessIntervalMillis, TimeUnit.MILLISECONDS);
         TopicProcessMeta persistMetaInfo = topicProcessMetaMap.get(topicIdMetaKey);
         byte[] lastMessageId = null;
 
@@ -536,6 +721,12 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
      * Persist metrics and messageId's of the last metrics to be persisted if no other thread is persisting
      */
     private void tryPersist() {
+      // Only persist if there are enough metrics or enough time has passed since the last persist, so that
+      // metrics fetched in between are coalesced before writing to the metric store.
+      if (metricsFromAllTopics.size() < queueSize / 2
+        && System.currentTimeMillis() - lastPersistTime < persistIntervalMillis) {
+        return;
+      }
       // Ensure there's only one thread can persist metricsFromAllTopics and messageId's.
       // If persistingFlag is false, set it to true and start persisting. Otherwise, log and return.
       if (!persistingFlag.compareAndSet(false, true)) {
@@ -556,6 +747,7 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
           iterator.remove();
         }
         // Persist the copy of metrics and MessageId's
+        lastPersistTime = System.currentTimeMillis();
         persistMetricsAndTopicProcessMeta(metricsCopy, topicProcessMetaMapCopy);
       } catch (Exception e) {
         LOG.warn("Failed to persist metrics. Will be retried in next iteration.", e);
@@ -0,0 +1,387 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.store;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import co.cask.cdap.api.dataset.lib.cube.Interpolator;
+import co.cask.cdap.api.dataset.lib.cube.TimeValue;
+import co.cask.cdap.api.metrics.MetricDataQuery;
+import co.cask.cdap.api.metrics.MetricDeleteQuery;
+import co.cask.cdap.api.metrics.MetricSearchQuery;
+import co.cask.cdap.api.metrics.MetricStore;
+import co.cask.cdap.api.metrics.MetricTimeSeries;
+import co.cask.cdap.api.metrics.MetricValues;
+import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.api.metrics.MetricsProcessorStatus;
+import co.cask.cdap.api.metrics.NoopMetricsContext;
+import co.cask.cdap.api.metrics.TagValue;
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.common.utils.ImmutablePair;
+import co.cask.cdap.data2.dataset2.lib.cube.TimeSeriesInterpolator;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link MetricStore} that caches the results of {@link #query(MetricDataQuery)} for time buckets that are
+ * finalized, i.e. that will not receive more data. A time bucket is finalized once the metrics processor has
+ * persisted, for every topic, metrics that are later than the end of the bucket by the configured delay, as
+ * reported by {@link #getMetricsProcessorStats()}. Queries are cached by the metrics, tags and resolution they
+ * query, so that a repeated query, even with a moved time range, only queries the underlying store for the buckets
+ * that are not cached yet.
+ * <p/>
+ * The cache is invalidated on delete and when metric values are added to buckets that are already finalized.
+ * Changes done in other processes are only reflected after the cached results expire.
+ */
+public class CachingMetricStore implements MetricStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CachingMetricStore.class);
+
+  private final MetricStore delegate;
+  private final Cache<CacheKey, CachedResult> cache;
+  private final boolean enabled;
+  private final long finalizeDelaySeconds;
+  // timestamp in seconds up to which the metrics processor has persisted metrics of all topics
+  private final Supplier<Long> processedTs;
+  private volatile MetricsContext metricsContext;
+
+  @Inject
+  public CachingMetricStore(DefaultMetricStore delegate, CConfiguration cConf) {
+    this(delegate, cConf.getLong(Constants.Metrics.QUERY_CACHE_MAX_POINTS),
+         cConf.getLong(Constants.Metrics.QUERY_CACHE_FINALIZE_DELAY_SECONDS),
+         cConf.getLong(Constants.Metrics.QUERY_CACHE_EXPIRE_SECONDS));
+  }
+
+  @VisibleForTesting
+  CachingMetricStore(MetricStore delegate, long maxPoints, long finalizeDelaySeconds, long expireSeconds) {
+    this.delegate = delegate;
+    this.enabled = maxPoints > 0;
+    this.cache = CacheBuilder.newBuilder()
+      .maximumWeight(Math.max(maxPoints, 0L))
+      .weigher(new Weigher<CacheKey, CachedResult>() {
+        @Override
+        public int weigh(CacheKey key, CachedResult value) {
+          return value.getPointsCount();
+        }
+      })
+      .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+      .build();
+    this.finalizeDelaySeconds = finalizeDelaySeconds;
+    // The processor progress is read from the meta table, so it is only refreshed once a second
+    this.processedTs = Suppliers.memoizeWithExpiration(new Supplier<Long>() {
+      @Override
+      public Long get() {
+        return getProcessedTs();
+      }
+    }, 1, TimeUnit.SECONDS);
+    this.metricsContext = new NoopMetricsContext();
+  }
+
+  @Override
+  public void setMetricsContext(MetricsContext metricsContext) {
+    this.metricsContext = metricsContext;
+    delegate.setMetricsContext(metricsContext);
+  }
+
+  @Override
+  public void add(MetricValues metricValues) throws Exception {
+    delegate.add(metricValues);
+    invalidateIfLate(getFinalizedTs(1), metricValues);
+  }
+
+  @Override
+  public void add(Collection<? extends MetricValues> metricValues) throws Exception {
+    delegate.add(metricValues);
+    long finalizedTs = getFinalizedTs(1);
+    for (MetricValues values : metricValues) {
+      if (invalidateIfLate(finalizedTs, values)) {
+        break;
+      }
+    }
+  }
+
+  @Override
+  public Collection<MetricTimeSeries> query(MetricDataQuery query) {
+    int resolution = query.getResolution();
+    // totals are a single bucket that never gets finalized
+    if (!enabled || resolution == Integer.MAX_VALUE || query.getStartTs() > query.getEndTs()) {
+      return delegate.query(query);
+    }
+
+    long finalizedTs = getFinalizedTs(resolution);
+
+    CacheKey key = new CacheKey(query);
+    CachedResult cached = cache.getIfPresent(key);
+    if (cached != null && (cached.getStartTs() > query.getStartTs() || cached.getEndTs() <= query.getStartTs())) {
+      // cached result doesn't cover the start of the query
+      cached = null;
+    }
+
+    Map<ImmutablePair<String, Map<String, String>>, List<TimeValue>> result = new LinkedHashMap<>();
+    long queryStartTs = query.getStartTs();
+    if (cached == null) {
+      metricsContext.increment("query.cache.miss.count", 1);
+    } else {
+      metricsContext.increment("query.cache.hit.count", 1);
+      add(result, cached.getTimeSeries(), query.getStartTs(), query.getEndTs());
+      queryStartTs = cached.getEndTs();
+    }
+
+    // Query the data that is not cached yet, without interpolation or limit, which are applied on the merged result
+    if (queryStartTs <= query.getEndTs()) {
+      MetricDataQuery rawQuery = new MetricDataQuery(queryStartTs, query.getEndTs(), resolution, Integer.MAX_VALUE,
+                                                     query.getMetrics(), query.getSliceByTags(),
+                                                     query.getGroupByTags(), null);
+      add(result, delegate.query(rawQuery), queryStartTs, query.getEndTs());
+    }
+
+    // Cache the finalized part of the result if it covers more than the currently cached
+    long cacheEndTs = Math.min(finalizedTs, query.getEndTs() + 1);
+    if (cacheEndTs > query.getStartTs() && (cached == null || cacheEndTs > cached.getEndTs())) {
+      cache.put(key, new CachedResult(query.getStartTs(), cacheEndTs, result));
+    }
+
+    return toTimeSeries(result, query.getInterpolator(), resolution, query.getLimit());
+  }
+
+  @Override
+  public void deleteBefore(long timestamp) throws Exception {
+    delegate.deleteBefore(timestamp);
+    cache.invalidateAll();
+  }
+
+  @Override
+  public void delete(MetricDeleteQuery query) throws Exception {
+    delegate.delete(query);
+    cache.invalidateAll();
+  }
+
+  @Override
+  public void deleteAll() throws Exception {
+    delegate.deleteAll();
+    cache.invalidateAll();
+  }
+
+  @Override
+  public Collection<TagValue> findNextAvailableTags(MetricSearchQuery query) throws Exception {
+    return delegate.findNextAvailableTags(query);
+  }
+
+  @Override
+  public Collection<String> findMetricNames(MetricSearchQuery query) throws Exception {
+    return delegate.findMetricNames(query);
+  }
+
+  @Override
+  public Map<String, MetricsProcessorStatus> getMetricsProcessorStats() throws Exception {
+    return delegate.getMetricsProcessorStats();
+  }
+
+  /**
+   * Returns the timestamp in seconds before which data points of the given resolution are finalized.
+   */
+  private long getFinalizedTs(int resolution) {
+    long ts = processedTs.get();
+    if (ts <= finalizeDelaySeconds) {
+      return 0L;
+    }
+    return (ts - finalizeDelaySeconds) / resolution * resolution;
+  }
+
+  /**
+   * Returns the smallest of the latest metrics timestamps persisted by the metrics processor for each topic, or
+   * {@code 0} if there is no progress. A topic that stops receiving metrics holds back finalization, which only
+   * reduces what gets cached.
+   */
+  private long getProcessedTs() {
+    Map<String, MetricsProcessorStatus> stats;
+    try {
+      stats = delegate.getMetricsProcessorStats();
+    } catch (Exception e) {
+      LOG.warn("Failed to get the metrics processor progress. Query results are not cached.", e);
+      return 0L;
+    }
+    long result = Long.MAX_VALUE;
+    for (MetricsProcessorStatus status : stats.values()) {
+      result = Math.min(result, status.getLatestMetricsTimestamp());
+    }
+    return stats.isEmpty() ? 0L : result;
+  }
+
+  /**
+   * Invalidates the cache if the given metric values are late, i.e. in time buckets that may already be cached.
+   *
+   * @return {@code true} if the cache was invalidated
+   */
+  private boolean invalidateIfLate(long finalizedTs, MetricValues metricValues) {
+    if (!enabled || metricValues.getTimestamp() >= finalizedTs) {
+      return false;
+    }
+    cache.invalidateAll();
+    return true;
+  }
+
+  /**
+   * Adds data points of the given time series within the given time range to the result.
+   */
+  private void add(Map<ImmutablePair<String, Map<String, String>>, List<TimeValue>> result,
+                   Collection<MetricTimeSeries> timeSeries, long startTs, long endTs) {
+    for (MetricTimeSeries series : timeSeries) {
+      ImmutablePair<String, Map<String, String>> seriesKey = ImmutablePair.of(series.getMetricName(),
+                                                                              series.getTagValues());
+      List<TimeValue> timeValues = result.get(seriesKey);
+      for (TimeValue timeValue : series.getTimeValues()) {
+        if (timeValue.getTimestamp() < startTs || timeValue.getTimestamp() > endTs) {
+          continue;
+        }
+        if (timeValues == null) {
+          timeValues = new ArrayList<>();
+          result.put(seriesKey, timeValues);
+        }
+        timeValues.add(timeValue);
+      }
+    }
+  }
+
+  /**
+   * Applies interpolation and limit the same way as the cube does when querying.
+   */
+  private Collection<MetricTimeSeries> toTimeSeries(Map<ImmutablePair<String, Map<String, String>>,
+                                                      List<TimeValue>> result,
+                                                    @Nullable Interpolator interpolator, int resolution, int limit) {
+    // at least one data point is always returned for a time series
+    limit = Math.max(limit, 1);
+    List<MetricTimeSeries> timeSeries = new ArrayList<>(result.size());
+    for (Map.Entry<ImmutablePair<String, Map<String, String>>, List<TimeValue>> entry : result.entrySet()) {
+      List<TimeValue> points = entry.getValue();
+      Collections.sort(points);
+      List<TimeValue> timeValues = new ArrayList<>();
+      for (TimeValue timeValue : new TimeSeriesInterpolator(points, interpolator, resolution)) {
+        timeValues.add(timeValue);
+        if (timeValues.size() >= limit) {
+          break;
+        }
+      }
+      timeSeries.add(new MetricTimeSeries(entry.getKey().getFirst(), entry.getKey().getSecond(), timeValues));
+    }
+    return timeSeries;
+  }
+
+  /**
+   * Key of a cached query result. Queries that differ only in time range, limit and interpolation share the key.
+   */
+  private static final class CacheKey {
+    private final Map<String, AggregationFunction> metrics;
+    private final Map<String, String> sliceByTags;
+    private final List<String> groupByTags;
+    private final int resolution;
+    private final int hashCode;
+
+    CacheKey(MetricDataQuery query) {
+      this.metrics = query.getMetrics();
+      this.sliceByTags = query.getSliceByTags();
+      this.groupByTags = query.getGroupByTags();
+      this.resolution = query.getResolution();
+      this.hashCode = Objects.hashCode(metrics, sliceByTags, groupByTags, resolution);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      CacheKey other = (CacheKey) o;
+      return resolution == other.resolution
+        && Objects.equal(metrics, other.metrics)
+        && Objects.equal(sliceByTags, other.sliceByTags)
+        && Objects.equal(groupByTags, other.groupByTags);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  /**
+   * Finalized data points of a query, without interpolation and limit.
+   */
+  private static final class CachedResult {
+    private final long startTs;
+    // exclusive
+    private final long endTs;
+    private final List<MetricTimeSeries> timeSeries;
+    private final int pointsCount;
+
+    CachedResult(long startTs, long endTs, Map<ImmutablePair<String, Map<String, String>>, List<TimeValue>> result) {
+      this.startTs = startTs;
+      this.endTs = endTs;
+      this.timeSeries = new ArrayList<>(result.size());
+      int count = 0;
+      for (Map.Entry<ImmutablePair<String, Map<String, String>>, List<TimeValue>> entry : result.entrySet()) {
+        List<TimeValue> timeValues = new ArrayList<>();
+        for (TimeValue timeValue : entry.getValue()) {
+          if (timeValue.getTimestamp() < endTs) {
+            timeValues.add(timeValue);
+          }
+        }
+        if (!timeValues.isEmpty()) {
+          timeSeries.add(new MetricTimeSeries(entry.getKey().getFirst(), entry.getKey().getSecond(), timeValues));
+          count += timeValues.size();
+        }
+      }
+      // one for the entry itself, so that empty results are also accounted
+      this.pointsCount = count + 1;
+    }
+
+    long getStartTs() {
+      return startTs;
+    }
+
+    long getEndTs() {
+      return endTs;
+    }
+
+    List<MetricTimeSeries> getTimeSeries() {
+      return timeSeries;
+    }
+
+    int getPointsCount() {
+      return pointsCount;
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package co.cask.cdap.metrics.store;
 
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
 import co.cask.cdap.api.dataset.lib.cube.Cube;
 import co.cask.cdap.api.dataset.lib.cube.CubeDeleteQuery;
 import co.cask.cdap.api.dataset.lib.cube.CubeExploreQuery;
@@ -25,6 +26,8 @@ import co.cask.cdap.api.dataset.lib.cube.DimensionValue;
 import co.cask.cdap.api.dataset.lib.cube.MeasureType;
 import co.cask.cdap.api.dataset.lib.cube.Measurement;
 import co.cask.cdap.api.dataset.lib.cube.TimeSeries;
+import co.cask.cdap.api.dataset.lib.cube.TimeValue;
+import co.cask.cdap.api.metrics.Distribution;
 import co.cask.cdap.api.metrics.MetricDataQuery;
 import co.cask.cdap.api.metrics.MetricDeleteQuery;
 import co.cask.cdap.api.metrics.MetricSearchQuery;
@@ -65,9 +68,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
 /**
@@ -89,6 +97,16 @@ public class DefaultMetricStore implements MetricStore {
   private static final String BY_STREAM = "stream";
   private static final String BY_DATASET = "dataset";
   private static final String BY_COMPONENT = "component";
+
+  // A distribution metric is stored as a counter of the number of values under the metric name, plus
+  // a counter for each of the non-empty buckets, named by Distribution.getBucketMetricName
+  private static final Pattern DISTRIBUTION_BUCKET_PATTERN =
+    Pattern.compile(".+" + Pattern.quote(Distribution.BUCKET_SEPARATOR) + "\\d+");
+  // Percentile of a distribution metric is queried as "<metric name>.<percentile suffix>"
+  private static final Pattern PERCENTILE_PATTERN = Pattern.compile("(.+)\\.(p\\d+)");
+  private static final Map<String, Double> PERCENTILES = ImmutableMap.of("p50", 50d, "p95", 95d,
+                                                                         "p99", 99d, "p999", 99.9d);
+
   private static final Map<String, AggregationAlias> AGGREGATIONS_ALIAS_DIMENSIONS =
     ImmutableMap.of(BY_WORKFLOW,
                     new AggregationAlias(ImmutableMap.of(Constants.Metrics.Tag.RUN_ID,
@@ -100,7 +118,6 @@ public class DefaultMetricStore implements MetricStore {
   private MetricsContext metricsContext;
   private final List<TopicId> metricsTopics;
 
-
   static {
     // NOTE: changing aggregations will require more work than just changing the below code. See CDAP-1466 for details.
     Map<String, Aggregation> aggs = Maps.newHashMap();
@@ -219,6 +236,7 @@ public class DefaultMetricStore implements MetricStore {
   public DefaultMetricStore(final MetricDatasetFactory dsFactory, final int resolutions[],
                             final CConfiguration cConf) {
     this.resolutions = resolutions;
+    final int queryParallelism = cConf.getInt(Constants.Metrics.METRICS_QUERY_PARALLELISM, 1);
     final FactTableSupplier factTableSupplier = new FactTableSupplier() {
       @Override
       public FactTable get(int resolution, int ignoredRollTime) {
@@ -229,7 +247,8 @@ public class DefaultMetricStore implements MetricStore {
     this.cube = Suppliers.memoize(new Supplier<Cube>() {
       @Override
       public Cube get() {
-        DefaultCube cube = new DefaultCube(resolutions, factTableSupplier, AGGREGATIONS, AGGREGATIONS_ALIAS_DIMENSIONS);
+        DefaultCube cube = new DefaultCube(resolutions, factTableSupplier, AGGREGATIONS, AGGREGATIONS_ALIAS_DIMENSIONS,
+                                           queryParallelism);
         cube.setMetricsCollector(metricsContext);
         return cube;
       }
@@ -268,6 +287,10 @@ public class DefaultMetricStore implements MetricStore {
       // todo improve this logic?
       for (MetricValue metric : metricValue.getMetrics()) {
         String measureName = (scope == null ? "system." : scope + ".") + metric.getName();
+        if (metric.getType() == MetricType.DISTRIBUTION) {
+          addDistribution(measureName, metric, metrics);
+          continue;
+        }
         MeasureType type = metric.getType() == MetricType.COUNTER ? MeasureType.COUNTER : MeasureType.GAUGE;
         metrics.add(new Measurement(measureName, type, metric.getValue()));
       }
@@ -280,8 +303,71 @@ public class DefaultMetricStore implements MetricStore {
     cube.get().add(facts);
   }
 
+  private void addDistribution(String measureName, MetricValue metric, List<Measurement> measurements) {
+    measurements.add(new Measurement(measureName, MeasureType.COUNTER, metric.getValue()));
+    Distribution distribution = metric.getDistribution();
+    if (distribution == null) {
+      return;
+    }
+    int[] buckets = distribution.getBuckets();
+    long[] counts = distribution.getCounts();
+    for (int i = 0; i < buckets.length; i++) {
+      measurements.add(new Measurement(Distribution.getBucketMetricName(measureName, buckets[i]),
+                                       MeasureType.COUNTER, counts[i]));
+    }
+  }
+
   @Override
   public Collection<MetricTimeSeries> query(MetricDataQuery query) {
+    // Percentile names to query, keyed by the distribution metric name
+    Map<String, Map<String, Double>> percentiles = new HashMap<>();
+    Map<String, AggregationFunction> metrics = new HashMap<>();
+    for (Map.Entry<String, AggregationFunction> entry : query.getMetrics().entrySet()) {
+      Matcher matcher = PERCENTILE_PATTERN.matcher(entry.getKey());
+      if (!matcher.matches()) {
+        metrics.put(entry.getKey(), entry.getValue());
+        continue;
+      }
+      Map<String, Double> names = percentiles.get(matcher.group(1));
+      if (names == null) {
+        names = new HashMap<>();
+        percentiles.put(matcher.group(1), names);
+      }
+      // Unsupported percentiles are kept as null, which are rejected if the metric turns out to be a distribution
+      names.put(entry.getKey(), PERCENTILES.get(matcher.group(2)));
+    }
+    if (percentiles.isEmpty()) {
+      return queryMetrics(query);
+    }
+
+    List<MetricTimeSeries> result = new ArrayList<>();
+    for (Map.Entry<String, Map<String, Double>> entry : percentiles.entrySet()) {
+      Set<String> bucketNames = findDistributionBuckets(query, entry.getKey());
+      if (bucketNames.isEmpty()) {
+        // Not a distribution metric, query it as a regular metric
+        for (String name : entry.getValue().keySet()) {
+          metrics.put(name, query.getMetrics().get(name));
+        }
+        continue;
+      }
+      for (Map.Entry<String, Double> percentile : entry.getValue().entrySet()) {
+        if (percentile.getValue() == null) {
+          throw new IllegalArgumentException(String.format(
+            "Unsupported percentile '%s' of distribution metric '%s'. Supported percentile suffixes are %s",
+            percentile.getKey(), entry.getKey(), PERCENTILES.keySet()));
+        }
+      }
+      result.addAll(queryPercentiles(query, bucketNames, entry.getValue()));
+    }
+    if (!metrics.isEmpty()) {
+      result.addAll(queryMetrics(new MetricDataQuery(query.getStartTs(), query.getEndTs(), query.getResolution(),
+                                                     query.getLimit(), metrics, query.getSliceByTags(),
+                                                     query.getGroupByTags(), query.getInterpolator())));
+    }
+    return result;
+  }
+
+  private Collection<MetricTimeSeries> queryMetrics(MetricDataQuery query) {
     Collection<TimeSeries> cubeResult = cube.get().query(buildCubeQuery(query));
     List<MetricTimeSeries> result = Lists.newArrayList();
     for (TimeSeries timeSeries : cubeResult) {
@@ -292,6 +378,80 @@ public class DefaultMetricStore implements MetricStore {
     return result;
   }
 
+  /**
+   * Returns names of the buckets of the given distribution metric that are non-empty within the slice, time range
+   * and resolution of the query.
+   */
+  private Set<String> findDistributionBuckets(MetricDataQuery query, String metricName) {
+    List<DimensionValue> dimensionValues = new ArrayList<>();
+    for (Map.Entry<String, String> tag : query.getSliceByTags().entrySet()) {
+      dimensionValues.add(new DimensionValue(tag.getKey(), tag.getValue()));
+    }
+    CubeExploreQuery exploreQuery = new CubeExploreQuery(query.getStartTs(), query.getEndTs(),
+                                                         query.getResolution(), -1, dimensionValues);
+    String prefix = metricName + Distribution.BUCKET_SEPARATOR;
+    Set<String> bucketNames = new HashSet<>();
+    for (String measureName : cube.get().findMeasureNames(exploreQuery)) {
+      if (measureName.startsWith(prefix) && DISTRIBUTION_BUCKET_PATTERN.matcher(measureName).matches()) {
+        bucketNames.add(measureName);
+      }
+    }
+    return bucketNames;
+  }
+
+  /**
+   * Queries the given buckets of a distribution metric and computes the percentiles from them.
+   *
+   * @param query the original query
+   * @param bucketNames names of the bucket measures of the distribution metric
+   * @param percentiles map from the percentile name in the result to the percentile value
+   */
+  private Collection<MetricTimeSeries> queryPercentiles(MetricDataQuery query, Set<String> bucketNames,
+                                                        Map<String, Double> percentiles) {
+    Map<String, AggregationFunction> measurements = new HashMap<>();
+    for (String bucketName : bucketNames) {
+      measurements.put(bucketName, AggregationFunction.SUM);
+    }
+    // Interpolation doesn't apply to bucket counts
+    CubeQuery cubeQuery = new CubeQuery(getAggregation(query), query.getStartTs(), query.getEndTs(),
+                                        query.getResolution(), query.getLimit(), measurements,
+                                        query.getSliceByTags(), query.getGroupByTags(), null);
+
+    // Merge the bucket counts into one distribution per group and timestamp
+    Map<Map<String, String>, SortedMap<Long, Distribution>> distributions = new HashMap<>();
+    for (TimeSeries timeSeries : cube.get().query(cubeQuery)) {
+      String measureName = timeSeries.getMeasureName();
+      int bucket = Integer.parseInt(measureName.substring(measureName.lastIndexOf(Distribution.BUCKET_SEPARATOR)
+                                                            + Distribution.BUCKET_SEPARATOR.length()));
+      SortedMap<Long, Distribution> timeDistributions = distributions.get(timeSeries.getDimensionValues());
+      if (timeDistributions == null) {
+        timeDistributions = new TreeMap<>();
+        distributions.put(timeSeries.getDimensionValues(), timeDistributions);
+      }
+      for (TimeValue timeValue : timeSeries.getTimeValues()) {
+        Distribution distribution = timeDistributions.get(timeValue.getTimestamp());
+        if (distribution == null) {
+          distribution = new Distribution();
+          timeDistributions.put(timeValue.getTimestamp(), distribution);
+        }
+        distribution.add(bucket, timeValue.getValue());
+      }
+    }
+
+    List<MetricTimeSeries> result = new ArrayList<>();
+    for (Map.Entry<String, Double> percentile : percentiles.entrySet()) {
+      for (Map.Entry<Map<String, String>, SortedMap<Long, Distribution>> entry : distributions.entrySet()) {
+        List<TimeValue> timeValues = new ArrayList<>();
+        for (Map.Entry<Long, Distribution> timeDistribution : entry.getValue().entrySet()) {
+          timeValues.add(new TimeValue(timeDistribution.getKey(),
+                                       timeDistribution.getValue().getPercentile(percentile.getValue())));
+        }
+        result.add(new MetricTimeSeries(percentile.getKey(), entry.getKey(), timeValues));
+      }
+    }
+    return result;
+  }
+
   private CubeQuery buildCubeQuery(MetricDataQuery query) {
     String aggregation = getAggregation(query);
     return new CubeQuery(aggregation, query.getStartTs(), query.getEndTs(),
@@ -366,7 +526,15 @@ public class DefaultMetricStore implements MetricStore {
 
   @Override
   public Collection<String> findMetricNames(MetricSearchQuery query) throws Exception {
-    return cube.get().findMeasureNames(buildCubeSearchQuery(query));
+    Collection<String> measureNames = cube.get().findMeasureNames(buildCubeSearchQuery(query));
+    // Buckets of distribution metrics are internal
+    List<String> result = new ArrayList<>(measureNames.size());
+    for (String measureName : measureNames) {
+      if (!DISTRIBUTION_BUCKET_PATTERN.matcher(measureName).matches()) {
+        result.add(measureName);
+      }
+    }
+    return result;
   }
 
   /**
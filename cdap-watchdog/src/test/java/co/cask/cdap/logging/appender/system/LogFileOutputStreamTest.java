@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.logging.appender.system;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import co.cask.cdap.api.dataset.lib.CloseableIterator;
+import co.cask.cdap.logging.filter.Filter;
+import co.cask.cdap.logging.filter.FilterParser;
+import co.cask.cdap.logging.meta.LogBlockIndex;
+import co.cask.cdap.logging.read.LogEvent;
+import co.cask.cdap.logging.serialize.LoggingEventSerializer;
+import co.cask.cdap.logging.write.LogLocation;
+import org.apache.twill.filesystem.LocalLocationFactory;
+import org.apache.twill.filesystem.Location;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * Tests for {@link LogFileOutputStream} and reading log files with the {@link LogBlockIndex} it produces.
+ */
+public class LogFileOutputStreamTest {
+
+  @ClassRule
+  public static final TemporaryFolder TMP_FOLDER = new TemporaryFolder();
+
+  @Test
+  public void testBlockIndex() throws Exception {
+    long baseTime = System.currentTimeMillis();
+    int eventCount = 10000;
+    Location location = new LocalLocationFactory(TMP_FOLDER.newFolder()).create("test.avro");
+    LogBlockIndex blockIndex = writeLogFile(location, 4096, baseTime, eventCount);
+
+    Assert.assertNotNull(blockIndex);
+    Assert.assertTrue(blockIndex.size() > 1);
+    Assert.assertEquals(baseTime, blockIndex.getMinTimestamp(0));
+    Assert.assertEquals(baseTime + (eventCount - 1) / 2, blockIndex.getMaxTimestamp(blockIndex.size() - 1));
+    for (int i = 1; i < blockIndex.size(); i++) {
+      Assert.assertTrue(blockIndex.getPosition(i) > blockIndex.getPosition(i - 1));
+      Assert.assertTrue(blockIndex.getMinTimestamp(i) >= blockIndex.getMaxTimestamp(i - 1));
+    }
+
+    // The index should survive encoding
+    LogBlockIndex decoded = LogBlockIndex.fromBytes(blockIndex.toBytes());
+    Assert.assertEquals(blockIndex.size(), decoded.size());
+    for (int i = 0; i < blockIndex.size(); i++) {
+      Assert.assertEquals(blockIndex.getPosition(i), decoded.getPosition(i));
+      Assert.assertEquals(blockIndex.getMinTimestamp(i), decoded.getMinTimestamp(i));
+      Assert.assertEquals(blockIndex.getMaxTimestamp(i), decoded.getMaxTimestamp(i));
+      Assert.assertEquals(blockIndex.getMaxLevel(i), decoded.getMaxLevel(i));
+    }
+
+    // Reading with the index should give the same result as reading without it
+    LogLocation noIndex = new LogLocation(LogLocation.VERSION_1, baseTime, baseTime, location, "default", null);
+    LogLocation withIndex = new LogLocation(LogLocation.VERSION_1, baseTime, baseTime, location,
+                                            "default", null, blockIndex);
+    long endTime = baseTime + eventCount / 2;
+    for (String filterStr : new String[] { "", "loglevel=WARN", "loglevel=ERROR" }) {
+      Filter filter = filterStr.isEmpty() ? Filter.EMPTY_FILTER : FilterParser.parse(filterStr);
+
+      List<String> expected = readLog(noIndex, filter, baseTime, endTime, Integer.MAX_VALUE);
+      Assert.assertEquals(expected, readLog(withIndex, filter, baseTime, endTime, Integer.MAX_VALUE));
+      Assert.assertEquals(expected, readLogPrev(withIndex, filter, endTime, Integer.MAX_VALUE));
+
+      for (long fromTime : new long[] { baseTime + 100, baseTime + 1234, baseTime + 3000 }) {
+        for (int maxEvents : new int[] { 1, 10, 500 }) {
+          Assert.assertEquals(readLog(noIndex, filter, fromTime, fromTime + 1000, maxEvents),
+                              readLog(withIndex, filter, fromTime, fromTime + 1000, maxEvents));
+          Assert.assertEquals(readLogPrev(noIndex, filter, fromTime, maxEvents),
+                              readLogPrev(withIndex, filter, fromTime, maxEvents));
+        }
+      }
+    }
+
+    // Every 500th event is an error
+    Filter errorFilter = FilterParser.parse("loglevel=ERROR");
+    Assert.assertEquals(eventCount / 500, readLog(withIndex, errorFilter, baseTime, endTime, eventCount).size());
+    Assert.assertEquals(eventCount / 500, readLogPrev(withIndex, errorFilter, endTime, eventCount).size());
+
+    // Nothing should be read outside the time range of the file
+    Assert.assertTrue(readLog(withIndex, Filter.EMPTY_FILTER, endTime, endTime + 1000, eventCount).isEmpty());
+    Assert.assertTrue(readLogPrev(withIndex, Filter.EMPTY_FILTER, baseTime - 1, eventCount).isEmpty());
+  }
+
+  /**
+   * Writes a log file with two events per millisecond, starting from the given base time. Every 500th event is
+   * logged at ERROR level, and the rest alternate between INFO and DEBUG.
+   *
+   * @return the {@link LogBlockIndex} of the file
+   */
+  @Nullable
+  private LogBlockIndex writeLogFile(Location location, int syncIntervalBytes,
+                                     long baseTime, int eventCount) throws IOException {
+    final AtomicReference<LogBlockIndex> blockIndex = new AtomicReference<>();
+    LogFileOutputStream outputStream = new LogFileOutputStream(
+      location, "", syncIntervalBytes, baseTime, new LogFileOutputStream.CloseListener() {
+      @Override
+      public void closed(@Nullable LogBlockIndex index) {
+        blockIndex.set(index);
+      }
+    });
+
+    LoggingEventSerializer serializer = new LoggingEventSerializer();
+    Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+    try {
+      for (int i = 0; i < eventCount; i++) {
+        Level level = i % 500 == 0 ? Level.ERROR : (i % 2 == 0 ? Level.INFO : Level.DEBUG);
+        LoggingEvent event = new LoggingEvent("co.cask.Test", logger, level, "Message " + i, null, null);
+        event.setTimeStamp(baseTime + i / 2);
+
+        // Alternate between events that need encoding and events that are already encoded
+        ILoggingEvent toAppend = event;
+        if (i % 2 == 0) {
+          toAppend = serializer.fromBytes(ByteBuffer.wrap(serializer.toBytes(event)));
+        }
+        outputStream.append(toAppend);
+        if (i % 1000 == 0) {
+          outputStream.flush();
+        }
+      }
+    } finally {
+      outputStream.close();
+    }
+    return blockIndex.get();
+  }
+
+  private List<String> readLog(LogLocation logLocation, Filter filter,
+                               long fromTimeMs, long toTimeMs, int maxEvents) {
+    List<String> messages = new ArrayList<>();
+    try (CloseableIterator<LogEvent> iterator = logLocation.readLog(filter, fromTimeMs, toTimeMs, maxEvents)) {
+      while (iterator.hasNext()) {
+        messages.add(iterator.next().getLoggingEvent().getFormattedMessage());
+      }
+    }
+    return messages;
+  }
+
+  private List<String> readLogPrev(LogLocation logLocation, Filter filter,
+                                   long fromTimeMs, int maxEvents) throws IOException {
+    List<String> messages = new ArrayList<>();
+    for (LogEvent event : logLocation.readLogPrev(filter, fromTimeMs, maxEvents)) {
+      messages.add(event.getLoggingEvent().getFormattedMessage());
+    }
+    return messages;
+  }
+}
@@ -15,10 +15,14 @@
  */
 package co.cask.cdap.metrics.collect;
 
+import co.cask.cdap.api.metrics.Distribution;
+import co.cask.cdap.api.metrics.MetricType;
 import co.cask.cdap.api.metrics.MetricValue;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.api.metrics.MetricsCounter;
 import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.common.utils.Tasks;
 import co.cask.cdap.test.SlowTests;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterators;
@@ -26,13 +30,20 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -164,6 +175,317 @@ public class AggregatedMetricsCollectionServiceTest {
     }
   }
 
+  @Test
+  public void testConcurrentCounters() throws Exception {
+    final BlockingQueue<MetricValues> published = new LinkedBlockingQueue<>();
+
+    AggregatedMetricsCollectionService service = new AggregatedMetricsCollectionService() {
+      @Override
+      protected void publish(Iterator<MetricValues> metrics) {
+        Iterators.addAll(published, metrics);
+      }
+
+      @Override
+      protected long getInitialDelayMillis() {
+        return 0L;
+      }
+
+      @Override
+      protected long getPeriodMillis() {
+        return 10L;
+      }
+    };
+
+    service.startAndWait();
+
+    // Increment through both the counter handle and the context from multiple threads while metrics are being
+    // published periodically. The sum of all published values should match the total increments.
+    final MetricsContext context = service.getContext(ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, NAMESPACE));
+    final MetricsCounter counter = context.counter(METRIC);
+    final int threads = 8;
+    final int increments = 10000;
+    final CyclicBarrier barrier = new CyclicBarrier(threads);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            barrier.await();
+            for (int j = 0; j < increments; j++) {
+              counter.increment(1L);
+              context.increment(METRIC, 2L);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+      // Stopping the service flushes all metrics
+      service.stopAndWait();
+    }
+
+    long total = 0L;
+    for (MetricValues metricValues : published) {
+      total += getMetricValue(metricValues.getMetrics(), METRIC);
+    }
+    Assert.assertEquals(3L * threads * increments, total);
+  }
+
+  @Test
+  public void testDistribution() throws Exception {
+    final BlockingQueue<MetricValues> published = new LinkedBlockingQueue<>();
+
+    AggregatedMetricsCollectionService service = new AggregatedMetricsCollectionService() {
+      @Override
+      protected void publish(Iterator<MetricValues> metrics) {
+        Iterators.addAll(published, metrics);
+      }
+
+      @Override
+      protected long getInitialDelayMillis() {
+        return 0L;
+      }
+
+      @Override
+      protected long getPeriodMillis() {
+        return 10L;
+      }
+    };
+
+    service.startAndWait();
+    try {
+      MetricsContext context = service.getContext(ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, NAMESPACE));
+      for (int i = 0; i < 1000; i++) {
+        context.distribution(METRIC, i);
+      }
+    } finally {
+      // Stopping the service flushes all metrics
+      service.stopAndWait();
+    }
+
+    // The values may be emitted across multiple publishes. Merging them should give back all the values.
+    Distribution distribution = new Distribution();
+    for (MetricValues metricValues : published) {
+      for (MetricValue metricValue : metricValues.getMetrics()) {
+        Assert.assertEquals(METRIC, metricValue.getName());
+        Assert.assertEquals(MetricType.DISTRIBUTION, metricValue.getType());
+        Assert.assertEquals(metricValue.getValue(), metricValue.getDistribution().getCount());
+        distribution.merge(metricValue.getDistribution());
+      }
+    }
+    Assert.assertEquals(1000L, distribution.getCount());
+    // Values smaller than 8 have a bucket of their own
+    Assert.assertEquals(0L, distribution.getPercentile(0.1));
+    Assert.assertEquals(7L, distribution.getPercentile(0.8));
+    long p90 = distribution.getPercentile(90);
+    Assert.assertTrue("Unexpected p90 " + p90, Math.abs(p90 - 900) <= 900 / 8);
+  }
+
+  @Test
+  public void testGaugeDistributionConflict() throws Exception {
+    AggregatedMetricsCollectionService service =
+      createService(new LinkedBlockingQueue<MetricValues>(), TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+    service.startAndWait();
+    try {
+      MetricsContext context = service.getContext(ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, NAMESPACE));
+      context.gauge(GAUGE_METRIC, 10L);
+      try {
+        context.distribution(GAUGE_METRIC, 10L);
+        Assert.fail("Expected IllegalArgumentException for distribution of a gauge metric");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+
+      context.distribution(METRIC, 10L);
+      try {
+        context.gauge(METRIC, 10L);
+        Assert.fail("Expected IllegalArgumentException for gauge of a distribution metric");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    } finally {
+      service.stopAndWait();
+    }
+  }
+
+  @Test
+  public void testEmittedValuesReuse() throws Exception {
+    BlockingQueue<MetricValues> published = new LinkedBlockingQueue<>();
+    AggregatedMetricsCollectionService service = createService(published, 10L, TimeUnit.HOURS.toMillis(1));
+    service.startAndWait();
+    try {
+      MetricsContext context = service.getContext(ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, NAMESPACE));
+
+      // Publishing the same values again should reuse the list of values published before
+      List<MetricValues> publishes = new ArrayList<>();
+      while (publishes.size() < 2) {
+        context.gauge(GAUGE_METRIC, 10L);
+        MetricValues metricValues = published.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(metricValues);
+        publishes.add(metricValues);
+      }
+      Assert.assertEquals(10L, getMetricValue(publishes.get(0).getMetrics(), GAUGE_METRIC));
+      Assert.assertSame(publishes.get(0).getMetrics(), publishes.get(1).getMetrics());
+
+      // A changed value should be published in a new list
+      context.gauge(GAUGE_METRIC, 20L);
+      MetricValues metricValues = published.poll(10, TimeUnit.SECONDS);
+      Assert.assertNotNull(metricValues);
+      Assert.assertEquals(20L, getMetricValue(metricValues.getMetrics(), GAUGE_METRIC));
+      Assert.assertNotSame(publishes.get(0).getMetrics(), metricValues.getMetrics());
+    } finally {
+      service.stopAndWait();
+    }
+  }
+
+  @Test
+  public void testEmitterRemoval() throws Exception {
+    final BlockingQueue<MetricValues> published = new LinkedBlockingQueue<>();
+    final AggregatedMetricsCollectionService service = createService(published, 10L, 50L);
+
+    service.startAndWait();
+    try {
+      MetricsContext context = service.getContext(ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, NAMESPACE));
+      MetricsCounter counter = context.counter(METRIC);
+      counter.increment(1L);
+      context.gauge(GAUGE_METRIC, 10L);
+      Assert.assertEquals(2, service.getEmitterCount());
+
+      // Without any update, the emitters should get removed
+      Tasks.waitFor(0, new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return service.getEmitterCount();
+        }
+      }, 10, TimeUnit.SECONDS, 10, TimeUnit.MILLISECONDS);
+
+      // Updates through the context and the counter that hold on to the removed emitters should still be emitted
+      counter.increment(2L);
+      context.increment(METRIC, 3L);
+      context.gauge(GAUGE_METRIC, 20L);
+      Assert.assertEquals(2, service.getEmitterCount());
+    } finally {
+      // Stopping the service flushes all metrics
+      service.stopAndWait();
+    }
+
+    long total = 0L;
+    long gauge = -1L;
+    for (MetricValues metricValues : published) {
+      total += getMetricValue(metricValues.getMetrics(), METRIC);
+      for (MetricValue metricValue : metricValues.getMetrics()) {
+        if (GAUGE_METRIC.equals(metricValue.getName())) {
+          Assert.assertEquals(MetricType.GAUGE, metricValue.getType());
+          gauge = metricValue.getValue();
+        }
+      }
+    }
+    Assert.assertEquals(6L, total);
+    Assert.assertEquals(20L, gauge);
+  }
+
+  @Test
+  public void testConcurrentRemoval() throws Exception {
+    final BlockingQueue<MetricValues> published = new LinkedBlockingQueue<>();
+    AggregatedMetricsCollectionService service = createService(published, 1L, 2L);
+
+    service.startAndWait();
+
+    // Update metrics from multiple threads with pauses, so that emitters keep getting removed and recreated
+    // while being updated. No update should be lost.
+    final MetricsContext context = service.getContext(ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, NAMESPACE));
+    final int threads = 4;
+    final int increments = 200;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            MetricsCounter counter = context.counter(METRIC);
+            for (int j = 0; j < increments; j++) {
+              counter.increment(1L);
+              context.increment(METRIC, 2L);
+              context.distribution(METRIC + ".dist", j);
+              if (j % 20 == 0) {
+                TimeUnit.MILLISECONDS.sleep(10);
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+      service.stopAndWait();
+    }
+
+    long total = 0L;
+    Distribution distribution = new Distribution();
+    for (MetricValues metricValues : published) {
+      total += getMetricValue(metricValues.getMetrics(), METRIC);
+      for (MetricValue metricValue : metricValues.getMetrics()) {
+        if (metricValue.getType() == MetricType.DISTRIBUTION) {
+          distribution.merge(metricValue.getDistribution());
+        }
+      }
+    }
+    Assert.assertEquals(3L * threads * increments, total);
+    Assert.assertEquals((long) threads * increments, distribution.getCount());
+  }
+
+  @Test
+  public void testEmitterTransfer() {
+    AggregatedMetricsEmitter removed = new AggregatedMetricsEmitter(METRIC);
+    AggregatedMetricsEmitter current = new AggregatedMetricsEmitter(METRIC);
+
+    // Counter values are added to the current emitter
+    removed.increment(5L);
+    current.increment(1L);
+    removed.markRemoved();
+    removed.transferTo(current);
+    Assert.assertNull(removed.emit());
+    MetricValue metricValue = current.emit();
+    Assert.assertNotNull(metricValue);
+    Assert.assertEquals(MetricType.COUNTER, metricValue.getType());
+    Assert.assertEquals(6L, metricValue.getValue());
+
+    // Distribution values are merged into the current emitter
+    removed.distribution(1L);
+    removed.distribution(100L);
+    current.distribution(1L);
+    removed.transferTo(current);
+    Assert.assertNull(removed.emit());
+    metricValue = current.emit();
+    Assert.assertNotNull(metricValue);
+    Assert.assertEquals(MetricType.DISTRIBUTION, metricValue.getType());
+    Assert.assertEquals(3L, metricValue.getValue());
+    Assert.assertEquals(3L, metricValue.getDistribution().getCount());
+
+    // Gauge value replaces the one in the current emitter
+    removed.gauge(7L);
+    current.gauge(3L);
+    removed.transferTo(current);
+    Assert.assertNull(removed.emit());
+    metricValue = current.emit();
+    Assert.assertNotNull(metricValue);
+    Assert.assertEquals(MetricType.GAUGE, metricValue.getType());
+    Assert.assertEquals(7L, metricValue.getValue());
+
+    // Nothing left to emit
+    Assert.assertNull(current.emit());
+  }
+
   @Test
   public void testServiceShutdown() throws InterruptedException, TimeoutException, ExecutionException {
     final CountDownLatch latch = new CountDownLatch(1);
@@ -195,6 +517,31 @@ public class AggregatedMetricsCollectionServiceTest {
     service.stop().get(5, TimeUnit.SECONDS);
   }
 
+  private AggregatedMetricsCollectionService createService(final Collection<MetricValues> published,
+                                                           final long periodMillis, final long expireMillis) {
+    return new AggregatedMetricsCollectionService() {
+      @Override
+      protected void publish(Iterator<MetricValues> metrics) {
+        Iterators.addAll(published, metrics);
+      }
+
+      @Override
+      protected long getInitialDelayMillis() {
+        return 0L;
+      }
+
+      @Override
+      protected long getPeriodMillis() {
+        return periodMillis;
+      }
+
+      @Override
+      protected long getEmitterExpireMillis() {
+        return expireMillis;
+      }
+    };
+  }
+
   private void verifyCounterMetricsValue(MetricValues metricValues) {
     Assert.assertNotNull(metricValues);
     Map<String, String> tags = metricValues.getTags();
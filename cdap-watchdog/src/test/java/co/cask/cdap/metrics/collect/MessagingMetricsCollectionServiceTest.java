@@ -19,12 +19,15 @@ import co.cask.cdap.api.data.schema.Schema;
 import co.cask.cdap.api.data.schema.UnsupportedTypeException;
 import co.cask.cdap.api.dataset.lib.CloseableIterator;
 import co.cask.cdap.api.messaging.TopicNotFoundException;
+import co.cask.cdap.api.metrics.Distribution;
 import co.cask.cdap.api.metrics.MetricValue;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.api.metrics.MetricsCollectionService;
+import co.cask.cdap.api.metrics.MetricsContext;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.io.BinaryDecoder;
 import co.cask.cdap.internal.io.ReflectionDatumReader;
+import co.cask.cdap.internal.io.ReflectionSchemaGenerator;
 import co.cask.cdap.messaging.data.RawMessage;
 import co.cask.cdap.metrics.MetricsTestBase;
 import co.cask.cdap.proto.id.NamespaceId;
@@ -83,6 +86,42 @@ public class MessagingMetricsCollectionServiceTest extends MetricsTestBase {
     assertMetricsFromMessaging(schema, recordReader, expected);
   }
 
+  @Test
+  public void testDistributionPublish()
+    throws UnsupportedTypeException, InterruptedException, TopicNotFoundException, IOException {
+
+    // Distribution is not part of the serialized MetricValue, so that existing metrics processors can read it
+    Assert.assertNull(new ReflectionSchemaGenerator().generate(MetricValue.class).getField("distribution"));
+
+    MetricsCollectionService collectionService = new MessagingMetricsCollectionService(TOPIC_PREFIX,
+                                                                                       PARTITION_SIZE,
+                                                                                       CConfiguration.create(),
+                                                                                       messagingService,
+                                                                                       recordWriter);
+    collectionService.startAndWait();
+
+    MetricsContext context = collectionService.getContext(ImmutableMap.of("tag", "1"));
+    Distribution distribution = new Distribution();
+    for (int i = 1; i <= 100; i++) {
+      context.distribution("latency", i);
+      distribution.add(i);
+    }
+
+    collectionService.stopAndWait();
+
+    // The distribution is published as counters of the number of values and of each non-empty bucket
+    Table<String, String, Long> expected = HashBasedTable.create();
+    expected.put("tag.1", "latency", 100L);
+    int[] buckets = distribution.getBuckets();
+    long[] counts = distribution.getCounts();
+    for (int i = 0; i < buckets.length; i++) {
+      expected.put("tag.1", Distribution.getBucketMetricName("latency", buckets[i]), counts[i]);
+    }
+
+    ReflectionDatumReader<MetricValues> recordReader = new ReflectionDatumReader<>(schema, metricValueType);
+    assertMetricsFromMessaging(schema, recordReader, expected);
+  }
+
   private void assertMetricsFromMessaging(final Schema schema,
                                           ReflectionDatumReader recordReader,
                                           Table<String, String, Long> expected)
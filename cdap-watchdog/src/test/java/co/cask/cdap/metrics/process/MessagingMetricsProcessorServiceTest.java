@@ -16,6 +16,7 @@
 
 package co.cask.cdap.metrics.process;
 
+import co.cask.cdap.api.metrics.Distribution;
 import co.cask.cdap.api.metrics.MetricDataQuery;
 import co.cask.cdap.api.metrics.MetricDeleteQuery;
 import co.cask.cdap.api.metrics.MetricSearchQuery;
@@ -35,6 +36,7 @@ import co.cask.cdap.data2.dataset2.DatasetFramework;
 import co.cask.cdap.internal.io.DatumReaderFactory;
 import co.cask.cdap.internal.io.SchemaGenerator;
 import co.cask.cdap.metrics.store.MetricDatasetFactory;
+import com.google.common.collect.ImmutableList;
 import org.apache.tephra.TransactionManager;
 import org.junit.Assert;
 import org.junit.Test;
@@ -43,6 +45,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -116,6 +119,59 @@ public class MessagingMetricsProcessorServiceTest extends MetricsProcessorServic
     }
   }
 
+  @Test
+  public void testCoalesce() {
+    Map<String, String> tags1 = Collections.singletonMap("ns", "ns1");
+    Map<String, String> tags2 = Collections.singletonMap("ns", "ns2");
+
+    Distribution distribution1 = new Distribution();
+    distribution1.add(10);
+    Distribution distribution2 = new Distribution();
+    distribution2.add(10);
+    distribution2.add(1000);
+
+    List<MetricValues> coalesced = MessagingMetricsProcessorService.coalesce(
+      MessagingMetricsProcessorService.mergeDistributions(ImmutableList.of(
+      new MetricValues(tags1, "counter", 1, 1, MetricType.COUNTER),
+      new MetricValues(tags1, "gauge", 1, 5, MetricType.GAUGE),
+      new MetricValues(tags2, "counter", 1, 7, MetricType.COUNTER),
+      new MetricValues(tags1, 1, ImmutableList.of(new MetricValue("counter", MetricType.COUNTER, 2),
+                                                  new MetricValue("gauge", MetricType.GAUGE, 3),
+                                                  new MetricValue("latency", distribution1))),
+      new MetricValues(tags1, "counter", 2, 4, MetricType.COUNTER),
+      new MetricValues(tags1, 1, ImmutableList.of(new MetricValue("latency", distribution2))))));
+
+    // One MetricValues per tags and timestamp, grouped by tags in the order first seen
+    Assert.assertEquals(3, coalesced.size());
+
+    Map<String, MetricValue> metrics = toMap(coalesced.get(0));
+    Assert.assertEquals(tags1, coalesced.get(0).getTags());
+    Assert.assertEquals(1, coalesced.get(0).getTimestamp());
+    Assert.assertEquals(3, metrics.size());
+    Assert.assertEquals(3, metrics.get("counter").getValue());
+    Assert.assertEquals(MetricType.GAUGE, metrics.get("gauge").getType());
+    Assert.assertEquals(3, metrics.get("gauge").getValue());
+    Distribution latency = metrics.get("latency").getDistribution();
+    Assert.assertNotNull(latency);
+    Assert.assertEquals(3, latency.getCount());
+    Assert.assertEquals(1, distribution1.getCount());
+
+    Assert.assertEquals(tags1, coalesced.get(1).getTags());
+    Assert.assertEquals(2, coalesced.get(1).getTimestamp());
+    Assert.assertEquals(4, toMap(coalesced.get(1)).get("counter").getValue());
+
+    Assert.assertEquals(tags2, coalesced.get(2).getTags());
+    Assert.assertEquals(7, toMap(coalesced.get(2)).get("counter").getValue());
+  }
+
+  private Map<String, MetricValue> toMap(MetricValues metricValues) {
+    Map<String, MetricValue> metrics = new HashMap<>();
+    for (MetricValue metricValue : metricValues.getMetrics()) {
+      Assert.assertNull(metrics.put(metricValue.getName(), metricValue));
+    }
+    return metrics;
+  }
+
   private void assertMetricsResult(Map<String, Long> expected, Map<String, Long> actual) {
     for (Map.Entry<String, Long> metric : expected.entrySet()) {
       Long actualValue = actual.get(metric.getKey());
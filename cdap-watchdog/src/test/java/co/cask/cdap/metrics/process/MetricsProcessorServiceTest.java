@@ -18,11 +18,16 @@ package co.cask.cdap.metrics.process;
 
 import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
 import co.cask.cdap.api.dataset.lib.cube.TimeValue;
+import co.cask.cdap.api.metrics.Distribution;
 import co.cask.cdap.api.metrics.MetricDataQuery;
+import co.cask.cdap.api.metrics.MetricSearchQuery;
 import co.cask.cdap.api.metrics.MetricStore;
 import co.cask.cdap.api.metrics.MetricTimeSeries;
 import co.cask.cdap.api.metrics.MetricType;
+import co.cask.cdap.api.metrics.MetricValue;
+import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.api.metrics.NoopMetricsContext;
+import co.cask.cdap.api.metrics.TagValue;
 import co.cask.cdap.common.utils.Tasks;
 import co.cask.cdap.data2.datafabric.dataset.service.DatasetService;
 import co.cask.cdap.data2.datafabric.dataset.service.executor.DatasetOpExecutor;
@@ -148,6 +153,118 @@ public class MetricsProcessorServiceTest extends MetricsProcessorServiceTestBase
     metricStore.deleteAll();
   }
 
+  @Test
+  public void testDistributionMetrics() throws Exception {
+    injector.getInstance(TransactionManager.class).startAndWait();
+    injector.getInstance(DatasetOpExecutor.class).startAndWait();
+    injector.getInstance(DatasetService.class).startAndWait();
+
+    final MetricStore metricStore = injector.getInstance(MetricStore.class);
+
+    Set<Integer> partitions = new HashSet<>();
+    for (int i = 0; i < PARTITION_SIZE; i++) {
+      partitions.add(i);
+    }
+
+    MessagingMetricsProcessorService messagingMetricsProcessorService =
+      new MessagingMetricsProcessorService(injector.getInstance(MetricDatasetFactory.class), TOPIC_PREFIX,
+                                           messagingService, injector.getInstance(SchemaGenerator.class),
+                                           injector.getInstance(DatumReaderFactory.class),
+                                           metricStore, 1000L, 5, partitions, new NoopMetricsContext(), 50, 0,
+                                           injector.getInstance(DatasetFramework.class), cConf, true);
+    messagingMetricsProcessorService.startAndWait();
+
+    // Values 1 to 1000 are split into two distributions of the same metric, which are published to different topics
+    long timestamp = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    Distribution odd = new Distribution();
+    Distribution even = new Distribution();
+    for (int i = 1; i <= 1000; i++) {
+      (i % 2 == 0 ? even : odd).add(i);
+    }
+    publishMessagingMetrics(0, new MetricValues(METRICS_CONTEXT, timestamp, toCounters("latency", odd)));
+    publishMessagingMetrics(1, new MetricValues(METRICS_CONTEXT, timestamp, toCounters("latency", even)));
+
+    // The metric itself is the number of values in the distribution
+    Tasks.waitFor(1000L, new Callable<Long>() {
+      @Override
+      public Long call() throws Exception {
+        return queryTotal(metricStore, SYSTEM_METRIC_PREFIX + "latency");
+      }
+    }, 10, TimeUnit.SECONDS, 100, TimeUnit.MILLISECONDS);
+
+    // Percentiles are estimated within the bucket width, which is at most 1/8 of the value
+    long p50 = queryTotal(metricStore, SYSTEM_METRIC_PREFIX + "latency.p50");
+    Assert.assertTrue("Unexpected p50 " + p50, Math.abs(p50 - 500) <= 500 / 8);
+    long p99 = queryTotal(metricStore, SYSTEM_METRIC_PREFIX + "latency.p99");
+    Assert.assertTrue("Unexpected p99 " + p99, Math.abs(p99 - 990) <= 990 / 8);
+    long p999 = queryTotal(metricStore, SYSTEM_METRIC_PREFIX + "latency.p999");
+    Assert.assertTrue("Unexpected p999 " + p999, Math.abs(p999 - 999) <= 999 / 8);
+
+    // Buckets that become non-empty later, such as a latency spike, should be included in the next query
+    Distribution spike = new Distribution();
+    for (int i = 0; i < 20; i++) {
+      spike.add(100000);
+    }
+    publishMessagingMetrics(0, new MetricValues(METRICS_CONTEXT, timestamp, toCounters("latency", spike)));
+    Tasks.waitFor(1020L, new Callable<Long>() {
+      @Override
+      public Long call() throws Exception {
+        return queryTotal(metricStore, SYSTEM_METRIC_PREFIX + "latency");
+      }
+    }, 10, TimeUnit.SECONDS, 100, TimeUnit.MILLISECONDS);
+    p99 = queryTotal(metricStore, SYSTEM_METRIC_PREFIX + "latency.p99");
+    Assert.assertTrue("Unexpected p99 " + p99, Math.abs(p99 - 100000) <= 100000 / 8);
+
+    // Only the supported percentiles can be queried
+    try {
+      queryTotal(metricStore, SYSTEM_METRIC_PREFIX + "latency.p90");
+      Assert.fail("Expected IllegalArgumentException for unsupported percentile");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    // Buckets of the distribution shouldn't be visible from search
+    List<TagValue> tagValues = new ArrayList<>();
+    for (Map.Entry<String, String> tag : METRICS_CONTEXT.entrySet()) {
+      tagValues.add(new TagValue(tag.getKey(), tag.getValue()));
+    }
+    Collection<String> metricNames =
+      metricStore.findMetricNames(new MetricSearchQuery(0, Integer.MAX_VALUE, -1, tagValues));
+    Assert.assertTrue(metricNames.contains(SYSTEM_METRIC_PREFIX + "latency"));
+    for (String metricName : metricNames) {
+      Assert.assertFalse(metricName.startsWith(SYSTEM_METRIC_PREFIX + "latency:"));
+    }
+
+    messagingMetricsProcessorService.stopAndWait();
+    metricStore.deleteAll();
+  }
+
+  /**
+   * Returns the counters that a {@link Distribution} is published as by the metrics collection service.
+   */
+  private List<MetricValue> toCounters(String metricName, Distribution distribution) {
+    List<MetricValue> counters = new ArrayList<>();
+    counters.add(new MetricValue(metricName, MetricType.COUNTER, distribution.getCount()));
+    int[] buckets = distribution.getBuckets();
+    long[] counts = distribution.getCounts();
+    for (int i = 0; i < buckets.length; i++) {
+      counters.add(new MetricValue(Distribution.getBucketMetricName(metricName, buckets[i]),
+                                   MetricType.COUNTER, counts[i]));
+    }
+    return counters;
+  }
+
+  private long queryTotal(MetricStore metricStore, String metricName) {
+    Collection<MetricTimeSeries> queryResult =
+      metricStore.query(new MetricDataQuery(0, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                                            metricName, AggregationFunction.SUM,
+                                            METRICS_CONTEXT, ImmutableList.<String>of()));
+    if (queryResult.isEmpty()) {
+      return 0L;
+    }
+    return Iterables.getOnlyElement(Iterables.getOnlyElement(queryResult).getTimeValues()).getValue();
+  }
+
   /**
    * Checks whether all expected metrics can be obtained with query
    */
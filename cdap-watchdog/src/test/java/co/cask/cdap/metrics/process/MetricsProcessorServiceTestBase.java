@@ -94,6 +94,20 @@ abstract class MetricsProcessorServiceTestBase extends MetricsTestBase {
     }
   }
 
+  /**
+   * Publishes the given {@link MetricValues} to the metrics topic of the given index.
+   */
+  protected void publishMessagingMetrics(int topicIndex, MetricValues metricValues) throws Exception {
+    try {
+      recordWriter.encode(metricValues, encoder);
+      messagingService.publish(
+        StoreRequestBuilder.of(NamespaceId.SYSTEM.topic(TOPIC_PREFIX + (topicIndex % PARTITION_SIZE)))
+          .addPayloads(encoderOutputStream.toByteArray()).build());
+    } finally {
+      encoderOutputStream.reset();
+    }
+  }
+
   /**
    * Returns expected {@link MetricValues} of the given {@link MetricType}. Add the {@link MetricValues} to the
    * {@code expected} metrics map. If the {@link MetricValues} is of type {@code MetricType.COUNTER} and is present
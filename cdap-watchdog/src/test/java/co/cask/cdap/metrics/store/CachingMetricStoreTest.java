@@ -0,0 +1,272 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.store;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import co.cask.cdap.api.dataset.lib.cube.Interpolators;
+import co.cask.cdap.api.dataset.lib.cube.TimeValue;
+import co.cask.cdap.api.metrics.MetricDataQuery;
+import co.cask.cdap.api.metrics.MetricDeleteQuery;
+import co.cask.cdap.api.metrics.MetricSearchQuery;
+import co.cask.cdap.api.metrics.MetricStore;
+import co.cask.cdap.api.metrics.MetricTimeSeries;
+import co.cask.cdap.api.metrics.MetricType;
+import co.cask.cdap.api.metrics.MetricValue;
+import co.cask.cdap.api.metrics.MetricValues;
+import co.cask.cdap.api.metrics.MetricsMessageId;
+import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.api.metrics.MetricsProcessorStatus;
+import co.cask.cdap.api.metrics.TagValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link CachingMetricStore}.
+ */
+public class CachingMetricStoreTest {
+
+  private static final String METRIC = "system.reads";
+
+  @Test
+  public void testCachedQuery() throws Exception {
+    long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    long base = now - 1000;
+    RecordingMetricStore delegate = new RecordingMetricStore();
+    for (int i = 0; i < 10; i++) {
+      delegate.put(base + i * 10, i);
+    }
+    // open data point, that should never be cached
+    delegate.put(now, 100);
+
+    MetricStore store = new CachingMetricStore(delegate, 1000, 100, 600);
+
+    List<TimeValue> expected = getTimeValues(delegate.query(createQuery(base, now + 10, Integer.MAX_VALUE, false)));
+    Assert.assertEquals(11, expected.size());
+    Assert.assertEquals(expected, getTimeValues(store.query(createQuery(base, now + 10, Integer.MAX_VALUE, false))));
+    Assert.assertEquals(base, delegate.lastQuery.getStartTs());
+
+    // The repeated query should only query the data that is not finalized
+    delegate.put(now + 1, 200);
+    expected = getTimeValues(delegate.query(createQuery(base, now + 10, Integer.MAX_VALUE, false)));
+    delegate.lastQuery = null;
+    Assert.assertEquals(expected, getTimeValues(store.query(createQuery(base, now + 10, Integer.MAX_VALUE, false))));
+    Assert.assertTrue(delegate.lastQuery.getStartTs() > base + 90);
+    Assert.assertTrue(delegate.lastQuery.getStartTs() <= now - 100);
+
+    // A query with a later start time is served from the cache too
+    delegate.lastQuery = null;
+    List<TimeValue> timeValues = getTimeValues(store.query(createQuery(base + 45, now + 10, Integer.MAX_VALUE,
+                                                                       false)));
+    Assert.assertEquals(expected.subList(5, expected.size()), timeValues);
+    Assert.assertTrue(delegate.lastQuery.getStartTs() > base + 90);
+
+    // limit and interpolation are applied on the merged result
+    timeValues = getTimeValues(store.query(createQuery(base, now + 10, 3, false)));
+    Assert.assertEquals(expected.subList(0, 3), timeValues);
+    timeValues = getTimeValues(store.query(createQuery(base, now + 10, 3, true)));
+    Assert.assertEquals(ImmutableList.of(new TimeValue(base, 0), new TimeValue(base + 1, 0),
+                                         new TimeValue(base + 2, 0)), timeValues);
+    timeValues = getTimeValues(store.query(createQuery(base + 5, now + 10, 3, true)));
+    Assert.assertEquals(ImmutableList.of(new TimeValue(base + 10, 1), new TimeValue(base + 11, 1),
+                                         new TimeValue(base + 12, 1)), timeValues);
+  }
+
+  @Test
+  public void testInvalidation() throws Exception {
+    long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    long base = now - 1000;
+    RecordingMetricStore delegate = new RecordingMetricStore();
+    for (int i = 0; i < 10; i++) {
+      delegate.put(base + i * 10, i);
+    }
+    MetricStore store = new CachingMetricStore(delegate, 1000, 100, 600);
+    MetricDataQuery query = createQuery(base, now, Integer.MAX_VALUE, false);
+
+    store.query(query);
+    store.query(query);
+    Assert.assertTrue(delegate.lastQuery.getStartTs() > base);
+
+    // Adding data points that are not finalized doesn't invalidate the cache
+    store.add(new MetricValues(ImmutableMap.<String, String>of(), METRIC, now, 1, MetricType.GAUGE));
+    store.query(query);
+    Assert.assertTrue(delegate.lastQuery.getStartTs() > base);
+
+    // Adding late data points invalidates the cache
+    store.add(new MetricValues(ImmutableMap.<String, String>of(), METRIC, base + 1, 1, MetricType.GAUGE));
+    List<TimeValue> timeValues = getTimeValues(store.query(query));
+    Assert.assertEquals(base, delegate.lastQuery.getStartTs());
+    Assert.assertEquals(new TimeValue(base + 1, 1), timeValues.get(1));
+
+    // Delete invalidates the cache
+    store.query(query);
+    Assert.assertTrue(delegate.lastQuery.getStartTs() > base);
+    store.deleteAll();
+    Assert.assertTrue(store.query(query).isEmpty());
+    Assert.assertEquals(base, delegate.lastQuery.getStartTs());
+  }
+
+  @Test
+  public void testCacheDisabled() throws Exception {
+    long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    RecordingMetricStore delegate = new RecordingMetricStore();
+    delegate.put(now - 1000, 1);
+    MetricStore store = new CachingMetricStore(delegate, 0, 100, 600);
+    MetricDataQuery query = createQuery(now - 1000, now, Integer.MAX_VALUE, false);
+
+    store.query(query);
+    store.query(query);
+    Assert.assertSame(query, delegate.lastQuery);
+  }
+
+  @Test
+  public void testProcessorProgress() throws Exception {
+    long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    long base = now - 1000;
+    RecordingMetricStore delegate = new RecordingMetricStore();
+    for (int i = 0; i < 10; i++) {
+      delegate.put(base + i * 10, i);
+    }
+    MetricDataQuery query = createQuery(base, now, Integer.MAX_VALUE, false);
+
+    // Nothing is finalized if the processor is behind the data by less than the finalize delay
+    delegate.processedTs = base + 50;
+    MetricStore store = new CachingMetricStore(delegate, 1000, 100, 600);
+    store.query(query);
+    store.query(query);
+    Assert.assertEquals(base, delegate.lastQuery.getStartTs());
+
+    // Only the buckets that the processor has progressed past by the finalize delay are cached
+    delegate.processedTs = base + 150;
+    store = new CachingMetricStore(delegate, 1000, 100, 600);
+    store.query(query);
+    store.query(query);
+    Assert.assertEquals(base + 50, delegate.lastQuery.getStartTs());
+
+    // Nothing is finalized without processor progress
+    delegate.processedTs = -1L;
+    store = new CachingMetricStore(delegate, 1000, 100, 600);
+    store.query(query);
+    store.query(query);
+    Assert.assertEquals(base, delegate.lastQuery.getStartTs());
+  }
+
+  private MetricDataQuery createQuery(long startTs, long endTs, int limit, boolean interpolate) {
+    return new MetricDataQuery(startTs, endTs, 1, limit, ImmutableMap.of(METRIC, AggregationFunction.SUM),
+                               ImmutableMap.<String, String>of(), ImmutableList.<String>of(),
+                               interpolate ? new Interpolators.Step() : null);
+  }
+
+  private List<TimeValue> getTimeValues(Collection<MetricTimeSeries> timeSeries) {
+    Assert.assertEquals(1, timeSeries.size());
+    return Iterables.getOnlyElement(timeSeries).getTimeValues();
+  }
+
+  /**
+   * A {@link MetricStore} of a single metric without tags, that records the last query.
+   */
+  private static final class RecordingMetricStore implements MetricStore {
+
+    private final Map<Long, Long> points = new TreeMap<>();
+    private MetricDataQuery lastQuery;
+    // latest metrics timestamp reported as processed, or negative for no progress
+    private long processedTs = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+
+    void put(long ts, long value) {
+      points.put(ts, value);
+    }
+
+    @Override
+    public void setMetricsContext(MetricsContext metricsContext) {
+      // no-op
+    }
+
+    @Override
+    public void add(MetricValues metricValues) throws Exception {
+      for (MetricValue metricValue : metricValues.getMetrics()) {
+        put(metricValues.getTimestamp(), metricValue.getValue());
+      }
+    }
+
+    @Override
+    public void add(Collection<? extends MetricValues> metricValues) throws Exception {
+      for (MetricValues values : metricValues) {
+        add(values);
+      }
+    }
+
+    @Override
+    public Collection<MetricTimeSeries> query(MetricDataQuery query) {
+      lastQuery = query;
+      List<TimeValue> timeValues = new ArrayList<>();
+      for (Map.Entry<Long, Long> entry : points.entrySet()) {
+        if (entry.getKey() >= query.getStartTs() && entry.getKey() <= query.getEndTs()
+          && timeValues.size() < query.getLimit()) {
+          timeValues.add(new TimeValue(entry.getKey(), entry.getValue()));
+        }
+      }
+      if (timeValues.isEmpty()) {
+        return Collections.emptyList();
+      }
+      return ImmutableList.of(new MetricTimeSeries(METRIC, ImmutableMap.<String, String>of(), timeValues));
+    }
+
+    @Override
+    public void deleteBefore(long timestamp) throws Exception {
+      points.clear();
+    }
+
+    @Override
+    public void delete(MetricDeleteQuery query) throws Exception {
+      points.clear();
+    }
+
+    @Override
+    public void deleteAll() throws Exception {
+      points.clear();
+    }
+
+    @Override
+    public Collection<TagValue> findNextAvailableTags(MetricSearchQuery query) throws Exception {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public Collection<String> findMetricNames(MetricSearchQuery query) throws Exception {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public Map<String, MetricsProcessorStatus> getMetricsProcessorStats() throws Exception {
+      if (processedTs < 0) {
+        return Collections.emptyMap();
+      }
+      return ImmutableMap.of("metrics", new MetricsProcessorStatus(new MetricsMessageId(0L, (short) 0, 0L, (short) 0),
+                                                                   0L, processedTs, 1L, 0L));
+    }
+  }
+}